@@ -0,0 +1,190 @@
+package com.telnet.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.telnet.server.ReusePort;
+import com.telnet.server.ServerMode;
+import com.telnet.server.TelnetServer;
+
+/**
+ * <p>
+ * Login storm against an embedded server: N client threads connect, wait for the first prompt and
+ * drop the connection, over and over. The run is repeated for each acceptor count so the
+ * connections per second show how accepting scales with {@link TelnetServer#setAcceptors(int)}.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar com.telnet.server.benchmark.AcceptorBenchmark [options]
+ *
+ *   --mode=blocking           server mode (blocking|nio|virtual)
+ *   --acceptors=1,2,4,8       acceptor counts to compare
+ *   --clients=64              concurrent connecting threads
+ *   --duration=5              seconds per acceptor count
+ *   --port=4460               first port, each run uses the next one
+ *   --reuse-port=true         false to let the acceptors share one listening socket
+ * </pre>
+ * <p>The clients reset the connection (SO_LINGER 0) so the ephemeral ports are not held in TIME_WAIT.</p>
+ * @author sjunejo
+ *
+ */
+public class AcceptorBenchmark {
+
+	// last line of the help menu sent with the welcome message, the prompt follows
+	private final static byte[] WELCOME_END = "To disconnect.".getBytes();
+
+	private ServerMode _mode = ServerMode.BLOCKING;
+	private int[] _acceptors = { 1, 2, 4, 8 };
+	private int _clients = 64;
+	private int _durationSeconds = 5;
+	private int _port = 4460;
+	private boolean _reusePort = true;
+
+	public static void main(String[] args) throws Exception {
+		AcceptorBenchmark benchmark = new AcceptorBenchmark();
+		benchmark.parseArguments(args);
+		benchmark.run(System.out);
+	}
+
+	/**
+	 * Parse the '--name=value' arguments
+	 * @param args Command line arguments
+	 */
+	protected void parseArguments(String[] args) {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0) {
+				throw new IllegalArgumentException("Invalid argument '" + arg + "', expected --name=value");
+			}
+			String name = arg.substring(2, eq);
+			String value = arg.substring(eq + 1);
+			if ("mode".equals(name)) {
+				_mode = ServerMode.parse(value, null);
+				if (_mode == null) {
+					throw new IllegalArgumentException("Unknown server mode '" + value + "'");
+				}
+			} else if ("acceptors".equals(name)) {
+				String[] counts = value.split(",");
+				_acceptors = new int[counts.length];
+				for (int i = 0; i < counts.length; i++) {
+					_acceptors[i] = Integer.parseInt(counts[i].trim());
+				}
+			} else if ("clients".equals(name)) {
+				_clients = Integer.parseInt(value);
+			} else if ("duration".equals(name)) {
+				_durationSeconds = Integer.parseInt(value);
+			} else if ("port".equals(name)) {
+				_port = Integer.parseInt(value);
+			} else if ("reuse-port".equals(name)) {
+				_reusePort = Boolean.parseBoolean(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option '" + name + "'");
+			}
+		}
+	}
+
+	/**
+	 * Run the storm for each acceptor count and print the table
+	 * @param out Report destination
+	 * @throws Exception
+	 */
+	public void run(PrintStream out) throws Exception {
+		out.println("Mode          : " + _mode.name().toLowerCase() + ", " + _clients + " clients, " + _durationSeconds + " s per run, "
+				+ (_reusePort && ReusePort.isSupported() ? "SO_REUSEPORT" : "shared listening socket"));
+		out.println(String.format("%-10s %14s %14s %10s", "acceptors", "connections", "connections/s", "failed"));
+		for (int i = 0; i < _acceptors.length; i++) {
+			// a port closed by the blocking server is released asynchronously
+			int port = _port + i;
+			TelnetServer server = new TelnetServer(port, _mode);
+			server.setAcceptors(_acceptors[i]);
+			server.setReusePort(_reusePort);
+			server.setMaxConnections(_clients * 2);
+			server.getAdmissionController().setQueueSize(_clients);
+			server.start();
+			try {
+				long[] result = storm(port);
+				out.println(String.format("%-10d %14d %14.1f %10d", _acceptors[i], result[0], result[0] / (double) _durationSeconds, result[1]));
+			} finally {
+				server.shutDown();
+			}
+		}
+	}
+
+	/**
+	 * @return Completed logins and failed connections
+	 */
+	private long[] storm(final int port) throws InterruptedException {
+		final AtomicLong logins = new AtomicLong(0);
+		final AtomicLong failed = new AtomicLong(0);
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(_durationSeconds);
+		final CountDownLatch done = new CountDownLatch(_clients);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < _clients; i++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (System.nanoTime() < deadline) {
+							if (login(port)) {
+								logins.incrementAndGet();
+							} else {
+								failed.incrementAndGet();
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "storm-" + i);
+			thread.setDaemon(true);
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		done.await();
+		return new long[] { logins.get(), failed.get() };
+	}
+
+	/**
+	 * Connect, wait for the prompt and reset the connection
+	 * @return true if the prompt has been received
+	 */
+	private boolean login(int port) {
+		Socket socket = null;
+		try {
+			socket = new Socket("127.0.0.1", port);
+			socket.setSoLinger(true, 0);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			return skipUntil(in, WELCOME_END) && skipUntil(in, "> ".getBytes());
+		} catch (IOException ioe) {
+			return false;
+		} finally {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ioe) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private boolean skipUntil(InputStream in, byte[] marker) throws IOException {
+		int matched = 0;
+		int b = -1;
+		while ((b = in.read()) != -1) {
+			matched = (b == marker[matched]) ? matched + 1 : (b == marker[0] ? 1 : 0);
+			if (matched == marker.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
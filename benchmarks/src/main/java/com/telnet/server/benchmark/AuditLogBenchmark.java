@@ -0,0 +1,59 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.telnet.server.AuditLog;
+
+/**
+ * Records appended to the AuditLog per second by 4 sessions sharing it, 16 MB segments so the runs
+ * include the rotations. Compare with the commands per second of LoadGenerator to see the headroom.
+ * @author sjunejo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class AuditLogBenchmark {
+
+	private File _root;
+	private AuditLog _log;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_root = BenchmarkFiles.createTempDir("audit-bench");
+		// keep the disk usage of the run bounded
+		_log = new AuditLog(_root, 16 * 1024 * 1024, 4, AuditLog.DEFAULT_SYNC_MILLIS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_log.close();
+		BenchmarkFiles.delete(_root);
+	}
+
+	@Benchmark
+	public void record() {
+		_log.record("3c33b5b9-50d7-4e7d-9497-3072e5227519", "/home/user/projects/telnet-server", "ls -n 20 -s src/main/java",
+				System.currentTimeMillis(), 41200, 1830);
+	}
+}
@@ -0,0 +1,34 @@
+package com.telnet.server.benchmark;
+
+import com.telnet.server.TelnetClient;
+import com.telnet.server.TelnetServer;
+
+/**
+ * Exposes the protected command processing methods of {@link TelnetClient} to the benchmarks,
+ * the client is used without a socket.
+ * @author sjunejo
+ *
+ */
+public class BenchmarkClient extends TelnetClient {
+
+	public BenchmarkClient(TelnetServer server, String workingDirectory) {
+		super(server);
+		setCurrentWorkingDirectory(workingDirectory);
+	}
+
+	public String list(String dirStr) {
+		return listAllFiles(dirStr);
+	}
+
+	public String page(String dirStr, int pageSize, boolean sorted) {
+		return listFiles(dirStr, pageSize, sorted);
+	}
+
+	public String canonicalPath(String dirStr) {
+		return getCanonicalPath(dirStr);
+	}
+
+	public String prompt() {
+		return getPrompt();
+	}
+}
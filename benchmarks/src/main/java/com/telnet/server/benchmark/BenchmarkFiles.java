@@ -0,0 +1,77 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary directory trees used by the benchmarks
+ * @author sjunejo
+ *
+ */
+public final class BenchmarkFiles {
+
+	private BenchmarkFiles() {
+	}
+
+	/**
+	 * Create a new temporary directory
+	 * @param prefix Name prefix
+	 * @return Canonical directory
+	 * @throws IOException
+	 */
+	public static File createTempDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+		return dir.getCanonicalFile();
+	}
+
+	/**
+	 * Fill the directory with entries, every tenth entry is a directory
+	 * @param dir Directory to fill
+	 * @param entries Number of entries
+	 * @throws IOException
+	 */
+	public static void populate(File dir, int entries) throws IOException {
+		for (int i = 0; i < entries; i++) {
+			File entry = new File(dir, String.format("entry-%07d", i));
+			boolean created = (i % 10 == 0) ? entry.mkdir() : entry.createNewFile();
+			if (!created) {
+				throw new IOException("Unable to create " + entry);
+			}
+		}
+	}
+
+	/**
+	 * Create a chain of nested directories
+	 * @param dir Parent directory
+	 * @param depth Number of levels
+	 * @return Deepest directory
+	 * @throws IOException
+	 */
+	public static File createDeepTree(File dir, int depth) throws IOException {
+		File current = dir;
+		for (int i = 0; i < depth; i++) {
+			current = new File(current, "level" + i);
+		}
+		if (!current.mkdirs()) {
+			throw new IOException("Unable to create " + current);
+		}
+		return current;
+	}
+
+	/**
+	 * Delete the directory tree
+	 * @param file File or directory to delete
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,74 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.telnet.server.TelnetServer;
+
+/**
+ * TelnetClient.getCanonicalPath for typical 'cd' arguments, the session works at the bottom of a
+ * directory tree 'depth' levels deep so every uncached resolution walks the whole path ('cached=false'
+ * disables the server's CanonicalPathCache). '.' and '..' take the fast path either way. To see the
+ * syscalls saved run a single benchmark under 'strace -f -c -e trace=lstat,newfstatat,readlink'.
+ * @author sjunejo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CanonicalPathBenchmark {
+
+	@Param({ ".", "..", "../..", "child", "child/../child", "ABSOLUTE" })
+	public String input;
+
+	@Param({ "2", "16" })
+	public int depth;
+
+	@Param({ "true", "false" })
+	public boolean cached;
+
+	private File _root;
+	private String _path;
+	private BenchmarkClient _client;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_root = BenchmarkFiles.createTempDir("path-bench");
+		File workDir = BenchmarkFiles.createDeepTree(_root, depth);
+		new File(workDir, "child").mkdir();
+		_path = "ABSOLUTE".equals(input) ? new File(workDir, "child").getPath() : input;
+		TelnetServer server = new TelnetServer();
+		if (!cached) {
+			server.getCanonicalPathCache().setMaxSize(0);
+		}
+		_client = new BenchmarkClient(server, workDir.getPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFiles.delete(_root);
+	}
+
+	@Benchmark
+	public String getCanonicalPath() {
+		return _client.canonicalPath(_path);
+	}
+}
@@ -0,0 +1,126 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.telnet.server.Command;
+import com.telnet.server.CommandLine;
+import com.telnet.server.CommandRegistry;
+import com.telnet.server.TelnetServer;
+
+/**
+ * Command parsing and execution of a single session: CommandLine tokenizing, CommandRegistry lookup,
+ * performTelnetCommand for each verb and getPrompt. The session works in a temporary directory with a few entries.
+ * @author sjunejo
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+	private File _workDir;
+	private BenchmarkClient _client;
+	private final CommandLine _line = new CommandLine();
+	private final CommandRegistry _registry = CommandRegistry.getDefault();
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_workDir = BenchmarkFiles.createTempDir("cmd-bench");
+		BenchmarkFiles.populate(_workDir, 20);
+		new File(_workDir, "sub").mkdir();
+		_client = new BenchmarkClient(new TelnetServer(), _workDir.getPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchmarkFiles.delete(_workDir);
+	}
+
+	/**
+	 * mkdir is only measured when the directory does not exist yet, kept in its own state so
+	 * the per invocation clean up is not charged to the other benchmarks
+	 */
+	@State(Scope.Thread)
+	public static class NewDir {
+		private File _newDir;
+
+		@Setup(Level.Trial)
+		public void setUp(CommandBenchmark benchmark) {
+			_newDir = new File(benchmark._workDir, "newdir");
+		}
+
+		@TearDown(Level.Invocation)
+		public void removeNewDir() {
+			_newDir.delete();
+		}
+	}
+
+	@Benchmark
+	public CommandLine parseSingleWord() {
+		return _line.parse("pwd");
+	}
+
+	@Benchmark
+	public CommandLine parseManySpaces() {
+		return _line.parse("ls      test  something   else");
+	}
+
+	@Benchmark
+	public Command lookup() {
+		return _registry.lookup(_line.parse("MKDIR a b"));
+	}
+
+	@Benchmark
+	public String ls() {
+		return _client.performTelnetCommand("ls");
+	}
+
+	@Benchmark
+	public String cd() {
+		// relative path resolving back to the working directory, so every call does the same work
+		return _client.performTelnetCommand("cd sub/..");
+	}
+
+	@Benchmark
+	public String pwd() {
+		return _client.performTelnetCommand("pwd");
+	}
+
+	@Benchmark
+	public String mkdir(NewDir newDir) {
+		return _client.performTelnetCommand("mkdir newdir");
+	}
+
+	@Benchmark
+	public String help() {
+		return _client.performTelnetCommand("?");
+	}
+
+	@Benchmark
+	public String unsupported() {
+		return _client.performTelnetCommand("somecrap");
+	}
+
+	@Benchmark
+	public String getPrompt() {
+		return _client.prompt();
+	}
+}
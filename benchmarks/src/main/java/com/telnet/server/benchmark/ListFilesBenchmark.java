@@ -0,0 +1,82 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.telnet.server.TelnetServer;
+
+/**
+ * TelnetClient.listAllFiles with and without the shared listing cache (directories up to 2000 entries
+ * are cached), and the first page of a paged (ls -n 100) and sorted (ls -s -n 100)
+ * listing on directories from 10 to 100k entries
+ * @author sjunejo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListFilesBenchmark {
+
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	public int entries;
+
+	private File _dir;
+	private BenchmarkClient _client;
+	private BenchmarkClient _cachedClient;
+	private TelnetServer _cachedServer;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		_dir = BenchmarkFiles.createTempDir("ls-bench");
+		BenchmarkFiles.populate(_dir, entries);
+		TelnetServer server = new TelnetServer();
+		server.getListingCache().setMaxEntries(0);
+		_client = new BenchmarkClient(server, _dir.getParent());
+		_cachedServer = new TelnetServer();
+		_cachedClient = new BenchmarkClient(_cachedServer, _dir.getParent());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_cachedServer.getListingCache().close();
+		BenchmarkFiles.delete(_dir);
+	}
+
+	@Benchmark
+	public String listAllFiles() {
+		return _client.list(_dir.getName());
+	}
+
+	@Benchmark
+	public String listAllFilesCached() {
+		return _cachedClient.list(_dir.getName());
+	}
+
+	@Benchmark
+	public String listFirstPage() {
+		return _client.page(_dir.getName(), 100, false);
+	}
+
+	@Benchmark
+	public String listFirstSortedPage() {
+		return _client.page(_dir.getName(), 100, true);
+	}
+}
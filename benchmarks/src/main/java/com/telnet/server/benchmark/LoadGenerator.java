@@ -0,0 +1,370 @@
+package com.telnet.server.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+
+import com.telnet.server.ServerMode;
+import com.telnet.server.TelnetServer;
+import com.telnet.server.VirtualThreads;
+
+/**
+ * <p>
+ * End-to-end load generator, opens N concurrent telnet sessions and replays a script of commands in each
+ * of them. Reports the connect latency (until the first prompt is received) and the latency of each command
+ * verb as HdrHistogram percentiles, plus connections and commands per second.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar com.telnet.server.benchmark.LoadGenerator [options]
+ *
+ *   --host=127.0.0.1          server host
+ *   --port=4444               server port
+ *   --sessions=100            number of concurrent sessions
+ *   --iterations=100          script repetitions per session
+ *   --duration=0              run for the given seconds instead of a number of iterations
+ *   --script=pwd;ls;cd .;ls ..  commands separated by ';', {session} is replaced by the session number
+ *   --script-file=path        one command per line, overrides --script
+ *   --embedded=nio            start a server of the given mode (blocking|nio|virtual) in this JVM
+ *   --workers=4               command threads of the embedded server
+ * </pre>
+ * <p>Against an external server make sure it admits all sessions e.g. -Dtelnet.server.maxConnections=1000.</p>
+ * @author sjunejo
+ *
+ */
+public class LoadGenerator {
+
+	private final static long HIGHEST_TRACKABLE_MICROS = TimeUnit.SECONDS.toMicros(60);
+	private final static int SIGNIFICANT_DIGITS = 3;
+	// last line of the help menu sent with the welcome message, the menu itself contains '> '
+	private final static byte[] WELCOME_END = "To disconnect.".getBytes();
+
+	private String _host = "127.0.0.1";
+	private int _port = 4444;
+	private int _sessions = 100;
+	private int _iterations = 100;
+	private int _durationSeconds = 0;
+	private List<String> _script = parseScript("pwd;ls;cd .;ls ..");
+	private ServerMode _embeddedMode = null;
+	private int _workers = 0;
+
+	private final AtomicLong _bytesReceived = new AtomicLong(0);
+	private final AtomicLong _rejected = new AtomicLong(0);
+	private final AtomicLong _failed = new AtomicLong(0);
+
+	/**
+	 * Results of a single session, merged once all sessions are done
+	 */
+	private static class SessionResult {
+		private final Histogram _connect = newHistogram();
+		private final Map<String, Histogram> _commands = new HashMap<String, Histogram>();
+		private long _commandCount = 0;
+
+		private void recordCommand(String verb, long micros) {
+			Histogram histogram = _commands.get(verb);
+			if (histogram == null) {
+				histogram = newHistogram();
+				_commands.put(verb, histogram);
+			}
+			histogram.recordValue(Math.min(micros, HIGHEST_TRACKABLE_MICROS));
+			_commandCount++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parseArguments(args);
+		generator.run(System.out);
+	}
+
+	private static Histogram newHistogram() {
+		return new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+	}
+
+	private static List<String> parseScript(String script) {
+		List<String> commands = new ArrayList<String>();
+		for (String cmd : script.split(";")) {
+			if (cmd.trim().length() > 0) {
+				commands.add(cmd.trim());
+			}
+		}
+		return commands;
+	}
+
+	/**
+	 * Parse the '--name=value' arguments
+	 * @param args Command line arguments
+	 * @throws IOException If the script file can not be read
+	 */
+	protected void parseArguments(String[] args) throws IOException {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0) {
+				throw new IllegalArgumentException("Invalid argument '" + arg + "', expected --name=value");
+			}
+			String name = arg.substring(2, eq);
+			String value = arg.substring(eq + 1);
+			if ("host".equals(name)) {
+				_host = value;
+			} else if ("port".equals(name)) {
+				_port = Integer.parseInt(value);
+			} else if ("sessions".equals(name)) {
+				_sessions = Integer.parseInt(value);
+			} else if ("iterations".equals(name)) {
+				_iterations = Integer.parseInt(value);
+			} else if ("duration".equals(name)) {
+				_durationSeconds = Integer.parseInt(value);
+			} else if ("script".equals(name)) {
+				_script = parseScript(value);
+			} else if ("script-file".equals(name)) {
+				_script = readScript(value);
+			} else if ("embedded".equals(name)) {
+				_embeddedMode = ServerMode.parse(value, null);
+				if (_embeddedMode == null) {
+					throw new IllegalArgumentException("Unknown server mode '" + value + "'");
+				}
+			} else if ("workers".equals(name)) {
+				_workers = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option '" + name + "'");
+			}
+		}
+		if (_script.isEmpty()) {
+			throw new IllegalArgumentException("Script must contain at least one command");
+		}
+	}
+
+	private List<String> readScript(String path) throws IOException {
+		List<String> commands = new ArrayList<String>();
+		BufferedReader r = new BufferedReader(new FileReader(path));
+		try {
+			String line = null;
+			while ((line = r.readLine()) != null) {
+				if (line.trim().length() > 0 && !line.startsWith("#")) {
+					commands.add(line.trim());
+				}
+			}
+		} finally {
+			r.close();
+		}
+		return commands;
+	}
+
+	/**
+	 * Run the load and print the report
+	 * @param out Report destination
+	 * @throws Exception
+	 */
+	public void run(PrintStream out) throws Exception {
+		TelnetServer server = null;
+		if (_embeddedMode != null) {
+			server = new TelnetServer(_port, _embeddedMode);
+			server.setMaxConnections(_sessions);
+			server.setWorkerThreads(_workers);
+			server.start();
+		}
+
+		// one thread per session, virtual threads keep the client side cheap when available
+		ExecutorService executor = VirtualThreads.isSupported() ? VirtualThreads.newVirtualThreadPerTaskExecutor()
+				: Executors.newFixedThreadPool(_sessions);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch connected = new CountDownLatch(_sessions);
+		final long deadline = _durationSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(_durationSeconds) : Long.MAX_VALUE;
+		final List<SessionResult> results = new ArrayList<SessionResult>();
+		for (int i = 0; i < _sessions; i++) {
+			final int session = i;
+			final SessionResult result = new SessionResult();
+			results.add(result);
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+						runSession(session, result, connected, deadline);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		connected.await();
+		long connectPhase = System.nanoTime() - begin;
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		long elapsed = System.nanoTime() - begin;
+
+		if (server != null) {
+			server.shutDown();
+		}
+		report(out, results, connectPhase, elapsed);
+	}
+
+	/**
+	 * Connect, replay the script and quit
+	 */
+	private void runSession(int session, SessionResult result, CountDownLatch connected, long deadline) {
+		Socket socket = null;
+		boolean counted = false;
+		try {
+			long t0 = System.nanoTime();
+			socket = new Socket(_host, _port);
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream os = socket.getOutputStream();
+			if (!skipUntil(in, WELCOME_END) || !readUntilPrompt(in)) {
+				// closed before the prompt, the server has refused the session
+				_rejected.incrementAndGet();
+				connected.countDown();
+				counted = true;
+				return;
+			}
+			result._connect.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0), HIGHEST_TRACKABLE_MICROS));
+			connected.countDown();
+			counted = true;
+
+			List<byte[]> commands = new ArrayList<byte[]>();
+			List<String> verbs = new ArrayList<String>();
+			for (String cmd : _script) {
+				String line = cmd.replace("{session}", String.valueOf(session));
+				commands.add((line + "\r\n").getBytes());
+				verbs.add(line.split(" ")[0]);
+			}
+
+			for (int iteration = 0; _durationSeconds > 0 ? System.nanoTime() < deadline : iteration < _iterations; iteration++) {
+				for (int c = 0; c < commands.size(); c++) {
+					long t = System.nanoTime();
+					os.write(commands.get(c));
+					os.flush();
+					if (!readUntilPrompt(in)) {
+						throw new IOException("Connection closed by server");
+					}
+					result.recordCommand(verbs.get(c), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t));
+				}
+			}
+			os.write("quit\r\n".getBytes());
+			os.flush();
+		} catch (IOException ioe) {
+			_failed.incrementAndGet();
+		} finally {
+			if (!counted) {
+				connected.countDown();
+			}
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ioe) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read the server output up to and including the marker
+	 * @param in Server output
+	 * @param marker Bytes to look for
+	 * @return false if the connection was closed before the marker
+	 * @throws IOException
+	 */
+	private boolean skipUntil(InputStream in, byte[] marker) throws IOException {
+		int matched = 0;
+		int b = -1;
+		long count = 0;
+		try {
+			while ((b = in.read()) != -1) {
+				count++;
+				matched = (b == marker[matched]) ? matched + 1 : (b == marker[0] ? 1 : 0);
+				if (matched == marker.length) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			_bytesReceived.addAndGet(count);
+		}
+	}
+
+	/**
+	 * Read the server output up to and including the prompt i.e. the trailing '> '
+	 * @param in Server output
+	 * @return false if the connection was closed before the prompt
+	 * @throws IOException
+	 */
+	private boolean readUntilPrompt(InputStream in) throws IOException {
+		int previous = -1;
+		int b = -1;
+		long count = 0;
+		try {
+			while ((b = in.read()) != -1) {
+				count++;
+				if (previous == '>' && b == ' ' && in.available() == 0) {
+					return true;
+				}
+				previous = b;
+			}
+			return false;
+		} finally {
+			_bytesReceived.addAndGet(count);
+		}
+	}
+
+	private void report(PrintStream out, List<SessionResult> results, long connectPhase, long elapsed) {
+		Histogram connect = newHistogram();
+		Map<String, Histogram> commands = new LinkedHashMap<String, Histogram>();
+		Histogram allCommands = newHistogram();
+		long commandCount = 0;
+		for (SessionResult result : results) {
+			connect.add(result._connect);
+			for (Map.Entry<String, Histogram> entry : result._commands.entrySet()) {
+				Histogram histogram = commands.get(entry.getKey());
+				if (histogram == null) {
+					histogram = newHistogram();
+					commands.put(entry.getKey(), histogram);
+				}
+				histogram.add(entry.getValue());
+				allCommands.add(entry.getValue());
+			}
+			commandCount += result._commandCount;
+		}
+
+		double seconds = elapsed / 1e9;
+		out.println("Target        : " + _host + ":" + _port + (_embeddedMode == null ? "" : " (embedded " + _embeddedMode.name().toLowerCase() + " server)"));
+		out.println("Sessions      : " + _sessions + " connected=" + connect.getTotalCount() + " rejected=" + _rejected.get() + " failed=" + _failed.get());
+		out.println("Script        : " + _script);
+		out.println(String.format("Duration      : %.2f s", seconds));
+		out.println(String.format("Connections/s : %.1f", connect.getTotalCount() / (connectPhase / 1e9)));
+		out.println(String.format("Commands/s    : %.1f", commandCount / seconds));
+		out.println(String.format("Received      : %.1f KB/s", _bytesReceived.get() / 1024.0 / seconds));
+		out.println();
+		out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %10s", "latency us", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+		printHistogram(out, "connect", connect);
+		for (Map.Entry<String, Histogram> entry : commands.entrySet()) {
+			printHistogram(out, entry.getKey(), entry.getValue());
+		}
+		printHistogram(out, "all cmds", allCommands);
+	}
+
+	private void printHistogram(PrintStream out, String name, Histogram histogram) {
+		out.println(String.format("%-10s %10d %10.0f %10d %10d %10d %10d %10d", name, histogram.getTotalCount(),
+				histogram.getMean(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMaxValue()));
+	}
+}
@@ -0,0 +1,79 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.telnet.server.FileNameIndex;
+
+/**
+ * Time taken by a locate on a FileNameIndex of 200 directories of 1000 entries each, the
+ * walk of 'find' on the same tree is the alternative.
+ * @author sjunejo
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocateBenchmark {
+
+	private File _root;
+	private FileNameIndex _index;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		_root = BenchmarkFiles.createTempDir("locate-bench");
+		for (int i = 0; i < 200; i++) {
+			File dir = new File(_root, String.format("dir-%03d", i));
+			if (!dir.mkdir()) {
+				throw new IOException("Unable to create " + dir);
+			}
+			BenchmarkFiles.populate(dir, 1000);
+		}
+		_index = new FileNameIndex(Collections.singletonList(_root.toPath()));
+		_index.start();
+		while (_index.isBuilding()) {
+			Thread.sleep(10);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		_index.close();
+		BenchmarkFiles.delete(_root);
+	}
+
+	@Benchmark
+	public List<String> substring() {
+		// 200 entries, one per directory
+		List<String> paths = new ArrayList<String>();
+		_index.locate("entry-0000123", false, FileNameIndex.DEFAULT_LIMIT, paths);
+		return paths;
+	}
+
+	@Benchmark
+	public List<String> glob() {
+		List<String> paths = new ArrayList<String>();
+		_index.locate("entry-00009?9", false, FileNameIndex.DEFAULT_LIMIT, paths);
+		return paths;
+	}
+}
@@ -0,0 +1,210 @@
+package com.telnet.server.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+import com.telnet.server.FileTransfer;
+import com.telnet.server.FileTransferClient;
+import com.telnet.server.ReusePort;
+import com.telnet.server.ServerMode;
+import com.telnet.server.TelnetServer;
+
+/**
+ * <p>
+ * Throughput of 'get' and 'put' against an embedded server, next to the throughput of a plain
+ * loopback socket moving the same number of bytes with buffers of the chunk size. The file is
+ * written once and stays in the page cache, so the transfers are bound by the socket, the
+ * copies and the CRC32C of the chunks.
+ * </p>
+ * <pre>
+ * java -cp target/benchmarks.jar com.telnet.server.benchmark.TransferBenchmark [options]
+ *
+ *   --size=256                MB transferred
+ *   --runs=3                  runs of each transfer, the best one is shown
+ *   --port=4480               first port, each server mode uses the next one
+ *   --dir=java.io.tmpdir      directory of the files
+ * </pre>
+ * <p>
+ * The server modes are blocking (the socket streams), blocking with SO_REUSEPORT (accepted
+ * sockets with a channel, the chunks are sent with sendfile) and NIO (mapped chunks).
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class TransferBenchmark {
+
+	private final static double MB = 1024 * 1024;
+
+	private int _sizeMB = 256;
+	private int _runs = 3;
+	private int _port = 4480;
+	private File _dir = new File(System.getProperty("java.io.tmpdir"));
+
+	public static void main(String[] args) throws Exception {
+		TransferBenchmark benchmark = new TransferBenchmark();
+		benchmark.parseArguments(args);
+		benchmark.run(System.out);
+	}
+
+	/**
+	 * Parse the '--name=value' arguments
+	 * @param args Command line arguments
+	 */
+	protected void parseArguments(String[] args) {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || eq < 0) {
+				throw new IllegalArgumentException("Invalid argument '" + arg + "', expected --name=value");
+			}
+			String name = arg.substring(2, eq);
+			String value = arg.substring(eq + 1);
+			if ("size".equals(name)) {
+				_sizeMB = Integer.parseInt(value);
+			} else if ("runs".equals(name)) {
+				_runs = Integer.parseInt(value);
+			} else if ("port".equals(name)) {
+				_port = Integer.parseInt(value);
+			} else if ("dir".equals(name)) {
+				_dir = new File(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option '" + name + "'");
+			}
+		}
+	}
+
+	/**
+	 * Run each transfer and print the table
+	 * @param out Report destination
+	 * @throws Exception
+	 */
+	public void run(PrintStream out) throws Exception {
+		long size = _sizeMB * 1024L * 1024L;
+		File source = File.createTempFile("transfer-source", ".dat", _dir);
+		File downloaded = File.createTempFile("transfer-get", ".dat", _dir);
+		File uploaded = File.createTempFile("transfer-put", ".dat", _dir);
+		try {
+			createFile(source, size);
+			out.println("Size          : " + _sizeMB + " MB, chunks of " + FileTransfer.CHUNK_SIZE / 1024 + " KB, best of " + _runs + " runs");
+			out.println(String.format("%-30s %10s", "transfer", "MB/s"));
+			double best = 0;
+			for (int run = 0; run < _runs; run++) {
+				best = Math.max(best, loopback(_port, size));
+			}
+			out.println(String.format("%-30s %10.1f", "loopback socket", best));
+
+			String[] names = { "blocking", "blocking sendfile", "nio" };
+			for (int i = 0; i < names.length; i++) {
+				int port = _port + 1 + i;
+				TelnetServer server = new TelnetServer(port, i == 2 ? ServerMode.NIO : ServerMode.BLOCKING);
+				if (i == 1) {
+					if (!ReusePort.isSupported()) {
+						continue;
+					}
+					server.setAcceptors(2);
+					server.setReusePort(true);
+				}
+				server.start();
+				FileTransferClient client = new FileTransferClient("127.0.0.1", port);
+				try {
+					double get = 0;
+					double put = 0;
+					for (int run = 0; run < _runs; run++) {
+						// get resumes from the length of the local file
+						downloaded.delete();
+						long start = System.nanoTime();
+						client.get(source.getPath(), downloaded);
+						get = Math.max(get, size / MB / ((System.nanoTime() - start) / 1e9));
+						start = System.nanoTime();
+						client.put(source, uploaded.getPath(), 0);
+						put = Math.max(put, size / MB / ((System.nanoTime() - start) / 1e9));
+					}
+					out.println(String.format("%-30s %10.1f", "get, " + names[i], get));
+					out.println(String.format("%-30s %10.1f", "put, " + names[i], put));
+				} finally {
+					client.close();
+					server.shutDown();
+				}
+			}
+		} finally {
+			source.delete();
+			downloaded.delete();
+			uploaded.delete();
+		}
+	}
+
+	/**
+	 * Send the bytes through a loopback connection, the receiving thread discards them
+	 * @return MB/s
+	 */
+	private double loopback(int port, final long size) throws Exception {
+		final ServerSocketChannel listener = ServerSocketChannel.open();
+		listener.socket().setReuseAddress(true);
+		listener.bind(new InetSocketAddress("127.0.0.1", port));
+		final IOException[] failure = { null };
+		Thread receiver = new Thread(new Runnable() {
+			public void run() {
+				try {
+					SocketChannel channel = listener.accept();
+					try {
+						ByteBuffer buffer = ByteBuffer.allocateDirect(FileTransfer.CHUNK_SIZE);
+						long received = 0;
+						while (received < size) {
+							buffer.clear();
+							int count = channel.read(buffer);
+							if (count < 0) {
+								break;
+							}
+							received += count;
+						}
+					} finally {
+						channel.close();
+					}
+				} catch (IOException ioe) {
+					failure[0] = ioe;
+				}
+			}
+		}, "loopback-receiver");
+		receiver.start();
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+		long start = System.nanoTime();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(FileTransfer.CHUNK_SIZE);
+			long sent = 0;
+			while (sent < size) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), size - sent));
+				while (buffer.hasRemaining()) {
+					sent += channel.write(buffer);
+				}
+			}
+			receiver.join();
+		} finally {
+			channel.close();
+			listener.close();
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return size / MB / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private static void createFile(File file, long size) throws IOException {
+		byte[] block = new byte[1024 * 1024];
+		new Random(42).nextBytes(block);
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			for (long written = 0; written < size; written += block.length) {
+				out.write(block, 0, (int) Math.min(block.length, size - written));
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,361 @@
+package com.telnet.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Decides whether an accepted connection may be served. A slot is reserved as soon as the connection is
+ * accepted and released once the client disconnects, so the limit can not be exceeded while client
+ * sessions are starting. When all slots are in use the connection waits in a bounded queue for a free
+ * slot instead of being rejected straight away. Optionally the number of connections per source address
+ * is limited and new connections are refused while the heap usage or the CPU load is above a threshold.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class AdmissionController {
+
+	public final static String TOO_MANY_USERS = "Too many users";
+	public final static String TOO_MANY_FROM_ADDRESS = "Too many connections from your address";
+	public final static String SERVER_BUSY = "Server is busy, try again later";
+
+	public final static int DEFAULT_MAX_CONNECTIONS = 5;
+	public final static int DEFAULT_QUEUE_SIZE = 16;
+	public final static long DEFAULT_QUEUE_TIMEOUT_MILLIS = 2000;
+	private final static long LOAD_SAMPLE_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Receives the outcome of {@link AdmissionController#admit(InetAddress, Listener)}, which may be
+	 * delivered later on another thread if the connection had to wait in the queue
+	 */
+	public interface Listener {
+
+		/**
+		 * A slot has been reserved, it must be given back with {@link AdmissionController#release(InetAddress)}
+		 */
+		void admitted();
+
+		/**
+		 * The connection must be refused
+		 * @param message Reason to send to the client
+		 */
+		void rejected(String message);
+	}
+
+	private volatile int _maxConnections = DEFAULT_MAX_CONNECTIONS;
+	private volatile int _maxConnectionsPerAddress = 0;
+	private volatile int _queueSize = DEFAULT_QUEUE_SIZE;
+	private volatile long _queueTimeoutMillis = DEFAULT_QUEUE_TIMEOUT_MILLIS;
+	private volatile int _maxHeapUsagePercent = 0;
+	private volatile int _maxCpuLoadPercent = 0;
+
+	// guarded by this
+	private int _inUse = 0;
+	private final Map<InetAddress, Integer> _perAddress = new HashMap<InetAddress, Integer>();
+	private final LinkedList<Waiter> _queue = new LinkedList<Waiter>();
+	private ScheduledExecutorService _timer = null;
+
+	private volatile double _cpuLoad = -1;
+	private volatile long _cpuLoadSampled = 0;
+
+	/**
+	 * A connection waiting for a free slot
+	 */
+	private class Waiter implements Runnable {
+		private final InetAddress _address;
+		private final Listener _listener;
+		private ScheduledFuture<?> _timeout = null;
+
+		private Waiter(InetAddress address, Listener listener) {
+			_address = address;
+			_listener = listener;
+		}
+
+		/**
+		 * Timeout expired
+		 */
+		public void run() {
+			boolean expired = false;
+			synchronized (AdmissionController.this) {
+				if (_queue.remove(this)) {
+					decrementAddress(_address);
+					expired = true;
+				}
+			}
+			if (expired) {
+				_listener.rejected(TOO_MANY_USERS);
+			}
+		}
+	}
+
+	/**
+	 * Admit the connection, the listener is either called straight away or once a slot is free or the
+	 * queue timeout has expired
+	 * @param address Source address of the connection
+	 * @param listener Receives the outcome
+	 */
+	public void admit(InetAddress address, Listener listener) {
+		String busy = checkLoad();
+		if (busy != null) {
+			listener.rejected(busy);
+			return;
+		}
+		String rejection = null;
+		synchronized (this) {
+			int perAddress = _perAddress.containsKey(address) ? _perAddress.get(address) : 0;
+			if (_maxConnectionsPerAddress > 0 && perAddress >= _maxConnectionsPerAddress) {
+				rejection = TOO_MANY_FROM_ADDRESS;
+			} else if (_inUse < _maxConnections && _queue.isEmpty()) {
+				_inUse++;
+				_perAddress.put(address, perAddress + 1);
+			} else if (_queue.size() < _queueSize && _queueTimeoutMillis > 0) {
+				Waiter waiter = new Waiter(address, listener);
+				waiter._timeout = getTimer().schedule(waiter, _queueTimeoutMillis, TimeUnit.MILLISECONDS);
+				_queue.add(waiter);
+				_perAddress.put(address, perAddress + 1);
+				return;
+			} else {
+				rejection = TOO_MANY_USERS;
+			}
+		}
+		if (rejection != null) {
+			listener.rejected(rejection);
+		} else {
+			listener.admitted();
+		}
+	}
+
+	/**
+	 * Give back the slot reserved for a connection, the first waiting connection (if any) is admitted
+	 * @param address Source address of the connection
+	 */
+	public void release(InetAddress address) {
+		synchronized (this) {
+			_inUse--;
+			decrementAddress(address);
+		}
+		admitWaiters();
+	}
+
+	/**
+	 * Admit waiting connections as long as slots are free
+	 */
+	private void admitWaiters() {
+		List<Waiter> admitted = new ArrayList<Waiter>();
+		synchronized (this) {
+			while (_inUse < _maxConnections && !_queue.isEmpty()) {
+				Waiter waiter = _queue.poll();
+				waiter._timeout.cancel(false);
+				_inUse++;
+				admitted.add(waiter);
+			}
+		}
+		for (Waiter waiter : admitted) {
+			waiter._listener.admitted();
+		}
+	}
+
+	/**
+	 * Reject all waiting connections and stop the queue timer
+	 */
+	public void shutdown() {
+		List<Waiter> rejected = new ArrayList<Waiter>();
+		synchronized (this) {
+			Iterator<Waiter> it = _queue.iterator();
+			while (it.hasNext()) {
+				Waiter waiter = it.next();
+				it.remove();
+				waiter._timeout.cancel(false);
+				decrementAddress(waiter._address);
+				rejected.add(waiter);
+			}
+			if (_timer != null) {
+				_timer.shutdownNow();
+				_timer = null;
+			}
+		}
+		for (Waiter waiter : rejected) {
+			waiter._listener.rejected(TOO_MANY_USERS);
+		}
+	}
+
+	private void decrementAddress(InetAddress address) {
+		Integer count = _perAddress.get(address);
+		if (count == null || count <= 1) {
+			_perAddress.remove(address);
+		} else {
+			_perAddress.put(address, count - 1);
+		}
+	}
+
+	private ScheduledExecutorService getTimer() {
+		if (_timer == null) {
+			_timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "telnet-admission-timer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return _timer;
+	}
+
+	/**
+	 * Check the heap usage and the CPU load against the configured limits
+	 * @return Rejection message or null if the server is not overloaded
+	 */
+	protected String checkLoad() {
+		if (_maxHeapUsagePercent > 0 && getHeapUsagePercent() >= _maxHeapUsagePercent) {
+			return SERVER_BUSY;
+		}
+		if (_maxCpuLoadPercent > 0) {
+			double load = getCpuLoad();
+			if (load >= 0 && load * 100 >= _maxCpuLoadPercent) {
+				return SERVER_BUSY;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Used heap as percentage of the max heap, note this includes garbage not yet collected
+	 * @return Heap usage in percent
+	 */
+	protected int getHeapUsagePercent() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		MemoryUsage heap = memory.getHeapMemoryUsage();
+		long max = heap.getMax() > 0 ? heap.getMax() : heap.getCommitted();
+		return (int) (heap.getUsed() * 100 / max);
+	}
+
+	/**
+	 * System CPU load between 0 and 1 sampled at most once a second, falls back to the load
+	 * average per processor when the JDK does not provide the CPU load
+	 * @return CPU load or a negative value if not available
+	 */
+	@SuppressWarnings("deprecation")
+	protected double getCpuLoad() {
+		long now = System.currentTimeMillis();
+		if (now - _cpuLoadSampled >= LOAD_SAMPLE_INTERVAL_MILLIS) {
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			double load = -1;
+			if (os instanceof com.sun.management.OperatingSystemMXBean) {
+				load = ((com.sun.management.OperatingSystemMXBean) os).getSystemCpuLoad();
+			}
+			if (load < 0 && os.getSystemLoadAverage() >= 0) {
+				load = os.getSystemLoadAverage() / os.getAvailableProcessors();
+			}
+			_cpuLoad = load;
+			_cpuLoadSampled = now;
+		}
+		return _cpuLoad;
+	}
+
+	/**
+	 * Number of reserved slots
+	 * @return Connections in use
+	 */
+	public synchronized int getConnectionsInUse() {
+		return _inUse;
+	}
+
+	/**
+	 * Number of connections waiting for a slot
+	 * @return Queue length
+	 */
+	public synchronized int getQueueLength() {
+		return _queue.size();
+	}
+
+	public int getMaxConnections() {
+		return _maxConnections;
+	}
+
+	/**
+	 * Set the max number of concurrent connections, waiting connections are admitted if the limit is raised
+	 * @param maxConnections Max connections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections < 0) {
+			throw new IllegalArgumentException("Max connections must not be negative");
+		}
+		_maxConnections = maxConnections;
+		admitWaiters();
+	}
+
+	public int getMaxConnectionsPerAddress() {
+		return _maxConnectionsPerAddress;
+	}
+
+	/**
+	 * Set the max number of connections (including the waiting ones) from a single source address
+	 * @param maxConnectionsPerAddress Max connections per address, 0 for no limit
+	 */
+	public void setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+		_maxConnectionsPerAddress = Math.max(0, maxConnectionsPerAddress);
+	}
+
+	public int getQueueSize() {
+		return _queueSize;
+	}
+
+	/**
+	 * Set the max number of connections waiting for a slot
+	 * @param queueSize Queue size, 0 to reject straight away when all slots are in use
+	 */
+	public void setQueueSize(int queueSize) {
+		_queueSize = Math.max(0, queueSize);
+	}
+
+	public long getQueueTimeoutMillis() {
+		return _queueTimeoutMillis;
+	}
+
+	/**
+	 * Set how long a connection may wait for a slot before it is rejected
+	 * @param queueTimeoutMillis Timeout in milliseconds, 0 to reject straight away when all slots are in use
+	 */
+	public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+		_queueTimeoutMillis = Math.max(0, queueTimeoutMillis);
+	}
+
+	public int getMaxHeapUsagePercent() {
+		return _maxHeapUsagePercent;
+	}
+
+	/**
+	 * Refuse new connections while the used heap is above the given percentage of the max heap
+	 * @param maxHeapUsagePercent Percentage, 0 to disable
+	 */
+	public void setMaxHeapUsagePercent(int maxHeapUsagePercent) {
+		_maxHeapUsagePercent = Math.max(0, maxHeapUsagePercent);
+	}
+
+	public int getMaxCpuLoadPercent() {
+		return _maxCpuLoadPercent;
+	}
+
+	/**
+	 * Refuse new connections while the system CPU load is above the given percentage
+	 * @param maxCpuLoadPercent Percentage, 0 to disable
+	 */
+	public void setMaxCpuLoadPercent(int maxCpuLoadPercent) {
+		_maxCpuLoadPercent = Math.max(0, maxCpuLoadPercent);
+	}
+}
@@ -0,0 +1,311 @@
+package com.telnet.server;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Audit trail of every command run by the sessions, appended to memory-mapped segment files
+ * 'audit-&lt;number&gt;.seg' in a directory. A record has a fixed layout of {@link #RECORD_SIZE} bytes
+ * (time, latency, result size, session id, working directory and command, the strings are cut to
+ * their field), so a session claims its slot with one atomic increment and writes it without a lock
+ * or a system call. A full segment is replaced by a new one, the sync thread flushes the segments to
+ * the disk and deletes the oldest beyond the retention.
+ * </p>
+ * <p>Segment layout: a header in the first slot, then the records. A slot whose marker is 0 has not
+ * been written (yet). See {@link AuditLogReader} to query or follow the segments.</p>
+ * @author sjunejo
+ *
+ */
+public class AuditLog {
+	private static Logger logger = Logger.getLogger(AuditLog.class.getName());
+
+	public final static int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	public final static long DEFAULT_SYNC_MILLIS = 1000;
+
+	final static int RECORD_SIZE = 512;
+	final static int SEGMENT_MAGIC = 0x54415544; // "TAUD"
+	final static int SEGMENT_VERSION = 1;
+	final static int RECORD_MARKER = 0x41554454; // "AUDT"
+	final static int FLAG_TRUNCATED = 1;
+	final static String SEGMENT_PREFIX = "audit-";
+	final static String SEGMENT_SUFFIX = ".seg";
+	final static Charset UTF8 = Charset.forName("UTF-8");
+
+	// header offsets
+	final static int HEADER_MAGIC = 0;
+	final static int HEADER_VERSION = 4;
+	final static int HEADER_RECORD_SIZE = 8;
+	final static int HEADER_CREATED = 12;
+	final static int HEADER_NUMBER = 20;
+	// record offsets, the strings are a length followed by UTF-8 bytes
+	final static int MARKER = 0;
+	final static int FLAGS = 4;
+	final static int TIME = 8;
+	final static int LATENCY = 16;
+	final static int RESULT_SIZE = 24;
+	final static int SESSION = 32; // 1 byte length + 47
+	final static int SESSION_MAX = 47;
+	final static int CWD = 80; // 2 bytes length + 254
+	final static int CWD_MAX = 254;
+	final static int COMMAND = 336; // 2 bytes length + 174
+	final static int COMMAND_MAX = 174;
+
+	/**
+	 * Mapped segment file, the slot 0 is the header
+	 */
+	private static class Segment {
+		private final long _number;
+		private final MappedByteBuffer _buffer;
+		private final int _slots;
+		private final AtomicInteger _next = new AtomicInteger(1);
+
+		private Segment(long number, MappedByteBuffer buffer, int slots) {
+			_number = number;
+			_buffer = buffer;
+			_slots = slots;
+		}
+	}
+
+	private final File _directory;
+	private final int _segmentSize;
+	private final int _maxSegments;
+	private volatile Segment _current;
+	// full segments waiting for their last flush
+	private final ConcurrentLinkedQueue<Segment> _retired = new ConcurrentLinkedQueue<Segment>();
+	private final Thread _sync;
+	private final LongAdder _recorded = new LongAdder();
+	private final LongAdder _dropped = new LongAdder();
+	private volatile boolean _closed = false;
+
+	/**
+	 * Start a new segment in the directory, created if needed
+	 * @param directory Segment directory
+	 * @param segmentSize Bytes per segment, at least two records
+	 * @param maxSegments Segments kept, the oldest are deleted, 0 to keep all
+	 * @param syncMillis Interval of the flushes to the disk
+	 * @throws IOException If the first segment can not be created
+	 */
+	public AuditLog(File directory, int segmentSize, int maxSegments, final long syncMillis) throws IOException {
+		if (segmentSize < 2 * RECORD_SIZE) {
+			throw new IllegalArgumentException("Segment size " + segmentSize + " is smaller than two records");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create the audit directory " + directory);
+		}
+		_directory = directory;
+		_segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		_maxSegments = maxSegments;
+		File[] existing = listSegments(directory);
+		_current = openSegment(existing.length == 0 ? 1 : segmentNumber(existing[existing.length - 1]) + 1);
+		_sync = new Thread(new Runnable() {
+			public void run() {
+				while (!_closed) {
+					try {
+						Thread.sleep(syncMillis);
+					} catch (InterruptedException ie) {
+						break;
+					}
+					sync();
+				}
+			}
+		}, "telnet-audit-sync");
+		_sync.setDaemon(true);
+		_sync.start();
+	}
+
+	/**
+	 * Append the record of a command, called by the session thread
+	 * @param session Session id
+	 * @param workingDirectory Working directory when the command was received
+	 * @param command Command line
+	 * @param startMillis Wall clock time when the command was received
+	 * @param latencyNanos Time taken by the command
+	 * @param resultSize Characters of the reply
+	 */
+	public void record(String session, String workingDirectory, String command, long startMillis, long latencyNanos, long resultSize) {
+		Segment segment = _current;
+		while (!_closed) {
+			int slot = segment._next.getAndIncrement();
+			if (slot < segment._slots) {
+				write(segment, slot * RECORD_SIZE, session, workingDirectory, command, startMillis, latencyNanos, resultSize);
+				_recorded.increment();
+				return;
+			}
+			Segment next = rotate(segment);
+			if (next == segment) {
+				break;
+			}
+			segment = next;
+		}
+		_dropped.increment();
+	}
+
+	/**
+	 * @return Records written since the start
+	 */
+	public long getRecorded() {
+		return _recorded.sum();
+	}
+
+	/**
+	 * @return Records lost because no segment could be created or the log was closed
+	 */
+	public long getDropped() {
+		return _dropped.sum();
+	}
+
+	public File getDirectory() {
+		return _directory;
+	}
+
+	/**
+	 * Flush the segments and stop, later records are dropped
+	 */
+	public void close() {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		_sync.interrupt();
+		try {
+			_sync.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		sync();
+	}
+
+	private void write(Segment segment, int offset, String session, String workingDirectory, String command, long startMillis, long latencyNanos,
+			long resultSize) {
+		ByteBuffer record = segment._buffer.duplicate();
+		int flags = 0;
+		record.putLong(offset + TIME, startMillis);
+		record.putLong(offset + LATENCY, latencyNanos);
+		record.putLong(offset + RESULT_SIZE, resultSize);
+		flags |= putString(record, offset + SESSION, 1, session, SESSION_MAX);
+		flags |= putString(record, offset + CWD, 2, workingDirectory, CWD_MAX);
+		flags |= putString(record, offset + COMMAND, 2, command, COMMAND_MAX);
+		record.putInt(offset + FLAGS, flags);
+		// last, the reader takes a slot with a marker as complete
+		record.putInt(offset + MARKER, RECORD_MARKER);
+	}
+
+	/**
+	 * @return FLAG_TRUNCATED if the string was cut
+	 */
+	private static int putString(ByteBuffer record, int offset, int lengthBytes, String value, int max) {
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF8);
+		int length = bytes.length;
+		if (length > max) {
+			length = max;
+			// do not split a UTF-8 sequence
+			while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+				length--;
+			}
+		}
+		if (lengthBytes == 1) {
+			record.put(offset, (byte) length);
+		} else {
+			record.putShort(offset, (short) length);
+		}
+		record.position(offset + lengthBytes);
+		record.put(bytes, 0, length);
+		return length < bytes.length ? FLAG_TRUNCATED : 0;
+	}
+
+	/**
+	 * Replace the full segment, the sessions racing for it wait for the first one
+	 * @return New current segment, the full one if none could be created
+	 */
+	private synchronized Segment rotate(Segment full) {
+		if (_current != full) {
+			return _current;
+		}
+		try {
+			Segment next = openSegment(full._number + 1);
+			_retired.add(full);
+			_current = next;
+			return next;
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, "Failed to create the audit segment " + (full._number + 1) + " in " + _directory, ioe);
+			return full;
+		}
+	}
+
+	private Segment openSegment(long number) throws IOException {
+		File file = new File(_directory, String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		MappedByteBuffer buffer;
+		try {
+			// the mapping stays valid once the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+		} finally {
+			raf.close();
+		}
+		buffer.putInt(HEADER_VERSION, SEGMENT_VERSION);
+		buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+		buffer.putLong(HEADER_CREATED, System.currentTimeMillis());
+		buffer.putLong(HEADER_NUMBER, number);
+		buffer.putInt(HEADER_MAGIC, SEGMENT_MAGIC);
+		return new Segment(number, buffer, _segmentSize / RECORD_SIZE);
+	}
+
+	/**
+	 * Flush the current and the retired segments, delete the segments beyond the retention
+	 */
+	private void sync() {
+		Segment retired;
+		while ((retired = _retired.poll()) != null) {
+			retired._buffer.force();
+		}
+		_current._buffer.force();
+		if (_maxSegments > 0) {
+			File[] segments = listSegments(_directory);
+			for (int i = 0; i < segments.length - _maxSegments; i++) {
+				if (!segments[i].delete()) {
+					logger.log(Level.FINE, "Failed to delete the audit segment " + segments[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Segment files of the directory, oldest first
+	 */
+	static File[] listSegments(File directory) {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return new File[0];
+		}
+		// fixed width numbers, the names sort by number
+		Arrays.sort(files);
+		return files;
+	}
+
+	static long segmentNumber(File segment) {
+		String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException nfe) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package com.telnet.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Query and follow the segments written by {@link AuditLog}, by session and time range:
+ * </p>
+ * <pre>
+ * java -cp telnet-server-0.0.1-SNAPSHOT.jar com.telnet.server.AuditLogReader &lt;directory&gt; [options]
+ *
+ *   --session=ID       only the commands of this session
+ *   --from=TIME        records at or after, ISO-8601 (2026-10-18T10:00:00Z) or epoch milliseconds
+ *   --to=TIME          records before
+ *   --follow           keep printing the new records, like 'tail -f'
+ * </pre>
+ * <p>One line per record: time, session, latency in microseconds, reply size, working directory and
+ * command separated by tabs, a '+' after the command when a field was cut.</p>
+ * @author sjunejo
+ *
+ */
+public class AuditLogReader {
+
+	private final static long FOLLOW_POLL_MILLIS = 200;
+
+	/**
+	 * Receives the records matching the query, oldest first
+	 */
+	public interface Listener {
+		void record(Record record);
+	}
+
+	/**
+	 * Audit record of one command
+	 */
+	public static class Record {
+		private long _time;
+		private long _latencyNanos;
+		private long _resultSize;
+		private boolean _truncated;
+		private String _session;
+		private String _workingDirectory;
+		private String _command;
+
+		public long getTime() {
+			return _time;
+		}
+
+		public long getLatencyNanos() {
+			return _latencyNanos;
+		}
+
+		public long getResultSize() {
+			return _resultSize;
+		}
+
+		/**
+		 * @return true if a string did not fit its field
+		 */
+		public boolean isTruncated() {
+			return _truncated;
+		}
+
+		public String getSession() {
+			return _session;
+		}
+
+		public String getWorkingDirectory() {
+			return _workingDirectory;
+		}
+
+		public String getCommand() {
+			return _command;
+		}
+
+		@Override
+		public String toString() {
+			return Instant.ofEpochMilli(_time) + "\t" + _session + "\t" + TimeUnit.NANOSECONDS.toMicros(_latencyNanos) + "\t" + _resultSize
+					+ "\t" + _workingDirectory + "\t" + _command + (_truncated ? "+" : "");
+		}
+	}
+
+	private final File _directory;
+	private String _session = null;
+	private long _from = Long.MIN_VALUE;
+	private long _to = Long.MAX_VALUE;
+
+	public AuditLogReader(File directory) {
+		_directory = directory;
+	}
+
+	/**
+	 * @param session Only the records of this session, null for all
+	 */
+	public void setSession(String session) {
+		_session = session;
+	}
+
+	/**
+	 * @param from Records at or after this time (epoch milliseconds)
+	 * @param to Records before this time (epoch milliseconds)
+	 */
+	public void setTimeRange(long from, long to) {
+		_from = from;
+		_to = to;
+	}
+
+	/**
+	 * Read the matching records of all the segments
+	 * @param listener Receives the records
+	 * @return Records matched
+	 * @throws IOException If a segment can not be read
+	 */
+	public long query(Listener listener) throws IOException {
+		File[] segments = AuditLog.listSegments(_directory);
+		long matched = 0;
+		// the segments created after the end of the range are read too: a record is stamped with the
+		// time the command was received but written once it is done, a long command is in a later segment
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer segment = map(segments[i]);
+			if (segment == null) {
+				continue;
+			}
+			// a record is older than the creation of the next segment
+			if (i + 1 < segments.length && _from != Long.MIN_VALUE) {
+				ByteBuffer next = map(segments[i + 1]);
+				if (next != null && next.getLong(AuditLog.HEADER_CREATED) < _from) {
+					continue;
+				}
+			}
+			// a slot claimed and left unwritten by a crash does not hide the records after it
+			matched += read(segment, AuditLog.RECORD_SIZE, listener, true)[1];
+		}
+		return matched;
+	}
+
+	/**
+	 * Print the matching records as they are written, until the thread is interrupted
+	 * @param listener Receives the records
+	 * @throws IOException If a segment can not be read
+	 */
+	public void follow(Listener listener) throws IOException {
+		File[] segments = AuditLog.listSegments(_directory);
+		long number = segments.length == 0 ? 0 : AuditLog.segmentNumber(segments[segments.length - 1]);
+		int offset = AuditLog.RECORD_SIZE;
+		ByteBuffer segment = null;
+		boolean waited = false;
+		while (!Thread.currentThread().isInterrupted()) {
+			if (segment == null) {
+				segment = map(segmentFile(number));
+			}
+			if (segment != null) {
+				offset = (int) read(segment, offset, listener, false)[0];
+			}
+			File newer = segmentFile(number + 1);
+			if (newer.exists() && (segment == null || offset >= segment.limit() || waited)) {
+				// a slot claimed and never written does not hold the reader back
+				number++;
+				offset = AuditLog.RECORD_SIZE;
+				segment = null;
+				waited = false;
+				continue;
+			}
+			waited = newer.exists();
+			try {
+				Thread.sleep(FOLLOW_POLL_MILLIS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Read the complete records from the offset up to the first empty slot, or up to the end of the
+	 * segment when the empty slots are skipped
+	 * @param skipGaps true to go on after an empty slot, false to stop at it e.g. a slot still being written
+	 * @return Offset of the first slot not read and the records matched
+	 */
+	private long[] read(ByteBuffer segment, int offset, Listener listener, boolean skipGaps) {
+		long matched = 0;
+		for (; offset + AuditLog.RECORD_SIZE <= segment.limit(); offset += AuditLog.RECORD_SIZE) {
+			if (segment.getInt(offset + AuditLog.MARKER) != AuditLog.RECORD_MARKER) {
+				if (skipGaps) {
+					continue;
+				}
+				break;
+			}
+			long time = segment.getLong(offset + AuditLog.TIME);
+			if (time >= _from && time < _to) {
+				String session = getString(segment, offset + AuditLog.SESSION, 1);
+				if (_session == null || _session.equals(session)) {
+					Record record = new Record();
+					record._time = time;
+					record._latencyNanos = segment.getLong(offset + AuditLog.LATENCY);
+					record._resultSize = segment.getLong(offset + AuditLog.RESULT_SIZE);
+					record._truncated = (segment.getInt(offset + AuditLog.FLAGS) & AuditLog.FLAG_TRUNCATED) != 0;
+					record._session = session;
+					record._workingDirectory = getString(segment, offset + AuditLog.CWD, 2);
+					record._command = getString(segment, offset + AuditLog.COMMAND, 2);
+					listener.record(record);
+					matched++;
+				}
+			}
+		}
+		return new long[] { offset, matched };
+	}
+
+	private static String getString(ByteBuffer record, int offset, int lengthBytes) {
+		int length = lengthBytes == 1 ? record.get(offset) & 0xFF : record.getShort(offset) & 0xFFFF;
+		byte[] bytes = new byte[length];
+		ByteBuffer source = record.duplicate();
+		source.position(offset + lengthBytes);
+		source.get(bytes);
+		return new String(bytes, AuditLog.UTF8);
+	}
+
+	private File segmentFile(long number) {
+		return new File(_directory, String.format("%s%012d%s", AuditLog.SEGMENT_PREFIX, number, AuditLog.SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * @return Read only mapping of the segment, null if the file is missing or not a segment
+	 */
+	private static ByteBuffer map(File file) throws IOException {
+		if (!file.isFile() || file.length() < AuditLog.RECORD_SIZE) {
+			return null;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			return segment.getInt(AuditLog.HEADER_MAGIC) == AuditLog.SEGMENT_MAGIC ? segment : null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long parseTime(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException nfe) {
+			return Instant.parse(value).toEpochMilli();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: AuditLogReader <directory> [--session=ID] [--from=TIME] [--to=TIME] [--follow]");
+			return;
+		}
+		AuditLogReader reader = new AuditLogReader(new File(args[0]));
+		boolean follow = false;
+		long from = Long.MIN_VALUE;
+		long to = Long.MAX_VALUE;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.startsWith("--session=")) {
+				reader.setSession(arg.substring("--session=".length()));
+			} else if (arg.startsWith("--from=")) {
+				from = parseTime(arg.substring("--from=".length()));
+			} else if (arg.startsWith("--to=")) {
+				to = parseTime(arg.substring("--to=".length()));
+			} else if ("--follow".equals(arg)) {
+				follow = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option '" + arg + "'");
+			}
+		}
+		reader.setTimeRange(from, to);
+		final PrintStream out = System.out;
+		Listener printer = new Listener() {
+			public void record(Record record) {
+				out.println(record);
+			}
+		};
+		if (follow) {
+			reader.follow(printer);
+		} else {
+			reader.query(printer);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.telnet.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Server wide LRU cache of resolved paths, (working directory, user input) to canonical path, so a
+ * 'cd' or 'ls' into a known directory does not walk and resolve every path component again.
+ * Absolute inputs are cached independently of the working directory.
+ * </p>
+ * <p>
+ * Entries resolved below a directory which has been created or changed are dropped, either by mkdir
+ * directly or through the watch events of the {@link ListingCache}, and so are the entries whose input
+ * goes through it, a deleted or retargeted symbolic link is therefore resolved again right away. Like the canonicalization cache
+ * the JDK used to have, entries also expire after a while to pick up changes nobody reported e.g. a
+ * symbolic link replaced outside of a watched directory.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class CanonicalPathCache implements ListingCache.ChangeListener {
+
+	public final static int DEFAULT_MAX_SIZE = 10000;
+	public final static long DEFAULT_TTL_MILLIS = 30000;
+
+	private static class Entry {
+		// working directory joined with the input, before any link is followed
+		private final String _input;
+		private final String _path;
+		private final long _expiresAt;
+
+		private Entry(String input, String path, long expiresAt) {
+			_input = input;
+			_path = path;
+			_expiresAt = expiresAt;
+		}
+	}
+
+	private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private int _maxSize = DEFAULT_MAX_SIZE;
+	private long _ttlMillis = DEFAULT_TTL_MILLIS;
+	// bumped by every invalidation, a path resolved meanwhile is not stored
+	private long _generation = 0;
+
+	private final AtomicLong _hits = new AtomicLong(0);
+	private final AtomicLong _misses = new AtomicLong(0);
+	private final AtomicLong _evictions = new AtomicLong(0);
+
+	/**
+	 * Canonical path of the input
+	 * @param workingDirectory Working directory the input is relative to, null for absolute inputs
+	 * @param input Path entered by the user
+	 * @return Canonical path
+	 * @throws IOException If the path can not be resolved
+	 */
+	public String resolve(String workingDirectory, String input) throws IOException {
+		String key = workingDirectory == null ? input : workingDirectory + '\u0000' + input;
+		long now = System.currentTimeMillis();
+		long generation = 0;
+		synchronized (this) {
+			Entry entry = _entries.get(key);
+			if (entry != null && entry._expiresAt > now) {
+				_hits.incrementAndGet();
+				return entry._path;
+			}
+			generation = _generation;
+		}
+		_misses.incrementAndGet();
+		File f = workingDirectory == null ? new File(input) : new File(workingDirectory, input);
+		String path = f.getCanonicalPath();
+		synchronized (this) {
+			if (_maxSize > 0 && generation == _generation) {
+				_entries.put(key, new Entry(f.getAbsolutePath(), path, now + _ttlMillis));
+				evict();
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Drop every entry which resolved to the path or below it, or whose input goes through the path
+	 * e.g. a link to another directory
+	 * @param path Created, removed or changed path
+	 */
+	public synchronized void invalidate(String path) {
+		_generation++;
+		Iterator<Entry> it = _entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (isAtOrBelow(entry._path, path) || isAtOrBelow(entry._input, path)) {
+				it.remove();
+			}
+		}
+	}
+
+	private static boolean isAtOrBelow(String candidate, String path) {
+		return candidate.startsWith(path) && (candidate.length() == path.length() || path.endsWith(File.separator)
+				|| candidate.charAt(path.length()) == File.separatorChar);
+	}
+
+	/**
+	 * An entry of a watched directory has been created or deleted
+	 */
+	public void changed(Path path) {
+		invalidate(path.toString());
+	}
+
+	private void evict() {
+		Iterator<Entry> it = _entries.values().iterator();
+		while (_entries.size() > _maxSize && it.hasNext()) {
+			it.next();
+			it.remove();
+			_evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Max number of cached paths, 0 disables the cache
+	 * @return max size
+	 */
+	public synchronized int getMaxSize() {
+		return _maxSize;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		_maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * Time after which a cached path is resolved again
+	 * @return time to live in milliseconds
+	 */
+	public synchronized long getTtlMillis() {
+		return _ttlMillis;
+	}
+
+	public synchronized void setTtlMillis(long ttlMillis) {
+		_ttlMillis = ttlMillis;
+	}
+
+	public synchronized int size() {
+		return _entries.size();
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getEvictions() {
+		return _evictions.get();
+	}
+}
@@ -0,0 +1,27 @@
+package com.telnet.server;
+
+/**
+ * <p>A command which can be registered in the {@link CommandRegistry}.</p>
+ * @author sjunejo
+ *
+ */
+public interface Command {
+
+	/**
+	 * Run the command for the session
+	 * @param session Session which received the command
+	 * @param line Parsed command line, word 0 is the command itself
+	 * @return Response as String
+	 */
+	String execute(TelnetSession session, CommandLine line);
+
+	/**
+	 * A long running command waits on the client or on the file system for as long as the client
+	 * wants, e.g. a follow or a transfer, it runs on a thread of its own instead of a command thread
+	 * @param line Parsed command line, word 0 is the command itself
+	 * @return true if the line runs for as long as the client wants
+	 */
+	default boolean isLongRunning(CommandLine line) {
+		return false;
+	}
+}
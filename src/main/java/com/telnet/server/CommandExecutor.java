@@ -0,0 +1,231 @@
+package com.telnet.server;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Bounded pool running the commands of all the sessions of a server, the number of file system
+ * calls in flight is the number of threads whatever the number of clients. The sessions only read
+ * their input: the session thread in the blocking modes, the selector thread of the NIO engine. A
+ * session hands its pending lines to the pool as one task, the lines are run one after the other
+ * so the replies keep the order of the commands.
+ * </p>
+ * <p>
+ * The tasks wait by priority of their first command, first in first out within a priority: the
+ * commands which hardly touch the file system go first, then the listings and reads, the walks,
+ * follows and transfers last. At most a queue size of tasks wait, a session whose task is
+ * rejected answers that the server is busy. A session holding {@link #getMaxPendingCommands()}
+ * lines stops reading, the client is held back by TCP.
+ * </p>
+ * <p>
+ * A long running command, a follow or a transfer, waits on its client or its file for as long as
+ * the client wants and would keep a command thread from the other sessions. It is handed to a
+ * thread of its own, at most {@link #getLongRunningThreads()} of them, the command is answered
+ * that the server is busy beyond.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class CommandExecutor {
+
+	public final static int DEFAULT_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+	public final static int DEFAULT_QUEUE_SIZE = 1000;
+	public final static int DEFAULT_MAX_PENDING_COMMANDS = 64;
+	public final static int DEFAULT_LONG_RUNNING_THREADS = 64;
+	private final static long LONG_RUNNING_KEEP_ALIVE_SECONDS = 60;
+
+	public enum Priority {
+		/** no or cached file system access, e.g. pwd, cd */
+		HIGH,
+		/** one directory or file, e.g. ls, cat */
+		NORMAL,
+		/** walks, follows and transfers, e.g. du, tail, get */
+		LOW
+	}
+
+	private final ThreadPoolExecutor _pool;
+	// follows and transfers, a thread each
+	private final ThreadPoolExecutor _longRunning;
+	private final int _queueSize;
+	private final int _maxPendingCommands;
+	private final AtomicInteger _queued = new AtomicInteger(0);
+	private final AtomicLong _sequence = new AtomicLong(0);
+	private final LongAdder _rejected = new LongAdder();
+
+	/**
+	 * Task of a session, ordered by priority then by submission
+	 */
+	private class Task implements Runnable, Comparable<Task> {
+		private final Runnable _command;
+		private final int _priority;
+		private final long _sequence;
+
+		private Task(Runnable command, Priority priority, long sequence) {
+			_command = command;
+			_priority = priority.ordinal();
+			_sequence = sequence;
+		}
+
+		public void run() {
+			_queued.decrementAndGet();
+			_command.run();
+		}
+
+		public int compareTo(Task other) {
+			if (_priority != other._priority) {
+				return _priority < other._priority ? -1 : 1;
+			}
+			return _sequence < other._sequence ? -1 : (_sequence == other._sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * @param threads Threads running the commands
+	 * @param queueSize Max tasks waiting for a thread
+	 * @param maxPendingCommands Lines a session holds before it stops reading
+	 */
+	public CommandExecutor(int threads, int queueSize, int maxPendingCommands) {
+		this(threads, queueSize, maxPendingCommands, DEFAULT_LONG_RUNNING_THREADS);
+	}
+
+	/**
+	 * @param threads Threads running the commands
+	 * @param queueSize Max tasks waiting for a thread
+	 * @param maxPendingCommands Lines a session holds before it stops reading
+	 * @param longRunningThreads Max follows and transfers running at the same time
+	 */
+	public CommandExecutor(int threads, int queueSize, int maxPendingCommands, int longRunningThreads) {
+		_queueSize = queueSize;
+		_maxPendingCommands = maxPendingCommands;
+		_pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "telnet-command-" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// started on demand, never queued
+		_longRunning = new ThreadPoolExecutor(0, longRunningThreads, LONG_RUNNING_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "telnet-long-command-" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queue the task of a session
+	 * @param command Runs the pending lines of the session
+	 * @param priority Priority of the first pending line
+	 * @return false if the queue is full or the pool is shut down
+	 */
+	public boolean execute(Runnable command, Priority priority) {
+		if (_pool.isShutdown()) {
+			return false;
+		}
+		if (_queued.incrementAndGet() > _queueSize) {
+			_queued.decrementAndGet();
+			_rejected.increment();
+			return false;
+		}
+		try {
+			_pool.execute(new Task(command, priority, _sequence.getAndIncrement()));
+			return true;
+		} catch (RejectedExecutionException ree) {
+			// shut down meanwhile
+			_queued.decrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Run a long running command of a session on a thread of its own
+	 * @param command Runs the long running command of the session
+	 * @return false if as many long running commands already run or the pool is shut down
+	 */
+	public boolean executeLongRunning(Runnable command) {
+		try {
+			_longRunning.execute(command);
+			return true;
+		} catch (RejectedExecutionException ree) {
+			if (!_longRunning.isShutdown()) {
+				_rejected.increment();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return Threads running the commands
+	 */
+	public int getThreads() {
+		return _pool.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return Threads running a command right now, approximate
+	 */
+	public int getActiveThreads() {
+		return _pool.getActiveCount();
+	}
+
+	/**
+	 * @return Max follows and transfers running at the same time
+	 */
+	public int getLongRunningThreads() {
+		return _longRunning.getMaximumPoolSize();
+	}
+
+	/**
+	 * @return Follows and transfers running right now, approximate
+	 */
+	public int getActiveLongRunningThreads() {
+		return _longRunning.getActiveCount();
+	}
+
+	/**
+	 * @return Tasks waiting for a thread
+	 */
+	public int getQueuedTasks() {
+		return Math.max(0, _queued.get());
+	}
+
+	/**
+	 * @return Tasks turned away because the queue was full, and long running commands because
+	 * all their threads were busy
+	 */
+	public long getRejectedTasks() {
+		return _rejected.sum();
+	}
+
+	public int getQueueSize() {
+		return _queueSize;
+	}
+
+	/**
+	 * @return Lines a session holds before it stops reading
+	 */
+	public int getMaxPendingCommands() {
+		return _maxPendingCommands;
+	}
+
+	/**
+	 * Stop the threads, the running commands see their session disconnected
+	 */
+	public void shutdown() {
+		_pool.shutdownNow();
+		_longRunning.shutdownNow();
+	}
+}
@@ -0,0 +1,140 @@
+package com.telnet.server;
+
+/**
+ * <p>
+ * Reusable single pass tokenizer of a command line. Words are separated by one or more spaces,
+ * leading and trailing spaces are ignored. Only the offsets of the words are recorded, so parsing
+ * does not allocate; an argument is turned into a String only when a command asks for it.
+ * </p>
+ * <p>An instance belongs to one session and is not thread safe.</p>
+ * @author sjunejo
+ *
+ */
+public final class CommandLine {
+	private final static int INITIAL_WORDS = 8;
+
+	private CharSequence _line = "";
+	// start and end offset of each word
+	private int[] _bounds = new int[INITIAL_WORDS * 2];
+	private int _size = 0;
+
+	/**
+	 * Split the line into words, the previous content is discarded
+	 * @param line Command line, null is treated as an empty line
+	 * @return this
+	 */
+	public CommandLine parse(CharSequence line) {
+		_line = line == null ? "" : line;
+		_size = 0;
+		int length = _line.length();
+		int i = 0;
+		while (i < length) {
+			while (i < length && _line.charAt(i) == ' ') {
+				i++;
+			}
+			if (i == length) {
+				break;
+			}
+			int start = i;
+			while (i < length && _line.charAt(i) != ' ') {
+				i++;
+			}
+			if (_size * 2 == _bounds.length) {
+				int[] bigger = new int[_bounds.length * 2];
+				System.arraycopy(_bounds, 0, bigger, 0, _bounds.length);
+				_bounds = bigger;
+			}
+			_bounds[_size * 2] = start;
+			_bounds[_size * 2 + 1] = i;
+			_size++;
+		}
+		return this;
+	}
+
+	/**
+	 * Number of words including the command itself
+	 * @return size
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Start offset of the word in the line
+	 * @param index Word index, 0 is the command
+	 * @return offset
+	 */
+	public int start(int index) {
+		checkIndex(index);
+		return _bounds[index * 2];
+	}
+
+	/**
+	 * End offset (exclusive) of the word in the line
+	 * @param index Word index, 0 is the command
+	 * @return offset
+	 */
+	public int end(int index) {
+		checkIndex(index);
+		return _bounds[index * 2 + 1];
+	}
+
+	/**
+	 * Character of the parsed line
+	 * @param offset Offset in the line
+	 * @return char
+	 */
+	public char charAt(int offset) {
+		return _line.charAt(offset);
+	}
+
+	/**
+	 * Returns the word as a String, this is the only method that allocates
+	 * @param index Word index, 0 is the command
+	 * @return word
+	 */
+	public String get(int index) {
+		return _line.subSequence(start(index), end(index)).toString();
+	}
+
+	/**
+	 * Compare the word with the given text without allocating
+	 * @param index Word index, 0 is the command
+	 * @param text Text to compare with
+	 * @param ignoreCase true for a case insensitive comparison
+	 * @return true if the word equals the text
+	 */
+	public boolean matches(int index, String text, boolean ignoreCase) {
+		int start = start(index);
+		int length = end(index) - start;
+		if (length != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			char a = _line.charAt(start + i);
+			char b = text.charAt(i);
+			if (a != b && (!ignoreCase || Character.toLowerCase(a) != Character.toLowerCase(b))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * All the words, allocates a new array
+	 * @return String[]
+	 */
+	public String[] toArray() {
+		String[] words = new String[_size];
+		for (int i = 0; i < _size; i++) {
+			words[i] = get(i);
+		}
+		return words;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= _size) {
+			throw new IndexOutOfBoundsException("Word " + index + " of " + _size);
+		}
+	}
+}
@@ -0,0 +1,461 @@
+package com.telnet.server;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Dispatch table of the commands understood by the sessions. The command word of a parsed
+ * {@link CommandLine} is looked up in an open addressing hash table without creating a String,
+ * the hash is computed on the lower case characters so case insensitive commands need no
+ * conversion either.
+ * </p>
+ * <p>
+ * Lookups are lock free, registering a command copies the table so it should be done
+ * while the server starts up.
+ * </p>
+ * <p>
+ * Each command has the priority of its tasks in the {@link CommandExecutor}: the commands which
+ * hardly touch the file system are high, the walks, follows and transfers low. The follows and
+ * transfers are also long running, they get a thread of their own.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class CommandRegistry {
+
+	private final static String NOT_SUPPORTED = "Supplied command is not supported - Enter '?' for list of valid commands";
+	private final static int INITIAL_CAPACITY = 16;
+
+	private static final CommandRegistry DEFAULT = createDefault();
+
+	/**
+	 * tree [-d &lt;DEPTH&gt;] [&lt;DIRECTORY_NAME&gt;], du likewise, find &lt;PATTERN&gt; [-d &lt;DEPTH&gt;] [&lt;DIRECTORY_NAME&gt;]
+	 */
+	private static class WalkCommand implements Command {
+		private final TreeWalk.Kind _kind;
+
+		private WalkCommand(TreeWalk.Kind kind) {
+			_kind = kind;
+		}
+
+		public String execute(TelnetSession session, CommandLine line) {
+			int depth = -1;
+			String glob = null;
+			String dirStr = null;
+			for (int i = 1; i < line.size(); i++) {
+				if (line.matches(i, "-d", false)) {
+					if (++i == line.size()) {
+						return "Missing depth - " + line.get(0) + " -d <DEPTH>";
+					}
+					try {
+						depth = Integer.parseInt(line.get(i));
+					} catch (NumberFormatException nfe) {
+						depth = -1;
+					}
+					if (depth < 0) {
+						return "Invalid depth '" + line.get(i) + "'";
+					}
+				} else if (_kind == TreeWalk.Kind.FIND && glob == null) {
+					glob = line.get(i);
+				} else if (dirStr == null) {
+					dirStr = line.get(i);
+				}
+			}
+			if (_kind == TreeWalk.Kind.FIND && glob == null) {
+				return "Missing pattern - find <PATTERN> [-d <DEPTH>] [<DIRECTORY_NAME>]";
+			}
+			return session.walkTree(_kind, dirStr, depth, glob);
+		}
+	}
+
+	/**
+	 * cat &lt;FILE_NAME&gt;, head [-n &lt;LINES&gt;] &lt;FILE_NAME&gt;, tail [-n &lt;LINES&gt;] [-f] &lt;FILE_NAME&gt;
+	 */
+	private static class FileCommand implements Command {
+		private final FileContent.Kind _kind;
+
+		private FileCommand(FileContent.Kind kind) {
+			_kind = kind;
+		}
+
+		public String execute(TelnetSession session, CommandLine line) {
+			int lines = FileContent.DEFAULT_LINES;
+			boolean follow = false;
+			String fileStr = null;
+			for (int i = 1; i < line.size(); i++) {
+				if (_kind != FileContent.Kind.CAT && line.matches(i, "-n", false)) {
+					if (++i == line.size()) {
+						return "Missing number of lines - " + line.get(0) + " -n <LINES>";
+					}
+					try {
+						lines = Integer.parseInt(line.get(i));
+					} catch (NumberFormatException nfe) {
+						lines = -1;
+					}
+					if (lines < 0) {
+						return "Invalid number of lines '" + line.get(i) + "'";
+					}
+				} else if (_kind == FileContent.Kind.TAIL && line.matches(i, "-f", false)) {
+					follow = true;
+				} else if (fileStr == null) {
+					fileStr = line.get(i);
+				}
+			}
+			if (fileStr == null) {
+				return "Missing file name - " + line.get(0) + (_kind == FileContent.Kind.CAT ? "" : " [-n <LINES>]")
+						+ (_kind == FileContent.Kind.TAIL ? " [-f]" : "") + " <FILE_NAME>";
+			}
+			return session.showFile(_kind, fileStr, lines, follow);
+		}
+
+		/**
+		 * tail -f follows the file until the client sends another command or disconnects
+		 */
+		public boolean isLongRunning(CommandLine line) {
+			if (_kind != FileContent.Kind.TAIL) {
+				return false;
+			}
+			for (int i = 1; i < line.size(); i++) {
+				if (line.matches(i, "-f", false)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static class Slot {
+		private final String _name;
+		private final boolean _ignoreCase;
+		private final Command _command;
+		private final CommandExecutor.Priority _priority;
+
+		private Slot(String name, boolean ignoreCase, Command command, CommandExecutor.Priority priority) {
+			_name = name;
+			_ignoreCase = ignoreCase;
+			_command = command;
+			_priority = priority;
+		}
+	}
+
+	private volatile Slot[] _table = new Slot[INITIAL_CAPACITY];
+	private int _size = 0;
+	// command words in the order they were registered
+	private volatile String[] _names = new String[0];
+
+	/**
+	 * Registry with the built in commands, shared by all sessions unless the server provides its own
+	 * @return Default registry
+	 */
+	public static CommandRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Creates a new registry with the built in commands: ls, dir, cd, pwd, mkdir, tree, du, find, cat, head, tail, locate, ? and quit
+	 * @return Registry
+	 */
+	public static CommandRegistry createDefault() {
+		CommandRegistry registry = new CommandRegistry();
+		Command list = new Command() {
+			// ls [-n <COUNT>] [-s] [-c] [<DIRECTORY_NAME>]
+			public String execute(TelnetSession session, CommandLine line) {
+				int pageSize = 0;
+				boolean sorted = false;
+				String dirStr = null;
+				for (int i = 1; i < line.size(); i++) {
+					if (line.matches(i, "-c", false)) {
+						return session.continueListing();
+					} else if (line.matches(i, "-s", false)) {
+						sorted = true;
+					} else if (line.matches(i, "-n", false)) {
+						if (++i == line.size()) {
+							return "Missing page size - ls -n <COUNT>";
+						}
+						try {
+							pageSize = Integer.parseInt(line.get(i));
+						} catch (NumberFormatException nfe) {
+							pageSize = -1;
+						}
+						if (pageSize <= 0) {
+							return "Invalid page size '" + line.get(i) + "'";
+						}
+					} else if (dirStr == null) {
+						dirStr = line.get(i);
+					}
+				}
+				if (pageSize == 0 && !sorted) {
+					return dirStr == null ? session.listAllFiles() : session.listAllFiles(dirStr);
+				}
+				return session.listFiles(dirStr == null ? session.getCurrentWorkingDirectory() : dirStr, pageSize, sorted);
+			}
+		};
+		registry.register("ls", true, list);
+		registry.register("dir", true, list);
+		registry.register("cd", true, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				if (line.size() > 1) {
+					return session.changeCurrentWorkingDir(line.get(1));
+				}
+				return "";
+			}
+		}, CommandExecutor.Priority.HIGH);
+		registry.register("pwd", true, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				return session.getCurrentWorkingDirectory();
+			}
+		}, CommandExecutor.Priority.HIGH);
+		registry.register("mkdir", true, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				// Following is to support multiple directories provided as arguments
+				for (int i = 1; i < line.size(); i++) {
+					String result = session.createNewDir(line.get(i));
+					if (!result.equals("")) {
+						return result;
+					}
+				}
+				return "";
+			}
+		});
+		registry.register("tree", true, new WalkCommand(TreeWalk.Kind.TREE), CommandExecutor.Priority.LOW);
+		registry.register("du", true, new WalkCommand(TreeWalk.Kind.DU), CommandExecutor.Priority.LOW);
+		registry.register("find", true, new WalkCommand(TreeWalk.Kind.FIND), CommandExecutor.Priority.LOW);
+		registry.register("cat", true, new FileCommand(FileContent.Kind.CAT));
+		registry.register("head", true, new FileCommand(FileContent.Kind.HEAD));
+		// tail -f follows the file until the client disconnects
+		registry.register("tail", true, new FileCommand(FileContent.Kind.TAIL), CommandExecutor.Priority.LOW);
+		registry.register("locate", true, new Command() {
+			// locate [-i] [-n <COUNT>] <PATTERN>
+			public String execute(TelnetSession session, CommandLine line) {
+				boolean ignoreCase = false;
+				int limit = FileNameIndex.DEFAULT_LIMIT;
+				String pattern = null;
+				for (int i = 1; i < line.size(); i++) {
+					if (line.matches(i, "-i", false)) {
+						ignoreCase = true;
+					} else if (line.matches(i, "-n", false)) {
+						if (++i == line.size()) {
+							return "Missing count - locate -n <COUNT>";
+						}
+						try {
+							limit = Integer.parseInt(line.get(i));
+						} catch (NumberFormatException nfe) {
+							limit = -1;
+						}
+						if (limit <= 0) {
+							return "Invalid count '" + line.get(i) + "'";
+						}
+					} else if (pattern == null) {
+						pattern = line.get(i);
+					}
+				}
+				if (pattern == null) {
+					return "Missing pattern - locate [-i] [-n <COUNT>] <PATTERN>";
+				}
+				return session.locate(pattern, ignoreCase, limit);
+			}
+		});
+		registry.register("get", true, new Command() {
+			// get <FILE_NAME> [<OFFSET>]
+			public String execute(TelnetSession session, CommandLine line) {
+				if (line.size() < 2) {
+					return FileTransfer.ERR + " Missing file name - get <FILE_NAME> [<OFFSET>]";
+				}
+				long offset = line.size() > 2 ? parseLong(line.get(2)) : 0;
+				if (offset < 0) {
+					return FileTransfer.ERR + " Invalid offset '" + line.get(2) + "'";
+				}
+				return session.getFile(line.get(1), offset);
+			}
+
+			public boolean isLongRunning(CommandLine line) {
+				return true;
+			}
+		}, CommandExecutor.Priority.LOW);
+		registry.register("put", true, new Command() {
+			// put <FILE_NAME> <SIZE> [<OFFSET>]
+			public String execute(TelnetSession session, CommandLine line) {
+				if (line.size() < 3) {
+					return FileTransfer.ERR + " Missing file name or size - put <FILE_NAME> <SIZE> [<OFFSET>]";
+				}
+				long size = parseLong(line.get(2));
+				if (size < 0) {
+					return FileTransfer.ERR + " Invalid size '" + line.get(2) + "'";
+				}
+				long offset = line.size() > 3 ? parseLong(line.get(3)) : 0;
+				if (offset < 0) {
+					return FileTransfer.ERR + " Invalid offset '" + line.get(3) + "'";
+				}
+				return session.putFile(line.get(1), size, offset);
+			}
+
+			public boolean isLongRunning(CommandLine line) {
+				return true;
+			}
+		}, CommandExecutor.Priority.LOW);
+		registry.register("?", false, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				return session.getHelpOutput();
+			}
+		}, CommandExecutor.Priority.HIGH);
+		registry.register("quit", false, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				return session.quit();
+			}
+		}, CommandExecutor.Priority.HIGH);
+		return registry;
+	}
+
+	/**
+	 * Register a command of normal priority, an existing command with the same name is replaced
+	 * @param name Command word
+	 * @param ignoreCase true if the command word is case insensitive
+	 * @param command Command to run
+	 */
+	public void register(String name, boolean ignoreCase, Command command) {
+		register(name, ignoreCase, command, CommandExecutor.Priority.NORMAL);
+	}
+
+	/**
+	 * Register a command, an existing command with the same name is replaced
+	 * @param name Command word
+	 * @param ignoreCase true if the command word is case insensitive
+	 * @param command Command to run
+	 * @param priority Priority of the command in the {@link CommandExecutor}
+	 */
+	public synchronized void register(String name, boolean ignoreCase, Command command, CommandExecutor.Priority priority) {
+		if (name == null || name.length() == 0 || name.indexOf(' ') >= 0) {
+			throw new IllegalArgumentException("Invalid command name '" + name + "'");
+		}
+		Slot[] table = _table;
+		if ((_size + 1) * 2 > table.length) {
+			table = new Slot[table.length * 2];
+			for (Slot slot : _table) {
+				if (slot != null) {
+					insert(table, slot);
+				}
+			}
+		} else {
+			table = table.clone();
+		}
+		if (insert(table, new Slot(name, ignoreCase, command, priority))) {
+			_size++;
+			String[] names = Arrays.copyOf(_names, _names.length + 1);
+			names[names.length - 1] = name;
+			_names = names;
+		}
+		_table = table;
+	}
+
+	/**
+	 * Words of the registered commands
+	 * @return Command words in the order they were registered
+	 */
+	public String[] getNames() {
+		return _names.clone();
+	}
+
+	private static boolean insert(Slot[] table, Slot slot) {
+		int mask = table.length - 1;
+		int i = hash(slot._name) & mask;
+		while (table[i] != null) {
+			if (table[i]._name.equals(slot._name)) {
+				table[i] = slot;
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = slot;
+		return true;
+	}
+
+	/**
+	 * Find the command for the command word of the line
+	 * @param line Parsed command line with at least one word
+	 * @return Command or null if it is not supported
+	 */
+	public Command lookup(CommandLine line) {
+		Slot slot = find(line);
+		return slot == null ? null : slot._command;
+	}
+
+	/**
+	 * Priority of the command of the line, unknown commands are answered right away
+	 * @param line Parsed command line
+	 * @return Priority in the {@link CommandExecutor}
+	 */
+	public CommandExecutor.Priority priority(CommandLine line) {
+		Slot slot = line.size() == 0 ? null : find(line);
+		return slot == null ? CommandExecutor.Priority.HIGH : slot._priority;
+	}
+
+	/**
+	 * Whether the command of the line runs for as long as the client wants, e.g. tail -f or get
+	 * @param line Parsed command line
+	 * @return true if it needs a thread of its own
+	 */
+	public boolean isLongRunning(CommandLine line) {
+		Slot slot = line.size() == 0 ? null : find(line);
+		return slot != null && slot._command.isLongRunning(line);
+	}
+
+	private Slot find(CommandLine line) {
+		Slot[] table = _table;
+		int mask = table.length - 1;
+		int start = line.start(0);
+		int end = line.end(0);
+		int h = 0;
+		for (int i = start; i < end; i++) {
+			h = 31 * h + Character.toLowerCase(line.charAt(i));
+		}
+		int i = spread(h) & mask;
+		Slot slot = null;
+		while ((slot = table[i]) != null) {
+			if (line.matches(0, slot._name, slot._ignoreCase)) {
+				return slot;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Run the command of the line
+	 * @param session Session which received the command
+	 * @param line Parsed command line
+	 * @return Response as String
+	 */
+	public String execute(TelnetSession session, CommandLine line) {
+		if (line.size() == 0) {
+			return NOT_SUPPORTED;
+		}
+		Command command = lookup(line);
+		if (command == null) {
+			return NOT_SUPPORTED;
+		}
+		return command.execute(session, line);
+	}
+
+	/**
+	 * @return The number, -1 if it is not a positive number
+	 */
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	private static int hash(String name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			h = 31 * h + Character.toLowerCase(name.charAt(i));
+		}
+		return spread(h);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,202 @@
+package com.telnet.server;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * <p>
+ * Thread safe registry of the active client connections. Lookup by client id is O(1), connections are
+ * also indexed by remote address and by connect time. Adding and removing never blocks readers, the
+ * connect time index is a lock-free skip list and iterating never throws ConcurrentModificationException.
+ * Listings work on a snapshot ordered by connect time.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class ConnectionRegistry {
+
+	/**
+	 * Immutable registry entry of a connected client
+	 */
+	public static class Entry implements Comparable<Entry> {
+		private final String _clientId;
+		private final TelnetSession _client;
+		private final InetAddress _address;
+		private final long _connectedAt;
+		private final long _sequence;
+
+		private Entry(String clientId, TelnetSession client, InetAddress address, long connectedAt, long sequence) {
+			_clientId = clientId;
+			_client = client;
+			_address = address;
+			_connectedAt = connectedAt;
+			_sequence = sequence;
+		}
+
+		public String getClientId() {
+			return _clientId;
+		}
+
+		public TelnetSession getClient() {
+			return _client;
+		}
+
+		/**
+		 * @return Remote address or null if unknown
+		 */
+		public InetAddress getAddress() {
+			return _address;
+		}
+
+		/**
+		 * @return Connect time in milliseconds since the epoch
+		 */
+		public long getConnectedAt() {
+			return _connectedAt;
+		}
+
+		/**
+		 * Order by connect time, ties are broken by registration order
+		 */
+		public int compareTo(Entry other) {
+			if (_connectedAt != other._connectedAt) {
+				return _connectedAt < other._connectedAt ? -1 : 1;
+			}
+			return _sequence < other._sequence ? -1 : (_sequence == other._sequence ? 0 : 1);
+		}
+	}
+
+	private final ConcurrentMap<String, Entry> _byId = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentMap<InetAddress, Set<Entry>> _byAddress = new ConcurrentHashMap<InetAddress, Set<Entry>>();
+	private final ConcurrentSkipListSet<Entry> _byConnectTime = new ConcurrentSkipListSet<Entry>();
+	private final AtomicLong _sequence = new AtomicLong(0);
+
+	/**
+	 * Register the client under its unique id, an existing client with the same id is replaced
+	 * @param client Connected client
+	 * @return The new entry
+	 */
+	public Entry add(TelnetSession client) {
+		Socket socket = client.getSocket();
+		final Entry entry = new Entry(client.getMyUniqueId(), client, socket == null ? null : socket.getInetAddress(),
+				System.currentTimeMillis(), _sequence.incrementAndGet());
+		if (entry._clientId == null) {
+			return entry;
+		}
+		Entry previous = _byId.put(entry._clientId, entry);
+		if (previous != null) {
+			unindex(previous);
+		}
+		_byConnectTime.add(entry);
+		if (entry._address != null) {
+			// compute is atomic per address, so a concurrent removal can not drop the set we add to
+			_byAddress.compute(entry._address, new BiFunction<InetAddress, Set<Entry>, Set<Entry>>() {
+				public Set<Entry> apply(InetAddress address, Set<Entry> entries) {
+					if (entries == null) {
+						entries = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+					}
+					entries.add(entry);
+					return entries;
+				}
+			});
+		}
+		return entry;
+	}
+
+	/**
+	 * Remove the client
+	 * @param client Client to remove
+	 * @return The removed entry or null if the client was not registered
+	 */
+	public Entry remove(TelnetSession client) {
+		String clientId = client.getMyUniqueId();
+		if (clientId == null) {
+			return null;
+		}
+		Entry entry = _byId.get(clientId);
+		// only remove the entry registered for this very client
+		if (entry != null && entry._client == client && _byId.remove(clientId, entry)) {
+			unindex(entry);
+			return entry;
+		}
+		return null;
+	}
+
+	private void unindex(final Entry entry) {
+		_byConnectTime.remove(entry);
+		if (entry._address != null) {
+			_byAddress.computeIfPresent(entry._address, new BiFunction<InetAddress, Set<Entry>, Set<Entry>>() {
+				public Set<Entry> apply(InetAddress address, Set<Entry> entries) {
+					entries.remove(entry);
+					return entries.isEmpty() ? null : entries;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Lookup the client by its unique id
+	 * @param clientId Unique client id
+	 * @return Client or null
+	 */
+	public TelnetSession get(String clientId) {
+		Entry entry = _byId.get(clientId);
+		return entry == null ? null : entry._client;
+	}
+
+	/**
+	 * Number of registered clients
+	 * @return size
+	 */
+	public int size() {
+		return _byId.size();
+	}
+
+	/**
+	 * Snapshot of all entries ordered by connect time, oldest first
+	 * @return Entries
+	 */
+	public List<Entry> snapshot() {
+		return new ArrayList<Entry>(_byConnectTime);
+	}
+
+	/**
+	 * Snapshot of the entries connected from the given address
+	 * @param address Remote address
+	 * @return Entries, oldest first
+	 */
+	public List<Entry> getByAddress(InetAddress address) {
+		Set<Entry> entries = _byAddress.get(address);
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		List<Entry> result = new ArrayList<Entry>(entries);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Snapshot of the entries connected before the given time
+	 * @param timeMillis Time in milliseconds since the epoch
+	 * @return Entries, oldest first
+	 */
+	public List<Entry> getConnectedBefore(long timeMillis) {
+		List<Entry> result = new ArrayList<Entry>();
+		for (Entry entry : _byConnectTime) {
+			if (entry._connectedAt >= timeMillis) {
+				break;
+			}
+			result.add(entry);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,92 @@
+package com.telnet.server;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * <p>CRC32C (Castagnoli) of the file transfer chunks. JDK 9 and higher have java.util.zip.CRC32C, an
+ * intrinsic using the CPU instructions, which reads direct and mapped buffers in place. The server is
+ * built for older JDKs as well, so the class is looked up by reflection and a table driven
+ * implementation is used without it.</p>
+ * @author sjunejo
+ *
+ */
+public final class Crc32c {
+
+	// reflected polynomial
+	private final static int POLYNOMIAL = 0x82F63B78;
+	private final static int[] TABLE = createTable();
+
+	private final static Constructor<?> CONSTRUCTOR;
+	private final static Method UPDATE;
+
+	static {
+		Constructor<?> constructor = null;
+		Method update = null;
+		try {
+			Class<?> type = Class.forName("java.util.zip.CRC32C");
+			constructor = type.getConstructor();
+			update = type.getMethod("update", ByteBuffer.class);
+		} catch (ClassNotFoundException e) {
+			constructor = null;
+		} catch (NoSuchMethodException e) {
+			constructor = null;
+		}
+		CONSTRUCTOR = update == null ? null : constructor;
+		UPDATE = update;
+	}
+
+	private Crc32c() {
+	}
+
+	/**
+	 * Check if the running JDK has CRC32C
+	 * @return true on JDK 9 or higher, the table driven fallback is used otherwise
+	 */
+	public static boolean isSupported() {
+		return CONSTRUCTOR != null;
+	}
+
+	/**
+	 * CRC32C of the remaining bytes, the position of the buffer is left unchanged
+	 * @param data Bytes to check, heap, direct or mapped
+	 * @return Checksum
+	 */
+	public static int checksum(ByteBuffer data) {
+		if (CONSTRUCTOR != null) {
+			try {
+				Checksum checksum = (Checksum) CONSTRUCTOR.newInstance();
+				UPDATE.invoke(checksum, data.duplicate());
+				return (int) checksum.getValue();
+			} catch (Exception e) {
+				throw new IllegalStateException("Unable to compute CRC32C", e);
+			}
+		}
+		return checksumWithTable(data);
+	}
+
+	/**
+	 * Table driven CRC32C, used without the JDK class
+	 */
+	static int checksumWithTable(ByteBuffer data) {
+		int crc = 0xFFFFFFFF;
+		for (int i = data.position(); i < data.limit(); i++) {
+			crc = (crc >>> 8) ^ TABLE[(crc ^ data.get(i)) & 0xFF];
+		}
+		return ~crc;
+	}
+
+	private static int[] createTable() {
+		int[] table = new int[256];
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			table[i] = crc;
+		}
+		return table;
+	}
+}
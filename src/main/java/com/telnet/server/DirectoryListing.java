@@ -0,0 +1,199 @@
+package com.telnet.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Listing of a directory which is read page by page through a {@link DirectoryStream}, the entries
+ * are never materialised as a whole. The output is handed to the session in chunks so a huge
+ * directory is written to the socket while it is being read.
+ * </p>
+ * <p>
+ * An unsorted listing keeps the directory stream open between pages. A sorted listing reads the
+ * whole directory for every page but only keeps the next page of names in a bounded heap, the
+ * last name returned is the cursor for the following page.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class DirectoryListing implements Closeable {
+	private static Logger logger = Logger.getLogger(DirectoryListing.class.getName());
+
+	/** Output is handed to the session once this many characters are buffered */
+	protected final static int CHUNK_SIZE = 8192;
+	/** Page size of a sorted listing if none is given */
+	public final static int DEFAULT_SORTED_PAGE_SIZE = 1000;
+	protected final static String MORE = "-- more entries, enter 'ls -c' to continue --\n";
+
+	private final Path _dir;
+	private final int _pageSize;
+	private final boolean _sorted;
+
+	// unsorted listing
+	private volatile DirectoryStream<Path> _stream = null;
+	private Iterator<Path> _iterator = null;
+	// sorted listing
+	private String _lastName = null;
+
+	private volatile boolean _more = true;
+
+	/**
+	 * @param dir Directory to list
+	 * @param pageSize Max entries per page, 0 for all entries in one page
+	 * @param sorted true to list the entries ordered by name
+	 */
+	public DirectoryListing(Path dir, int pageSize, boolean sorted) {
+		_dir = dir;
+		_sorted = sorted;
+		_pageSize = (sorted && pageSize <= 0) ? DEFAULT_SORTED_PAGE_SIZE : pageSize;
+	}
+
+	/**
+	 * @return true if there are entries left for another page
+	 */
+	public boolean hasMore() {
+		return _more;
+	}
+
+	/**
+	 * List the next page, full chunks are sent to the session as soon as they are ready
+	 * @param session Session receiving the output
+	 * @return The rest of the output
+	 * @throws IOException If the directory can not be read
+	 */
+	public String nextPage(TelnetSession session) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		if (!_more) {
+			return "";
+		}
+		try {
+			if (_sorted) {
+				nextSortedPage(session, sb);
+			} else {
+				nextUnsortedPage(session, sb);
+			}
+		} catch (DirectoryIteratorException die) {
+			close();
+			throw die.getCause();
+		}
+		if (_more) {
+			sb.append(MORE);
+		}
+		return sb.toString();
+	}
+
+	private void nextUnsortedPage(TelnetSession session, StringBuilder sb) throws IOException {
+		if (_stream == null) {
+			_stream = Files.newDirectoryStream(_dir);
+			_iterator = _stream.iterator();
+		}
+		// the session may be closed by another thread, a closed stream simply has no more entries
+		Iterator<Path> iterator = _iterator;
+		int count = 0;
+		while ((_pageSize <= 0 || count < _pageSize) && iterator.hasNext()) {
+			append(session, sb, iterator.next());
+			count++;
+		}
+		if (!iterator.hasNext()) {
+			close();
+		}
+	}
+
+	private void nextSortedPage(TelnetSession session, StringBuilder sb) throws IOException {
+		// max heap of the smallest names after the cursor, the head is the one to drop first
+		PriorityQueue<String> page = new PriorityQueue<String>(_pageSize + 1, Collections.<String>reverseOrder());
+		boolean more = false;
+		DirectoryStream<Path> stream = Files.newDirectoryStream(_dir);
+		try {
+			for (Path entry : stream) {
+				String name = entry.getFileName().toString();
+				if (_lastName != null && name.compareTo(_lastName) <= 0) {
+					continue;
+				}
+				if (page.size() < _pageSize) {
+					page.add(name);
+				} else if (name.compareTo(page.peek()) < 0) {
+					page.poll();
+					page.add(name);
+					more = true;
+				} else {
+					more = true;
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		List<String> names = new ArrayList<String>(page);
+		Collections.sort(names);
+		for (String name : names) {
+			append(session, sb, _dir.resolve(name));
+		}
+		if (!names.isEmpty()) {
+			_lastName = names.get(names.size() - 1);
+		}
+		_more = more;
+	}
+
+	private void append(TelnetSession session, StringBuilder sb, Path entry) {
+		appendEntry(sb, entry);
+		if (sb.length() >= CHUNK_SIZE && session.isStreaming()) {
+			session.sendPartialReply(sb.toString());
+			sb.setLength(0);
+		}
+	}
+
+	/**
+	 * Append the listing line of the entry
+	 * @param sb Listing
+	 * @param entry Directory entry
+	 */
+	static void appendEntry(StringBuilder sb, Path entry) {
+		if (isDirectory(entry)) {
+			sb.append("<DIR>__ ");
+		} else {
+			sb.append("_______ ");
+		}
+		sb.append(entry.getFileName().toString()).append("\n");
+	}
+
+	/**
+	 * Entries returned by a directory stream may carry their attributes (e.g. on Windows), so
+	 * they are read through the entry itself rather than by another lookup of the name
+	 */
+	private static boolean isDirectory(Path entry) {
+		try {
+			return Files.readAttributes(entry, BasicFileAttributes.class).isDirectory();
+		} catch (IOException ioe) {
+			// e.g. broken link or removed while listing
+			return false;
+		}
+	}
+
+	/**
+	 * Release the directory stream, no more pages can be listed afterwards
+	 */
+	public void close() {
+		_more = false;
+		DirectoryStream<Path> stream = _stream;
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException ioe) {
+				logger.log(Level.FINE, "Failed to close directory stream of " + _dir, ioe);
+			}
+		}
+	}
+}
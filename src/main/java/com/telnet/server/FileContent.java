@@ -0,0 +1,321 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Content of a file for the 'cat', 'head' and 'tail' commands. The file is memory-mapped a window
+ * at a time and handed to the session as regions of the mapping, the session writes them to the
+ * socket without copying them through the Java heap: {@link FileChannel#transferTo} for a blocking
+ * socket channel, the mapped buffers themselves for the NIO sessions.
+ * </p>
+ * <p>
+ * 'head' and 'tail' only map the part of the file holding the lines, 'tail' searches backwards
+ * from the end. 'tail -f' then polls the size of the file and sends what has been appended, until
+ * the client sends a command, disconnects or the server drains.
+ * </p>
+ * <p>
+ * The byte 255 is the Telnet IAC and has to be sent twice, the regions are cut after each one and
+ * the next region starts on it again so it is doubled without copying. Where the IAC are dense, e.g.
+ * in a binary file, the cuts would send a tiny region per IAC: such a chunk is copied to the heap
+ * with the IAC doubled and sent in one piece instead.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class FileContent {
+
+	public final static int DEFAULT_LINES = 10;
+	// mapped at a time
+	final static int WINDOW_SIZE = 4 * 1024 * 1024;
+	// without a session to stream to, e.g. unit tests
+	final static int MAX_REPLY = 1024 * 1024;
+	private final static long FOLLOW_POLL_MILLIS = 200;
+	private final static int COPY_BUFFER_SIZE = 64 * 1024;
+	private final static byte IAC = (byte) TelnetCodec.IAC;
+	// scanned for IAC at a time, a chunk holding more than IAC_COPY_THRESHOLD of them is copied
+	final static int IAC_CHUNK_SIZE = 64 * 1024;
+	final static int IAC_COPY_THRESHOLD = 16;
+
+	public enum Kind {
+		/** whole file */
+		CAT,
+		/** first lines */
+		HEAD,
+		/** last lines */
+		TAIL
+	}
+
+	/**
+	 * Receives the regions of a mapped window to send
+	 */
+	public interface Sink {
+		/**
+		 * @param window Mapped window of the file
+		 * @param start First byte of the region in the window
+		 * @param end End of the region in the window, exclusive
+		 * @param position Position of the first byte in the file
+		 * @throws IOException
+		 */
+		void write(MappedByteBuffer window, int start, int end, long position) throws IOException;
+
+		/**
+		 * @param content Chunk copied to the heap with each IAC already doubled, not reused afterwards
+		 * @throws IOException
+		 */
+		void write(ByteBuffer content) throws IOException;
+	}
+
+	private FileContent() {
+	}
+
+	/**
+	 * Send the lines of the file to the session
+	 * @param session Session receiving the content
+	 * @param kind Command
+	 * @param path File to show
+	 * @param lines head and tail: number of lines
+	 * @param follow tail: keep sending what is appended to the file
+	 * @return The rest of the output, the content itself if the session does not stream
+	 * @throws IOException If the file can not be read
+	 */
+	public static String show(TelnetSession session, Kind kind, Path path, int lines, boolean follow) throws IOException {
+		FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = file.size();
+			long start = kind == Kind.TAIL ? tailStart(file, size, lines) : 0;
+			long end = kind == Kind.HEAD ? headEnd(file, size, lines) : size;
+			if (!session.isStreaming()) {
+				return read(file, start, end);
+			}
+			session.sendFileContent(file, start, end - start);
+			if (follow) {
+				follow(session, file, path, size);
+			}
+			return "";
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Send what is appended to the file until the session has something else to do
+	 */
+	private static void follow(TelnetSession session, FileChannel file, Path path, long position) throws IOException {
+		while (!session.isDisconnected() && !session.hasPendingInput() && !session.isServerStopping()) {
+			long size = file.size();
+			if (size < position) {
+				// truncated by a log rotation, start over like tail
+				session.sendPartialReply("-- " + path + " truncated --" + TelnetSession.LINE_SEPARATOR);
+				position = 0;
+			} else if (size > position) {
+				session.sendFileContent(file, position, size - position);
+				position = size;
+				// following, not idle
+				session.touch();
+			} else {
+				try {
+					Thread.sleep(FOLLOW_POLL_MILLIS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * End of the first lines, the file is mapped forwards until they are found
+	 * @return Position after the last newline of the lines, the size if the file is shorter
+	 */
+	static long headEnd(FileChannel file, long size, int lines) throws IOException {
+		if (lines <= 0) {
+			return 0;
+		}
+		int found = 0;
+		for (long position = 0; position < size; position += WINDOW_SIZE) {
+			MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+			for (int i = 0; i < window.limit(); i++) {
+				if (window.get(i) == '\n' && ++found == lines) {
+					return position + i + 1;
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Start of the last lines, the file is mapped backwards from the end until they are found
+	 * @return Position after the newline before the lines, 0 if the file is shorter
+	 */
+	static long tailStart(FileChannel file, long size, int lines) throws IOException {
+		if (lines <= 0) {
+			return size;
+		}
+		int found = 0;
+		// the newline ending the last line does not start a line
+		long last = size - 1;
+		for (long end = size; end > 0; end -= WINDOW_SIZE) {
+			long position = Math.max(0, end - WINDOW_SIZE);
+			MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+			for (int i = window.limit() - 1; i >= 0; i--) {
+				if (window.get(i) == '\n' && position + i != last && ++found == lines) {
+					return position + i + 1;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Cut the region of the file into mapped regions for the sink, each IAC is sent twice. The chunks
+	 * dense in IAC are copied instead.
+	 * @param file File to send
+	 * @param position First byte
+	 * @param count Number of bytes
+	 * @param sink Receives the regions in order
+	 * @throws IOException
+	 */
+	public static void send(FileChannel file, long position, long count, Sink sink) throws IOException {
+		long end = position + count;
+		// IAC of the chunk scanned, as long as they are few enough to cut the chunk on them
+		int[] iacs = new int[IAC_COPY_THRESHOLD];
+		while (position < end) {
+			int length = (int) Math.min(WINDOW_SIZE, end - position);
+			MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, position, length);
+			int start = 0;
+			try {
+				for (int chunk = 0; chunk < length; chunk += IAC_CHUNK_SIZE) {
+					int chunkEnd = Math.min(length, chunk + IAC_CHUNK_SIZE);
+					int found = 0;
+					for (int i = chunk; i < chunkEnd && found <= IAC_COPY_THRESHOLD; i++) {
+						if (window.get(i) == IAC) {
+							if (found < IAC_COPY_THRESHOLD) {
+								iacs[found] = i;
+							}
+							found++;
+						}
+					}
+					if (found > IAC_COPY_THRESHOLD) {
+						if (start < chunk) {
+							sink.write(window, start, chunk, position + start);
+						}
+						sink.write(escape(window, chunk, chunkEnd));
+						start = chunkEnd;
+						continue;
+					}
+					for (int i = 0; i < found; i++) {
+						sink.write(window, start, iacs[i] + 1, position + start);
+						// sent again with the next region
+						start = iacs[i];
+					}
+				}
+			} catch (InternalError ie) {
+				// an access to a mapping beyond the end of a truncated file
+				throw new IOException("File truncated while it was read", ie);
+			}
+			if (start < length) {
+				sink.write(window, start, length, position + start);
+			}
+			position += length;
+		}
+	}
+
+	/**
+	 * Copy a chunk of the window to the heap with each IAC doubled
+	 */
+	private static ByteBuffer escape(MappedByteBuffer window, int start, int end) {
+		int iacs = 0;
+		for (int i = start; i < end; i++) {
+			if (window.get(i) == IAC) {
+				iacs++;
+			}
+		}
+		byte[] content = new byte[end - start + iacs];
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			byte b = window.get(i);
+			content[length++] = b;
+			if (b == IAC) {
+				content[length++] = IAC;
+			}
+		}
+		return ByteBuffer.wrap(content);
+	}
+
+	/**
+	 * Send the region with sendfile, the socket channel has to be in blocking mode
+	 * @return Bytes sent, the doubled IAC included
+	 */
+	static long transfer(final FileChannel file, long position, long count, final WritableByteChannel target) throws IOException {
+		final long[] sent = { 0 };
+		send(file, position, count, new Sink() {
+			public void write(MappedByteBuffer window, int start, int end, long position) throws IOException {
+				long remaining = end - start;
+				while (remaining > 0) {
+					long written = file.transferTo(position, remaining, target);
+					if (written <= 0) {
+						// the file has been truncated
+						throw new IOException("File truncated while it was sent");
+					}
+					position += written;
+					remaining -= written;
+					sent[0] += written;
+				}
+			}
+
+			public void write(ByteBuffer content) throws IOException {
+				while (content.hasRemaining()) {
+					sent[0] += target.write(content);
+				}
+			}
+		});
+		return sent[0];
+	}
+
+	/**
+	 * Send the region through a stream, for the sockets without a channel
+	 */
+	static void copy(FileChannel file, long position, long count, final OutputStream out) throws IOException {
+		final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		send(file, position, count, new Sink() {
+			public void write(MappedByteBuffer window, int start, int end, long position) throws IOException {
+				ByteBuffer region = window.duplicate();
+				region.limit(end).position(start);
+				while (region.hasRemaining()) {
+					int length = Math.min(buffer.length, region.remaining());
+					region.get(buffer, 0, length);
+					out.write(buffer, 0, length);
+				}
+			}
+
+			public void write(ByteBuffer content) throws IOException {
+				out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+			}
+		});
+		out.flush();
+	}
+
+	/**
+	 * Content of the region as text, up to {@link #MAX_REPLY} bytes
+	 */
+	private static String read(FileChannel file, long start, long end) throws IOException {
+		int length = (int) Math.min(end - start, MAX_REPLY);
+		ByteBuffer content = ByteBuffer.allocate(length);
+		while (content.hasRemaining() && file.read(content, start + content.position()) > 0) {
+		}
+		content.flip();
+		String text = TelnetSession.CHARSET.decode(content).toString();
+		if (end - start > length) {
+			text += TelnetSession.LINE_SEPARATOR + "-- " + (end - start - length) + " more bytes --";
+		}
+		return text;
+	}
+}
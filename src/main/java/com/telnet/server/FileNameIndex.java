@@ -0,0 +1,934 @@
+package com.telnet.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * In-memory index of the file names below a few root directories for the 'locate' command. The
+ * index is built by a background thread and kept up to date from the events of a
+ * {@link WatchService} and from the directories created by the sessions.
+ * </p>
+ * <p>
+ * Memory layout: the distinct names are interned once, back to back in a char array, and an entry
+ * is a parent, a name id and the links to its first child and next sibling in parallel int arrays,
+ * about 33 bytes per entry plus the names. Each name is indexed by its trigrams (lower case), a query
+ * intersects the name lists of the trigrams of its pattern and only checks these names, then lists
+ * the entries having them.
+ * </p>
+ * <p>
+ * An entry deleted, with the entries below it, is dropped from the lookup table but stays in the
+ * arrays, the index is rebuilt once half of it is deleted, or when the watch service has lost events.
+ * A directory created or moved in is walked before the index is locked, the queries are only held
+ * up while its entries are added.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class FileNameIndex {
+	private static Logger logger = Logger.getLogger(FileNameIndex.class.getName());
+
+	public final static int DEFAULT_LIMIT = 1000;
+
+	private final static int GRAM = 3;
+	private final static int MIN_REBUILD_ENTRIES = 1024;
+
+	/**
+	 * Receives the entries of a walk
+	 */
+	private interface Sink {
+		/**
+		 * @param parent Entry of the parent directory, -1 for the directory walked
+		 * @return Entry id
+		 */
+		int add(int parent, String name, boolean directory);
+	}
+
+	/**
+	 * Entries of a path created or deleted, read from the file system without holding the lock and
+	 * then applied to the index
+	 */
+	private static class Scan implements Sink {
+		private final Path _path;
+		private boolean _exists = false;
+		private int _size = 0;
+		private int[] _parent = new int[16];
+		private String[] _name = new String[16];
+		private boolean[] _directory = new boolean[16];
+
+		private Scan(Path path) {
+			_path = path;
+		}
+
+		public int add(int parent, String name, boolean directory) {
+			if (_size == _parent.length) {
+				_parent = Arrays.copyOf(_parent, _size * 2);
+				_name = Arrays.copyOf(_name, _size * 2);
+				_directory = Arrays.copyOf(_directory, _size * 2);
+			}
+			_parent[_size] = parent;
+			_name[_size] = name;
+			_directory[_size] = directory;
+			return _size++;
+		}
+	}
+
+	/**
+	 * Entries and names of one build, written under the write lock of the FileNameIndex once it is
+	 * published
+	 */
+	private static class Index implements Sink {
+		private final static byte DIRECTORY = 1;
+		private final static byte DELETED = 2;
+
+		// entries
+		private int _size = 0;
+		private int _deleted = 0;
+		private int[] _parent = new int[1024];
+		private int[] _name = new int[1024];
+		// next entry with the same name, -1 at the end
+		private int[] _nextSameName = new int[1024];
+		// children of a directory, -1 at the end
+		private int[] _firstChild = new int[1024];
+		private int[] _nextSibling = new int[1024];
+		private byte[] _flags = new byte[1024];
+		// (parent, name) -> entry + 1, 0 free, -1 deleted
+		private int[] _children = new int[2048];
+		private int _childrenUsed = 0;
+
+		// interned names
+		private int _names = 0;
+		private char[] _chars = new char[16384];
+		private int[] _nameStart = new int[1025];
+		private int[] _firstEntry = new int[1024];
+		// name -> name id + 1, 0 free
+		private int[] _nameTable = new int[2048];
+
+		// trigram -> ascending name ids
+		private int _grams = 0;
+		private long[] _gramKeys = new long[1024];
+		private int[][] _gramNames = new int[1024][];
+		private int[] _gramSizes = new int[1024];
+
+		private final List<Path> _roots = new ArrayList<Path>();
+		private final List<Integer> _rootEntries = new ArrayList<Integer>();
+
+		/**
+		 * Add an entry, or return the existing one of the same name under the parent
+		 * @param parent Entry of the parent directory, -1 for a root
+		 * @return Entry id
+		 */
+		public int add(int parent, String name, boolean directory) {
+			int nameId = intern(name);
+			int existing = lookup(parent, nameId);
+			if (existing >= 0) {
+				_flags[existing] = directory ? DIRECTORY : 0;
+				return existing;
+			}
+			if (_size == _parent.length) {
+				int capacity = _size * 2;
+				_parent = Arrays.copyOf(_parent, capacity);
+				_name = Arrays.copyOf(_name, capacity);
+				_nextSameName = Arrays.copyOf(_nextSameName, capacity);
+				_firstChild = Arrays.copyOf(_firstChild, capacity);
+				_nextSibling = Arrays.copyOf(_nextSibling, capacity);
+				_flags = Arrays.copyOf(_flags, capacity);
+			}
+			int entry = _size++;
+			_parent[entry] = parent;
+			_name[entry] = nameId;
+			_flags[entry] = directory ? DIRECTORY : 0;
+			_nextSameName[entry] = _firstEntry[nameId];
+			_firstEntry[nameId] = entry;
+			_firstChild[entry] = -1;
+			_nextSibling[entry] = parent < 0 ? -1 : _firstChild[parent];
+			if (parent >= 0) {
+				_firstChild[parent] = entry;
+			}
+			if ((_childrenUsed + 1) * 2 > _children.length) {
+				rehashChildren(_children.length * 2);
+			}
+			insertChild(_children, entry);
+			_childrenUsed++;
+			return entry;
+		}
+
+		/**
+		 * Add the entries of a walk below the parent
+		 * @param parent Entry of the parent directory
+		 */
+		private void add(int parent, Scan scan) {
+			int[] entries = new int[scan._size];
+			for (int i = 0; i < scan._size; i++) {
+				int p = scan._parent[i];
+				entries[i] = add(p < 0 ? parent : entries[p], scan._name[i], scan._directory[i]);
+			}
+		}
+
+		/**
+		 * Drop the entry and the entries below it
+		 * @return Entries dropped
+		 */
+		private int remove(int entry) {
+			int removed = 0;
+			int[] stack = new int[64];
+			int depth = 0;
+			stack[depth++] = entry;
+			while (depth > 0) {
+				int e = stack[--depth];
+				if ((_flags[e] & DELETED) != 0) {
+					continue;
+				}
+				int mask = _children.length - 1;
+				int i = childHash(_parent[e], _name[e]) & mask;
+				while (_children[i] != 0) {
+					if (_children[i] == e + 1) {
+						_children[i] = -1;
+						break;
+					}
+					i = (i + 1) & mask;
+				}
+				_flags[e] |= DELETED;
+				removed++;
+				for (int c = _firstChild[e]; c >= 0; c = _nextSibling[c]) {
+					if (depth == stack.length) {
+						stack = Arrays.copyOf(stack, depth * 2);
+					}
+					stack[depth++] = c;
+				}
+			}
+			_deleted += removed;
+			return removed;
+		}
+
+		private int lookup(int parent, int nameId) {
+			int mask = _children.length - 1;
+			int i = childHash(parent, nameId) & mask;
+			int slot;
+			while ((slot = _children[i]) != 0) {
+				if (slot > 0 && _parent[slot - 1] == parent && _name[slot - 1] == nameId) {
+					return slot - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		private void rehashChildren(int capacity) {
+			int[] children = new int[capacity];
+			int used = 0;
+			for (int slot : _children) {
+				if (slot > 0) {
+					insertChild(children, slot - 1);
+					used++;
+				}
+			}
+			// the deleted slots are gone
+			_children = children;
+			_childrenUsed = used;
+		}
+
+		private void insertChild(int[] children, int entry) {
+			int mask = children.length - 1;
+			int i = childHash(_parent[entry], _name[entry]) & mask;
+			while (children[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			children[i] = entry + 1;
+		}
+
+		private static int childHash(int parent, int nameId) {
+			int h = parent * 0x9E3779B9 + nameId;
+			return h ^ (h >>> 16);
+		}
+
+		/**
+		 * @return Id of the name, added to the names and the trigrams if new
+		 */
+		private int intern(String name) {
+			int h = name.hashCode();
+			h ^= h >>> 16;
+			int mask = _nameTable.length - 1;
+			int i = h & mask;
+			int slot;
+			while ((slot = _nameTable[i]) != 0) {
+				if (nameEquals(slot - 1, name)) {
+					return slot - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			int nameId = _names++;
+			if (_names == _firstEntry.length) {
+				_firstEntry = Arrays.copyOf(_firstEntry, _names * 2);
+				_nameStart = Arrays.copyOf(_nameStart, _names * 2 + 1);
+			}
+			int start = _nameStart[nameId];
+			if (start + name.length() > _chars.length) {
+				_chars = Arrays.copyOf(_chars, Math.max(_chars.length * 2, start + name.length()));
+			}
+			name.getChars(0, name.length(), _chars, start);
+			_nameStart[nameId + 1] = start + name.length();
+			_firstEntry[nameId] = -1;
+			_nameTable[i] = nameId + 1;
+			if (_names * 2 > _nameTable.length) {
+				rehashNames(_nameTable.length * 2);
+			}
+			for (int c = 0; c + GRAM <= name.length(); c++) {
+				addGram(gram(name, c), nameId);
+			}
+			return nameId;
+		}
+
+		private boolean nameEquals(int nameId, String name) {
+			int start = _nameStart[nameId];
+			if (_nameStart[nameId + 1] - start != name.length()) {
+				return false;
+			}
+			for (int c = 0; c < name.length(); c++) {
+				if (_chars[start + c] != name.charAt(c)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rehashNames(int capacity) {
+			int[] table = new int[capacity];
+			int mask = capacity - 1;
+			for (int nameId = 0; nameId < _names; nameId++) {
+				int h = getName(nameId).hashCode();
+				h ^= h >>> 16;
+				int i = h & mask;
+				while (table[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				table[i] = nameId + 1;
+			}
+			_nameTable = table;
+		}
+
+		private String getName(int nameId) {
+			return new String(_chars, _nameStart[nameId], _nameStart[nameId + 1] - _nameStart[nameId]);
+		}
+
+		private void addGram(long key, int nameId) {
+			int g = findGram(key);
+			if (g < 0) {
+				if ((_grams + 1) * 2 > _gramKeys.length) {
+					rehashGrams(_gramKeys.length * 2);
+					// the free slot has moved
+					g = findGram(key);
+				}
+				g = -g - 1;
+				_gramKeys[g] = key;
+				_gramNames[g] = new int[4];
+				_grams++;
+			}
+			int size = _gramSizes[g];
+			int[] names = _gramNames[g];
+			// a name repeating a trigram is listed once
+			if (size > 0 && names[size - 1] == nameId) {
+				return;
+			}
+			if (size == names.length) {
+				names = Arrays.copyOf(names, size * 2);
+				_gramNames[g] = names;
+			}
+			names[size] = nameId;
+			_gramSizes[g] = size + 1;
+		}
+
+		/**
+		 * @return Slot of the trigram, or -(free slot) - 1 if it is not indexed
+		 */
+		private int findGram(long key) {
+			int mask = _gramKeys.length - 1;
+			int i = (int) (key ^ (key >>> 21)) * 0x9E3779B9;
+			i = (i ^ (i >>> 16)) & mask;
+			while (_gramNames[i] != null) {
+				if (_gramKeys[i] == key) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+			return -i - 1;
+		}
+
+		private void rehashGrams(int capacity) {
+			long[] keys = _gramKeys;
+			int[][] names = _gramNames;
+			int[] sizes = _gramSizes;
+			_gramKeys = new long[capacity];
+			_gramNames = new int[capacity][];
+			_gramSizes = new int[capacity];
+			for (int g = 0; g < keys.length; g++) {
+				if (names[g] != null) {
+					int i = -findGram(keys[g]) - 1;
+					_gramKeys[i] = keys[g];
+					_gramNames[i] = names[g];
+					_gramSizes[i] = sizes[g];
+				}
+			}
+		}
+
+		private static long gram(CharSequence s, int start) {
+			long key = 0;
+			for (int c = start; c < start + GRAM; c++) {
+				key = (key << 16) | Character.toLowerCase(s.charAt(c));
+			}
+			return key;
+		}
+
+		/**
+		 * Entry of a path below one of the roots
+		 * @return Entry id or -1 if it is not indexed
+		 */
+		private int find(Path path) {
+			for (int r = 0; r < _roots.size(); r++) {
+				Path root = _roots.get(r);
+				if (path.startsWith(root)) {
+					int entry = _rootEntries.get(r);
+					for (Path segment : root.relativize(path)) {
+						String name = segment.toString();
+						if (name.length() == 0) {
+							continue;
+						}
+						int nameId = findName(name);
+						entry = nameId < 0 ? -1 : lookup(entry, nameId);
+						if (entry < 0) {
+							return -1;
+						}
+					}
+					return entry;
+				}
+			}
+			return -1;
+		}
+
+		private int findName(String name) {
+			int h = name.hashCode();
+			h ^= h >>> 16;
+			int mask = _nameTable.length - 1;
+			int i = h & mask;
+			int slot;
+			while ((slot = _nameTable[i]) != 0) {
+				if (nameEquals(slot - 1, name)) {
+					return slot - 1;
+				}
+				i = (i + 1) & mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return Full path of the entry, null if it or a parent is deleted
+		 */
+		private String path(int entry, int[] stack) {
+			int depth = 0;
+			for (int e = entry; e >= 0; e = _parent[e]) {
+				if ((_flags[e] & DELETED) != 0) {
+					return null;
+				}
+				if (depth == stack.length) {
+					stack = Arrays.copyOf(stack, depth * 2);
+				}
+				stack[depth++] = e;
+			}
+			StringBuilder sb = new StringBuilder();
+			for (int d = depth - 1; d >= 0; d--) {
+				if (d < depth - 1 && sb.charAt(sb.length() - 1) != File.separatorChar) {
+					sb.append(File.separatorChar);
+				}
+				int nameId = _name[stack[d]];
+				sb.append(_chars, _nameStart[nameId], _nameStart[nameId + 1] - _nameStart[nameId]);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Names containing all the trigrams of the literals
+		 * @return Ascending name ids, null if the literals are too short to filter and all names are candidates
+		 */
+		private int[] candidates(List<String> literals) {
+			List<int[]> lists = new ArrayList<int[]>();
+			List<Integer> sizes = new ArrayList<Integer>();
+			for (String literal : literals) {
+				for (int c = 0; c + GRAM <= literal.length(); c++) {
+					int g = findGram(gram(literal, c));
+					if (g < 0) {
+						return new int[0];
+					}
+					lists.add(_gramNames[g]);
+					sizes.add(_gramSizes[g]);
+				}
+			}
+			if (lists.isEmpty()) {
+				return null;
+			}
+			int smallest = 0;
+			for (int l = 1; l < lists.size(); l++) {
+				if (sizes.get(l) < sizes.get(smallest)) {
+					smallest = l;
+				}
+			}
+			int[] result = new int[sizes.get(smallest)];
+			int count = 0;
+			int[] first = lists.get(smallest);
+			for (int n = 0; n < sizes.get(smallest); n++) {
+				boolean all = true;
+				for (int l = 0; l < lists.size() && all; l++) {
+					all = l == smallest || Arrays.binarySearch(lists.get(l), 0, sizes.get(l), first[n]) >= 0;
+				}
+				if (all) {
+					result[count++] = first[n];
+				}
+			}
+			return Arrays.copyOf(result, count);
+		}
+	}
+
+	private final List<Path> _roots;
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private Index _index = new Index();
+	private volatile boolean _building = false;
+	private volatile boolean _built = false;
+	private boolean _rebuildRequested = false;
+	// changes while a new index is built, applied to it before it replaces the current one
+	private List<Scan> _pendingChanges = null;
+	private WatchService _watchService = null;
+	private Thread _builder = null;
+	private Thread _watcher = null;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param roots Directories to index, their canonical paths
+	 */
+	public FileNameIndex(List<Path> roots) {
+		_roots = new ArrayList<Path>(roots);
+	}
+
+	/**
+	 * Build the index in the background and start watching the roots
+	 */
+	public synchronized void start() {
+		try {
+			_watchService = FileSystems.getDefault().newWatchService();
+			_watcher = new Thread("telnet-index-watcher") {
+				public void run() {
+					processEvents();
+				}
+			};
+			_watcher.setDaemon(true);
+			_watcher.start();
+		} catch (IOException ioe) {
+			logger.log(Level.WARNING, "Unable to watch the indexed directories, the index is not updated", ioe);
+		}
+		rebuild();
+	}
+
+	/**
+	 * Build a new index in the background, the current one answers the queries meanwhile
+	 */
+	public synchronized void rebuild() {
+		if (_closed) {
+			return;
+		}
+		if (_builder != null) {
+			// once the running build is done
+			_rebuildRequested = true;
+			return;
+		}
+		_building = true;
+		_lock.writeLock().lock();
+		try {
+			_pendingChanges = new ArrayList<Scan>();
+		} finally {
+			_lock.writeLock().unlock();
+		}
+		_builder = new Thread("telnet-index-builder") {
+			public void run() {
+				build();
+			}
+		};
+		_builder.setDaemon(true);
+		_builder.start();
+	}
+
+	private void build() {
+		long start = System.nanoTime();
+		final Index index = new Index();
+		for (Path root : _roots) {
+			if (_closed) {
+				break;
+			}
+			index._roots.add(root);
+			index._rootEntries.add(walk(index, -1, root, true));
+		}
+		_lock.writeLock().lock();
+		try {
+			// the changes seen meanwhile, the walk may or may not have seen them
+			for (Scan changed : _pendingChanges) {
+				apply(index, changed);
+			}
+			_pendingChanges = null;
+			_index = index;
+			_built = true;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+		logger.log(Level.INFO, "Indexed " + index._size + " entries, " + index._names + " names in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		synchronized (this) {
+			_builder = null;
+			_building = false;
+			if (_rebuildRequested) {
+				_rebuildRequested = false;
+				rebuild();
+			}
+		}
+	}
+
+	/**
+	 * Add the directory and everything below it, watching the directories
+	 * @param parent Entry of the parent directory, -1 for a root
+	 * @param root true if the path is one of the roots, its entry is named by the full path
+	 * @return Entry of the directory
+	 */
+	private int walk(final Sink index, int parent, Path dir, boolean root) {
+		final int[] stack = new int[256];
+		final int[] depth = { 0 };
+		final int top = root ? index.add(-1, dir.toString(), true) : index.add(parent, dir.getFileName().toString(), true);
+		stack[0] = top;
+		watch(dir);
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				private int[] _stack = stack;
+				private boolean _first = true;
+
+				public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+					if (_closed) {
+						return FileVisitResult.TERMINATE;
+					}
+					if (_first) {
+						// the start directory is added already
+						_first = false;
+						return FileVisitResult.CONTINUE;
+					}
+					int entry = index.add(_stack[depth[0]], d.getFileName().toString(), true);
+					if (++depth[0] == _stack.length) {
+						_stack = Arrays.copyOf(_stack, _stack.length * 2);
+					}
+					_stack[depth[0]] = entry;
+					watch(d);
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					index.add(_stack[depth[0]], file.getFileName().toString(), attrs.isDirectory());
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+					// e.g. no permission, the rest is indexed
+					logger.log(Level.FINE, "Unable to index " + file, ioe);
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult postVisitDirectory(Path d, IOException ioe) {
+					if (depth[0] > 0) {
+						depth[0]--;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Unable to index " + dir, ioe);
+		}
+		return top;
+	}
+
+	private void watch(Path dir) {
+		WatchService watchService = _watchService;
+		if (watchService == null) {
+			return;
+		}
+		try {
+			dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException ioe) {
+			// e.g. out of inotify watches, this directory is not kept up to date
+			logger.log(Level.FINE, "Unable to watch " + dir, ioe);
+		} catch (ClosedWatchServiceException cwse) {
+			// closed
+		}
+	}
+
+	/**
+	 * Read the entries of the path, everything below it for a directory
+	 */
+	private Scan scan(Path path) {
+		Scan scan = new Scan(path);
+		BasicFileAttributes attributes = null;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException ioe) {
+			// deleted
+		}
+		if (attributes != null) {
+			scan._exists = true;
+			if (attributes.isDirectory()) {
+				walk(scan, -1, path, false);
+			} else {
+				scan.add(-1, path.getFileName().toString(), false);
+			}
+		}
+		return scan;
+	}
+
+	/**
+	 * Bring the entry of the path up to date with its scan, called under the write lock
+	 */
+	private void apply(Index index, Scan scan) {
+		int parent = index.find(scan._path.getParent());
+		if (parent < 0) {
+			return;
+		}
+		if (scan._exists) {
+			index.add(parent, scan);
+		} else {
+			int entry = index.find(scan._path);
+			if (entry >= 0) {
+				index.remove(entry);
+			}
+		}
+	}
+
+	/**
+	 * Update the index for a path created or deleted, e.g. by mkdir
+	 * @param path Canonical path
+	 */
+	public void changed(Path path) {
+		// a later event of the same path corrects a scan overtaken by another change
+		Scan scan = scan(path);
+		boolean rebuild = false;
+		_lock.writeLock().lock();
+		try {
+			if (_pendingChanges != null) {
+				_pendingChanges.add(scan);
+			}
+			apply(_index, scan);
+			rebuild = _index._deleted > MIN_REBUILD_ENTRIES && _index._deleted * 2 > _index._size;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+		if (rebuild && !_building) {
+			rebuild();
+		}
+	}
+
+	private void processEvents() {
+		try {
+			while (!_closed) {
+				WatchKey key = _watchService.take();
+				Path dir = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						rebuild();
+					} else {
+						changed(dir.resolve((Path) event.context()));
+					}
+				}
+				key.reset();
+			}
+		} catch (ClosedWatchServiceException cwse) {
+			// index closed
+		} catch (InterruptedException ie) {
+			// index closed
+		}
+	}
+
+	/**
+	 * Find the entries whose name matches the pattern: a part of the name, or the whole name with
+	 * the wildcards '*', '?' and '[...]'
+	 * @param pattern Name pattern
+	 * @param ignoreCase true to ignore the case
+	 * @param limit Max paths returned, the first ones by name
+	 * @param paths Receives the full paths, sorted
+	 * @return Number of entries matching, may be more than the paths returned
+	 */
+	public int locate(String pattern, boolean ignoreCase, int limit, List<String> paths) {
+		boolean glob = pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0;
+		Pattern regex = glob ? Pattern.compile(globToRegex(pattern), ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0) : null;
+		String lowerPattern = pattern.toLowerCase();
+		List<String> literals = glob ? literals(pattern) : Collections.singletonList(pattern);
+		int count = 0;
+		int[] stack = new int[64];
+		PriorityQueue<String> first = new PriorityQueue<String>(Math.min(limit, 1024), Collections.<String>reverseOrder());
+		_lock.readLock().lock();
+		try {
+			Index index = _index;
+			int[] candidates = index.candidates(literals);
+			int names = candidates == null ? index._names : candidates.length;
+			for (int n = 0; n < names; n++) {
+				int nameId = candidates == null ? n : candidates[n];
+				String name = index.getName(nameId);
+				boolean matches = glob ? regex.matcher(name).matches()
+						: (ignoreCase ? name.toLowerCase().contains(lowerPattern) : name.contains(pattern));
+				if (!matches) {
+					continue;
+				}
+				for (int e = index._firstEntry[nameId]; e >= 0; e = index._nextSameName[e]) {
+					if (index._parent[e] < 0) {
+						// a root, named by its path
+						continue;
+					}
+					String path = index.path(e, stack);
+					if (path != null) {
+						// the first paths by name
+						if (count < limit) {
+							first.add(path);
+						} else if (path.compareTo(first.peek()) < 0) {
+							first.poll();
+							first.add(path);
+						}
+						count++;
+					}
+				}
+			}
+		} finally {
+			_lock.readLock().unlock();
+		}
+		List<String> sorted = new ArrayList<String>(first);
+		Collections.sort(sorted);
+		paths.addAll(sorted);
+		return count;
+	}
+
+	/**
+	 * @return Runs of characters without wildcards
+	 */
+	private static List<String> literals(String glob) {
+		List<String> literals = new ArrayList<String>();
+		StringBuilder sb = new StringBuilder();
+		boolean inClass = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (inClass) {
+				inClass = c != ']';
+			} else if (c == '*' || c == '?' || c == '[') {
+				inClass = c == '[';
+				if (sb.length() > 0) {
+					literals.add(sb.toString());
+					sb.setLength(0);
+				}
+			} else {
+				sb.append(c);
+			}
+		}
+		if (sb.length() > 0) {
+			literals.add(sb.toString());
+		}
+		return literals;
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder sb = new StringBuilder();
+		boolean inClass = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (inClass) {
+				if (c == ']') {
+					inClass = false;
+					sb.append(']');
+				} else if (c == '\\' || c == '[') {
+					sb.append('\\').append(c);
+				} else {
+					sb.append(c);
+				}
+			} else if (c == '*') {
+				sb.append(".*");
+			} else if (c == '?') {
+				sb.append('.');
+			} else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+				inClass = true;
+				sb.append('[');
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+					sb.append('^');
+					i++;
+				}
+			} else {
+				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return true while the first build has not completed
+	 */
+	public boolean isBuilding() {
+		return !_built;
+	}
+
+	/**
+	 * @return Entries indexed, including the roots
+	 */
+	public int getEntries() {
+		_lock.readLock().lock();
+		try {
+			return _index._size - _index._deleted;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Distinct names indexed
+	 */
+	public int getNames() {
+		_lock.readLock().lock();
+		try {
+			return _index._names;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public List<Path> getRoots() {
+		return Collections.unmodifiableList(_roots);
+	}
+
+	/**
+	 * Stop the updates, the index answers the queries until it is dropped
+	 */
+	public synchronized void close() {
+		_closed = true;
+		if (_watchService != null) {
+			try {
+				_watchService.close();
+			} catch (IOException ioe) {
+				logger.log(Level.FINE, "Failed to close watch service", ioe);
+			}
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package com.telnet.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Binary transfer mode of the 'get' and 'put' commands. The command answers with the line
+ * "+TRANSFER GET|PUT &lt;SIZE&gt; &lt;OFFSET&gt; &lt;CHUNK&gt; &lt;WINDOW&gt;", then both sides
+ * exchange frames until the transfer ends and the session is back at the prompt with a line
+ * "+OK ..." or "-ERR ...". The frames bypass the Telnet layer, the byte 255 is not doubled.
+ * {@link FileTransferClient} is a client speaking it.
+ * </p>
+ * <p>
+ * A frame starts with a header of {@link #HEADER_SIZE} bytes, big-endian: type, length of the
+ * payload, offset in the file and CRC32C of the payload.
+ * </p>
+ * <ul>
+ * <li>DATA: the chunk of the file at the offset, at most CHUNK bytes</li>
+ * <li>ACK: the offset up to which the chunks have been verified and written, cumulative</li>
+ * <li>END: the sender has nothing more to send, its data ends at the offset</li>
+ * <li>ERROR: the receiver stops, message in UTF-8 as payload, offset of the verified part</li>
+ * </ul>
+ * <p>
+ * At most WINDOW chunks are sent ahead of the last ACK. The verified part of a failed transfer is
+ * kept, the transfer is resumed from an offset: 'get' from the length of the local file, 'put' from
+ * the offset given in the -ERR line. A connection or protocol failure closes the connection as the
+ * frames could be taken for commands.
+ * </p>
+ * <p>
+ * A 'get' sends the chunks from the page cache: {@link FileChannel#transferTo} to a blocking socket
+ * channel, the mapped chunks themselves on the NIO sessions. A 'put' reads each chunk into a direct
+ * buffer and writes it with a positional write once its CRC32C matches.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class FileTransfer {
+
+	public final static String TRANSFER = "+TRANSFER";
+	public final static String OK = "+OK";
+	public final static String ERR = "-ERR";
+
+	public final static byte DATA = 'D';
+	public final static byte ACK = 'A';
+	public final static byte END = 'E';
+	public final static byte ERROR = 'X';
+
+	public final static int HEADER_SIZE = 17;
+	public final static int CHUNK_SIZE = 256 * 1024;
+	// chunks sent ahead of the ACK
+	public final static int WINDOW = 8;
+	// longest ERROR message
+	public final static int MAX_MESSAGE = 1024;
+	// input queued for a NIO session, the window and a few frames
+	final static int INPUT_CAPACITY = WINDOW * (HEADER_SIZE + CHUNK_SIZE) + 64 * 1024;
+	// chunks mapped at a time
+	private final static int MAP_SIZE = 16 * CHUNK_SIZE;
+
+	private FileTransfer() {
+	}
+
+	/**
+	 * Send the file to the client, from the offset
+	 * @param session Session switched to the transfer mode
+	 * @param path File to send
+	 * @param offset First byte, the length the client already has
+	 * @return Last line of the transfer, +OK or -ERR
+	 */
+	public static String get(TelnetSession session, Path path, long offset) {
+		if (!session.isStreaming()) {
+			return ERR + " Transfers need a connected session";
+		}
+		FileChannel file = null;
+		try {
+			file = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (IOException ioe) {
+			return ERR + " Failed to read " + path + " - " + ioe.getMessage();
+		}
+		try {
+			long size = file.size();
+			if (offset > size) {
+				return ERR + " Offset " + offset + " beyond the " + size + " bytes of " + path;
+			}
+			ReadableByteChannel in = session.openTransferInput();
+			try {
+				session.sendPartialReply(TRANSFER + " GET " + size + " " + offset + " " + CHUNK_SIZE + " " + WINDOW + TelnetSession.LINE_SEPARATOR);
+				return sendFile(session, in, file, offset, size);
+			} finally {
+				session.closeTransferInput();
+			}
+		} catch (IOException ioe) {
+			session.abortTransfer();
+			return ERR + " Transfer failed - " + ioe.getMessage();
+		} finally {
+			close(file);
+		}
+	}
+
+	/**
+	 * Receive the file from the client, from the offset
+	 * @param session Session switched to the transfer mode
+	 * @param path File to write, created if needed
+	 * @param size Size of the file once complete
+	 * @param offset First byte, the length already received
+	 * @return Last line of the transfer, +OK or -ERR
+	 */
+	public static String put(TelnetSession session, Path path, long size, long offset) {
+		if (!session.isStreaming()) {
+			return ERR + " Transfers need a connected session";
+		}
+		long length = 0;
+		try {
+			length = Files.exists(path) ? Files.size(path) : 0;
+		} catch (IOException ioe) {
+			return ERR + " Failed to write " + path + " - " + ioe.getMessage();
+		}
+		if (offset > length) {
+			return ERR + " Offset " + offset + " beyond the " + length + " bytes of " + path;
+		} else if (offset > size) {
+			return ERR + " Offset " + offset + " beyond the size " + size;
+		}
+		FileChannel file = null;
+		try {
+			file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		} catch (IOException ioe) {
+			return ERR + " Failed to write " + path + " - " + ioe.getMessage();
+		}
+		try {
+			ReadableByteChannel in = session.openTransferInput();
+			try {
+				session.sendPartialReply(TRANSFER + " PUT " + size + " " + offset + " " + CHUNK_SIZE + " " + WINDOW + TelnetSession.LINE_SEPARATOR);
+				return receiveFile(session, in, file, offset, size);
+			} finally {
+				session.closeTransferInput();
+			}
+		} catch (IOException ioe) {
+			session.abortTransfer();
+			return ERR + " Transfer failed - " + ioe.getMessage();
+		} finally {
+			close(file);
+		}
+	}
+
+	private static String sendFile(TelnetSession session, ReadableByteChannel in, FileChannel file, long offset, long size) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + MAX_MESSAGE);
+		MappedByteBuffer window = null;
+		long windowStart = 0;
+		long sent = offset;
+		long acked = offset;
+		boolean first = true;
+		while (acked < size) {
+			if (sent < size && sent - acked < (long) WINDOW * CHUNK_SIZE) {
+				if (window == null || sent >= windowStart + window.limit()) {
+					windowStart = sent;
+					window = file.map(FileChannel.MapMode.READ_ONLY, sent, Math.min(MAP_SIZE, size - sent));
+				}
+				int start = (int) (sent - windowStart);
+				int length = Math.min(CHUNK_SIZE, window.limit() - start);
+				ByteBuffer chunk = window.duplicate();
+				chunk.limit(start + length).position(start);
+				chunk = chunk.slice();
+				int crc;
+				try {
+					crc = Crc32c.checksum(chunk);
+				} catch (InternalError ie) {
+					// an access to a mapping beyond the end of a truncated file
+					throw new IOException("File truncated while it was sent", ie);
+				}
+				session.sendTransferFrame(header(DATA, length, sent, crc), file, sent, chunk);
+				sent += length;
+				continue;
+			}
+			readFrame(in, frame, first);
+			first = false;
+			long position = frame.getLong(5);
+			if (frame.get(0) == ACK) {
+				if (position < acked || position > sent) {
+					throw new IOException("ACK of offset " + position + " outside of " + acked + "-" + sent);
+				}
+				acked = position;
+				// transferring, not idle
+				session.touch();
+			} else if (frame.get(0) == ERROR) {
+				session.sendTransferFrame(header(END, 0, sent, 0), null, 0, null);
+				return ERR + " Aborted by the client at offset " + position + " - " + message(frame);
+			} else {
+				throw new IOException("Unexpected frame '" + (char) frame.get(0) + "'");
+			}
+		}
+		session.sendTransferFrame(header(END, 0, size, 0), null, 0, null);
+		return OK + " " + (size - offset) + " bytes sent";
+	}
+
+	private static String receiveFile(TelnetSession session, ReadableByteChannel in, FileChannel file, long offset, long size) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + MAX_MESSAGE);
+		ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		long received = offset;
+		// the chunks are discarded until END once set
+		String error = null;
+		boolean first = true;
+		while (true) {
+			readFrame(in, frame, first);
+			first = false;
+			byte type = frame.get(0);
+			long position = frame.getLong(5);
+			if (type == DATA) {
+				int length = frame.getInt(1);
+				if (length < 0 || length > CHUNK_SIZE) {
+					throw new IOException("Invalid chunk length " + length);
+				}
+				chunk.clear();
+				chunk.limit(length);
+				readFully(in, chunk);
+				chunk.flip();
+				if (error != null) {
+					continue;
+				}
+				if (position != received) {
+					error = "Chunk at offset " + position + " instead of " + received;
+				} else if (received + length > size) {
+					error = "More than the " + size + " bytes announced";
+				} else if (Crc32c.checksum(chunk) != frame.getInt(13)) {
+					error = "CRC32C mismatch of the chunk at offset " + position;
+				} else {
+					try {
+						while (chunk.hasRemaining()) {
+							received += file.write(chunk, received);
+						}
+					} catch (IOException ioe) {
+						error = "Failed to write at offset " + received + " - " + ioe.getMessage();
+					}
+				}
+				if (error != null) {
+					session.sendTransferFrame(error(received, error), null, 0, null);
+				} else {
+					session.sendTransferFrame(header(ACK, 0, received, 0), null, 0, null);
+					session.touch();
+				}
+			} else if (type == END) {
+				if (error != null) {
+					return ERR + " " + error + ", " + received + " bytes kept, resume with offset " + received;
+				} else if (received < size) {
+					return ERR + " Ended at offset " + received + " of " + size + ", resume with offset " + received;
+				}
+				file.truncate(size);
+				return OK + " " + (size - offset) + " bytes received";
+			} else if (type == ERROR) {
+				return ERR + " Aborted by the client at offset " + received + " - " + message(frame);
+			} else {
+				throw new IOException("Unexpected frame '" + (char) type + "'");
+			}
+		}
+	}
+
+	/**
+	 * Header of a frame, ready to be written
+	 * @param type DATA, ACK, END or ERROR
+	 * @param length Length of the payload
+	 * @param offset Offset in the file
+	 * @param crc CRC32C of the payload
+	 * @return Buffer of {@link #HEADER_SIZE} bytes
+	 */
+	public static ByteBuffer header(byte type, int length, long offset, int crc) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.put(type).putInt(length).putLong(offset).putInt(crc);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * ERROR frame with its message
+	 */
+	public static ByteBuffer error(long offset, String message) {
+		byte[] bytes = message.getBytes(TelnetSession.CHARSET);
+		int length = Math.min(bytes.length, MAX_MESSAGE);
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+		frame.put(ERROR).putInt(length).putLong(offset).putInt(0).put(bytes, 0, length);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Read a frame other than DATA with its payload, or the header of a DATA frame
+	 * @param first true for the first frame, the end of the command line may still be waiting
+	 */
+	private static void readFrame(ReadableByteChannel in, ByteBuffer frame, boolean first) throws IOException {
+		frame.clear();
+		frame.limit(1);
+		readFully(in, frame);
+		// LF or NUL of a CR LF / CR NUL split from the command line
+		while (first && (frame.get(0) == '\n' || frame.get(0) == 0)) {
+			frame.clear();
+			frame.limit(1);
+			readFully(in, frame);
+		}
+		frame.limit(HEADER_SIZE);
+		readFully(in, frame);
+		byte type = frame.get(0);
+		int length = frame.getInt(1);
+		if (type == ERROR) {
+			if (length < 0 || length > MAX_MESSAGE) {
+				throw new IOException("Invalid message length " + length);
+			}
+			frame.limit(HEADER_SIZE + length);
+			readFully(in, frame);
+		} else if (type != DATA && length != 0) {
+			throw new IOException("Unexpected payload of " + length + " bytes");
+		}
+	}
+
+	private static String message(ByteBuffer frame) {
+		ByteBuffer payload = frame.duplicate();
+		payload.limit(HEADER_SIZE + frame.getInt(1)).position(HEADER_SIZE);
+		return TelnetSession.CHARSET.decode(payload).toString();
+	}
+
+	/**
+	 * Fill the remaining bytes of the buffer
+	 * @throws EOFException If the connection ends first
+	 */
+	static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				throw new EOFException("Connection closed during the transfer");
+			}
+		}
+	}
+
+	/**
+	 * Send a frame to a blocking socket channel, the chunk with sendfile
+	 * @return Bytes sent
+	 */
+	static long transfer(ByteBuffer header, FileChannel file, long position, long count, WritableByteChannel target) throws IOException {
+		long sent = 0;
+		while (header.hasRemaining()) {
+			sent += target.write(header);
+		}
+		long end = position + count;
+		while (position < end) {
+			long written = file.transferTo(position, end - position, target);
+			if (written <= 0) {
+				throw new IOException("File truncated while it was sent");
+			}
+			position += written;
+			sent += written;
+		}
+		return sent;
+	}
+
+	/**
+	 * Send a frame through a stream with one write, for the sockets without a channel
+	 * @param buffer At least {@link #HEADER_SIZE} + {@link #CHUNK_SIZE} bytes
+	 */
+	static void copy(ByteBuffer header, ByteBuffer chunk, OutputStream out, byte[] buffer) throws IOException {
+		int length = header.remaining();
+		header.get(buffer, 0, length);
+		if (chunk != null) {
+			int count = chunk.remaining();
+			try {
+				chunk.duplicate().get(buffer, length, count);
+			} catch (InternalError ie) {
+				throw new IOException("File truncated while it was sent", ie);
+			}
+			length += count;
+		}
+		out.write(buffer, 0, length);
+		out.flush();
+	}
+
+	private static void close(FileChannel file) {
+		try {
+			file.close();
+		} catch (IOException ioe) {
+			// nothing left to do with the file
+		}
+	}
+
+	/**
+	 * <p>
+	 * Input of a transfer on a NIO session: the selector thread offers the bytes it reads, the
+	 * worker running the command reads them. Bounded to {@link #INPUT_CAPACITY} bytes, a client
+	 * sending beyond the window fails the transfer.
+	 * </p>
+	 */
+	static class Input implements ReadableByteChannel {
+		private final byte[] _buffer;
+		private int _head = 0;
+		private int _size = 0;
+		private boolean _closed = false;
+		private boolean _overflow = false;
+
+		Input(int capacity) {
+			_buffer = new byte[capacity];
+		}
+
+		/**
+		 * Queue the bytes read from the client, called on the selector thread
+		 * @param in Bytes read, all consumed
+		 */
+		synchronized void offer(ByteBuffer in) {
+			if (in.remaining() > _buffer.length - _size) {
+				_overflow = true;
+				in.position(in.limit());
+			}
+			while (in.hasRemaining()) {
+				int tail = (_head + _size) % _buffer.length;
+				int length = Math.min(in.remaining(), _buffer.length - tail);
+				in.get(_buffer, tail, length);
+				_size += length;
+			}
+			notifyAll();
+		}
+
+		public synchronized int read(ByteBuffer dst) throws IOException {
+			while (_size == 0 && !_closed && !_overflow) {
+				try {
+					wait();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted during the transfer");
+				}
+			}
+			if (_overflow) {
+				throw new IOException("The client sent more than the transfer window");
+			} else if (_size == 0) {
+				return -1;
+			}
+			int count = 0;
+			while (_size > 0 && dst.hasRemaining()) {
+				int length = Math.min(Math.min(_size, _buffer.length - _head), dst.remaining());
+				dst.put(_buffer, _head, length);
+				_head = (_head + length) % _buffer.length;
+				_size -= length;
+				count += length;
+			}
+			return count;
+		}
+
+		public synchronized boolean isOpen() {
+			return !_closed;
+		}
+
+		/**
+		 * End of the input, the reader gets the bytes queued then the end of stream
+		 */
+		public synchronized void close() {
+			_closed = true;
+			notifyAll();
+		}
+	}
+}
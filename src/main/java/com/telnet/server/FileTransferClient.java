@@ -0,0 +1,327 @@
+package com.telnet.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>
+ * Client of the binary transfer mode of the 'get' and 'put' commands, see {@link FileTransfer}.
+ * It sends the command, waits for the +TRANSFER line, exchanges the frames and reads the last
+ * line; the session is then at the prompt again for the next transfer.
+ * </p>
+ * <pre>
+ * java -cp telnet-server.jar com.telnet.server.FileTransferClient &lt;HOST&gt; &lt;PORT&gt; get &lt;REMOTE_FILE&gt; [&lt;LOCAL_FILE&gt;]
+ * java -cp telnet-server.jar com.telnet.server.FileTransferClient &lt;HOST&gt; &lt;PORT&gt; put &lt;LOCAL_FILE&gt; [&lt;REMOTE_FILE&gt;] [&lt;OFFSET&gt;]
+ * </pre>
+ * <p>A 'get' resumes from the length of the local file, delete it to download the whole file again.</p>
+ * @author sjunejo
+ *
+ */
+public class FileTransferClient implements Closeable {
+
+	private final static int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final SocketChannel _channel;
+	// text and frames read ahead
+	private final ByteBuffer _in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private final ByteBuffer _frame = ByteBuffer.allocate(FileTransfer.HEADER_SIZE + FileTransfer.MAX_MESSAGE);
+	private ByteBuffer _chunk = null;
+
+	public FileTransferClient(String host, int port) throws IOException {
+		_channel = SocketChannel.open(new InetSocketAddress(host, port));
+		_channel.socket().setTcpNoDelay(true);
+		_in.flip();
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 4 || !("get".equals(args[2]) || "put".equals(args[2]))) {
+			System.err.println("Usage: FileTransferClient <HOST> <PORT> get <REMOTE_FILE> [<LOCAL_FILE>]");
+			System.err.println("       FileTransferClient <HOST> <PORT> put <LOCAL_FILE> [<REMOTE_FILE>] [<OFFSET>]");
+			System.exit(2);
+		}
+		FileTransferClient client = null;
+		try {
+			client = new FileTransferClient(args[0], Integer.parseInt(args[1]));
+			long start = System.nanoTime();
+			long bytes;
+			if ("get".equals(args[2])) {
+				bytes = client.get(args[3], new File(args.length > 4 ? args[4] : new File(args[3]).getName()));
+			} else {
+				File local = new File(args[3]);
+				bytes = client.put(local, args.length > 4 ? args[4] : local.getName(), args.length > 5 ? Long.parseLong(args[5]) : 0);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("%d bytes in %.2f s, %.1f MB/s", bytes, seconds, bytes / seconds / (1024 * 1024)));
+		} catch (IOException ioe) {
+			System.err.println(ioe.getMessage());
+			System.exit(1);
+		} finally {
+			if (client != null) {
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Download the file, from the length of the local file if it exists
+	 * @param remote File on the server, relative to the working directory of the session
+	 * @param local File written
+	 * @return Bytes received
+	 * @throws IOException If the transfer fails, the verified part is kept
+	 */
+	public long get(String remote, File local) throws IOException {
+		long offset = local.exists() ? local.length() : 0;
+		sendCommand("get " + remote + (offset > 0 ? " " + offset : ""));
+		String[] transfer = awaitTransfer("GET");
+		long size = Long.parseLong(transfer[2]);
+		allocateChunk(Integer.parseInt(transfer[4]));
+		FileChannel file = FileChannel.open(local.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		long received = offset;
+		String error = null;
+		try {
+			while (true) {
+				readFrame();
+				byte type = _frame.get(0);
+				long position = _frame.getLong(5);
+				if (type == FileTransfer.END) {
+					break;
+				} else if (type != FileTransfer.DATA) {
+					throw new IOException("Unexpected frame '" + (char) type + "'");
+				}
+				readChunk(_frame.getInt(1));
+				if (error != null) {
+					// in flight before the ERROR
+					continue;
+				}
+				if (position != received) {
+					error = "Chunk at offset " + position + " instead of " + received;
+				} else if (Crc32c.checksum(_chunk) != _frame.getInt(13)) {
+					error = "CRC32C mismatch of the chunk at offset " + position;
+				}
+				if (error != null) {
+					write(FileTransfer.error(received, error));
+					continue;
+				}
+				while (_chunk.hasRemaining()) {
+					received += file.write(_chunk, received);
+				}
+				write(FileTransfer.header(FileTransfer.ACK, 0, received, 0));
+			}
+			if (error == null && received == size) {
+				file.truncate(size);
+			}
+		} finally {
+			file.close();
+		}
+		awaitReply();
+		return received - offset;
+	}
+
+	/**
+	 * Upload the file
+	 * @param local File to send
+	 * @param remote File on the server, relative to the working directory of the session
+	 * @param offset First byte, the length the server already has
+	 * @return Bytes sent
+	 * @throws IOException If the transfer fails, the message tells the offset to resume with
+	 */
+	public long put(File local, String remote, long offset) throws IOException {
+		FileChannel file = FileChannel.open(local.toPath(), StandardOpenOption.READ);
+		try {
+			long size = file.size();
+			sendCommand("put " + remote + " " + size + (offset > 0 ? " " + offset : ""));
+			String[] transfer = awaitTransfer("PUT");
+			int chunkSize = Integer.parseInt(transfer[4]);
+			long window = (long) chunkSize * Integer.parseInt(transfer[5]);
+			allocateChunk(chunkSize);
+			ByteBuffer[] frame = new ByteBuffer[2];
+			long sent = offset;
+			long acked = offset;
+			while (acked < size) {
+				if (sent < size && sent - acked < window) {
+					_chunk.clear();
+					_chunk.limit((int) Math.min(chunkSize, size - sent));
+					while (_chunk.hasRemaining()) {
+						if (file.read(_chunk, sent + _chunk.position()) < 0) {
+							throw new EOFException(local + " truncated while it was sent");
+						}
+					}
+					_chunk.flip();
+					frame[0] = FileTransfer.header(FileTransfer.DATA, _chunk.remaining(), sent, Crc32c.checksum(_chunk));
+					frame[1] = _chunk;
+					sent += _chunk.remaining();
+					while (frame[1].hasRemaining()) {
+						_channel.write(frame);
+					}
+					continue;
+				}
+				readFrame();
+				if (_frame.get(0) == FileTransfer.ACK) {
+					acked = _frame.getLong(5);
+				} else if (_frame.get(0) == FileTransfer.ERROR) {
+					// the server discards the rest until END
+					break;
+				} else {
+					throw new IOException("Unexpected frame '" + (char) _frame.get(0) + "'");
+				}
+			}
+			write(FileTransfer.header(FileTransfer.END, 0, sent, 0));
+			awaitReply();
+			return size - offset;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Leave the session
+	 */
+	public void close() {
+		try {
+			sendCommand("quit");
+		} catch (IOException ioe) {
+			// closed anyway
+		}
+		try {
+			_channel.close();
+		} catch (IOException ioe) {
+			// nothing left to do
+		}
+	}
+
+	private void sendCommand(String command) throws IOException {
+		write(ByteBuffer.wrap((command + "\r\n").getBytes(TelnetSession.CHARSET)));
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			_channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Wait for the line starting the transfer
+	 * @return Words of the +TRANSFER line
+	 * @throws IOException With the -ERR line if the server refused the transfer
+	 */
+	private String[] awaitTransfer(String kind) throws IOException {
+		String line = readReply();
+		String[] words = line.split(" ");
+		if (!FileTransfer.TRANSFER.equals(words[0]) || words.length < 6 || !kind.equals(words[1])) {
+			throw new IOException(line);
+		}
+		return words;
+	}
+
+	/**
+	 * Wait for the last line of the transfer
+	 * @throws IOException With the -ERR line if the transfer failed
+	 */
+	private void awaitReply() throws IOException {
+		String line = readReply();
+		if (!line.startsWith(FileTransfer.OK)) {
+			throw new IOException(line);
+		}
+	}
+
+	/**
+	 * Read the lines until one has a reply of the transfer mode, the welcome message and the
+	 * prompt before are skipped
+	 * @return The reply, from the +TRANSFER, +OK or -ERR on
+	 */
+	private String readReply() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			if (!_in.hasRemaining()) {
+				fill();
+			}
+			byte b = _in.get();
+			if (b != '\n') {
+				line.write(b);
+				continue;
+			}
+			String text = new String(line.toByteArray(), TelnetSession.CHARSET).trim();
+			line.reset();
+			for (String marker : new String[] { FileTransfer.TRANSFER, FileTransfer.OK, FileTransfer.ERR }) {
+				int i = text.indexOf(marker);
+				if (i >= 0) {
+					return text.substring(i);
+				}
+			}
+		}
+	}
+
+	private void readFrame() throws IOException {
+		_frame.clear();
+		_frame.limit(FileTransfer.HEADER_SIZE);
+		readFully(_frame);
+		int length = _frame.getInt(1);
+		if (_frame.get(0) == FileTransfer.ERROR) {
+			if (length < 0 || length > FileTransfer.MAX_MESSAGE) {
+				throw new IOException("Invalid message length " + length);
+			}
+			// the message is repeated by the -ERR line
+			_frame.limit(FileTransfer.HEADER_SIZE + length);
+			readFully(_frame);
+		} else if (_frame.get(0) != FileTransfer.DATA && length != 0) {
+			throw new IOException("Unexpected payload of " + length + " bytes");
+		}
+	}
+
+	private void readChunk(int length) throws IOException {
+		if (length < 0 || length > _chunk.capacity()) {
+			throw new IOException("Invalid chunk length " + length);
+		}
+		_chunk.clear();
+		_chunk.limit(length);
+		readFully(_chunk);
+		_chunk.flip();
+	}
+
+	/**
+	 * Fill the buffer, from what has been read ahead first
+	 */
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (_in.hasRemaining()) {
+				ByteBuffer ahead = _in.duplicate();
+				ahead.limit(ahead.position() + Math.min(ahead.remaining(), buffer.remaining()));
+				buffer.put(ahead);
+				_in.position(ahead.position());
+			} else if (buffer.remaining() >= READ_BUFFER_SIZE) {
+				// large chunks are read in place
+				if (_channel.read(buffer) < 0) {
+					throw new EOFException("Connection closed during the transfer");
+				}
+			} else {
+				fill();
+			}
+		}
+	}
+
+	private void fill() throws IOException {
+		_in.clear();
+		int count = _channel.read(_in);
+		_in.flip();
+		if (count < 0) {
+			throw new EOFException("Connection closed by the server");
+		}
+	}
+
+	private void allocateChunk(int size) throws IOException {
+		if (size <= 0 || size > 64 * 1024 * 1024) {
+			throw new IOException("Invalid chunk size " + size);
+		}
+		if (_chunk == null || _chunk.capacity() < size) {
+			_chunk = ByteBuffer.allocateDirect(size);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.telnet.server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * <p>
+ * Concurrent histogram of durations in nanoseconds. Every power of two is split into 8 buckets, so a
+ * percentile is reported with at most 12.5% error, which is plenty to tell a slow command from a fast one.
+ * </p>
+ * <p>
+ * Recording is lock free, the buckets and the sum are striped counters ({@link LongAdder}) which do
+ * not contend when many threads record at once. Reading sums the stripes and may miss a value
+ * recorded at the same time.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class LatencyHistogram {
+	private final static int SUB_BUCKET_BITS = 3;
+	private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private final static int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final LongAdder[] _buckets = new LongAdder[BUCKETS];
+	private final LongAdder _sum = new LongAdder();
+	private final LongAccumulator _max = new LongAccumulator(new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			_buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record one duration
+	 * @param nanos Duration, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : nanos;
+		_buckets[bucket(value)].increment();
+		_sum.add(value);
+		_max.accumulate(value);
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	// largest value of the bucket
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (LongAdder bucket : _buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return Sum of the recorded durations in nanoseconds
+	 */
+	public long getSum() {
+		return _sum.sum();
+	}
+
+	/**
+	 * @return Largest recorded duration in nanoseconds
+	 */
+	public long getMax() {
+		return _max.get();
+	}
+
+	/**
+	 * @return Mean duration in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : getSum() / count;
+	}
+
+	/**
+	 * Number of recorded durations up to each bound, to report the histogram with coarser buckets. A
+	 * bucket is counted at the first bound not below its largest value.
+	 * @param bounds Increasing upper bounds in nanoseconds
+	 * @return Cumulative counts, one per bound followed by the total count
+	 */
+	public long[] getCumulativeCounts(long[] bounds) {
+		long[] counts = new long[bounds.length + 1];
+		int bound = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = _buckets[i].sum();
+			if (count == 0) {
+				continue;
+			}
+			long highest = highestValue(i);
+			while (bound < bounds.length && bounds[bound] < highest) {
+				bound++;
+			}
+			counts[bound] += count;
+		}
+		for (int i = 1; i < counts.length; i++) {
+			counts[i] += counts[i - 1];
+		}
+		return counts;
+	}
+
+	/**
+	 * Duration below which the given share of the recorded durations falls
+	 * @param percentile Percentile, 0 to 100
+	 * @return Upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = _buckets[i].sum();
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,186 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Splits the bytes received from a client into lines, line terminators are the same as for
+ * BufferedReader.readLine() i.e. '\n', '\r' or "\r\n". Unlike a BufferedReader it tells whether a
+ * complete line is already waiting, so a session can hold back its replies while the client is
+ * still sending commands.
+ * </p>
+ * <p>
+ * With a {@link TelnetCodec} the Telnet commands are removed before the bytes reach the line, a
+ * CR NUL ends a line like CR LF, and erase character / erase line edit the line being received.
+ * </p>
+ * <p>
+ * Bytes are fed by a single thread, the complete lines may be taken by another one.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class LineDecoder {
+	private final static int INITIAL_LINE_SIZE = 128;
+	private final static int READ_BUFFER_SIZE = 8192;
+
+	private final Charset _charset;
+	private final TelnetCodec _codec;
+	private byte[] _line = new byte[INITIAL_LINE_SIZE];
+	private int _lineLength = 0;
+	private boolean _lastWasCR = false;
+	private final Queue<String> _lines = new ConcurrentLinkedQueue<String>();
+	// size() of the queue walks the nodes
+	private final AtomicInteger _pending = new AtomicInteger(0);
+	// only used by readLine(InputStream)
+	private ByteBuffer _readBuffer = null;
+
+	public LineDecoder(Charset charset) {
+		this(charset, null);
+	}
+
+	/**
+	 * @param charset Charset of the client
+	 * @param codec Telnet protocol layer, null for raw lines
+	 */
+	public LineDecoder(Charset charset, TelnetCodec codec) {
+		_charset = charset;
+		_codec = codec;
+	}
+
+	/**
+	 * Decode the received bytes
+	 * @param in Bytes read from the client
+	 * @return true if at least one line has been completed
+	 */
+	public boolean decode(ByteBuffer in) {
+		boolean complete = false;
+		while (in.hasRemaining()) {
+			int b = in.get() & 0xff;
+			if (_codec != null && (b = _codec.decode(b)) < 0) {
+				edit(b);
+				continue;
+			}
+			if ((b == '\n' || b == 0) && _lastWasCR) {
+				_lastWasCR = false;
+				continue;
+			}
+			_lastWasCR = (b == '\r');
+			if (b == '\n' || b == '\r') {
+				_lines.add(new String(_line, 0, _lineLength, _charset));
+				_pending.incrementAndGet();
+				_lineLength = 0;
+				complete = true;
+			} else {
+				if (_lineLength == _line.length) {
+					byte[] bigger = new byte[_line.length * 2];
+					System.arraycopy(_line, 0, bigger, 0, _lineLength);
+					_line = bigger;
+				}
+				_line[_lineLength++] = (byte) b;
+			}
+		}
+		return complete;
+	}
+
+	private void edit(int command) {
+		if (command == TelnetCodec.ERASE_LINE) {
+			_lineLength = 0;
+		} else if (command == TelnetCodec.ERASE_CHAR && _lineLength > 0) {
+			// a whole UTF-8 sequence, continuation bytes are 10xxxxxx
+			do {
+				_lineLength--;
+			} while (_lineLength > 0 && (_line[_lineLength] & 0xc0) == 0x80);
+		}
+	}
+
+	/**
+	 * The end of the stream terminates the line being received
+	 * @return true if a line has been completed
+	 */
+	public boolean end() {
+		if (_lineLength == 0) {
+			return false;
+		}
+		_lines.add(new String(_line, 0, _lineLength, _charset));
+		_pending.incrementAndGet();
+		_lineLength = 0;
+		return true;
+	}
+
+	/**
+	 * @return true if a complete line is waiting
+	 */
+	public boolean hasLine() {
+		return !_lines.isEmpty();
+	}
+
+	/**
+	 * Take the next complete line
+	 * @return Line without terminator or null if none is waiting
+	 */
+	public String poll() {
+		String line = _lines.poll();
+		if (line != null) {
+			_pending.decrementAndGet();
+		}
+		return line;
+	}
+
+	/**
+	 * @return Next complete line, left waiting, or null if none is waiting
+	 */
+	public String peek() {
+		return _lines.peek();
+	}
+
+	/**
+	 * @return Number of complete lines waiting
+	 */
+	public int pendingLines() {
+		return _pending.get();
+	}
+
+	/**
+	 * Drop the waiting lines
+	 */
+	public void clear() {
+		while (poll() != null) {
+			// counted down one by one
+		}
+	}
+
+	/**
+	 * Blocking read of the next line from the stream
+	 * @param in Client input
+	 * @return Line without terminator or null at the end of the stream, an unterminated last line is returned as well
+	 * @throws IOException
+	 */
+	public String readLine(InputStream in) throws IOException {
+		String line = null;
+		while ((line = poll()) == null) {
+			if (read(in, READ_BUFFER_SIZE) < 0) {
+				return end() ? poll() : null;
+			}
+		}
+		return line;
+	}
+
+	private int read(InputStream in, int max) throws IOException {
+		if (_readBuffer == null) {
+			_readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+		int count = in.read(_readBuffer.array(), 0, Math.min(max, _readBuffer.capacity()));
+		if (count > 0) {
+			_readBuffer.clear();
+			_readBuffer.limit(count);
+			decode(_readBuffer);
+		}
+		return count;
+	}
+}
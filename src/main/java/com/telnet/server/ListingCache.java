@@ -0,0 +1,320 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Server wide cache of directory listings keyed by canonical path, shared by all sessions. The cache
+ * is bounded by the total number of cached entries and evicts the least recently used directories.
+ * Every cached directory is watched through a {@link WatchService}, an entry created or deleted in
+ * the directory drops its listing. Directories with more than {@link #getMaxEntriesPerDirectory()}
+ * entries are not cached, they are streamed by {@link DirectoryListing} instead.
+ * </p>
+ * <p>
+ * A watch is registered before the directory is read, a change while the listing is loaded marks
+ * the pending listing as stale so it is never stored.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class ListingCache {
+	private static Logger logger = Logger.getLogger(ListingCache.class.getName());
+
+	public final static int DEFAULT_MAX_ENTRIES = 100000;
+	public final static int DEFAULT_MAX_ENTRIES_PER_DIRECTORY = 2000;
+
+	/**
+	 * Notified of the changes reported by the watch service
+	 */
+	public interface ChangeListener {
+		/**
+		 * @param path Entry created or deleted in a watched directory, or the directory itself if
+		 * the events have been lost
+		 */
+		void changed(Path path);
+	}
+
+	/**
+	 * Cached directory, the listing is null while it is being loaded
+	 */
+	private static class Entry {
+		private final WatchKey _watchKey;
+		private String _listing = null;
+		private boolean _tooLarge = false;
+		private int _weight = 0;
+		private boolean _invalid = false;
+
+		private Entry(WatchKey watchKey) {
+			_watchKey = watchKey;
+		}
+	}
+
+	private final Map<Path, Entry> _entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+	private final ChangeListener _listener;
+	private int _maxEntries = DEFAULT_MAX_ENTRIES;
+	private volatile int _maxEntriesPerDirectory = DEFAULT_MAX_ENTRIES_PER_DIRECTORY;
+	private long _weight = 0;
+	private WatchService _watchService = null;
+	private Thread _watcher = null;
+	private boolean _closed = false;
+
+	private final AtomicLong _hits = new AtomicLong(0);
+	private final AtomicLong _misses = new AtomicLong(0);
+	private final AtomicLong _evictions = new AtomicLong(0);
+	private final AtomicLong _invalidations = new AtomicLong(0);
+
+	public ListingCache() {
+		this(null);
+	}
+
+	/**
+	 * @param listener Notified of the changes in the watched directories, may be null
+	 */
+	public ListingCache(ChangeListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Returns the listing of the directory, from the cache if possible
+	 * @param dir Canonical path of the directory
+	 * @return Listing or null if the directory can not be cached, e.g. it is too large or can not be read
+	 */
+	public String get(Path dir) {
+		Entry entry = null;
+		synchronized (this) {
+			if (_maxEntries <= 0 || _closed) {
+				return null;
+			}
+			entry = _entries.get(dir);
+			if (entry != null && entry._tooLarge) {
+				return null;
+			}
+			if (entry != null && entry._listing != null) {
+				_hits.incrementAndGet();
+				return entry._listing;
+			}
+			_misses.incrementAndGet();
+			if (entry == null) {
+				WatchKey key = watch(dir);
+				if (key == null) {
+					return null;
+				}
+				entry = new Entry(key);
+				_entries.put(dir, entry);
+			}
+		}
+
+		String listing = null;
+		boolean tooLarge = false;
+		int count = 0;
+		try {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			try {
+				StringBuilder sb = new StringBuilder();
+				for (Path child : stream) {
+					if (++count > _maxEntriesPerDirectory) {
+						tooLarge = true;
+						break;
+					}
+					DirectoryListing.appendEntry(sb, child);
+				}
+				listing = tooLarge ? null : sb.toString();
+			} finally {
+				stream.close();
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Failed to read directory " + dir, ioe);
+		} catch (DirectoryIteratorException die) {
+			logger.log(Level.FINE, "Failed to read directory " + dir, die);
+		}
+
+		synchronized (this) {
+			if (_entries.get(dir) == entry && !entry._invalid) {
+				if (listing == null && !tooLarge) {
+					remove(dir);
+				} else if (entry._listing == null && !entry._tooLarge) {
+					entry._listing = listing;
+					entry._tooLarge = tooLarge;
+					entry._weight = tooLarge ? 1 : count + 1;
+					_weight += entry._weight;
+					evict();
+				}
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * Drop the cached listing of the directory e.g. after an entry has been created in it
+	 * @param dir Canonical path of the directory
+	 */
+	public synchronized void invalidate(Path dir) {
+		if (remove(dir) != null) {
+			_invalidations.incrementAndGet();
+		}
+	}
+
+	private Entry remove(Path dir) {
+		Entry entry = _entries.remove(dir);
+		if (entry != null) {
+			entry._invalid = true;
+			entry._watchKey.cancel();
+			_weight -= entry._weight;
+		}
+		return entry;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<Path, Entry>> it = _entries.entrySet().iterator();
+		while (_weight > _maxEntries && it.hasNext()) {
+			Map.Entry<Path, Entry> eldest = it.next();
+			Entry entry = eldest.getValue();
+			if (entry._weight == 0) {
+				// still loading
+				continue;
+			}
+			it.remove();
+			entry._invalid = true;
+			entry._watchKey.cancel();
+			_weight -= entry._weight;
+			_evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Register the directory with the watch service, the service and its thread are started on first use
+	 * @return WatchKey or null if the directory can not be watched, it is not cached then
+	 */
+	private WatchKey watch(Path dir) {
+		try {
+			if (_watchService == null) {
+				_watchService = FileSystems.getDefault().newWatchService();
+				_watcher = new Thread("telnet-listing-watcher") {
+					public void run() {
+						processEvents(_watchService);
+					}
+				};
+				_watcher.setDaemon(true);
+				_watcher.start();
+			}
+			return dir.register(_watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Unable to watch directory " + dir, ioe);
+			return null;
+		} catch (UnsupportedOperationException uoe) {
+			logger.log(Level.FINE, "Unable to watch directory " + dir, uoe);
+			return null;
+		}
+	}
+
+	/**
+	 * Watcher thread, any event (including an overflow) drops the listing of the directory
+	 */
+	private void processEvents(WatchService watchService) {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Path dir = (Path) key.watchable();
+				synchronized (this) {
+					Entry entry = _entries.get(dir);
+					if (entry != null && entry._watchKey == key) {
+						remove(dir);
+						_invalidations.incrementAndGet();
+					}
+				}
+				// listeners are told once the listing is gone
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (_listener != null) {
+						Object context = event.context();
+						_listener.changed(context instanceof Path ? dir.resolve((Path) context) : dir);
+					}
+				}
+				key.reset();
+			}
+		} catch (ClosedWatchServiceException cwse) {
+			// cache closed
+		} catch (InterruptedException ie) {
+			// cache closed
+		}
+	}
+
+	/**
+	 * Drop all listings and stop watching
+	 */
+	public synchronized void close() {
+		_closed = true;
+		for (Entry entry : _entries.values()) {
+			entry._invalid = true;
+		}
+		_entries.clear();
+		_weight = 0;
+		if (_watchService != null) {
+			try {
+				_watchService.close();
+			} catch (IOException ioe) {
+				logger.log(Level.FINE, "Failed to close watch service", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Max number of entries of all cached listings, 0 disables the cache
+	 * @return max entries
+	 */
+	public synchronized int getMaxEntries() {
+		return _maxEntries;
+	}
+
+	public synchronized void setMaxEntries(int maxEntries) {
+		_maxEntries = maxEntries;
+		evict();
+	}
+
+	/**
+	 * Directories with more entries are not cached
+	 * @return max entries of a cached directory
+	 */
+	public int getMaxEntriesPerDirectory() {
+		return _maxEntriesPerDirectory;
+	}
+
+	public void setMaxEntriesPerDirectory(int maxEntriesPerDirectory) {
+		_maxEntriesPerDirectory = maxEntriesPerDirectory;
+	}
+
+	public synchronized int getCachedDirectories() {
+		return _entries.size();
+	}
+
+	public long getHits() {
+		return _hits.get();
+	}
+
+	public long getMisses() {
+		return _misses.get();
+	}
+
+	public long getEvictions() {
+		return _evictions.get();
+	}
+
+	public long getInvalidations() {
+		return _invalidations.get();
+	}
+}
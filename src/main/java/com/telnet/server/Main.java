@@ -1,8 +1,15 @@
 package com.telnet.server;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.channels.Channel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Main class to instantiate Telnet Server thread
@@ -12,6 +19,65 @@ import java.io.InputStreamReader;
 public class Main {
 
 	public static int DEFAULT_SERVER_PORT = 4444;
+	// without a console, main checks this often whether the server has been shut down
+	private static final long SHUTDOWN_POLL_MILLIS = 1000;
+	
+	// -Dtelnet.server.mode=blocking|virtual|nio
+	public static final String MODE_PROPERTY = "telnet.server.mode";
+	// -Dtelnet.server.workers=<n>, number of command threads, see CommandExecutor
+	public static final String WORKERS_PROPERTY = "telnet.server.workers";
+	// -Dtelnet.server.commandQueue=<n>, sessions waiting for a command thread before the server is busy
+	public static final String COMMAND_QUEUE_PROPERTY = "telnet.server.commandQueue";
+	// -Dtelnet.server.maxPendingCommands=<n>, commands received from which a session stops reading
+	public static final String MAX_PENDING_COMMANDS_PROPERTY = "telnet.server.maxPendingCommands";
+	// -Dtelnet.server.longRunningThreads=<n>, follows and transfers running at the same time
+	public static final String LONG_RUNNING_THREADS_PROPERTY = "telnet.server.longRunningThreads";
+	// -Dtelnet.server.acceptors=<count>, threads accepting the connections
+	public static final String ACCEPTORS_PROPERTY = "telnet.server.acceptors";
+	// -Dtelnet.server.reusePort=true|false, listening sockets bound with SO_REUSEPORT, one per acceptor
+	public static final String REUSE_PORT_PROPERTY = "telnet.server.reusePort";
+	// -Dtelnet.server.tcpNoDelay=true|false
+	public static final String TCP_NO_DELAY_PROPERTY = "telnet.server.tcpNoDelay";
+	// -Dtelnet.server.pipelining=true|false
+	public static final String PIPELINING_PROPERTY = "telnet.server.pipelining";
+	// -Dtelnet.server.negotiateOptions=true|false
+	public static final String NEGOTIATE_OPTIONS_PROPERTY = "telnet.server.negotiateOptions";
+	// -Dtelnet.server.metricsPort=<port>, OpenMetrics endpoint, disabled by default
+	public static final String METRICS_PORT_PROPERTY = "telnet.server.metricsPort";
+	// Session timeouts in milliseconds, 0 = none, see SessionReaper
+	public static final String IDLE_TIMEOUT_PROPERTY = "telnet.server.idleTimeout";
+	public static final String MAX_SESSION_TIME_PROPERTY = "telnet.server.maxSessionTime";
+	public static final String TIMEOUT_WARNING_PROPERTY = "telnet.server.timeoutWarning";
+	// -Dtelnet.server.drainTimeout=<ms>, time given to the sessions on drain or restart
+	public static final String DRAIN_TIMEOUT_PROPERTY = "telnet.server.drainTimeout";
+	// Session event log as JSON lines, see SessionEventLog
+	public static final String EVENT_LOG_PROPERTY = "telnet.server.eventLog";
+	public static final String EVENT_LOG_CAPACITY_PROPERTY = "telnet.server.eventLogCapacity";
+	public static final String EVENT_LOG_POLICY_PROPERTY = "telnet.server.eventLogPolicy";
+	// tree, du and find, see TreeWalk
+	public static final String WALK_PARALLELISM_PROPERTY = "telnet.server.walkParallelism";
+	public static final String WALK_TIMEOUT_PROPERTY = "telnet.server.walkTimeout";
+	public static final String WALK_MAX_DEPTH_PROPERTY = "telnet.server.walkMaxDepth";
+	// Audit log of the commands, see AuditLog
+	public static final String AUDIT_DIR_PROPERTY = "telnet.server.auditDir";
+	public static final String AUDIT_SEGMENT_MB_PROPERTY = "telnet.server.auditSegmentMB";
+	public static final String AUDIT_MAX_SEGMENTS_PROPERTY = "telnet.server.auditMaxSegments";
+	public static final String AUDIT_SYNC_INTERVAL_PROPERTY = "telnet.server.auditSyncInterval";
+	// -Dtelnet.server.indexRoots=<DIR>[:<DIR>...], directories indexed for locate, see FileNameIndex
+	public static final String INDEX_ROOTS_PROPERTY = "telnet.server.indexRoots";
+	// Admission control, see AdmissionController
+	public static final String MAX_CONNECTIONS_PROPERTY = "telnet.server.maxConnections";
+	public static final String MAX_PER_ADDRESS_PROPERTY = "telnet.server.maxConnectionsPerAddress";
+	public static final String QUEUE_SIZE_PROPERTY = "telnet.server.acceptQueueSize";
+	public static final String QUEUE_TIMEOUT_PROPERTY = "telnet.server.acceptQueueTimeout";
+	public static final String MAX_HEAP_PROPERTY = "telnet.server.maxHeapUsagePercent";
+	public static final String MAX_CPU_PROPERTY = "telnet.server.maxCpuLoadPercent";
+	// Shared directory listing cache, see ListingCache
+	public static final String LISTING_CACHE_ENTRIES_PROPERTY = "telnet.server.listingCacheEntries";
+	public static final String LISTING_CACHE_MAX_DIRECTORY_PROPERTY = "telnet.server.listingCacheMaxDirectory";
+	// Resolved path cache, see CanonicalPathCache
+	public static final String PATH_CACHE_SIZE_PROPERTY = "telnet.server.pathCacheSize";
+	
 	public static void main(String[] args) {
 	
 		int server_port = DEFAULT_SERVER_PORT;
@@ -23,22 +89,116 @@ public class Main {
             }
 		}
 		
-		// Start the telnet Server
-		TelnetServer server = new TelnetServer(server_port);
+		ServerMode mode = ServerMode.parse(System.getProperty(MODE_PROPERTY), ServerMode.BLOCKING);
+		
+		// Start the telnet Server, on the listening socket passed by the launching process if any
+		TelnetServer server = null;
+		ServerSocketChannel inherited = getInheritedChannel();
+		if (inherited != null) {
+			server_port = inherited.socket().getLocalPort();
+			server = new TelnetServer(inherited.socket(), server_port, mode);
+		} else {
+			server = new TelnetServer(server_port, mode);
+		}
+		server.setWorkerThreads(getIntProperty(WORKERS_PROPERTY, 0));
+		server.setCommandQueueSize(getIntProperty(COMMAND_QUEUE_PROPERTY, 0));
+		server.setMaxPendingCommands(getIntProperty(MAX_PENDING_COMMANDS_PROPERTY, 0));
+		server.setLongRunningThreads(getIntProperty(LONG_RUNNING_THREADS_PROPERTY, 0));
+		server.setAcceptors(getIntProperty(ACCEPTORS_PROPERTY, 1));
+		server.setReusePort(Boolean.parseBoolean(System.getProperty(REUSE_PORT_PROPERTY, "true")));
+		server.setTcpNoDelay(Boolean.parseBoolean(System.getProperty(TCP_NO_DELAY_PROPERTY, "true")));
+		server.setPipelining(Boolean.parseBoolean(System.getProperty(PIPELINING_PROPERTY, "true")));
+		server.setNegotiateOptions(Boolean.getBoolean(NEGOTIATE_OPTIONS_PROPERTY));
+		server.setMetricsPort(getIntProperty(METRICS_PORT_PROPERTY, 0));
+		server.setIdleTimeoutMillis(getIntProperty(IDLE_TIMEOUT_PROPERTY, (int) TelnetServer.DEFAULT_IDLE_TIMEOUT_MILLIS));
+		server.setMaxSessionMillis(getIntProperty(MAX_SESSION_TIME_PROPERTY, 0));
+		server.setTimeoutWarningMillis(getIntProperty(TIMEOUT_WARNING_PROPERTY, (int) TelnetServer.DEFAULT_TIMEOUT_WARNING_MILLIS));
+		server.setDrainTimeoutMillis(getIntProperty(DRAIN_TIMEOUT_PROPERTY, (int) TelnetServer.DEFAULT_DRAIN_TIMEOUT_MILLIS));
+		String eventLog = System.getProperty(EVENT_LOG_PROPERTY);
+		if (eventLog != null) {
+			try {
+				server.setEventLog(new SessionEventLog(Paths.get(eventLog), getIntProperty(EVENT_LOG_CAPACITY_PROPERTY, SessionEventLog.DEFAULT_CAPACITY),
+						SessionEventLog.Policy.parse(System.getProperty(EVENT_LOG_POLICY_PROPERTY), SessionEventLog.Policy.DROP)));
+			} catch (IOException ioe) {
+				System.out.println("Unable to open the event log " + eventLog + " - " + ioe.getMessage());
+			}
+		}
+		server.setWalkParallelism(getIntProperty(WALK_PARALLELISM_PROPERTY, 0));
+		server.setWalkTimeoutMillis(getIntProperty(WALK_TIMEOUT_PROPERTY, (int) TelnetServer.DEFAULT_WALK_TIMEOUT_MILLIS));
+		server.setWalkMaxDepth(getIntProperty(WALK_MAX_DEPTH_PROPERTY, TelnetServer.DEFAULT_WALK_MAX_DEPTH));
+		String auditDir = System.getProperty(AUDIT_DIR_PROPERTY);
+		if (auditDir != null) {
+			try {
+				server.setAuditLog(new AuditLog(new File(auditDir), getIntProperty(AUDIT_SEGMENT_MB_PROPERTY, AuditLog.DEFAULT_SEGMENT_SIZE / (1024 * 1024)) * 1024 * 1024,
+						getIntProperty(AUDIT_MAX_SEGMENTS_PROPERTY, 0), getIntProperty(AUDIT_SYNC_INTERVAL_PROPERTY, (int) AuditLog.DEFAULT_SYNC_MILLIS)));
+			} catch (IOException ioe) {
+				System.out.println("Unable to open the audit log in " + auditDir + " - " + ioe.getMessage());
+			}
+		}
+		String indexRoots = System.getProperty(INDEX_ROOTS_PROPERTY);
+		if (indexRoots != null) {
+			List<Path> roots = new ArrayList<Path>();
+			for (String root : indexRoots.split(File.pathSeparator)) {
+				File dir = new File(root.trim());
+				if (dir.isDirectory()) {
+					try {
+						// the sessions work with canonical paths
+						roots.add(dir.getCanonicalFile().toPath());
+					} catch (IOException ioe) {
+						System.out.println("Not indexed, " + root + " - " + ioe.getMessage());
+					}
+				} else if (root.trim().length() > 0) {
+					System.out.println("Not indexed, " + root + " is not a directory");
+				}
+			}
+			if (!roots.isEmpty()) {
+				FileNameIndex index = new FileNameIndex(roots);
+				// built in the background, locate answers once it is done
+				index.start();
+				server.setFileNameIndex(index);
+			}
+		}
+		AdmissionController admission = server.getAdmissionController();
+		admission.setMaxConnections(getIntProperty(MAX_CONNECTIONS_PROPERTY, AdmissionController.DEFAULT_MAX_CONNECTIONS));
+		admission.setMaxConnectionsPerAddress(getIntProperty(MAX_PER_ADDRESS_PROPERTY, 0));
+		admission.setQueueSize(getIntProperty(QUEUE_SIZE_PROPERTY, AdmissionController.DEFAULT_QUEUE_SIZE));
+		admission.setQueueTimeoutMillis(getIntProperty(QUEUE_TIMEOUT_PROPERTY, (int) AdmissionController.DEFAULT_QUEUE_TIMEOUT_MILLIS));
+		admission.setMaxHeapUsagePercent(getIntProperty(MAX_HEAP_PROPERTY, 0));
+		admission.setMaxCpuLoadPercent(getIntProperty(MAX_CPU_PROPERTY, 0));
+		server.getListingCache().setMaxEntries(getIntProperty(LISTING_CACHE_ENTRIES_PROPERTY, ListingCache.DEFAULT_MAX_ENTRIES));
+		server.getListingCache().setMaxEntriesPerDirectory(getIntProperty(LISTING_CACHE_MAX_DIRECTORY_PROPERTY, ListingCache.DEFAULT_MAX_ENTRIES_PER_DIRECTORY));
+		server.getCanonicalPathCache().setMaxSize(getIntProperty(PATH_CACHE_SIZE_PROPERTY, CanonicalPathCache.DEFAULT_MAX_SIZE));
 		server.start();
 		//server.acceptConnections();
-		System.out.println("Telnet server started successfully on port " + server_port);
+		System.out.println("Telnet server started successfully on port " + server_port + " (" + mode.name().toLowerCase() + " mode)");
+	
+		if (inherited != null) {
+			// the standard input is the listening socket, there is no console to read
+			System.out.println("No console, the server is managed through JMX");
+			awaitShutDown(server);
+			return;
+		}
 	
 		// Lets give user some control from here now
 		String curLine = ""; 
 		InputStreamReader converter = new InputStreamReader(System.in);
 		BufferedReader in = new BufferedReader(converter);
 		while (true) {
+			// a restart may have been triggered through JMX as well
+			while (server.getSuccessor() != null) {
+				server = server.getSuccessor();
+			}
 			System.out.println(getMenu());
 			try {
 				curLine = in.readLine();
 			}catch (IOException ioe) {
-				System.out.println("Unable to handle the input, try again please!\n");
+				curLine = null;
+			}
+			if (curLine == null) {
+				// e.g. started in the background, the next reads fail as well
+				System.out.println("The console is closed, the server is managed through JMX");
+				awaitShutDown(server);
+				return;
 			}
 			
 			if (curLine.equals("1")) {
@@ -48,7 +208,9 @@ public class Main {
 				System.out.println("|____ Please enter the connection id to disconnect: ");
 				try {
 					curLine = in.readLine();
-					System.out.println(server.disconnectClient(curLine));
+					if (curLine != null) {
+						System.out.println(server.disconnectClient(curLine));
+					}
 				}catch (IOException ioe) {
 					System.out.println("Unable to handle the input, try again please!");
 				}
@@ -58,7 +220,7 @@ public class Main {
 				System.out.println("****** This action will disconnect all connected clients and shutdown the server, do you want to continue (y/n)?");
 				try {
 					curLine = in.readLine();
-					if (curLine.equalsIgnoreCase("y")) {
+					if ("y".equalsIgnoreCase(curLine)) {
 						System.out.println("......" + server.shutDown());
 						break;
 					} else {
@@ -67,6 +229,12 @@ public class Main {
 				}catch (IOException ioe) {
 					System.out.println("Unable to handle the input, try again please!");
 				}
+			} else if (curLine.equals("5")) {
+				System.out.println("......Draining, the sessions have " + server.getDrainTimeoutMillis() / 1000 + " seconds to finish");
+				System.out.println("......" + server.drain());
+				break;
+			} else if (curLine.equals("6")) {
+				System.out.println("......" + server.restart());
 			} else {
 				System.out.println("Option '" + curLine + "' is invalid, try again!\n");
 			}
@@ -74,6 +242,60 @@ public class Main {
 	}
 	
 	
+	/**
+	 * Keep the process alive without a console until the server is shut down through JMX, the
+	 * acceptor threads are daemon threads
+	 * @param server Server started, followed across restarts
+	 */
+	private static void awaitShutDown(TelnetServer server) {
+		while (true) {
+			while (server.getSuccessor() != null) {
+				server = server.getSuccessor();
+			}
+			if (server.isShutDown()) {
+				return;
+			}
+			try {
+				Thread.sleep(SHUTDOWN_POLL_MILLIS);
+			} catch (InterruptedException ie) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * The listening socket passed as standard input by inetd (wait) or systemd (StandardInput=socket
+	 * in the service of a socket unit with Accept=no). A socket passed by systemd as LISTEN_FDS only is
+	 * not seen, System.inheritedChannel() looks at the standard input.
+	 * @return Server channel or null if started normally
+	 */
+	private static ServerSocketChannel getInheritedChannel() {
+		try {
+			Channel channel = System.inheritedChannel();
+			if (channel instanceof ServerSocketChannel) {
+				return (ServerSocketChannel) channel;
+			}
+		} catch (IOException ioe) {
+			System.out.println("Unable to use the inherited channel, binding the port instead");
+		}
+		return null;
+	}
+	
+	/**
+	 * Read an int system property
+	 * @param name Property name
+	 * @param defaultValue Returned when the property is missing or invalid
+	 * @return Property value
+	 */
+	static int getIntProperty(String name, int defaultValue) {
+		try {
+			return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			// ignore parsing error and go with the default;
+			return defaultValue;
+		}
+	}
+	
 	/**
 	 * Main Menu
 	 * @return Menu as string
@@ -84,6 +306,8 @@ public class Main {
 		sb.append("2. Disconnect a single client\n");
 		sb.append("3. Disconnect all clients\n");
 		sb.append("4. Shutdown server and quit\n");
+		sb.append("5. Drain the sessions, shutdown server and quit\n");
+		sb.append("6. Restart, a new server takes over the listening socket\n");
 		sb.append("> ");
 		return sb.toString();
 	}
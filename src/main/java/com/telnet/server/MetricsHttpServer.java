@@ -0,0 +1,251 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Optional HTTP endpoint serving the {@link ServerMetrics} of a {@link TelnetServer} and a few JVM
+ * statistics in the OpenMetrics text format, for Prometheus and friends, e.g.
+ * <pre>curl http://localhost:9464/metrics</pre>
+ * </p>
+ * <p>
+ * Scrapes are answered by a thread of their own and only read the striped counters, so they never
+ * block a session.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class MetricsHttpServer {
+	private static Logger logger = Logger.getLogger(MetricsHttpServer.class.getName());
+
+	public final static String PATH = "/metrics";
+	public final static String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static long MILLISECOND = 1000000L;
+	private final static long SECOND = 1000 * MILLISECOND;
+	// exposed buckets, the histograms are much finer
+	private final static long[] COMMAND_BOUNDS = { 10000, 25000, 50000, 100000, 250000, 500000,
+			MILLISECOND, 2500000, 5 * MILLISECOND, 10 * MILLISECOND, 25 * MILLISECOND, 50 * MILLISECOND,
+			100 * MILLISECOND, 250 * MILLISECOND, 500 * MILLISECOND, SECOND, 2500 * MILLISECOND, 5 * SECOND, 10 * SECOND };
+	private final static long[] SESSION_BOUNDS = { SECOND, 10 * SECOND, 60 * SECOND, 300 * SECOND, 900 * SECOND,
+			1800 * SECOND, 3600 * SECOND, 4 * 3600 * SECOND, 24 * 3600 * SECOND };
+
+	private final TelnetServer _telnetServer;
+	private final int _port;
+	private HttpServer _httpServer = null;
+	private ExecutorService _executor = null;
+
+	/**
+	 * @param telnetServer Server to report
+	 * @param port HTTP port, 0 for any free port
+	 */
+	public MetricsHttpServer(TelnetServer telnetServer, int port) {
+		_telnetServer = telnetServer;
+		_port = port;
+	}
+
+	/**
+	 * Bind the port and start answering
+	 * @throws IOException If the port can not be bound
+	 */
+	public synchronized void start() throws IOException {
+		_httpServer = HttpServer.create(new InetSocketAddress(_port), 0);
+		_httpServer.createContext(PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "telnet-metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		_httpServer.setExecutor(_executor);
+		_httpServer.start();
+	}
+
+	/**
+	 * Stop answering and release the port
+	 */
+	public synchronized void stop() {
+		if (_httpServer != null) {
+			_httpServer.stop(0);
+			_executor.shutdown();
+			_httpServer = null;
+		}
+	}
+
+	/**
+	 * @return Bound port, -1 if not started
+	 */
+	public synchronized int getPort() {
+		return _httpServer == null ? -1 : _httpServer.getAddress().getPort();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			if (!PATH.equals(exchange.getRequestURI().getPath())) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = scrape().getBytes(UTF8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (RuntimeException re) {
+			logger.log(Level.WARNING, "Failed to serve the metrics", re);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * All the metrics in the OpenMetrics text format
+	 * @return Exposition text ending with # EOF
+	 */
+	public String scrape() {
+		ServerMetrics metrics = _telnetServer.getMetrics();
+		StringBuilder sb = new StringBuilder(8192);
+
+		gauge(sb, "telnet_sessions_active", "Connected sessions.", null, _telnetServer.getNumberOfConnections());
+		counter(sb, "telnet_connections_accepted", "Connections accepted, including the rejected ones.", null, metrics.getAcceptedConnections());
+		counter(sb, "telnet_connections_rejected", "Connections turned away by the admission control.", null, metrics.getRejectedConnections());
+		counter(sb, "telnet_sessions_reaped", "Sessions closed for being idle or connected too long.", null, metrics.getReapedSessions());
+		counter(sb, "telnet_events_dropped", "Session events lost because the event log buffer was full.", null, _telnetServer.getEventsDropped());
+		counter(sb, "telnet_audit_records_dropped", "Commands not audited because no audit segment could be created.", null, _telnetServer.getAuditRecordsDropped());
+		gauge(sb, "telnet_index_entries", "Files and directories in the file name index of locate.", null, _telnetServer.getIndexedEntries());
+		gauge(sb, "telnet_commands_queued", "Sessions waiting for a command thread.", null, _telnetServer.getQueuedCommands());
+		gauge(sb, "telnet_command_threads_busy", "Command threads running a command.", null, _telnetServer.getBusyCommandThreads());
+		gauge(sb, "telnet_long_running_commands", "Follows and transfers running on threads of their own.", null, _telnetServer.getLongRunningCommands());
+		counter(sb, "telnet_commands_rejected", "Commands answered that the server is busy.", null, _telnetServer.getRejectedCommands());
+		counter(sb, "telnet_received_bytes", "Bytes received from the clients.", "bytes", metrics.getBytesReceived());
+		counter(sb, "telnet_sent_bytes", "Bytes sent to the clients.", "bytes", metrics.getBytesSent());
+
+		header(sb, "telnet_command_duration_seconds", "histogram", "Time taken by the commands.", "seconds");
+		for (String verb : metrics.getVerbs()) {
+			histogramSamples(sb, "telnet_command_duration_seconds", "command=\"" + escape(verb) + "\",",
+					metrics.getCommandLatencies(verb), COMMAND_BOUNDS);
+		}
+		header(sb, "telnet_session_duration_seconds", "histogram", "How long the sessions lasted.", "seconds");
+		histogramSamples(sb, "telnet_session_duration_seconds", "", metrics.getSessionDurations(), SESSION_BOUNDS);
+
+		header(sb, "telnet_cache_hits", "counter", "Hits of the shared caches.", null);
+		sample(sb, "telnet_cache_hits_total", "cache=\"listing\"", _telnetServer.getListingCacheHits());
+		sample(sb, "telnet_cache_hits_total", "cache=\"path\"", _telnetServer.getPathCacheHits());
+		header(sb, "telnet_cache_misses", "counter", "Misses of the shared caches.", null);
+		sample(sb, "telnet_cache_misses_total", "cache=\"listing\"", _telnetServer.getListingCacheMisses());
+		sample(sb, "telnet_cache_misses_total", "cache=\"path\"", _telnetServer.getPathCacheMisses());
+
+		jvm(sb);
+		sb.append("# EOF\n");
+		return sb.toString();
+	}
+
+	private void jvm(StringBuilder sb) {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		header(sb, "jvm_memory_used_bytes", "gauge", "Used memory.", "bytes");
+		sample(sb, "jvm_memory_used_bytes", "area=\"heap\"", memory.getHeapMemoryUsage().getUsed());
+		sample(sb, "jvm_memory_used_bytes", "area=\"nonheap\"", memory.getNonHeapMemoryUsage().getUsed());
+		gauge(sb, "jvm_memory_max_bytes", "Max heap size, -1 if undefined.", "bytes", memory.getHeapMemoryUsage().getMax());
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		gauge(sb, "jvm_threads_current", "Live threads.", null, threads.getThreadCount());
+		gauge(sb, "jvm_threads_peak", "Peak live threads.", null, threads.getPeakThreadCount());
+
+		header(sb, "jvm_gc_collections", "counter", "Garbage collections.", null);
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sample(sb, "jvm_gc_collections_total", "gc=\"" + escape(gc.getName()) + "\"", Math.max(0, gc.getCollectionCount()));
+		}
+		header(sb, "jvm_gc_collection_seconds", "counter", "Time spent in garbage collections.", "seconds");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			sb.append("jvm_gc_collection_seconds_total{gc=\"").append(escape(gc.getName())).append("\"} ")
+				.append(seconds(Math.max(0, gc.getCollectionTime()) * MILLISECOND)).append('\n');
+		}
+
+		header(sb, "process_uptime_seconds", "gauge", "Time since the JVM started.", "seconds");
+		sb.append("process_uptime_seconds ").append(seconds(ManagementFactory.getRuntimeMXBean().getUptime() * MILLISECOND)).append('\n');
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help, String unit) {
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		if (unit != null) {
+			sb.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+		}
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, String unit, long value) {
+		header(sb, name, "gauge", help, unit);
+		sample(sb, name, null, value);
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, String unit, long value) {
+		header(sb, name, "counter", help, unit);
+		sample(sb, name + "_total", null, value);
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, long value) {
+		sb.append(name);
+		if (labels != null) {
+			sb.append('{').append(labels).append('}');
+		}
+		sb.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * @param labels Labels of the series followed by a comma, empty if none
+	 */
+	private static void histogramSamples(StringBuilder sb, String name, String labels, LatencyHistogram histogram, long[] bounds) {
+		long sum = histogram.getSum();
+		long[] counts = histogram.getCumulativeCounts(bounds);
+		for (int i = 0; i < bounds.length; i++) {
+			sb.append(name).append("_bucket{").append(labels).append("le=\"").append(seconds(bounds[i])).append("\"} ")
+				.append(counts[i]).append('\n');
+		}
+		long count = counts[bounds.length];
+		sb.append(name).append("_bucket{").append(labels).append("le=\"+Inf\"} ").append(count).append('\n');
+		String series = labels.length() == 0 ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+		sb.append(name).append("_count").append(series).append(' ').append(count).append('\n');
+		sb.append(name).append("_sum").append(series).append(' ').append(seconds(sum)).append('\n');
+	}
+
+	private static String seconds(long nanos) {
+		String text = BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+		return text.indexOf('.') < 0 ? text + ".0" : text;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
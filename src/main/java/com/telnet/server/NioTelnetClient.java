@@ -0,0 +1,324 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A client session served by the {@link NioTelnetEngine}. The session has no thread of its own,
+ * the selector thread feeds it with input bytes and the complete lines are executed one after
+ * the other on the {@link CommandExecutor} through {@link TelnetSession#performTelnetCommand(String)}.</p>
+ * @author sjunejo
+ */
+public class NioTelnetClient extends TelnetSession {
+	// max buffers written by one gathering write
+	private final static int MAX_GATHER = 64;
+	// a streamed reply waits for the client once this many bytes are queued
+	private final static int HIGH_WATER_MARK = 256 * 1024;
+	private final static long DRAIN_WAIT_MILLIS = 100;
+
+	private final NioTelnetEngine _engine;
+	private final SocketChannel _channel;
+
+	// fed by the selector thread, the lines are taken by the command thread
+	private final LineDecoder _lines = new LineDecoder(CHARSET, getTelnetCodec());
+	private final Queue<ByteBuffer> _outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	// only touched by the selector thread
+	private final ByteBuffer[] _gather = new ByteBuffer[MAX_GATHER];
+	// set while the session is queued for a write, so pipelined replies wake the selector once
+	private final AtomicBoolean _writeRequested = new AtomicBoolean(false);
+	private final AtomicBoolean _closed = new AtomicBoolean(false);
+	private final AtomicLong _outboundBytes = new AtomicLong(0);
+	private final Object _drain = new Object();
+	private volatile boolean _waitingForDrain = false;
+	// replies of pipelined commands, only touched by the thread running the commands, or answering
+	// them that the server is busy
+	private final StringBuilder _batch = new StringBuilder();
+
+	public NioTelnetClient(TelnetServer tc, NioTelnetEngine engine, SocketChannel channel, String uniqueID) {
+		super(tc, channel.socket(), uniqueID);
+		_engine = engine;
+		_channel = channel;
+	}
+
+	/**
+	 * Close the socket and ask the engine to release the session
+	 */
+	public void destroyTelnetClientThread() throws SocketException {
+		super.destroyTelnetClientThread();
+		_engine.requestClose(this);
+	}
+
+	/**
+	 * The underlying socket channel
+	 * @return SocketChannel
+	 */
+	protected SocketChannel getChannel() {
+		return _channel;
+	}
+
+	/**
+	 * Split the received bytes into lines, called on the selector thread
+	 * @param in Bytes read from the socket
+	 * @return true if at least one line has been completed and has to be executed
+	 */
+	protected boolean decode(ByteBuffer in) {
+		if (offerTransferInput(in)) {
+			return false;
+		}
+		if (_lines.decode(in)) {
+			touch();
+			return true;
+		}
+		return false;
+	}
+
+	protected LineDecoder getLineDecoder() {
+		return _lines;
+	}
+
+	/**
+	 * Queue the reply, with pipelining the replies of the lines received together are queued as one buffer
+	 */
+	protected void sendReply(String reply, boolean more) {
+		_batch.append(reply).append(LINE_SEPARATOR).append(getPrompt());
+		if (!isPipelining() || !more || _batch.length() >= SessionWriter.FLUSH_THRESHOLD) {
+			sendBatch();
+		}
+	}
+
+	/**
+	 * The commands have taken enough lines, the selector thread reads the socket again once it
+	 * updates the interest set
+	 */
+	protected void readingResumed() {
+		if (_writeRequested.compareAndSet(false, true)) {
+			_engine.requestWrite(this);
+		}
+	}
+
+	/**
+	 * Queue the text to be written to the client by the selector thread
+	 * @param text Text to send
+	 */
+	protected void send(String text) {
+		send(text.getBytes(CHARSET));
+	}
+
+	private void send(byte[] bytes) {
+		send(ByteBuffer.wrap(bytes));
+	}
+
+	private void send(ByteBuffer buffer) {
+		_outboundBytes.addAndGet(buffer.remaining());
+		_outbound.add(buffer);
+		if (_writeRequested.compareAndSet(false, true)) {
+			_engine.requestWrite(this);
+		}
+	}
+
+	private void sendBatch() {
+		if (_batch.length() > 0) {
+			send(_batch.toString());
+			_batch.setLength(0);
+		}
+	}
+
+	/**
+	 * Queue the replies of the pipelined commands before quit, the engine writes them and closes the channel
+	 */
+	protected void closeConnection() {
+		sendBatch();
+		_engine.requestClose(this);
+	}
+
+	/**
+	 * Queue the Telnet commands, called on the selector thread while the input is decoded
+	 */
+	protected void sendNegotiation(byte[] bytes) {
+		send(bytes);
+	}
+
+	/**
+	 * Queue the message, the output is never written by the calling thread. The message sent right
+	 * before a disconnect is best effort only, the socket may be closed before it is written.
+	 */
+	public void sendNotice(String text, boolean prompt) {
+		if (isTransferring()) {
+			// would be taken for a frame
+			return;
+		}
+		send(LINE_SEPARATOR + text + LINE_SEPARATOR + (prompt ? getPrompt() : ""));
+	}
+
+	/**
+	 * Called by the selector thread before it looks at the queued output, later output requests a new write
+	 */
+	protected void writeRequestTaken() {
+		_writeRequested.set(false);
+	}
+
+	protected boolean isStreaming() {
+		return true;
+	}
+
+	protected boolean isDisconnected() {
+		return isClosed() || super.isDisconnected();
+	}
+
+	/**
+	 * Queue a part of the reply, the worker waits while too much output is queued so a large
+	 * reply does not pile up in memory when the client reads slowly
+	 * @param text Output to send
+	 */
+	protected void sendPartialReply(String text) {
+		// replies of the commands before go first
+		sendBatch();
+		send(text);
+		awaitDrain();
+	}
+
+	/**
+	 * Queue the mapped regions of the file, the selector thread writes them from the page cache.
+	 * The worker waits between the regions like for a partial reply so the mappings queued stay few.
+	 * The chunks copied because of their IAC are queued the same way.
+	 */
+	protected void sendFileContent(FileChannel file, long position, long count) throws IOException {
+		sendBatch();
+		FileContent.send(file, position, count, new FileContent.Sink() {
+			public void write(MappedByteBuffer window, int start, int end, long position) throws IOException {
+				if (isClosed()) {
+					// the rest of the file is not mapped for nothing
+					throw new ClosedChannelException();
+				}
+				ByteBuffer region = window.duplicate();
+				region.limit(end).position(start);
+				send(region.slice());
+				awaitDrain();
+			}
+
+			public void write(ByteBuffer content) throws IOException {
+				if (isClosed()) {
+					throw new ClosedChannelException();
+				}
+				send(content);
+				awaitDrain();
+			}
+		});
+	}
+
+	/**
+	 * The replies of the commands before go first
+	 */
+	protected ReadableByteChannel openTransferInput() throws IOException {
+		sendBatch();
+		return super.openTransferInput();
+	}
+
+	/**
+	 * Queue the header and the mapped chunk, the worker waits like for a partial reply so the
+	 * chunks queued stay few
+	 */
+	protected void sendTransferFrame(ByteBuffer header, FileChannel file, long position, ByteBuffer chunk) throws IOException {
+		if (isClosed()) {
+			throw new ClosedChannelException();
+		}
+		send(header);
+		if (chunk != null) {
+			send(chunk);
+		}
+		awaitDrain();
+	}
+
+	/**
+	 * Wait while more than {@link #HIGH_WATER_MARK} bytes are queued
+	 */
+	private void awaitDrain() {
+		synchronized (_drain) {
+			while (!isClosed() && _outboundBytes.get() > HIGH_WATER_MARK) {
+				_waitingForDrain = true;
+				try {
+					_drain.wait(DRAIN_WAIT_MILLIS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				} finally {
+					_waitingForDrain = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write as much of the queued output as the socket accepts, called on the selector thread. The
+	 * replies queued meanwhile are written together by one gathering write.
+	 * @return true if everything has been written
+	 * @throws IOException
+	 */
+	protected boolean flush() throws IOException {
+		try {
+			while (true) {
+				int count = 0;
+				for (ByteBuffer buf : _outbound) {
+					_gather[count++] = buf;
+					if (count == MAX_GATHER) {
+						break;
+					}
+				}
+				if (count == 0) {
+					return true;
+				}
+				long written = 0;
+				try {
+					written = _channel.write(_gather, 0, count);
+				} catch (InternalError ie) {
+					// a mapped file region whose file has been truncated meanwhile
+					throw new IOException("File truncated while it was sent", ie);
+				}
+				ServerMetrics metrics = getMetrics();
+				if (metrics != null) {
+					metrics.bytesSent(written);
+				}
+				for (int i = 0; i < count; i++) {
+					if (_gather[i].hasRemaining()) {
+						Arrays.fill(_gather, 0, count, null);
+						return false;
+					}
+					_outbound.poll();
+					_outboundBytes.addAndGet(-_gather[i].limit());
+				}
+				Arrays.fill(_gather, 0, count, null);
+			}
+		} finally {
+			if (_waitingForDrain && _outboundBytes.get() <= HIGH_WATER_MARK) {
+				synchronized (_drain) {
+					_drain.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mark the session as closed
+	 * @return true only for the first call
+	 */
+	protected boolean markClosed() {
+		boolean first = _closed.compareAndSet(false, true);
+		endTransferInput();
+		return first;
+	}
+
+	protected boolean isClosed() {
+		return _closed.get();
+	}
+}
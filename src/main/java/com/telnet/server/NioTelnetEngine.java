@@ -0,0 +1,351 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Non-blocking engine of the telnet server. A single selector thread accepts the connections and does
+ * all socket reads and writes, the complete input lines are executed on the {@link CommandExecutor}
+ * of the server. Idle sessions do not hold a thread, so the number of threads does not grow with the
+ * number of connected clients. A session holding too many commands is not read until they have run.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class NioTelnetEngine {
+	private static Logger logger = Logger.getLogger(NioTelnetEngine.class.getName());
+	private final static int READ_BUFFER_SIZE = 8192;
+
+	private final TelnetServer _telnetServer;
+	private final ServerSocketChannel _serverChannel;
+	private final Selector _selector;
+	private final ByteBuffer _readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+	private final Queue<NioTelnetClient> _pendingWrites = new ConcurrentLinkedQueue<NioTelnetClient>();
+	private final Queue<NioTelnetClient> _pendingCloses = new ConcurrentLinkedQueue<NioTelnetClient>();
+	private final Queue<PendingConnection> _pendingAdmits = new ConcurrentLinkedQueue<PendingConnection>();
+	private final CountDownLatch _terminated = new CountDownLatch(1);
+	// cleared once the server channel has been handed to another engine or closed for a drain
+	private volatile boolean _accepting = true;
+	private volatile boolean _stopped = false;
+	// only touched by the selector thread
+	private SelectionKey _acceptKey = null;
+
+	/**
+	 * Accepted connection waiting for the outcome of the admission control
+	 */
+	private class PendingConnection implements AdmissionController.Listener {
+		private final SocketChannel _channel;
+		private final InetAddress _address;
+
+		private PendingConnection(SocketChannel channel) {
+			_channel = channel;
+			_address = channel.socket().getInetAddress();
+		}
+
+		/**
+		 * May be called on any thread, the channel is registered by the selector thread
+		 */
+		public void admitted() {
+			_pendingAdmits.add(this);
+			_selector.wakeup();
+		}
+
+		public void rejected(String message) {
+			reject(_channel, message);
+		}
+	}
+
+	/**
+	 * @param telnetServer Owning server, used for connection accounting
+	 * @param serverChannel Bound server channel
+	 * @throws IOException If the selector can not be opened
+	 */
+	public NioTelnetEngine(TelnetServer telnetServer, ServerSocketChannel serverChannel) throws IOException {
+		_telnetServer = telnetServer;
+		_serverChannel = serverChannel;
+		_selector = Selector.open();
+	}
+
+	/**
+	 * Selector loop, returns once the engine is stopped or, while accepting, once the server channel is closed
+	 */
+	public void run() {
+		try {
+			_serverChannel.configureBlocking(false);
+			_acceptKey = _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+
+			while (!_stopped) {
+				_selector.select();
+				if (_acceptKey != null && !_accepting) {
+					// the sessions are served until the engine is stopped
+					_acceptKey.cancel();
+					_acceptKey = null;
+				} else if (_acceptKey != null && !_serverChannel.isOpen()) {
+					break;
+				}
+				processPendingCloses();
+				processPendingAdmits();
+				processPendingWrites();
+
+				Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							acceptConnections();
+							continue;
+						}
+						NioTelnetClient session = (NioTelnetClient) key.attachment();
+						if (key.isReadable()) {
+							read(key, session);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key, session);
+						}
+					} catch (CancelledKeyException cke) {
+						// session was closed in the meantime
+					}
+				}
+			}
+		} catch (ClosedSelectorException cse) {
+			logger.log(Level.FINE, "Selector closed, this can be considered a normal exit", cse);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Unable to accept connections", e);
+		} finally {
+			closeAll();
+			_terminated.countDown();
+		}
+	}
+
+	/**
+	 * Stop accepting connections, the server channel is left open and the sessions are still served
+	 */
+	public void stopAccepting() {
+		_accepting = false;
+		_selector.wakeup();
+	}
+
+	/**
+	 * Close every session and exit the selector loop, the server channel is not closed
+	 */
+	public void stop() {
+		_stopped = true;
+		_selector.wakeup();
+	}
+
+	/**
+	 * Wake up the selector thread e.g. after the server channel has been closed
+	 */
+	public void wakeup() {
+		_selector.wakeup();
+	}
+
+	/**
+	 * Wait for the selector loop to exit, the listening socket is only released by the selector
+	 * thread once the server channel has been closed
+	 * @param timeoutMillis Max time to wait
+	 * @return true if the loop has exited
+	 */
+	public boolean awaitTermination(long timeoutMillis) {
+		try {
+			return _terminated.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Called once output has been queued for the session
+	 * @param session Session with pending output
+	 */
+	protected void requestWrite(NioTelnetClient session) {
+		_pendingWrites.add(session);
+		_selector.wakeup();
+	}
+
+	/**
+	 * Called when the session has to be released e.g. after 'quit' or an admin disconnect
+	 * @param session Session to close
+	 */
+	protected void requestClose(NioTelnetClient session) {
+		_pendingCloses.add(session);
+		_selector.wakeup();
+	}
+
+	/**
+	 * Accept all pending connections, each one is handed to the admission control
+	 * @throws IOException
+	 */
+	private void acceptConnections() throws IOException {
+		SocketChannel channel = null;
+		while ((channel = _serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			_telnetServer.getMetrics().connectionAccepted();
+			_telnetServer.getAdmissionController().admit(channel.socket().getInetAddress(), new PendingConnection(channel));
+		}
+	}
+
+	/**
+	 * Start the sessions of the admitted connections
+	 */
+	private void processPendingAdmits() {
+		PendingConnection pending = null;
+		while ((pending = _pendingAdmits.poll()) != null) {
+			NioTelnetClient session = new NioTelnetClient(_telnetServer, this, pending._channel, _telnetServer.getUniqueID());
+			session.setAdmittedAddress(pending._address);
+			_telnetServer.clientConnected(session);
+			try {
+				pending._channel.socket().setTcpNoDelay(_telnetServer.isTcpNoDelay());
+				pending._channel.register(_selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE, session);
+				session.startNegotiation();
+				session.send(session.getWelcomeMessage());
+			} catch (IOException ioe) {
+				logger.log(Level.WARNING, "Failed to register client connection", ioe);
+				close(session);
+			}
+		}
+	}
+
+	/**
+	 * Kill the connection, the message is best effort only as the channel is not blocking
+	 * @param channel Connection to reject
+	 * @param message Reason sent to the client
+	 */
+	private void reject(SocketChannel channel, String message) {
+		_telnetServer.getMetrics().connectionRejected();
+		try {
+			channel.write(ByteBuffer.wrap((message + TelnetSession.LINE_SEPARATOR).getBytes()));
+		} catch (IOException ioe) {
+			// ignore, connection will be closed anyway
+		}
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Failed to close rejected connection", ioe);
+		}
+	}
+
+	private void read(SelectionKey key, NioTelnetClient session) {
+		_readBuffer.clear();
+		int count = -1;
+		try {
+			count = session.getChannel().read(_readBuffer);
+		} catch (IOException ioe) {
+			// connection reset by peer, treat as end of stream
+		}
+		if (count < 0) {
+			close(session);
+			return;
+		}
+		_telnetServer.getMetrics().bytesReceived(count);
+		_readBuffer.flip();
+		if (session.decode(_readBuffer)) {
+			session.schedule();
+			if (session.isInputFull() && session.pauseReading()) {
+				// the command running resumes the reads, see NioTelnetClient.readingResumed()
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+	}
+
+	private void write(SelectionKey key, NioTelnetClient session) {
+		try {
+			if (session.flush()) {
+				key.interestOps(session.isReadPaused() ? 0 : SelectionKey.OP_READ);
+			}
+		} catch (IOException ioe) {
+			close(session);
+		}
+	}
+
+	private void processPendingWrites() {
+		NioTelnetClient session = null;
+		while ((session = _pendingWrites.poll()) != null) {
+			session.writeRequestTaken();
+			SelectionKey key = session.getChannel().keyFor(_selector);
+			if (key != null && key.isValid()) {
+				key.interestOps(session.isReadPaused() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	private void processPendingCloses() {
+		NioTelnetClient session = null;
+		while ((session = _pendingCloses.poll()) != null) {
+			// the output queued before quit is best effort only as the channel is not blocking
+			try {
+				if (!session.isClosed() && session.getChannel().isOpen()) {
+					session.flush();
+				}
+			} catch (IOException ioe) {
+				// ignore, connection will be closed anyway
+			}
+			close(session);
+		}
+	}
+
+	/**
+	 * Release the session, only the first call has any effect
+	 * @param session Session to close
+	 */
+	private void close(NioTelnetClient session) {
+		if (!session.markClosed()) {
+			return;
+		}
+		SelectionKey key = session.getChannel().keyFor(_selector);
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			session.getChannel().close();
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Failed to close client connection", ioe);
+		}
+		session.sessionClosed();
+		_telnetServer.clientDisconnected(session);
+	}
+
+	/**
+	 * Close every session and release the selector
+	 */
+	private void closeAll() {
+		try {
+			for (SelectionKey key : _selector.keys()) {
+				if (key.attachment() instanceof NioTelnetClient) {
+					close((NioTelnetClient) key.attachment());
+				}
+			}
+			processPendingCloses();
+			PendingConnection pending = null;
+			while ((pending = _pendingAdmits.poll()) != null) {
+				_telnetServer.getAdmissionController().release(pending._address);
+				pending._channel.close();
+			}
+			_selector.close();
+		} catch (ClosedSelectorException cse) {
+			// already closed
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Failed to close selector", ioe);
+		}
+	}
+}
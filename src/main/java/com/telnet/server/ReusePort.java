@@ -0,0 +1,65 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * <p>Access to the SO_REUSEPORT socket option of JDK 9 and higher. With it several sockets bind the
+ * same port and the kernel (Linux 3.9+, BSD) spreads the incoming connections over them, so each
+ * acceptor thread has a listening socket and an accept queue of its own. The server is built for
+ * older JDKs as well, so the option is looked up by reflection.</p>
+ * @author sjunejo
+ *
+ */
+public final class ReusePort {
+
+	private final static SocketOption<Boolean> SO_REUSEPORT = lookup();
+
+	private ReusePort() {
+	}
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> lookup() {
+		try {
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			try {
+				return channel.supportedOptions().contains(option) ? option : null;
+			} finally {
+				channel.close();
+			}
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check if the running JDK and platform support SO_REUSEPORT
+	 * @return true on JDK 9 or higher when the platform has the option
+	 */
+	public static boolean isSupported() {
+		return SO_REUSEPORT != null;
+	}
+
+	/**
+	 * Open a server channel sharing its port with the other channels bound with SO_REUSEPORT
+	 * @return Unbound server channel
+	 * @throws IOException If the channel can not be opened
+	 * @throws UnsupportedOperationException If SO_REUSEPORT is not supported
+	 */
+	public static ServerSocketChannel open() throws IOException {
+		if (SO_REUSEPORT == null) {
+			throw new UnsupportedOperationException("SO_REUSEPORT requires JDK 9 or higher and platform support, running on "
+					+ System.getProperty("java.version") + " " + System.getProperty("os.name"));
+		}
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.setOption(SO_REUSEPORT, Boolean.TRUE);
+		return channel;
+	}
+}
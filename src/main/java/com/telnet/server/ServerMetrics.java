@@ -0,0 +1,239 @@
+package com.telnet.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Counters and latency histograms of a {@link TelnetServer}: per command word, bytes received and
+ * sent, accepted and rejected connections and how long the sessions lasted. Every counter is a
+ * striped {@link LongAdder}, recording a command costs a few nanoseconds and does not contend
+ * between the sessions.
+ * </p>
+ * <p>
+ * The command words tracked are fixed when the metrics are created, the words of the built in
+ * commands by default, everything else is counted as {@link #OTHER}, so a client typing random
+ * words can not grow the metrics.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class ServerMetrics {
+
+	// the words of the commands registered by CommandRegistry.createDefault()
+	public final static String[] DEFAULT_VERBS = CommandRegistry.getDefault().getNames();
+	public final static String OTHER = "other";
+
+	private final String[] _verbs;
+	// one more for OTHER
+	private final LatencyHistogram[] _commands;
+	private final LatencyHistogram _sessionDurations = new LatencyHistogram();
+	private final LongAdder _bytesReceived = new LongAdder();
+	private final LongAdder _bytesSent = new LongAdder();
+	private final LongAdder _accepted = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private final LongAdder _reaped = new LongAdder();
+
+	public ServerMetrics() {
+		this(DEFAULT_VERBS);
+	}
+
+	/**
+	 * @param verbs Command words which get their own latency histogram
+	 */
+	public ServerMetrics(String... verbs) {
+		_verbs = verbs.clone();
+		_commands = new LatencyHistogram[verbs.length + 1];
+		for (int i = 0; i < _commands.length; i++) {
+			_commands[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Record an executed command
+	 * @param line Parsed command line, empty lines are not recorded
+	 * @param nanos Time taken by the command
+	 */
+	public void commandExecuted(CommandLine line, long nanos) {
+		if (line.size() == 0) {
+			return;
+		}
+		int i = 0;
+		while (i < _verbs.length && !line.matches(0, _verbs[i], true)) {
+			i++;
+		}
+		_commands[i].record(nanos);
+	}
+
+	/**
+	 * Latencies of a command word
+	 * @param verb Command word or {@link #OTHER}
+	 * @return Histogram or null if the word is not tracked
+	 */
+	public LatencyHistogram getCommandLatencies(String verb) {
+		if (OTHER.equals(verb)) {
+			return _commands[_verbs.length];
+		}
+		for (int i = 0; i < _verbs.length; i++) {
+			if (_verbs[i].equals(verb)) {
+				return _commands[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return Tracked command words, {@link #OTHER} last
+	 */
+	public String[] getVerbs() {
+		String[] verbs = new String[_verbs.length + 1];
+		System.arraycopy(_verbs, 0, verbs, 0, _verbs.length);
+		verbs[_verbs.length] = OTHER;
+		return verbs;
+	}
+
+	/**
+	 * @return Number of commands executed
+	 */
+	public long getCommandCount() {
+		long count = 0;
+		for (LatencyHistogram histogram : _commands) {
+			count += histogram.getCount();
+		}
+		return count;
+	}
+
+	public void sessionEnded(long nanos) {
+		_sessionDurations.record(nanos);
+	}
+
+	public LatencyHistogram getSessionDurations() {
+		return _sessionDurations;
+	}
+
+	public void bytesReceived(long count) {
+		_bytesReceived.add(count);
+	}
+
+	public void bytesSent(long count) {
+		_bytesSent.add(count);
+	}
+
+	public void connectionAccepted() {
+		_accepted.increment();
+	}
+
+	public void connectionRejected() {
+		_rejected.increment();
+	}
+
+	public void sessionReaped() {
+		_reaped.increment();
+	}
+
+	public long getBytesReceived() {
+		return _bytesReceived.sum();
+	}
+
+	public long getBytesSent() {
+		return _bytesSent.sum();
+	}
+
+	public long getAcceptedConnections() {
+		return _accepted.sum();
+	}
+
+	public long getRejectedConnections() {
+		return _rejected.sum();
+	}
+
+	/**
+	 * @return Sessions closed for being idle or connected too long
+	 */
+	public long getReapedSessions() {
+		return _reaped.sum();
+	}
+
+	/**
+	 * Count the bytes read from the stream
+	 * @param in Socket input
+	 * @return Counting stream
+	 */
+	public InputStream countReceived(InputStream in) {
+		return new FilterInputStream(in) {
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					_bytesReceived.increment();
+				}
+				return b;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = super.read(b, off, len);
+				if (count > 0) {
+					_bytesReceived.add(count);
+				}
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Count the bytes written to the stream
+	 * @param out Socket output
+	 * @return Counting stream
+	 */
+	public OutputStream countSent(OutputStream out) {
+		return new FilterOutputStream(out) {
+			public void write(int b) throws IOException {
+				out.write(b);
+				_bytesSent.increment();
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				_bytesSent.add(len);
+			}
+		};
+	}
+
+	/**
+	 * Latencies per command word as a table, in microseconds
+	 * @return Table with one line per command word
+	 */
+	public String formatCommandLatencies() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n", "command", "count", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+		String[] verbs = getVerbs();
+		for (int i = 0; i < verbs.length; i++) {
+			format(sb, verbs[i], _commands[i], TimeUnit.MICROSECONDS);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * How long the sessions lasted, in milliseconds
+	 * @return Table with one line
+	 */
+	public String formatSessionDurations() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-8s %10s %10s %10s %10s %10s %10s%n", "sessions", "count", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+		format(sb, "", _sessionDurations, TimeUnit.MILLISECONDS);
+		return sb.toString();
+	}
+
+	private static void format(StringBuilder sb, String name, LatencyHistogram histogram, TimeUnit unit) {
+		sb.append(String.format("%-8s %10d %10d %10d %10d %10d %10d%n", name, histogram.getCount(),
+				unit.convert(histogram.getMean(), TimeUnit.NANOSECONDS),
+				unit.convert(histogram.getPercentile(50), TimeUnit.NANOSECONDS),
+				unit.convert(histogram.getPercentile(90), TimeUnit.NANOSECONDS),
+				unit.convert(histogram.getPercentile(99), TimeUnit.NANOSECONDS),
+				unit.convert(histogram.getMax(), TimeUnit.NANOSECONDS)));
+	}
+}
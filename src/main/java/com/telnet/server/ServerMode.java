@@ -0,0 +1,41 @@
+package com.telnet.server;
+
+/**
+ * <p>The engine used by the {@link TelnetServer} to serve client connections.</p>
+ * @author sjunejo
+ *
+ */
+public enum ServerMode {
+
+	/**
+	 * Blocking accept loop with one {@link TelnetClient} thread per connection
+	 */
+	BLOCKING,
+
+	/**
+	 * Single selector thread for all sockets, commands are executed on a small fixed worker pool
+	 */
+	NIO,
+
+	/**
+	 * Blocking accept loop with each {@link TelnetClient} running on its own virtual thread, requires JDK 21
+	 */
+	VIRTUAL;
+
+	/**
+	 * Parse the mode name, case insensitive
+	 * @param name Mode name e.g. 'nio'
+	 * @param defaultMode Returned when the name is null or unknown
+	 * @return Parsed mode
+	 */
+	public static ServerMode parse(String name, ServerMode defaultMode) {
+		if (name != null) {
+			for (ServerMode mode : values()) {
+				if (mode.name().equalsIgnoreCase(name.trim())) {
+					return mode;
+				}
+			}
+		}
+		return defaultMode;
+	}
+}
@@ -0,0 +1,324 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Structured log of the session events (connect, command, disconnect, error) as JSON lines, e.g.
+ * <pre>{"time":"2026-10-18T10:00:00.123Z","event":"command","session":"1b4e...","command":"ls -n 5","micros":412}</pre>
+ * </p>
+ * <p>
+ * The sessions only put the event into a bounded lock-free ring buffer, a single writer thread
+ * formats the events and appends them to the file in batches, so a session never waits on the disk
+ * or on a lock. When the buffer is full the event is dropped and counted, or with
+ * {@link Policy#BLOCK} the session waits for a free slot.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class SessionEventLog {
+	private static Logger logger = Logger.getLogger(SessionEventLog.class.getName());
+
+	public final static int DEFAULT_CAPACITY = 8192;
+	// longer command lines are cut
+	private final static int MAX_TEXT_LENGTH = 256;
+	private final static int BATCH_BYTES = 64 * 1024;
+	private final static long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * What a session does when the buffer is full
+	 */
+	public enum Policy {
+		/** the event is lost, see {@link SessionEventLog#getDropped()} */
+		DROP,
+		/** the session waits until the writer has made room */
+		BLOCK;
+
+		public static Policy parse(String value, Policy defaultValue) {
+			for (Policy policy : values()) {
+				if (policy.name().equalsIgnoreCase(value)) {
+					return policy;
+				}
+			}
+			return defaultValue;
+		}
+	}
+
+	private enum Type {
+		CONNECT, COMMAND, DISCONNECT, ERROR
+	}
+
+	/**
+	 * Slot of the ring buffer, written by the session which claimed it and read by the writer
+	 */
+	private static class Event {
+		private Type _type;
+		private long _time;
+		private String _session;
+		private InetAddress _address;
+		private String _text;
+		private long _micros;
+	}
+
+	private final Event[] _events;
+	// sequence of each slot: free for position p when equal to p, published when equal to p + 1
+	private final AtomicLongArray _sequences;
+	private final int _mask;
+	private final AtomicLong _tail = new AtomicLong(0);
+	// only touched by the writer thread
+	private long _head = 0;
+	private final Policy _policy;
+	private final FileChannel _channel;
+	private final Thread _writer;
+	private final LongAdder _dropped = new LongAdder();
+	private final LongAdder _written = new LongAdder();
+	private volatile boolean _closed = false;
+
+	/**
+	 * Append the events to the file, created if needed
+	 * @param file Log file
+	 * @param capacity Events buffered, rounded up to a power of two
+	 * @param policy What a session does when the buffer is full
+	 * @throws IOException If the file can not be opened
+	 */
+	public SessionEventLog(Path file, int capacity, Policy policy) throws IOException {
+		int size = Integer.highestOneBit(Math.max(2, capacity));
+		if (size < capacity) {
+			size <<= 1;
+		}
+		_events = new Event[size];
+		_sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			_events[i] = new Event();
+			_sequences.set(i, i);
+		}
+		_mask = size - 1;
+		_policy = policy;
+		_channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		_writer = new Thread(new Runnable() {
+			public void run() {
+				writeEvents();
+			}
+		}, "telnet-event-log");
+		_writer.setDaemon(true);
+		_writer.start();
+	}
+
+	public void connected(String session, InetAddress address) {
+		publish(Type.CONNECT, session, address, null, 0);
+	}
+
+	/**
+	 * @param session Session id
+	 * @param line Command line as received
+	 * @param nanos Time taken by the command
+	 */
+	public void commandExecuted(String session, String line, long nanos) {
+		publish(Type.COMMAND, session, null, line, TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * @param session Session id
+	 * @param nanos Duration of the session
+	 */
+	public void disconnected(String session, long nanos) {
+		publish(Type.DISCONNECT, session, null, null, TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * @param session Session id
+	 * @param error Failure of the session, only the class and the message are logged
+	 */
+	public void error(String session, Throwable error) {
+		publish(Type.ERROR, session, null, error.getClass().getName() + ": " + error.getMessage(), 0);
+	}
+
+	/**
+	 * @return Events lost because the buffer was full
+	 */
+	public long getDropped() {
+		return _dropped.sum();
+	}
+
+	/**
+	 * @return Events written to the file
+	 */
+	public long getWritten() {
+		return _written.sum();
+	}
+
+	/**
+	 * Write the buffered events and close the file, later events are dropped
+	 */
+	public void close() {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		LockSupport.unpark(_writer);
+		try {
+			_writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void publish(Type type, String session, InetAddress address, String text, long micros) {
+		long position = claim();
+		if (position < 0) {
+			_dropped.increment();
+			return;
+		}
+		Event event = _events[(int) (position & _mask)];
+		event._type = type;
+		event._time = System.currentTimeMillis();
+		event._session = session;
+		event._address = address;
+		event._text = text;
+		event._micros = micros;
+		// release, the writer sees the fields once it sees the sequence
+		_sequences.lazySet((int) (position & _mask), position + 1);
+	}
+
+	/**
+	 * Claim the next free slot
+	 * @return Position of the slot, -1 if the buffer is full and the policy is to drop or the log is closed
+	 */
+	private long claim() {
+		long position = _tail.get();
+		while (!_closed) {
+			long sequence = _sequences.get((int) (position & _mask));
+			if (sequence == position) {
+				if (_tail.compareAndSet(position, position + 1)) {
+					return position;
+				}
+				position = _tail.get();
+			} else if (sequence < position) {
+				// full
+				if (_policy == Policy.DROP) {
+					return -1;
+				}
+				// the writer may be parked on an empty buffer of a moment ago
+				LockSupport.unpark(_writer);
+				LockSupport.parkNanos(IDLE_PARK_NANOS / 5);
+				position = _tail.get();
+			} else {
+				// claimed by another session meanwhile
+				position = _tail.get();
+			}
+		}
+		return -1;
+	}
+
+	private void writeEvents() {
+		StringBuilder sb = new StringBuilder(BATCH_BYTES + 1024);
+		try {
+			while (true) {
+				boolean closed = _closed;
+				int count = 0;
+				while (sb.length() < BATCH_BYTES && poll(sb)) {
+					count++;
+				}
+				if (sb.length() > 0) {
+					write(sb);
+					_written.add(count);
+				} else if (closed) {
+					break;
+				} else {
+					LockSupport.parkNanos(IDLE_PARK_NANOS);
+				}
+			}
+		} finally {
+			try {
+				_channel.close();
+			} catch (IOException ioe) {
+				logger.log(Level.FINE, "Failed to close the event log", ioe);
+			}
+		}
+	}
+
+	private void write(StringBuilder sb) {
+		ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(UTF8));
+		sb.setLength(0);
+		try {
+			while (bytes.hasRemaining()) {
+				_channel.write(bytes);
+			}
+		} catch (IOException ioe) {
+			// the sessions go on without their log
+			logger.log(Level.WARNING, "Failed to write the event log", ioe);
+		}
+	}
+
+	/**
+	 * Format the next published event
+	 * @return false if there is none
+	 */
+	private boolean poll(StringBuilder sb) {
+		int index = (int) (_head & _mask);
+		if (_sequences.get(index) != _head + 1) {
+			return false;
+		}
+		Event event = _events[index];
+		format(sb, event);
+		event._session = null;
+		event._address = null;
+		event._text = null;
+		// free for the next turn of the ring
+		_sequences.lazySet(index, _head + _events.length);
+		_head++;
+		return true;
+	}
+
+	private static void format(StringBuilder sb, Event event) {
+		sb.append("{\"time\":\"").append(Instant.ofEpochMilli(event._time)).append("\",\"event\":\"")
+			.append(event._type.name().toLowerCase()).append('"');
+		if (event._session != null) {
+			sb.append(",\"session\":\"").append(event._session).append('"');
+		}
+		if (event._address != null) {
+			sb.append(",\"address\":\"").append(event._address.getHostAddress()).append('"');
+		}
+		if (event._text != null) {
+			sb.append(event._type == Type.ERROR ? ",\"error\":\"" : ",\"command\":\"");
+			escape(sb, event._text);
+			sb.append('"');
+		}
+		if (event._type == Type.COMMAND || event._type == Type.DISCONNECT) {
+			sb.append(",\"micros\":").append(event._micros);
+		}
+		sb.append("}\n");
+	}
+
+	private static void escape(StringBuilder sb, String text) {
+		int length = Math.min(text.length(), MAX_TEXT_LENGTH);
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		if (text.length() > length) {
+			sb.append("...");
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.telnet.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Closes the sessions which have been idle (no command received) or connected for too long, so
+ * abandoned clients give back their connection slot and socket. The client is warned before it is
+ * disconnected, a command sent meanwhile keeps an idle session open.
+ * </p>
+ * <p>
+ * Every session has at most one idle and one absolute timeout on a shared {@link TimingWheel}.
+ * A command does not reschedule anything, it only records the time on the session, the idle
+ * timeout compares that time when it fires and schedules itself again for the remaining time.
+ * The warnings and the disconnects are sent from a small pool, so a client which stopped reading
+ * can not hold up the wheel.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class SessionReaper {
+
+	private final static int WHEEL_SIZE = 512;
+	private final static long MAX_TICK_MILLIS = 1000;
+	private final static long MIN_TICK_MILLIS = 10;
+
+	private final TelnetServer _telnetServer;
+	private final long _idleTimeoutMillis;
+	private final long _maxSessionMillis;
+	private final long _warningMillis;
+	private final TimingWheel _wheel;
+	private final ExecutorService _notices;
+	private final ConcurrentMap<TelnetSession, Watch> _watches = new ConcurrentHashMap<TelnetSession, Watch>();
+
+	/**
+	 * Timeouts of one session
+	 */
+	private class Watch {
+		private final TelnetSession _client;
+		private volatile TimingWheel.Timeout _idle = null;
+		private volatile TimingWheel.Timeout _absolute = null;
+		// activity time the idle warning has been sent for
+		private long _warnedActivity = -1;
+		private volatile boolean _closed = false;
+
+		private Watch(TelnetSession client) {
+			_client = client;
+		}
+
+		private void cancel() {
+			_closed = true;
+			if (_idle != null) {
+				_idle.cancel();
+			}
+			if (_absolute != null) {
+				_absolute.cancel();
+			}
+		}
+
+		private void scheduleIdle(long delayMillis) {
+			if (!_closed) {
+				_idle = _wheel.schedule(new Runnable() {
+					public void run() {
+						checkIdle();
+					}
+				}, delayMillis);
+			}
+		}
+
+		private void checkIdle() {
+			if (_closed) {
+				return;
+			}
+			long activity = _client.getLastActivityNanos();
+			long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activity);
+			if (idleMillis < _idleTimeoutMillis - _warningMillis) {
+				scheduleIdle(_idleTimeoutMillis - _warningMillis - idleMillis);
+			} else if (_warningMillis > 0 && _warnedActivity != activity) {
+				_warnedActivity = activity;
+				notice(_client, "*** Idle for " + seconds(idleMillis) + ", the session will be closed in "
+						+ seconds(_idleTimeoutMillis - idleMillis) + " unless a command is entered ***", true);
+				scheduleIdle(_idleTimeoutMillis - idleMillis);
+			} else if (idleMillis < _idleTimeoutMillis) {
+				scheduleIdle(_idleTimeoutMillis - idleMillis);
+			} else {
+				reap(this, "*** Idle for " + seconds(idleMillis) + ", session closed ***");
+			}
+		}
+
+		private void scheduleAbsolute() {
+			long warnAt = _maxSessionMillis - _warningMillis;
+			if (_warningMillis > 0 && warnAt > 0) {
+				_absolute = _wheel.schedule(new Runnable() {
+					public void run() {
+						if (!_closed) {
+							notice(_client, "*** The session will be closed in " + seconds(_warningMillis)
+									+ ", sessions last at most " + seconds(_maxSessionMillis) + " ***", true);
+							expireAbsolute(_warningMillis);
+						}
+					}
+				}, warnAt);
+			} else {
+				expireAbsolute(_maxSessionMillis);
+			}
+		}
+
+		private void expireAbsolute(long delayMillis) {
+			_absolute = _wheel.schedule(new Runnable() {
+				public void run() {
+					if (!_closed) {
+						reap(Watch.this, "*** Sessions last at most " + seconds(_maxSessionMillis) + ", session closed ***");
+					}
+				}
+			}, delayMillis);
+		}
+	}
+
+	/**
+	 * @param telnetServer Server whose sessions are watched, they are closed through {@link TelnetServer#disconnectClient(String)}
+	 * @param idleTimeoutMillis Max time without a command, 0 for none
+	 * @param maxSessionMillis Max session duration, 0 for none
+	 * @param warningMillis How long before the disconnect the client is warned, 0 for no warning
+	 */
+	public SessionReaper(TelnetServer telnetServer, long idleTimeoutMillis, long maxSessionMillis, long warningMillis) {
+		_telnetServer = telnetServer;
+		_idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+		_maxSessionMillis = Math.max(0, maxSessionMillis);
+		long shortest = Math.min(_idleTimeoutMillis == 0 ? Long.MAX_VALUE : _idleTimeoutMillis,
+				_maxSessionMillis == 0 ? Long.MAX_VALUE : _maxSessionMillis);
+		// the warning can not take the whole timeout
+		_warningMillis = Math.max(0, Math.min(warningMillis, shortest / 2));
+		// a tick of about a tenth of the shortest period
+		long tick = Math.min(MAX_TICK_MILLIS, Math.max(MIN_TICK_MILLIS,
+				Math.min(shortest, _warningMillis == 0 ? Long.MAX_VALUE : _warningMillis) / 10));
+		_wheel = new TimingWheel("telnet-session-reaper", tick, WHEEL_SIZE);
+		_notices = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "telnet-reaper-" + _count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Start watching a session
+	 * @param client New session
+	 */
+	public void sessionStarted(TelnetSession client) {
+		Watch watch = new Watch(client);
+		_watches.put(client, watch);
+		if (_idleTimeoutMillis > 0) {
+			watch.scheduleIdle(_idleTimeoutMillis - _warningMillis);
+		}
+		if (_maxSessionMillis > 0) {
+			watch.scheduleAbsolute();
+		}
+	}
+
+	/**
+	 * Stop watching a session
+	 * @param client Closed session
+	 */
+	public void sessionEnded(TelnetSession client) {
+		Watch watch = _watches.remove(client);
+		if (watch != null) {
+			watch.cancel();
+		}
+	}
+
+	/**
+	 * @return Number of sessions watched
+	 */
+	public int size() {
+		return _watches.size();
+	}
+
+	/**
+	 * Stop the timer, the sessions are not closed
+	 */
+	public void stop() {
+		_wheel.stop();
+		_notices.shutdownNow();
+		_watches.clear();
+	}
+
+	private void notice(final TelnetSession client, final String text, final boolean prompt) {
+		try {
+			_notices.execute(new Runnable() {
+				public void run() {
+					client.sendNotice(text, prompt);
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			// stopped
+		}
+	}
+
+	private void reap(final Watch watch, final String reason) {
+		watch._closed = true;
+		try {
+			_notices.execute(new Runnable() {
+				public void run() {
+					watch._client.sendNotice(reason, false);
+					if ("Success".equals(_telnetServer.disconnectClient(watch._client.getMyUniqueId()))) {
+						_telnetServer.getMetrics().sessionReaped();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			// stopped
+		}
+	}
+
+	private static String seconds(long millis) {
+		long seconds = (millis + 500) / 1000;
+		return seconds + (seconds == 1 ? " second" : " seconds");
+	}
+}
@@ -0,0 +1,113 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * <p>
+ * Output of a session served by its own thread. Text is encoded into one reusable buffer and only
+ * written to the socket on {@link #flush()}, so a reply and the prompt following it leave in a single
+ * write, and the replies to commands pasted in one go can be sent together.
+ * </p>
+ * <p>An instance belongs to one session and is not thread safe.</p>
+ * @author sjunejo
+ *
+ */
+public class SessionWriter {
+	private final static int INITIAL_CAPACITY = 8192;
+	/** Buffered output is written once it reaches this size, even if more is to come */
+	public final static int FLUSH_THRESHOLD = 64 * 1024;
+
+	private final OutputStream _out;
+	private final CharsetEncoder _encoder;
+	private ByteBuffer _buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+	/**
+	 * @param out Socket output
+	 * @param charset Charset of the client
+	 */
+	public SessionWriter(OutputStream out, Charset charset) {
+		_out = out;
+		// same replacement behaviour as String.getBytes()
+		_encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Encode the text into the buffer, the buffer grows up to {@link #FLUSH_THRESHOLD} and is
+	 * written out when it is full
+	 * @param text Text to send
+	 * @throws IOException
+	 */
+	public void write(CharSequence text) throws IOException {
+		CharBuffer in = CharBuffer.wrap(text);
+		_encoder.reset();
+		CoderResult result = null;
+		do {
+			result = _encoder.encode(in, _buffer, true);
+			if (result.isOverflow()) {
+				makeRoom();
+			}
+		} while (result.isOverflow());
+		do {
+			result = _encoder.flush(_buffer);
+			if (result.isOverflow()) {
+				makeRoom();
+			}
+		} while (result.isOverflow());
+	}
+
+	/**
+	 * Buffer bytes which are not text e.g. Telnet commands
+	 * @param bytes Bytes to send
+	 * @throws IOException
+	 */
+	public void write(byte[] bytes) throws IOException {
+		if (_buffer.remaining() < bytes.length) {
+			flush();
+		}
+		if (_buffer.remaining() < bytes.length) {
+			_out.write(bytes);
+		} else {
+			_buffer.put(bytes);
+		}
+	}
+
+	private void makeRoom() throws IOException {
+		if (_buffer.capacity() < FLUSH_THRESHOLD) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(_buffer.capacity() * 2, FLUSH_THRESHOLD));
+			_buffer.flip();
+			bigger.put(_buffer);
+			_buffer = bigger;
+		} else {
+			flush();
+		}
+	}
+
+	/**
+	 * Number of bytes waiting to be written
+	 * @return buffered bytes
+	 */
+	public int size() {
+		return _buffer.position();
+	}
+
+	/**
+	 * Write the buffered output to the socket in one go
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		if (_buffer.position() > 0) {
+			_out.write(_buffer.array(), 0, _buffer.position());
+			_buffer.clear();
+		}
+		_out.flush();
+	}
+}
@@ -1,313 +1,371 @@
 package com.telnet.server;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * <p>This class is responsible for receiving input from a unique 
- * user on the end of a socket connection.  The user commands will be
- * validated and performed.</p>
+ * <p>A client session in the blocking modes, run by the server on a thread of its own: a platform
+ * thread per connection, or a virtual thread in {@link ServerMode#VIRTUAL} mode. The thread only
+ * reads the input, the replies are written to the socket by the thread running the command.</p>
  * @author sjunejo
  */
 
-public class TelnetClient extends Thread {
+public class TelnetClient extends TelnetSession implements Runnable {
     private static Logger logger = Logger.getLogger(TelnetClient.class.getName());
-    private final static String PROMPT = "> ";
-    private String _myUniqueId = null;
-    private String _currentWorkingDirectory = null;
-    
-    private TelnetServer _telnetServer = null;
-    private Socket _client = null;
+    private final static int READ_BUFFER_SIZE = 8192;
+    // the reading thread checks this often whether the session is gone while it waits
+    private final static long READ_PAUSE_MILLIS = 100;
+
     private InputStream _in = null;
     private OutputStream _os = null;
-    private boolean _stop = false;
+    private volatile SessionWriter _writer = null;
+    // input read ahead of the command running
+    private volatile LineDecoder _input = null;
+    // a partial reply could not be written, the client is gone
+    private volatile boolean _outputFailed = false;
+    // frames written through the stream, only while transferring
+    private byte[] _transferBuffer = null;
+    private volatile boolean _inputEnded = false;
+    // the reading thread waits on it while reading is paused and at the end of the input
+    private final Object _readerWait = new Object();
+    // the session thread and the notices of the SessionReaper share the writer
+    private final ReentrantLock _outputLock = new ReentrantLock();
 
     protected TelnetClient() {
         // used in unit tests
     }
-    
+
     protected TelnetClient(TelnetServer tc) {
         // used in unit tests
-    	_telnetServer = tc;
+    	super(tc);
     }
-    
+
     public TelnetClient(TelnetServer tc, Socket client, String uniqueID) {
-    	_telnetServer = tc;
-        _client = client;
-        _myUniqueId = uniqueID; 
+    	super(tc, client, uniqueID);
     }
 
     public void run() {
+        TelnetServer server = getTelnetServer();
+        Socket client = getSocket();
+        LineDecoder lines = null;
         try {
-        	_telnetServer.clientConnected(this);
-            _in = _client.getInputStream();
-            _os = _client.getOutputStream();
-            
-            BufferedReader r = new BufferedReader(new InputStreamReader(_in));
-            PrintStream pso = new PrintStream(_os);
-            pso.println("Welcome to the Test Telnet Server, following commands are available...\n");
-            pso.println(getHelpOutput());
-            pso.print(getPrompt());
-            pso.flush();
-            
-            String cmd = null;
-            while (!_stop && (cmd = r.readLine()) != null) {
-            	pso.println(performTelnetCommand(cmd));
-                pso.print(getPrompt());
-                pso.flush();
+        	server.clientConnected(this);
+            _in = client.getInputStream();
+            _os = client.getOutputStream();
+            ServerMetrics metrics = getMetrics();
+            if (metrics != null) {
+            	_in = metrics.countReceived(_in);
+            	_os = metrics.countSent(_os);
+            }
+
+            lines = new LineDecoder(CHARSET, getTelnetCodec());
+            _input = lines;
+            SessionWriter out = new SessionWriter(_os, CHARSET);
+            _writer = out;
+            startNegotiation();
+            _outputLock.lock();
+            try {
+            	out.write(getWelcomeMessage());
+            	out.flush();
+            } finally {
+            	_outputLock.unlock();
+            }
+
+            // this thread only reads, the commands run on the command executor
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            ByteBuffer received = ByteBuffer.wrap(buffer);
+            int count = 0;
+            while (!isStopped() && (count = _in.read(buffer)) >= 0) {
+            	received.clear();
+            	received.limit(count);
+            	if (offerTransferInput(received)) {
+            		continue;
+            	}
+            	if (lines.decode(received)) {
+            		touch();
+            		schedule();
+            		awaitPendingCommands();
+            	}
+            }
+            if (count < 0) {
+            	// the client closed its output, the commands received are still answered
+            	if (lines.end()) {
+            		touch();
+            		schedule();
+            	}
+            	awaitCommandsRun();
             }
         } catch (SocketException se) {
 			return;
+        } catch (ClosedChannelException cce) {
+        	// closed by the server, the connections accepted with SO_REUSEPORT are channel adaptors
+        	return;
         } catch (IOException e) {
-            logger.log(Level.WARNING, "An error occurred while handling client input", e);
+            SessionEventLog events = getEventLog();
+            if (events != null) {
+            	// no stack trace written by the session thread
+            	events.error(getMyUniqueId(), e);
+            } else {
+            	logger.log(Level.WARNING, "An error occurred while handling client input", e);
+            }
         } finally {
-            _telnetServer.clientDisconnected(this);
-        }
-
-    }
-    
-    /** The method is used to kill the TelnetClient Thread
-     * <li> Basically the BufferedReader class methods are  synchronized and blocking IO operations.
-     * <li> To overcome this inherent Blocking feature while the execution of thread , we need to explicitly 
-     * close the socket which are in use, to throw an SocketException to accomplish the Exit of Thread.run()  
-     */
-	public void destroyTelnetClientThread() throws SocketException  {
-		try {
-			_client.close();
-		} catch (IOException e) {
-			//Actually IOException , but we throw as SocketException
-			throw new SocketException();
-		}
-	}
-    
-	/**
-	 * This method will parse the user input and returns an String[] as command
-	 * @param cmd User input as single String
-	 * @return String[]
-	 */
-	protected String[] getCommands(String cmd) {
-        if (cmd != null) {
-            // remove leading & trailing whitespace
-            cmd.trim();
-            // strip out undesirable spaces e.g. "1 2 3  4    5" "1 2 3 4 5"
-            cmd = cmd.replaceAll("[ ]{2,}", " ");
-            
-            String[] cmds = cmd.split(" ");
-            if (cmds.length > 0) {
-                return cmds;
+            // the client may have gone away, the socket is not released otherwise
+            try {
+                client.close();
+            } catch (IOException ioe) {
+                logger.log(Level.FINE, "Failed to close client connection", ioe);
             }
-        }
-        return null;
-    }
-    
-	/**
-	 * This method will run the actual command and return the response
-	 * @param cmd Command to execute
-	 * @return Response as String
-	 */
-    public String performTelnetCommand(String cmd) {
-        String[] cmds = getCommands(cmd);
-        if (cmds != null && cmds.length > 0) {
-            String operation = cmds[0];
-            if ("ls".equalsIgnoreCase(operation) || "dir".equalsIgnoreCase(operation)) {
-            	if (cmds.length > 1) {
-            		String dirStr = cmds[1];
-            		return listAllFiles(dirStr);
-            	}
-            	return listAllFiles();
-            } else if ("cd".equalsIgnoreCase(operation)) {
-                if (cmds.length > 1) {
-                    String dirStr = cmds[1];
-                    return changeCurrentWorkingDir(dirStr);
-                }
-            } else if ("pwd".equalsIgnoreCase(operation)) {
-                return getCurrentWorkingDirectory();
-            } else if ("mkdir".equalsIgnoreCase(operation)) {
-            	String dirName, result = "";
-        		// Following is to support multiple directories provided as arguments
-        		for (int i = 1; i < cmds.length; i++) {
-        			dirName = cmds[i];
-        			result = createNewDir(dirName);
-        			if (! result.equals("")) {
-        				return result;
-        			}
-        		}
-        		return "";
-            } else if ("?".equals(operation)) {
-                return getHelpOutput();
-            } else if ("quit".equals(operation)) {
-                try {
-                    _client.close();
-                    _stop = true;
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "An error occurred while closing client connection", e);
-                }
-                return "Connection closed";
-            } else {
-            	return "Supplied command is not supported - Enter '?' for list of valid commands";
+            // the commands not run yet are dropped, the running one sees the session disconnected
+            if (lines != null) {
+            	lines.clear();
             }
+            endTransferInput();
+            sessionClosed();
+            server.clientDisconnected(this);
         }
-        return "";
+
     }
-    
+
     /**
-     * List all files in current working directory
-     * @return List of files as String
+     * Wake the reading thread waiting for the commands received before the end of the input
      */
-    protected String listAllFiles() {
-    	return listAllFiles(getCurrentWorkingDirectory());
+    protected void commandsRun() {
+    	if (_inputEnded) {
+    		synchronized (_readerWait) {
+    			_readerWait.notifyAll();
+    		}
+    	}
     }
-    
+
     /**
-     * This method will return the list of all files in dir provided
-     * @return
+     * Write the reply and the prompt, with pipelining the replies of the lines received together
+     * are flushed once
      */
-    protected String listAllFiles(String dirStr) {
-    	File f = null;
-    	if (getCurrentWorkingDirectory().equals(dirStr)) {
-    		f = new File(getCurrentWorkingDirectory());
-    	} else {
-    		f = new File(getCanonicalPath(dirStr));
+    protected void sendReply(String reply, boolean more) {
+    	SessionWriter out = _writer;
+    	if (out == null) {
+    		return;
+    	}
+    	_outputLock.lock();
+    	try {
+    		// reply and prompt leave in one write
+    		out.write(reply);
+    		out.write(LINE_SEPARATOR);
+    		out.write(getPrompt());
+    		// the replies to commands the client has already sent are written together
+    		if (!isPipelining() || !more || out.size() >= SessionWriter.FLUSH_THRESHOLD) {
+    			out.flush();
+    		}
+    	} catch (IOException ioe) {
+    		// connection lost, the reading thread ends on the closed socket
+    		_outputFailed = true;
+    		logger.log(Level.FINE, "Failed to send reply", ioe);
+    		try {
+    			getSocket().close();
+    		} catch (IOException e) {
+    			logger.log(Level.FINE, "Failed to close client connection", e);
+    		}
+    	} finally {
+    		_outputLock.unlock();
     	}
-    	if (f.exists() && f.isDirectory()) {
-    		File[] files = f.listFiles();
-			StringBuilder sb = new StringBuilder();
-			for (File file : files) {
-				if (file.isDirectory()) {
-					sb.append("<DIR>__ ");
-				} else {
-					sb.append("_______ ");
-				}
-				sb.append(file.getName()).append("\n");
-			}
-			return sb.toString();
-		} else {
-			return dirStr + " - either it is not a directory or it does not exist";
-		}
     }
-    
+
     /**
-     * This method will change the users current directory
-     * @param dirStr
-     * @return
+     * Wait while the session holds too many lines, the client is held back by TCP
      */
-    protected String changeCurrentWorkingDir(String dirStr) {
-    	return setCurrentWorkingDirectory(dirStr);
+    private void awaitPendingCommands() {
+    	while (!isDisconnected() && isInputFull() && pauseReading()) {
+    		synchronized (_readerWait) {
+    			try {
+    				if (isReadPaused()) {
+    					_readerWait.wait(READ_PAUSE_MILLIS);
+    				}
+    			} catch (InterruptedException ie) {
+    				Thread.currentThread().interrupt();
+    				break;
+    			}
+    		}
+    	}
+    	resumeReading();
     }
-    
+
     /**
-     * This method will set the current working directory for user sessions
-     * @param newWorkDir Required new working directory
-     * @return Updated current working directory
+     * Wait for the commands received before the end of the input
      */
-    protected String setCurrentWorkingDirectory(String newWorkDir) {
-    	String canonicalPath = getCanonicalPath(newWorkDir);
-    	File file = new File(canonicalPath);
-    	if (!file.exists()) {
-    		return newWorkDir + " - does not exist";
-    	} else if (! file.isDirectory()) {
-    		return newWorkDir + " - is not a directory";
+    private void awaitCommandsRun() {
+    	_inputEnded = true;
+    	synchronized (_readerWait) {
+    		while (isScheduled() && !isDisconnected()) {
+    			try {
+    				_readerWait.wait(READ_PAUSE_MILLIS);
+    			} catch (InterruptedException ie) {
+    				Thread.currentThread().interrupt();
+    				return;
+    			}
+    		}
     	}
-    	_currentWorkingDirectory = canonicalPath;
-    	return "";
     }
-    
+
     /**
-     * Returns the prompt for user
-     * @return Prompt as string to pass to connected client
+     * Wake the reading thread waiting for the lines to be taken
      */
-    protected String getPrompt() {
-    	return getCurrentWorkingDirectory() + PROMPT;
+    protected void readingResumed() {
+    	synchronized (_readerWait) {
+    		_readerWait.notifyAll();
+    	}
     }
-    
+
+    protected LineDecoder getLineDecoder() {
+    	return _input;
+    }
+
     /**
-     * Returns the users current working directory
-     * @return
+     * Write the message unless a reply or a frame is being written
      */
-    protected String getCurrentWorkingDirectory() {
-    	if (_currentWorkingDirectory == null) {
-    		_currentWorkingDirectory = System.getProperty("user.dir");
-    	}
-    	return _currentWorkingDirectory;
+    public void sendNotice(String text, boolean prompt) {
+        SessionWriter out = _writer;
+        if (out == null || !_outputLock.tryLock()) {
+            return;
+        }
+        try {
+            if (isTransferring()) {
+                // would be taken for a frame
+                return;
+            }
+            out.write(LINE_SEPARATOR + text + LINE_SEPARATOR + (prompt ? getPrompt() : ""));
+            out.flush();
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "Failed to send notice", ioe);
+        } finally {
+            _outputLock.unlock();
+        }
     }
-    
+
     /**
-     * This method will return the help text
-     * @return Help menu as string
+     * Flush the replies of the commands pipelined before quit and close the socket
      */
-    
-    private String getHelpOutput() {
-    	StringBuilder sb = new StringBuilder("?   - Display this help menu.\r\n");
-    	if (isWindows()) {
-    		sb.append("dir - List the current working directory.\r\n");
-    	} else {
-    		sb.append("ls  - List the current working directory.\r\n");
+    protected void closeConnection() throws IOException {
+        SessionWriter writer = _writer;
+        if (writer != null) {
+            _outputLock.lock();
+            try {
+                writer.flush();
+            } finally {
+                _outputLock.unlock();
+            }
+        }
+        getSocket().close();
+    }
+
+    protected boolean isStreaming() {
+    	return _writer != null;
+    }
+
+    protected void sendNegotiation(byte[] bytes) {
+    	SessionWriter out = _writer;
+    	if (out != null) {
+    		_outputLock.lock();
+    		try {
+    			out.write(bytes);
+    			out.flush();
+    		} catch (IOException ioe) {
+    			// connection lost, the session ends on its next read
+    			logger.log(Level.FINE, "Failed to send option negotiation", ioe);
+    		} finally {
+    			_outputLock.unlock();
+    		}
     	}
-    	sb.append("cd <DIRECTORY_NAME> - Change the current working directory to the provided arguments.\r\n");
-    	sb.append("pwd - Display the current working directory.\r\n");
-    	sb.append("mkdir <DIRECTORY_NAME> - Create a directory.\r\n");
-    	sb.append("quit - To disconnect.\n\n");
-        return sb.toString();
     }
-   
-    /**
-     * Check if we are running on Windows
-     * @return
-     */
-    private boolean isWindows() {
-    	return _telnetServer.getOS().startsWith("Windows");
+
+    protected void sendPartialReply(String text) {
+    	SessionWriter out = _writer;
+    	if (out != null) {
+    		_outputLock.lock();
+    		try {
+    			out.write(text);
+    			out.flush();
+    		} catch (IOException ioe) {
+    			// connection lost, the session ends on its next read
+    			_outputFailed = true;
+    			logger.log(Level.FINE, "Failed to send partial reply", ioe);
+    		} finally {
+    			_outputLock.unlock();
+    		}
+    	}
     }
-    
+
     /**
-     * Method to run mkdir command    
-     * @param newDir
-     * @return
+     * Write the region without copying it through the heap if the socket has a channel
      */
-    protected String createNewDir(String newDir) {
-    	boolean opStatus = new File(getCanonicalPath(newDir)).mkdirs();
-    	if (!opStatus) {
-    		return "Failed to create directory '" + newDir + "'";
+    protected void sendFileContent(FileChannel file, long position, long count) throws IOException {
+    	SessionWriter out = _writer;
+    	if (out == null) {
+    		return;
+    	}
+    	_outputLock.lock();
+    	try {
+    		// the output before goes first
+    		out.flush();
+    		SocketChannel channel = getSocket().getChannel();
+    		if (channel != null && channel.isBlocking()) {
+    			long sent = FileContent.transfer(file, position, count, channel);
+    			ServerMetrics metrics = getMetrics();
+    			if (metrics != null) {
+    				metrics.bytesSent(sent);
+    			}
+    		} else {
+    			FileContent.copy(file, position, count, _os);
+    		}
+    	} finally {
+    		_outputLock.unlock();
     	}
-    	return "";
     }
-    
-    /**
-     * Unique ID of this thread if required
-     * @return
-     */
-    public String getMyUniqueId() {
-    	return _myUniqueId;
+
+    protected void closeTransferInput() {
+    	_transferBuffer = null;
+    	super.closeTransferInput();
     }
-    
+
     /**
-     * This method will parse the user input and return the new working directory
-     * @param dirStr New working directory
-     * @return parsed working directory
+     * Write the frame, the chunk of a DATA frame with sendfile if the socket has a channel
      */
-    private String getCanonicalPath(String dirStr) {
-    	File f = null;
-    	// First check with root conditions for both platform
-    	if ( (isWindows() && dirStr.startsWith("\\")) ||
-    			(isWindows() && dirStr.matches("[A-Za-z]:[\\\\/].*")) ||
-    			(!isWindows() && dirStr.startsWith("/")) ){
-    		f = new File(dirStr);
-    	} else {
-    		// This means user has provided a relative path so start to parse from current working directory
-    		f = new File(_currentWorkingDirectory, dirStr);
-    	}
+    protected void sendTransferFrame(ByteBuffer header, FileChannel file, long position, ByteBuffer chunk) throws IOException {
+    	_outputLock.lock();
     	try {
-    		return f.getCanonicalPath();
-    	} catch (IOException ioe) {
-    		return "";
+    		SocketChannel channel = getSocket().getChannel();
+    		if (channel != null && channel.isBlocking()) {
+    			long sent = FileTransfer.transfer(header, file, position, chunk == null ? 0 : chunk.remaining(), channel);
+    			ServerMetrics metrics = getMetrics();
+    			if (metrics != null) {
+    				metrics.bytesSent(sent);
+    			}
+    		} else {
+    			byte[] buffer = _transferBuffer;
+    			if (buffer == null) {
+    				buffer = new byte[FileTransfer.HEADER_SIZE + FileTransfer.CHUNK_SIZE];
+    				_transferBuffer = buffer;
+    			}
+    			FileTransfer.copy(header, chunk, _os, buffer);
+    		}
+    	} finally {
+    		_outputLock.unlock();
     	}
     }
+
+    /**
+     * The output could not be written either
+     */
+    protected boolean isDisconnected() {
+    	return _outputFailed || super.isDisconnected();
+    }
 }
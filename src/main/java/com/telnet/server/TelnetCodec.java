@@ -0,0 +1,262 @@
+package com.telnet.server;
+
+/**
+ * <p>
+ * Telnet protocol layer (RFC 854), a state machine fed one byte at a time which strips the IAC
+ * command sequences from the data and answers the option negotiation. Supported options are
+ * SGA (RFC 858) on the server side and NAWS (RFC 1073) on the client side, everything else,
+ * including ECHO, is refused so the client keeps echoing and editing the line locally.
+ * </p>
+ * <p>
+ * Decoding does not allocate, the options are kept in two arrays per session and a subnegotiation
+ * is collected in a small fixed buffer. Only the rare replies are allocated and handed to the
+ * {@link Listener}. The data is UTF-8 which never contains the byte 255, so output needs no IAC
+ * escaping.
+ * </p>
+ * <p>An instance belongs to one session and is fed by one thread at a time.</p>
+ * @author sjunejo
+ *
+ */
+public class TelnetCodec {
+
+	public final static int SE = 240;
+	public final static int NOP = 241;
+	public final static int AYT = 246;
+	public final static int EC = 247;
+	public final static int EL = 248;
+	public final static int SB = 250;
+	public final static int WILL = 251;
+	public final static int WONT = 252;
+	public final static int DO = 253;
+	public final static int DONT = 254;
+	public final static int IAC = 255;
+
+	public final static int ECHO = 1;
+	public final static int SGA = 3;
+	public final static int NAWS = 31;
+
+	/** Returned by {@link #decode(int)} when the byte belongs to a command */
+	public final static int NONE = -1;
+	/** Returned by {@link #decode(int)} for IAC EC, the last character has to be removed */
+	public final static int ERASE_CHAR = -2;
+	/** Returned by {@link #decode(int)} for IAC EL, the current line has to be dropped */
+	public final static int ERASE_LINE = -3;
+
+	/**
+	 * Receives what the codec has to send back to the client
+	 */
+	public interface Listener {
+		/**
+		 * Bytes to write to the client, an answer to the negotiation
+		 * @param bytes Telnet commands
+		 */
+		void send(byte[] bytes);
+
+		/**
+		 * The client reported the size of its terminal
+		 * @param width Columns
+		 * @param height Rows
+		 */
+		void windowSizeChanged(int width, int height);
+	}
+
+	// decoder states
+	private final static int DATA = 0;
+	private final static int COMMAND = 1;
+	private final static int OPTION = 2;
+	private final static int SB_OPTION = 3;
+	private final static int SB_DATA = 4;
+	private final static int SB_IAC = 5;
+
+	// option states, RFC 1143 without the queue
+	private final static byte NO = 0;
+	private final static byte YES = 1;
+	private final static byte WANT_YES = 2;
+
+	private final static int MAX_SUBNEGOTIATION = 64;
+	private final static byte[] AYT_REPLY = "\r\n[yes]\r\n".getBytes();
+
+	private final Listener _listener;
+	private int _state = DATA;
+	private int _verb = 0;
+	private int _sbOption = 0;
+	private final byte[] _sb = new byte[MAX_SUBNEGOTIATION];
+	private int _sbLength = 0;
+	// server side options (WILL/WONT) and client side options (DO/DONT)
+	private final byte[] _local = new byte[256];
+	private final byte[] _remote = new byte[256];
+
+	public TelnetCodec(Listener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Option requests the server starts with, SGA and NAWS
+	 * @return Bytes to send to the client before anything else
+	 */
+	public byte[] requestOptions() {
+		_local[SGA] = WANT_YES;
+		_remote[NAWS] = WANT_YES;
+		return new byte[] { (byte) IAC, (byte) WILL, SGA, (byte) IAC, (byte) DO, NAWS };
+	}
+
+	/**
+	 * Decode the next byte received from the client
+	 * @param b Byte, 0 to 255
+	 * @return The data byte, {@link #NONE} if the byte belongs to a command, {@link #ERASE_CHAR} or {@link #ERASE_LINE}
+	 */
+	public int decode(int b) {
+		switch (_state) {
+		case DATA:
+			if (b == IAC) {
+				_state = COMMAND;
+				return NONE;
+			}
+			return b;
+		case COMMAND:
+			_state = DATA;
+			switch (b) {
+			case IAC:
+				// escaped data byte
+				return IAC;
+			case WILL:
+			case WONT:
+			case DO:
+			case DONT:
+				_verb = b;
+				_state = OPTION;
+				return NONE;
+			case SB:
+				_state = SB_OPTION;
+				return NONE;
+			case EC:
+				return ERASE_CHAR;
+			case EL:
+				return ERASE_LINE;
+			case AYT:
+				_listener.send(AYT_REPLY);
+				return NONE;
+			default:
+				// NOP, GA, DM, BRK, IP, AO, a stray SE
+				return NONE;
+			}
+		case OPTION:
+			_state = DATA;
+			negotiate(_verb, b);
+			return NONE;
+		case SB_OPTION:
+			_sbOption = b;
+			_sbLength = 0;
+			_state = SB_DATA;
+			return NONE;
+		case SB_DATA:
+			if (b == IAC) {
+				_state = SB_IAC;
+			} else {
+				append(b);
+			}
+			return NONE;
+		default:
+			// SB_IAC
+			if (b == SE) {
+				_state = DATA;
+				subnegotiation(_sbOption, _sb, _sbLength);
+			} else {
+				// IAC IAC is a data byte, anything else is a protocol error, stay in the subnegotiation
+				if (b == IAC) {
+					append(b);
+				}
+				_state = SB_DATA;
+			}
+			return NONE;
+		}
+	}
+
+	private void append(int b) {
+		if (_sbLength < _sb.length) {
+			_sb[_sbLength++] = (byte) b;
+		}
+	}
+
+	private void negotiate(int verb, int option) {
+		switch (verb) {
+		case WILL:
+			if (_remote[option] == YES) {
+				return;
+			}
+			if (_remote[option] == WANT_YES || supportsRemote(option)) {
+				boolean requested = _remote[option] == WANT_YES;
+				_remote[option] = YES;
+				if (!requested) {
+					reply(DO, option);
+				}
+			} else {
+				reply(DONT, option);
+			}
+			break;
+		case WONT:
+			if (_remote[option] == YES) {
+				reply(DONT, option);
+			}
+			_remote[option] = NO;
+			break;
+		case DO:
+			if (_local[option] == YES) {
+				return;
+			}
+			if (_local[option] == WANT_YES || supportsLocal(option)) {
+				boolean requested = _local[option] == WANT_YES;
+				_local[option] = YES;
+				if (!requested) {
+					reply(WILL, option);
+				}
+			} else {
+				reply(WONT, option);
+			}
+			break;
+		default:
+			// DONT
+			if (_local[option] == YES) {
+				reply(WONT, option);
+			}
+			_local[option] = NO;
+			break;
+		}
+	}
+
+	private void subnegotiation(int option, byte[] data, int length) {
+		if (option == NAWS && length >= 4) {
+			int width = ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+			int height = ((data[2] & 0xff) << 8) | (data[3] & 0xff);
+			_listener.windowSizeChanged(width, height);
+		}
+	}
+
+	private void reply(int verb, int option) {
+		_listener.send(new byte[] { (byte) IAC, (byte) verb, (byte) option });
+	}
+
+	private boolean supportsLocal(int option) {
+		return option == SGA;
+	}
+
+	private boolean supportsRemote(int option) {
+		return option == NAWS;
+	}
+
+	/**
+	 * @param option Option code
+	 * @return true if the server has agreed to perform the option
+	 */
+	public boolean isLocalEnabled(int option) {
+		return _local[option] == YES;
+	}
+
+	/**
+	 * @param option Option code
+	 * @return true if the client has agreed to perform the option
+	 */
+	public boolean isRemoteEnabled(int option) {
+		return _remote[option] == YES;
+	}
+}
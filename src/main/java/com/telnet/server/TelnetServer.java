@@ -3,22 +3,45 @@ package com.telnet.server;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 /**
  * <p>
  * This class is responsible for opening a port for telnet clients connections, once client is connected
- * a new TelnetClient instance will be started after checking the max connection limit, otherwise client 
- * request to connect will be declined. The active connection list will also be maintained.
+ * a new TelnetClient instance will be started after the {@link AdmissionController} has admitted it, otherwise
+ * client request to connect will be declined. The active connection list will also be maintained.
+ * </p>
+ * <p>
+ * The connections are served either by one thread per client ({@link ServerMode#BLOCKING}), by one
+ * virtual thread per client ({@link ServerMode#VIRTUAL}) or by the selector based {@link NioTelnetEngine}
+ * ({@link ServerMode#NIO}).
  * </p>
  * @author sjunejo
  *
@@ -27,16 +50,82 @@ import java.util.logging.Logger;
 public class TelnetServer extends Thread implements TelnetServerMBean {
     private static Logger logger = Logger.getLogger(TelnetServer.class.getName());
     
-    // protect ourselves from DOS attacks
-    private final static int MAX_CONNECTIONS = 5;
+    private final static long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+    // disconnectAll() tears down the sessions in parallel from this number of sessions on
+    private final static int PARALLEL_DISCONNECT_THRESHOLD = 8;
+    public final static long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    public final static long DEFAULT_TIMEOUT_WARNING_MILLIS = 60 * 1000L;
+    public final static long DEFAULT_DRAIN_TIMEOUT_MILLIS = 30 * 1000L;
+    public final static long DEFAULT_WALK_TIMEOUT_MILLIS = 30 * 1000L;
+    public final static int DEFAULT_WALK_MAX_DEPTH = 64;
+    public final static String SHUTTING_DOWN = "Server is shutting down";
+    // the blocking accept loop checks this often whether it has to stop
+    private final static int ACCEPT_POLL_MILLIS = 500;
+    private final static long DRAIN_POLL_MILLIS = 50;
     private String _operatingSystem = null;
     private int _port = -1;
+    private ServerMode _mode = ServerMode.BLOCKING;
+    // commands of all the sessions, see CommandExecutor
+    private int _workerThreads = CommandExecutor.DEFAULT_THREADS;
+    private int _commandQueueSize = CommandExecutor.DEFAULT_QUEUE_SIZE;
+    private int _maxPendingCommands = CommandExecutor.DEFAULT_MAX_PENDING_COMMANDS;
+    private int _longRunningThreads = CommandExecutor.DEFAULT_LONG_RUNNING_THREADS;
+    private CommandExecutor _commandExecutor = null;
+    // replies are written in one piece, so Nagle's algorithm only adds latency
+    private volatile boolean _tcpNoDelay = true;
+    // commands already sent by a client are run before their replies are written
+    private volatile boolean _pipelining = true;
+    // send the Telnet option requests (SGA, NAWS) when a session starts
+    private volatile boolean _negotiateOptions = false;
+    // threads accepting the connections, each with a listening socket of its own when SO_REUSEPORT is available
+    private int _acceptors = 1;
+    // bind with SO_REUSEPORT when available, a new process can then listen before this one drains
+    private boolean _reusePort = true;
+    // listening sockets of the acceptors after the first one, empty when they all share the server socket
+    private final List<ServerSocket> _reusePortSockets = new CopyOnWriteArrayList<ServerSocket>();
+    private final List<NioTelnetEngine> _nioEngines = new CopyOnWriteArrayList<NioTelnetEngine>();
+    // blocking accept loops running, guarded by itself
+    private final int[] _acceptLoops = { 0 };
+    private volatile ExecutorService _sessionExecutor = null;
     private AtomicInteger _numberOfConnections = new AtomicInteger(0);
-    private Map<String, TelnetClient> activeConnections = new HashMap<String, TelnetClient>();
+    // protect ourselves from DOS attacks
+    private final AdmissionController _admission = new AdmissionController();
+    private final ConnectionRegistry activeConnections = new ConnectionRegistry();
+    // shared with the successor after a restart, the counters go on
+    private ServerMetrics _metrics = new ServerMetrics();
+    // structured session events, null = disabled, shared with the successor after a restart
+    private volatile SessionEventLog _eventLog = null;
+    // commands of all the sessions, null = disabled, shared with the successor after a restart
+    private volatile AuditLog _auditLog = null;
+    // file names of the indexed directories for locate, null = disabled, shared with the successor after a restart
+    private volatile FileNameIndex _fileNameIndex = null;
+    private ObjectName _mbeanName = null;
+    // HTTP port of the metrics endpoint, 0 = disabled
+    private int _metricsPort = 0;
+    private MetricsHttpServer _metricsHttpServer = null;
+    // session timeouts, 0 = none, see SessionReaper
+    private long _idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private long _maxSessionMillis = 0;
+    private long _timeoutWarningMillis = DEFAULT_TIMEOUT_WARNING_MILLIS;
+    private volatile SessionReaper _reaper = null;
+    // cleared by a drain or a restart
+    private volatile boolean _accepting = true;
+    // set once shutDown() is done
+    private volatile boolean _shutDown = false;
+    // server the listening socket has been handed to by restart()
+    private volatile TelnetServer _successor = null;
+    private long _drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
+    private volatile CommandRegistry _commandRegistry = CommandRegistry.getDefault();
+    // tree, du and find, see TreeWalk: the pool threads are all the CPU the walks of all sessions get
+    private int _walkParallelism = Runtime.getRuntime().availableProcessors();
+    private long _walkTimeoutMillis = DEFAULT_WALK_TIMEOUT_MILLIS;
+    private int _walkMaxDepth = DEFAULT_WALK_MAX_DEPTH;
+    private ForkJoinPool _walkPool = null;
+    private final CanonicalPathCache _canonicalPathCache = new CanonicalPathCache();
+    private final ListingCache _listingCache = new ListingCache(_canonicalPathCache);
     
     //Initialization
 	private ServerSocket server = null;
-	private TelnetClient _telnetClient = null;
     
     public TelnetServer() {
         // used in unit tests only
@@ -48,6 +137,19 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
     	_port = port;
     }
     
+    /**
+     * <p>Serve the connections of a listening socket bound elsewhere, handed over by {@link #restart()}
+     * or inherited from the launching process (inetd, systemd socket activation)</p>
+     * @param sc Bound server socket, from a ServerSocketChannel in {@link ServerMode#NIO} mode
+     * @param port Port of the socket
+     * @param mode Engine serving the connections
+     */
+    public TelnetServer(ServerSocket sc, int port, ServerMode mode) {
+    	this.server = sc;
+    	_port = port;
+    	_mode = mode;
+    }
+    
     /**
      * <p>Listen for client connections on all hosts on the supplied port</p>
      * @param port
@@ -56,47 +158,313 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
         _port = port;
     }
     
+    /**
+     * <p>Listen for client connections on all hosts on the supplied port using the given engine</p>
+     * @param port
+     * @param mode Engine serving the connections
+     */
+    public TelnetServer(int port, ServerMode mode) {
+        _port = port;
+        _mode = mode;
+    }
+    
+    /**
+     * Bind the server socket before the thread is started, so clients can connect as soon as this returns
+     */
+    public synchronized void start() {
+    	if (server == null) {
+    		try {
+    			bind();
+    		} catch (IOException e) {
+    			logger.log(Level.SEVERE, "Unable to accept connections", e);
+    			return;
+    		}
+    	}
+    	registerMBean();
+    	startMetricsHttpServer();
+    	if (_idleTimeoutMillis > 0 || _maxSessionMillis > 0) {
+    		_reaper = new SessionReaper(this, _idleTimeoutMillis, _maxSessionMillis, _timeoutWarningMillis);
+    	}
+    	super.start();
+    }
+    
+    private void startMetricsHttpServer() {
+    	if (_metricsPort > 0) {
+    		MetricsHttpServer metricsHttpServer = new MetricsHttpServer(this, _metricsPort);
+    		try {
+    			metricsHttpServer.start();
+    			_metricsHttpServer = metricsHttpServer;
+    		} catch (IOException ioe) {
+    			logger.log(Level.WARNING, "Unable to start the metrics endpoint on port " + _metricsPort, ioe);
+    		}
+    	}
+    }
+    
+    /**
+     * Make the server available to JMX clients as com.telnet.server:type=TelnetServer,port=&lt;port&gt;
+     */
+    private void registerMBean() {
+    	try {
+    		ObjectName name = new ObjectName("com.telnet.server:type=TelnetServer,port=" + server.getLocalPort());
+    		ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    		_mbeanName = name;
+    	} catch (JMException jme) {
+    		logger.log(Level.WARNING, "Unable to register the MBean", jme);
+    	}
+    }
+    
+    private void unregisterMBean() {
+    	if (_mbeanName != null) {
+    		try {
+    			ManagementFactory.getPlatformMBeanServer().unregisterMBean(_mbeanName);
+    		} catch (JMException jme) {
+    			logger.log(Level.FINE, "Unable to unregister the MBean", jme);
+    		}
+    		_mbeanName = null;
+    	}
+    }
+    
     public void run() {
         acceptConnections();
     }
     
     /**
-     * This methid will open the ServerSocket on given port
+     * This method will open the server socket on given port
+     * @throws IOException
+     */
+    protected void bind() throws IOException {
+    	if (_reusePort && ReusePort.isSupported()) {
+    		// with a single acceptor too, another process can bind the port while this one drains
+    		server = bindReusePort(_port);
+    		// the same port if it was picked by the system
+    		for (int i = 1; i < _acceptors; i++) {
+    			_reusePortSockets.add(bindReusePort(server.getLocalPort()));
+    		}
+    	} else if (_mode == ServerMode.NIO) {
+    		ServerSocketChannel channel = ServerSocketChannel.open();
+    		channel.socket().bind(new InetSocketAddress(_port));
+    		server = channel.socket();
+    	} else {
+    		server = new ServerSocket (_port);
+    	}
+    }
+    
+    private ServerSocket bindReusePort(int port) throws IOException {
+    	ServerSocketChannel channel = ReusePort.open();
+    	try {
+    		channel.socket().bind(new InetSocketAddress(port));
+    	} catch (IOException ioe) {
+    		channel.close();
+    		throw ioe;
+    	}
+    	return channel.socket();
+    }
+    
+    /**
+     * The listening socket of each acceptor, the server socket for all of them without SO_REUSEPORT
+     * @return One socket per acceptor
+     */
+    private List<ServerSocket> getAcceptorSockets() {
+    	List<ServerSocket> sockets = new ArrayList<ServerSocket>(_acceptors);
+    	sockets.add(server);
+    	sockets.addAll(_reusePortSockets);
+    	while (sockets.size() < _acceptors) {
+    		sockets.add(server);
+    	}
+    	return sockets;
+    }
+    
+    /**
+     * This method will accept the connections on the ServerSocket, with several acceptors the others
+     * run on threads of their own
      */
     protected void acceptConnections() {
         try {
             // Bind to a local port
-            server = new ServerSocket (_port);
-
-            while (true) {
+        	if (server == null) {
+        		bind();
+        	}
+        	List<ServerSocket> sockets = getAcceptorSockets();
+        	if (_mode == ServerMode.NIO) {
+        		// every acceptor is an engine with its own selector, the commands run on the command executor
+        		for (ServerSocket socket : sockets) {
+        			_nioEngines.add(new NioTelnetEngine(this, socket.getChannel()));
+        		}
+        		for (int i = 1; i < _nioEngines.size(); i++) {
+        			final NioTelnetEngine engine = _nioEngines.get(i);
+        			startAcceptor(i, new Runnable() {
+        				public void run() {
+        					engine.run();
+        				}
+        			});
+        		}
+        		_nioEngines.get(0).run();
+        		return;
+        	}
+        	if (_mode == ServerMode.VIRTUAL) {
+        		if (VirtualThreads.isSupported()) {
+        			_sessionExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+        		} else {
+        			logger.log(Level.WARNING, "Virtual threads are not supported by this JDK, using platform threads");
+        		}
+        	}
+        	for (int i = 1; i < sockets.size(); i++) {
+        		final ServerSocket socket = sockets.get(i);
+        		startAcceptor(i, new Runnable() {
+        			public void run() {
+        				acceptConnections(socket);
+        			}
+        		});
+        	}
+        	acceptConnections(sockets.get(0));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to accept connections", e);
+        }
+    }
+    
+    private void startAcceptor(int index, Runnable acceptor) {
+    	Thread thread = new Thread(acceptor, "telnet-acceptor-" + index);
+    	thread.setDaemon(true);
+    	thread.start();
+    }
+    
+    /**
+     * Accept loop of a blocking acceptor
+     * @param socket Listening socket, possibly shared with the other acceptors
+     */
+    private void acceptConnections(ServerSocket socket) {
+        synchronized (_acceptLoops) {
+        	_acceptLoops[0]++;
+        }
+        try {
+            // the accept returns now and then, so a drain or a restart can stop the loop without closing the socket
+            socket.setSoTimeout(ACCEPT_POLL_MILLIS);
+            while (_accepting) {
             	try {
             		// Accept the next connection
-            		Socket connection = server.accept();
-
-            		// Check to see if maximum reached
-            		if (getNumberOfConnections() >= MAX_CONNECTIONS) {
-            			// Kill the connection
-            			PrintStream pout = new PrintStream (connection.getOutputStream());
-            			pout.println ("Too many users");
-            			connection.close();
-            			continue;
+            		Socket connection = socket.accept();
+            		TelnetServer successor = _successor;
+            		if (_accepting) {
+            			admitConnection(connection);
+            		} else if (successor != null) {
+            			// accepted while the listening socket was handed over
+            			successor.admitConnection(connection);
             		} else {
-            			_telnetClient = new TelnetClient(this, connection, getUniqueID());
-            			_telnetClient.start();
+            			rejectConnection(connection, SHUTTING_DOWN);
             		}
+                } catch (SocketTimeoutException ste) {
+                	continue;
                 }
             	//we throw SocketException to kill the TelnetServer Thread.
 				catch (SocketException ee) { 
 					break;
 				}
+				// closed, the sockets bound with SO_REUSEPORT are channel adaptors
+				catch (ClosedChannelException cce) {
+					break;
+				}
             }
         } catch (InterruptedIOException e) {
             logger.log(Level.FINE, "This can be considered a normal exit", e);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Unable to accept connections", e);
+        } finally {
+        	synchronized (_acceptLoops) {
+        		_acceptLoops[0]--;
+        		_acceptLoops.notifyAll();
+        	}
         }
     }
     
+    /**
+     * Wait for the blocking accept loops to return, a listening socket closed while a thread is in
+     * accept is only released once that thread leaves it
+     * @param timeoutMillis Max time to wait
+     */
+    private void awaitAcceptLoops(long timeoutMillis) {
+    	long deadline = System.currentTimeMillis() + timeoutMillis;
+    	synchronized (_acceptLoops) {
+    		long remaining;
+    		while (_acceptLoops[0] > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+    			try {
+    				_acceptLoops.wait(remaining);
+    			} catch (InterruptedException ie) {
+    				Thread.currentThread().interrupt();
+    				return;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Start a session for the connection once the admission control lets it in
+     * @param connection Accepted connection
+     * @throws SocketException If the connection is already closed
+     */
+    private void admitConnection(final Socket connection) throws SocketException {
+    	_metrics.connectionAccepted();
+    	final InetAddress address = connection.getInetAddress();
+    	connection.setTcpNoDelay(_tcpNoDelay);
+
+    	// Check to see if maximum reached, the connection may have to wait for a free slot
+    	_admission.admit(address, new AdmissionController.Listener() {
+    		public void admitted() {
+    			TelnetClient client = new TelnetClient(TelnetServer.this, connection, getUniqueID());
+    			client.setAdmittedAddress(address);
+    			startClient(client);
+    		}
+    		public void rejected(String message) {
+    			rejectConnection(connection, message);
+    		}
+    	});
+    }
+    
+    /**
+     * Run the client session on a virtual thread in {@link ServerMode#VIRTUAL} mode,
+     * otherwise on its own platform thread
+     * @param client TelnetClient to start
+     */
+    private void startClient(TelnetClient client) {
+    	try {
+    		if (_sessionExecutor != null) {
+    			_sessionExecutor.execute(client);
+    		} else {
+    			new Thread(client).start();
+    		}
+    	} catch (RejectedExecutionException ree) {
+    		// Server is shutting down
+    		releaseAdmission(client);
+    		rejectConnection(client.getSocket(), AdmissionController.TOO_MANY_USERS);
+    	}
+    }
+    
+    /**
+     * Kill the connection
+     * @param connection Connection to close
+     * @param message Reason sent to the client
+     */
+    private void rejectConnection(Socket connection, String message) {
+    	_metrics.connectionRejected();
+    	try {
+    		PrintStream pout = new PrintStream (connection.getOutputStream());
+    		pout.println (message);
+    		connection.close();
+    	} catch (IOException ioe) {
+    		logger.log(Level.FINE, "Failed to reject connection", ioe);
+    	}
+    }
+    
+    /**
+     * Give back the admission slot held by the client, if any
+     * @param clientObj TelnetSession class object
+     */
+    protected void releaseAdmission(TelnetSession clientObj) {
+    	InetAddress address = clientObj.takeAdmittedAddress();
+    	if (address != null) {
+    		_admission.release(address);
+    	}
+    }
+    
     /**
      * Current number of client connections 
      * @return Number of connections
@@ -107,55 +475,82 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
     
     /**
      * This will called by client once its started successfully
-     * @param clientObj TelnetClient class object
+     * @param clientObj TelnetSession class object
      * @return The updated number
      */
-    protected int clientConnected(TelnetClient clientObj) {
+    protected int clientConnected(TelnetSession clientObj) {
     	addToActiveConnection(clientObj);
+    	SessionReaper reaper = _reaper;
+    	if (reaper != null) {
+    		reaper.sessionStarted(clientObj);
+    	}
+    	SessionEventLog events = _eventLog;
+    	if (events != null) {
+    		Socket socket = clientObj.getSocket();
+    		events.connected(clientObj.getMyUniqueId(), socket == null ? null : socket.getInetAddress());
+    	}
         return _numberOfConnections.addAndGet(1);
     }
     
     /**
-     * This method will add the newly provided TelnetClient object in the activeConnection list
+     * This method will add the newly provided TelnetSession object in the activeConnection list
      * @param clientObj Telnetclient object
      */
-    private void addToActiveConnection(TelnetClient clientObj) {
-    	activeConnections.put(clientObj.getMyUniqueId(), clientObj);
+    private void addToActiveConnection(TelnetSession clientObj) {
+    	activeConnections.add(clientObj);
     }
     
     /**
      * This method will be called to updated list of connected clients
-     * @param clientObj TelnetClient object
+     * @param clientObj TelnetSession object
      * @return return the updated count
      */
-    protected int clientDisconnected(TelnetClient clientObj) {
+    protected int clientDisconnected(TelnetSession clientObj) {
     	removeFromActiveConnection(clientObj);
-    	return _numberOfConnections.decrementAndGet();
+    	SessionReaper reaper = _reaper;
+    	if (reaper != null) {
+    		reaper.sessionEnded(clientObj);
+    	}
+    	int count = _numberOfConnections.decrementAndGet();
+    	releaseAdmission(clientObj);
+    	long start = clientObj.getStartNanos();
+    	if (start != 0) {
+    		long nanos = System.nanoTime() - start;
+    		_metrics.sessionEnded(nanos);
+    		SessionEventLog events = _eventLog;
+    		if (events != null) {
+    			events.disconnected(clientObj.getMyUniqueId(), nanos);
+    		}
+    	}
+    	return count;
     }
 
     /**
-     * This method will add the provided TelnetClient object in the activeConnection list
+     * This method will add the provided TelnetSession object in the activeConnection list
      * @param clientObj Telnetclient object
      */
-    private void removeFromActiveConnection(TelnetClient clientObj) {
-    	activeConnections.remove(clientObj.getMyUniqueId());
+    private void removeFromActiveConnection(TelnetSession clientObj) {
+    	activeConnections.remove(clientObj);
     }
     
     /**
      * Return the list of active connection as String
      */
     public String listAllConnections() {
-    	Iterator it = activeConnections.entrySet().iterator();
     	StringBuilder sb = new  StringBuilder();
-    	sb.append("Client ID					Client Object\n");
-    	sb.append("=========					=============\n");
-	    while (it.hasNext()) {
-	    	Map.Entry pairs = (Map.Entry) it.next();
-	    	sb.append(pairs.getKey()).append("		").append(pairs.getValue().toString()).append("\n");
+    	sb.append("Client ID					Remote Address		Connected At		Client Object\n");
+    	sb.append("=========					==============		============		=============\n");
+	    for (ConnectionRegistry.Entry entry : activeConnections.snapshot()) {
+	    	sb.append(entry.getClientId()).append("		");
+	    	sb.append(entry.getAddress() == null ? "-" : entry.getAddress().getHostAddress()).append("		");
+	    	sb.append(new Date(entry.getConnectedAt())).append("		");
+	    	sb.append(entry.getClient().toString()).append("\n");
 	    }
 	    sb.append("Active Connections = ").append(getNumberOfConnections());
 	    sb.append(", ");
-	    sb.append("Max Connections = ").append(MAX_CONNECTIONS);
+	    sb.append("Max Connections = ").append(getMaxConnections());
+	    sb.append(", ");
+	    sb.append("Waiting = ").append(_admission.getQueueLength());
 	    sb.append("\n");
 	    return sb.toString();
 	}
@@ -167,7 +562,7 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
      */
 	public String disconnectClient(String clientId) {
 		if (clientId != null) {
-			TelnetClient clientToKill = activeConnections.get(clientId);
+			TelnetSession clientToKill = activeConnections.get(clientId);
 			if (clientToKill != null) {
 				try {
 					clientToKill.destroyTelnetClientThread();
@@ -186,39 +581,294 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
 	}
 
 	/**
-	 * This method will disconnect all active client connections and shutdown the server
+	 * This method will disconnect all active client connections, with many active connections the
+	 * sessions are torn down in parallel
 	 * @return 'Success' if everything is OK, otherwise error message be returned 
 	 */
 	public String disconnectAll() {
-		Iterator it = activeConnections.entrySet().iterator();
-		while (it.hasNext()) {
-	    	Map.Entry pairs = (Map.Entry) it.next();
-	    	if (disconnectClient((String) pairs.getKey()).equals("Failed")) {
-	    		return "Failed";
-	    	}
+		List<ConnectionRegistry.Entry> snapshot = activeConnections.snapshot();
+		boolean failed = false;
+		if (snapshot.size() < PARALLEL_DISCONNECT_THRESHOLD) {
+			for (ConnectionRegistry.Entry entry : snapshot) {
+				failed |= disconnectClient(entry.getClientId()).equals("Failed");
+			}
+		} else {
+			List<Callable<String>> tasks = new ArrayList<Callable<String>>(snapshot.size());
+			for (final ConnectionRegistry.Entry entry : snapshot) {
+				tasks.add(new Callable<String>() {
+					public String call() {
+						return disconnectClient(entry.getClientId());
+					}
+				});
+			}
+			for (Future<String> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				try {
+					failed |= result.get().equals("Failed");
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					failed = true;
+				} catch (ExecutionException ee) {
+					logger.log(Level.SEVERE, "Failed to disconnect client - " + ee.getCause());
+					failed = true;
+				}
+			}
+		}
+		return failed ? "Failed" : "Success";
+	}
+	
+	/**
+	 * Registry of the active connections, indexed by client id, remote address and connect time
+	 * @return ConnectionRegistry
+	 */
+	public ConnectionRegistry getActiveConnections() {
+		return activeConnections;
+	}
+
+	/**
+	 * Stop accepting connections, the sessions are still served and the listening socket stays open
+	 */
+	private void stopAccepting() {
+		_accepting = false;
+		for (NioTelnetEngine engine : _nioEngines) {
+			engine.stopAccepting();
+		}
+	}
+
+	/**
+	 * Close the listening sockets of all acceptors
+	 * @throws IOException If the server socket can not be closed
+	 */
+	private void closeListeningSockets() throws IOException {
+		for (ServerSocket socket : _reusePortSockets) {
+			try {
+				socket.close();
+			} catch (IOException ioe) {
+				logger.log(Level.WARNING, "Failed to close a listening socket", ioe);
+			}
+		}
+		server.close();
+	}
+
+	/**
+	 * Refuse new connections, tell the clients the server is going down and give them the drain
+	 * timeout to finish. The commands still running then are waited for, the idle sessions are
+	 * closed and the server is shut down.
+	 * @return Response of the shutdown
+	 */
+	public String drain() {
+		stopAccepting();
+		if (_successor == null && server != null) {
+			// refused right away, the clients and load balancers can go elsewhere
+			try {
+				closeListeningSockets();
+			} catch (IOException ioe) {
+				logger.log(Level.WARNING, "Failed to close the listening socket", ioe);
+			}
+			if (Thread.currentThread() != this) {
+				awaitAcceptLoops(ACCEPT_POLL_MILLIS * 2);
+			}
+		}
+		drainSessions();
+		return shutDown();
+	}
+
+	/**
+	 * Start a new server on the listening socket of this one, the connections waiting in the backlog
+	 * and the new ones are accepted by the new server while the sessions of this one are drained in
+	 * the background. The new server takes over the configuration, the metrics and the MBean name.
+	 * @return Response of the operation performed
+	 */
+	public synchronized String restart() {
+		if (server == null || server.isClosed() || !_accepting) {
+			return "Failed";
+		}
+		TelnetServer successor = new TelnetServer(server, _port, _mode);
+		copyConfiguration(successor);
+		// the MBean name and the metrics port move to the successor
+		unregisterMBean();
+		if (_metricsHttpServer != null) {
+			_metricsHttpServer.stop();
+			_metricsHttpServer = null;
+		}
+		_successor = successor;
+		successor.start();
+		stopAccepting();
+		int sessions = getNumberOfConnections();
+		Thread drain = new Thread(new Runnable() {
+			public void run() {
+				drainSessions();
+				shutDown();
+			}
+		}, "telnet-drain-" + _port);
+		drain.setDaemon(true);
+		drain.start();
+		return "Restarted, draining " + sessions + " sessions";
+	}
+
+	/**
+	 * Server the listening socket has been handed to by {@link #restart()}
+	 * @return Successor or null
+	 */
+	public TelnetServer getSuccessor() {
+		return _successor;
+	}
+
+	private void copyConfiguration(TelnetServer successor) {
+		successor._metrics = _metrics;
+		successor._eventLog = _eventLog;
+		successor._auditLog = _auditLog;
+		successor._fileNameIndex = _fileNameIndex;
+		successor._workerThreads = _workerThreads;
+		successor._commandQueueSize = _commandQueueSize;
+		successor._maxPendingCommands = _maxPendingCommands;
+		successor._longRunningThreads = _longRunningThreads;
+		successor._acceptors = _acceptors;
+		successor._reusePort = _reusePort;
+		successor._reusePortSockets.addAll(_reusePortSockets);
+		successor._tcpNoDelay = _tcpNoDelay;
+		successor._pipelining = _pipelining;
+		successor._negotiateOptions = _negotiateOptions;
+		successor._metricsPort = _metricsPort;
+		successor._idleTimeoutMillis = _idleTimeoutMillis;
+		successor._maxSessionMillis = _maxSessionMillis;
+		successor._timeoutWarningMillis = _timeoutWarningMillis;
+		successor._drainTimeoutMillis = _drainTimeoutMillis;
+		successor._commandRegistry = _commandRegistry;
+		successor._walkParallelism = _walkParallelism;
+		successor._walkTimeoutMillis = _walkTimeoutMillis;
+		successor._walkMaxDepth = _walkMaxDepth;
+		// created now if still unused, the sessions drained would otherwise create pools of their own
+		// which nobody shuts down
+		successor._walkPool = getWalkPool();
+		successor._commandExecutor = getCommandExecutor();
+		AdmissionController admission = successor.getAdmissionController();
+		admission.setMaxConnections(_admission.getMaxConnections());
+		admission.setMaxConnectionsPerAddress(_admission.getMaxConnectionsPerAddress());
+		admission.setQueueSize(_admission.getQueueSize());
+		admission.setQueueTimeoutMillis(_admission.getQueueTimeoutMillis());
+		admission.setMaxHeapUsagePercent(_admission.getMaxHeapUsagePercent());
+		admission.setMaxCpuLoadPercent(_admission.getMaxCpuLoadPercent());
+		successor._listingCache.setMaxEntries(_listingCache.getMaxEntries());
+		successor._listingCache.setMaxEntriesPerDirectory(_listingCache.getMaxEntriesPerDirectory());
+		successor._canonicalPathCache.setMaxSize(_canonicalPathCache.getMaxSize());
+		successor._canonicalPathCache.setTtlMillis(_canonicalPathCache.getTtlMillis());
+	}
+
+	/**
+	 * Warn the sessions, wait for them to quit until the drain timeout, then close them as soon as
+	 * their running command is done
+	 */
+	private void drainSessions() {
+		final String notice = "*** The server is " + (_successor == null ? "shutting down" : "restarting")
+				+ ", this session will be closed in " + TimeUnit.MILLISECONDS.toSeconds(_drainTimeoutMillis)
+				+ " seconds" + (_successor == null ? "" : ", reconnect to continue") + " ***";
+		for (final ConnectionRegistry.Entry entry : activeConnections.snapshot()) {
+			// a client which does not read can not hold up the drain
+			ForkJoinPool.commonPool().execute(new Runnable() {
+				public void run() {
+					entry.getClient().sendNotice(notice, true);
+				}
+			});
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_drainTimeoutMillis);
+		while (getNumberOfConnections() > 0 && System.nanoTime() < deadline && pause(DRAIN_POLL_MILLIS)) {
+		}
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_TIMEOUT_MILLIS);
+		while (getNumberOfConnections() > 0 && System.nanoTime() < deadline) {
+			for (ConnectionRegistry.Entry entry : activeConnections.snapshot()) {
+				if (!entry.getClient().isExecuting()) {
+					disconnectClient(entry.getClientId());
+				}
+			}
+			if (!pause(DRAIN_POLL_MILLIS)) {
+				break;
+			}
+		}
+	}
+
+	private static boolean pause(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
 		}
-		return "Success";
 	}
 
 	/**
 	 * This method will shutdown the Telnet Server thread
 	 */
 	public String shutDown() {
+		_admission.shutdown();
+		unregisterMBean();
+		if (_metricsHttpServer != null) {
+			_metricsHttpServer.stop();
+		}
+		if (_reaper != null) {
+			_reaper.stop();
+		}
+		// after a restart the log is still used by the successor
+		if (_eventLog != null && _successor == null) {
+			_eventLog.close();
+		}
+		if (_auditLog != null && _successor == null) {
+			_auditLog.close();
+		}
+		if (_fileNameIndex != null && _successor == null) {
+			_fileNameIndex.close();
+		}
+		synchronized (this) {
+			// the running walks are drained with their sessions
+			if (_walkPool != null && _successor == null) {
+				_walkPool.shutdown();
+			}
+		}
+		_listingCache.close();
 		disconnectAll();
-		try {
-			server.close();
-		} catch (IOException ioe) {
-			logger.log(Level.SEVERE, "Failed to stop server - " + ioe.getMessage());
-			return "Failed";
+		synchronized (this) {
+			// the sessions are gone, their running commands stop at their next check
+			if (_commandExecutor != null && _successor == null) {
+				_commandExecutor.shutdown();
+			}
+		}
+		_accepting = false;
+		// after a restart the listening socket belongs to the successor
+		if (_successor == null) {
+			try {
+				closeListeningSockets();
+			} catch (IOException ioe) {
+				logger.log(Level.SEVERE, "Failed to stop server - " + ioe.getMessage());
+				_shutDown = true;
+				return "Failed";
+			}
+		}
+		for (NioTelnetEngine engine : _nioEngines) {
+			engine.stop();
+		}
+		for (NioTelnetEngine engine : _nioEngines) {
+			engine.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS);
 		}
+		if (_sessionExecutor != null) {
+			_sessionExecutor.shutdown();
+		}
+		_shutDown = true;
 		return "Goodbye";
 	}
+	
+	/**
+	 * Check if {@link #shutDown()} has run, after a drain or once a restarted server has drained
+	 * @return true once shut down
+	 */
+	public boolean isShutDown() {
+		return _shutDown;
+	}
     
 	/**
 	 * This method will generate the unique ID 
 	 * @return Unique ID as String
 	 */
-	private String getUniqueID() {
+	protected String getUniqueID() {
 		return (UUID.randomUUID().toString());
 	}
 
@@ -238,6 +888,500 @@ public class TelnetServer extends Thread implements TelnetServerMBean {
 	 * @return Max value as int
 	 */
 	public int getMaxConnections() {
-		return MAX_CONNECTIONS;
+		return _admission.getMaxConnections();
+	}
+
+	/**
+	 * Set the Max Client Connections allowed value
+	 * @param maxConnections Max value
+	 */
+	public void setMaxConnections(int maxConnections) {
+		_admission.setMaxConnections(maxConnections);
+	}
+
+	/**
+	 * Admission control settings e.g. per address limit, accept queue and load based limits
+	 * @return AdmissionController of this server
+	 */
+	public AdmissionController getAdmissionController() {
+		return _admission;
+	}
+
+	/**
+	 * Commands available to the sessions of this server
+	 * @return CommandRegistry
+	 */
+	public CommandRegistry getCommandRegistry() {
+		return _commandRegistry;
+	}
+
+	/**
+	 * Replace the commands available to the sessions e.g. to add custom commands to
+	 * {@link CommandRegistry#createDefault()}
+	 * @param commandRegistry Command registry
+	 */
+	public void setCommandRegistry(CommandRegistry commandRegistry) {
+		_commandRegistry = commandRegistry;
+	}
+
+	/**
+	 * Counters and latencies of this server
+	 * @return ServerMetrics
+	 */
+	public ServerMetrics getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * @return Session event log, null if disabled
+	 */
+	public SessionEventLog getEventLog() {
+		return _eventLog;
+	}
+
+	/**
+	 * Log the session events, the log is closed when the server shuts down
+	 * @param eventLog Session event log, null to disable
+	 */
+	public void setEventLog(SessionEventLog eventLog) {
+		_eventLog = eventLog;
+	}
+
+	public long getEventsDropped() {
+		SessionEventLog events = _eventLog;
+		return events == null ? 0 : events.getDropped();
+	}
+
+	/**
+	 * @return Audit log of the commands, null if disabled
+	 */
+	public AuditLog getAuditLog() {
+		return _auditLog;
+	}
+
+	/**
+	 * Audit the commands of the sessions, the log is closed when the server shuts down
+	 * @param auditLog Audit log, null to disable
+	 */
+	public void setAuditLog(AuditLog auditLog) {
+		_auditLog = auditLog;
+	}
+
+	public long getAuditRecordsDropped() {
+		AuditLog audit = _auditLog;
+		return audit == null ? 0 : audit.getDropped();
+	}
+
+	/**
+	 * @return Index of the file names for locate, null if disabled
+	 */
+	public FileNameIndex getFileNameIndex() {
+		return _fileNameIndex;
+	}
+
+	/**
+	 * Answer locate from the index, it is closed when the server shuts down
+	 * @param fileNameIndex Started index, null to disable
+	 */
+	public void setFileNameIndex(FileNameIndex fileNameIndex) {
+		_fileNameIndex = fileNameIndex;
+	}
+
+	public int getIndexedEntries() {
+		FileNameIndex index = _fileNameIndex;
+		return index == null ? 0 : index.getEntries();
+	}
+
+	/**
+	 * HTTP port of the OpenMetrics endpoint, see {@link MetricsHttpServer}
+	 * @return port, 0 if disabled
+	 */
+	public int getMetricsPort() {
+		return _metricsPort;
+	}
+
+	/**
+	 * Serve the metrics over HTTP, must be called before the server is started
+	 * @param metricsPort HTTP port, 0 to disable
+	 */
+	public void setMetricsPort(int metricsPort) {
+		_metricsPort = metricsPort;
+	}
+
+	public int getActiveSessions() {
+		return getNumberOfConnections();
+	}
+
+	public long getAcceptedConnections() {
+		return _metrics.getAcceptedConnections();
+	}
+
+	public long getRejectedConnections() {
+		return _metrics.getRejectedConnections();
+	}
+
+	public long getReapedSessions() {
+		return _metrics.getReapedSessions();
+	}
+
+	public long getBytesReceived() {
+		return _metrics.getBytesReceived();
+	}
+
+	public long getBytesSent() {
+		return _metrics.getBytesSent();
+	}
+
+	public long getCommandCount() {
+		return _metrics.getCommandCount();
+	}
+
+	public String getCommandLatencies() {
+		return _metrics.formatCommandLatencies();
+	}
+
+	public String getSessionDurations() {
+		return _metrics.formatSessionDurations();
+	}
+
+	public long getListingCacheHits() {
+		return _listingCache.getHits();
+	}
+
+	public long getListingCacheMisses() {
+		return _listingCache.getMisses();
+	}
+
+	public long getPathCacheHits() {
+		return _canonicalPathCache.getHits();
+	}
+
+	public long getPathCacheMisses() {
+		return _canonicalPathCache.getMisses();
+	}
+
+	/**
+	 * Directory listings shared by the sessions of this server
+	 * @return ListingCache
+	 */
+	public ListingCache getListingCache() {
+		return _listingCache;
+	}
+
+	/**
+	 * Resolved paths shared by the sessions of this server
+	 * @return CanonicalPathCache
+	 */
+	public CanonicalPathCache getCanonicalPathCache() {
+		return _canonicalPathCache;
+	}
+
+	/**
+	 * Engine serving the client connections
+	 * @return Server mode
+	 */
+	public ServerMode getMode() {
+		return _mode;
+	}
+
+	/**
+	 * Check if TCP_NODELAY is set on the client connections
+	 * @return true if Nagle's algorithm is disabled
+	 */
+	public boolean isTcpNoDelay() {
+		return _tcpNoDelay;
+	}
+
+	/**
+	 * Enable or disable TCP_NODELAY on the client connections accepted from now on
+	 * @param tcpNoDelay true to disable Nagle's algorithm
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		_tcpNoDelay = tcpNoDelay;
+	}
+
+	/**
+	 * @return false once the server drains, restarts or shuts down, long running commands give up
+	 */
+	public boolean isAccepting() {
+		return _accepting;
+	}
+
+	/**
+	 * @return true if the replies to the commands a client has already sent are written in one batch
+	 */
+	public boolean isPipelining() {
+		return _pipelining;
+	}
+
+	/**
+	 * Enable or disable pipelining, when disabled every reply is written as soon as its command is done
+	 * @param pipelining true to batch the replies of buffered commands
+	 */
+	public void setPipelining(boolean pipelining) {
+		_pipelining = pipelining;
+	}
+
+	/**
+	 * @return true if the server starts the Telnet option negotiation, the requests of the client are answered anyway
+	 */
+	public boolean isNegotiateOptions() {
+		return _negotiateOptions;
+	}
+
+	/**
+	 * Enable or disable the option requests sent to new sessions, raw TCP clients would see them as output
+	 * @param negotiateOptions true to ask the clients for SGA and NAWS
+	 */
+	public void setNegotiateOptions(boolean negotiateOptions) {
+		_negotiateOptions = negotiateOptions;
+	}
+
+	/**
+	 * @return Time given to the sessions to finish when the server is drained or restarted
+	 */
+	public long getDrainTimeoutMillis() {
+		return _drainTimeoutMillis;
+	}
+
+	/**
+	 * @param drainTimeoutMillis Time given to the sessions to finish before they are closed, in milliseconds
+	 */
+	public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+		_drainTimeoutMillis = Math.max(0, drainTimeoutMillis);
+	}
+
+	/**
+	 * Pool running the commands of all the sessions, created on first use with
+	 * {@link #getWorkerThreads()} threads
+	 * @return CommandExecutor
+	 */
+	public synchronized CommandExecutor getCommandExecutor() {
+		if (_commandExecutor == null) {
+			_commandExecutor = new CommandExecutor(_workerThreads, _commandQueueSize, _maxPendingCommands, _longRunningThreads);
+		}
+		return _commandExecutor;
+	}
+
+	public int getCommandQueueSize() {
+		return _commandQueueSize;
+	}
+
+	/**
+	 * @param commandQueueSize Sessions waiting for a command thread, the commands of the sessions
+	 * beyond are answered that the server is busy. Applies to the executor created afterwards.
+	 */
+	public void setCommandQueueSize(int commandQueueSize) {
+		if (commandQueueSize > 0) {
+			_commandQueueSize = commandQueueSize;
+		}
+	}
+
+	public int getMaxPendingCommands() {
+		return _maxPendingCommands;
+	}
+
+	/**
+	 * @param maxPendingCommands Commands received and not run yet from which a session stops
+	 * reading its client. Applies to the executor created afterwards.
+	 */
+	public void setMaxPendingCommands(int maxPendingCommands) {
+		if (maxPendingCommands > 0) {
+			_maxPendingCommands = maxPendingCommands;
+		}
+	}
+
+	public int getLongRunningThreads() {
+		return _longRunningThreads;
+	}
+
+	/**
+	 * @param longRunningThreads Follows and transfers running at the same time, each on a thread
+	 * of its own, the ones beyond are answered that the server is busy. Applies to the executor
+	 * created afterwards.
+	 */
+	public void setLongRunningThreads(int longRunningThreads) {
+		if (longRunningThreads > 0) {
+			_longRunningThreads = longRunningThreads;
+		}
+	}
+
+	public synchronized int getQueuedCommands() {
+		return _commandExecutor == null ? 0 : _commandExecutor.getQueuedTasks();
+	}
+
+	public synchronized int getBusyCommandThreads() {
+		return _commandExecutor == null ? 0 : _commandExecutor.getActiveThreads();
+	}
+
+	public synchronized int getLongRunningCommands() {
+		return _commandExecutor == null ? 0 : _commandExecutor.getActiveLongRunningThreads();
+	}
+
+	public synchronized long getRejectedCommands() {
+		return _commandExecutor == null ? 0 : _commandExecutor.getRejectedTasks();
+	}
+
+	/**
+	 * Pool walking the trees of the 'tree', 'du' and 'find' commands of all the sessions, created on
+	 * first use with {@link #getWalkParallelism()} threads
+	 * @return ForkJoinPool
+	 */
+	public synchronized ForkJoinPool getWalkPool() {
+		if (_walkPool == null) {
+			_walkPool = new ForkJoinPool(_walkParallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				private final AtomicInteger _count = new AtomicInteger(0);
+
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+					ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+					};
+					thread.setName("telnet-walk-" + _count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, null, false);
+		}
+		return _walkPool;
+	}
+
+	public int getWalkParallelism() {
+		return _walkParallelism;
+	}
+
+	/**
+	 * @param walkParallelism Threads walking the trees for all the sessions together, a walk uses
+	 * half of them at most. Applies to the pool created afterwards.
+	 */
+	public void setWalkParallelism(int walkParallelism) {
+		_walkParallelism = walkParallelism > 0 ? walkParallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	public long getWalkTimeoutMillis() {
+		return _walkTimeoutMillis;
+	}
+
+	/**
+	 * @param walkTimeoutMillis Max duration of a 'tree', 'du' or 'find' command, the output is cut
+	 */
+	public void setWalkTimeoutMillis(long walkTimeoutMillis) {
+		_walkTimeoutMillis = walkTimeoutMillis > 0 ? walkTimeoutMillis : DEFAULT_WALK_TIMEOUT_MILLIS;
+	}
+
+	public int getWalkMaxDepth() {
+		return _walkMaxDepth;
+	}
+
+	/**
+	 * @param walkMaxDepth Levels below the start directory a walk goes down to
+	 */
+	public void setWalkMaxDepth(int walkMaxDepth) {
+		_walkMaxDepth = walkMaxDepth > 0 ? walkMaxDepth : DEFAULT_WALK_MAX_DEPTH;
+	}
+
+	/**
+	 * @return Max time a session may stay without a command, 0 if unlimited
+	 */
+	public long getIdleTimeoutMillis() {
+		return _idleTimeoutMillis;
+	}
+
+	/**
+	 * Close the sessions which send no command for this long, must be called before the server is started
+	 * @param idleTimeoutMillis Idle timeout in milliseconds, 0 for none
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		_idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+	}
+
+	/**
+	 * @return Max duration of a session, 0 if unlimited
+	 */
+	public long getMaxSessionMillis() {
+		return _maxSessionMillis;
+	}
+
+	/**
+	 * Close the sessions connected for this long, must be called before the server is started
+	 * @param maxSessionMillis Max session duration in milliseconds, 0 for none
+	 */
+	public void setMaxSessionMillis(long maxSessionMillis) {
+		_maxSessionMillis = Math.max(0, maxSessionMillis);
+	}
+
+	/**
+	 * @return How long before a timeout the client is warned
+	 */
+	public long getTimeoutWarningMillis() {
+		return _timeoutWarningMillis;
+	}
+
+	/**
+	 * Warn the client this long before its session times out, must be called before the server is started
+	 * @param timeoutWarningMillis Warning delay in milliseconds, 0 for no warning
+	 */
+	public void setTimeoutWarningMillis(long timeoutWarningMillis) {
+		_timeoutWarningMillis = Math.max(0, timeoutWarningMillis);
+	}
+
+	/**
+	 * @return Number of threads accepting the connections
+	 */
+	public int getAcceptors() {
+		return _acceptors;
+	}
+
+	/**
+	 * Accept the connections on several threads, for login storms. With SO_REUSEPORT (Linux, JDK 9+)
+	 * each acceptor binds its own socket to the port, otherwise they share the server socket. In
+	 * {@link ServerMode#NIO} mode each acceptor has its own selector. Must be called before the
+	 * server is started.
+	 * @param acceptors Number of acceptor threads
+	 */
+	public void setAcceptors(int acceptors) {
+		if (acceptors > 0) {
+			_acceptors = acceptors;
+		}
+	}
+
+	/**
+	 * @return true if the listening sockets are bound with SO_REUSEPORT when available
+	 */
+	public boolean isReusePort() {
+		return _reusePort;
+	}
+
+	/**
+	 * Bind the server socket with SO_REUSEPORT when available, each acceptor then binds a socket of its
+	 * own and a new process can listen on the port before this one is drained. Must be called before
+	 * the server is started, an inherited socket is bound by the launching process.
+	 * @param reusePort false to bind one exclusive listening socket shared by the acceptors
+	 */
+	public void setReusePort(boolean reusePort) {
+		_reusePort = reusePort;
+	}
+
+	/**
+	 * @return Number of listening sockets bound to the port
+	 */
+	public int getListeningSockets() {
+		return server == null ? 0 : 1 + _reusePortSockets.size();
+	}
+
+	/**
+	 * @return Number of threads executing the client commands
+	 */
+	public int getWorkerThreads() {
+		return _workerThreads;
+	}
+
+	/**
+	 * Set the number of threads executing the client commands in all modes, the file system calls
+	 * in flight are as many at most. Must be called before the server is started.
+	 * @param workerThreads Number of worker threads
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		if (workerThreads > 0) {
+			_workerThreads = workerThreads;
+		}
 	}
 }
@@ -25,4 +25,100 @@ public interface TelnetServerMBean {
 	 * @return Response of the operation performed
 	 */
 	String shutDown();
+
+	/**
+	 * Refuse new connections, give the sessions the drain timeout to finish, then stop the server
+	 * @return Response of the operation performed
+	 */
+	String drain();
+
+	/**
+	 * Hand the listening socket to a new server and drain the sessions of this one in the background,
+	 * no connection is refused meanwhile
+	 * @return Response of the operation performed
+	 */
+	String restart();
+
+	/**
+	 * Number of connected sessions
+	 */
+	int getActiveSessions();
+
+	/**
+	 * Connections accepted since the start, including the rejected ones
+	 */
+	long getAcceptedConnections();
+
+	/**
+	 * Connections turned away by the admission control
+	 */
+	long getRejectedConnections();
+
+	/**
+	 * Sessions closed for being idle or connected too long
+	 */
+	long getReapedSessions();
+
+	/**
+	 * Session events lost because the event log buffer was full
+	 */
+	long getEventsDropped();
+
+	/**
+	 * Commands not audited because no audit segment could be created
+	 */
+	long getAuditRecordsDropped();
+
+	/**
+	 * Entries of the file name index, 0 if disabled
+	 */
+	int getIndexedEntries();
+
+	/**
+	 * Sessions waiting for a command thread
+	 */
+	int getQueuedCommands();
+
+	/**
+	 * Command threads running a command
+	 */
+	int getBusyCommandThreads();
+
+	/**
+	 * Follows and transfers running on threads of their own
+	 */
+	int getLongRunningCommands();
+
+	/**
+	 * Commands answered that the server is busy because the command queue was full, or all the
+	 * long running command threads were busy
+	 */
+	long getRejectedCommands();
+
+	long getBytesReceived();
+
+	long getBytesSent();
+
+	/**
+	 * Commands executed by all sessions
+	 */
+	long getCommandCount();
+
+	/**
+	 * Count and latency percentiles per command word (ls, cd, pwd, mkdir...) in microseconds
+	 */
+	String getCommandLatencies();
+
+	/**
+	 * Count and percentiles of the session durations in milliseconds
+	 */
+	String getSessionDurations();
+
+	long getListingCacheHits();
+
+	long getListingCacheMisses();
+
+	long getPathCacheHits();
+
+	long getPathCacheMisses();
 }
@@ -0,0 +1,1076 @@
+package com.telnet.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>This class is responsible for the session of a unique 
+ * user on the end of a socket connection.  The user commands will be
+ * validated and performed.</p>
+ * <p>The session only reads the input, the commands run one after the other on the
+ * {@link CommandExecutor} of the server. A session holding too many commands stops reading until
+ * they have run, a session whose commands find the executor queue full is answered that the
+ * server is busy. A follow or a transfer is handed to a thread of its own, the lines after it go
+ * back to the command threads.</p>
+ * <p>The input and the output are left to the subclasses: {@link TelnetClient} reads and writes
+ * the socket on a thread of its own, {@link NioTelnetClient} is fed by the selector thread of the
+ * {@link NioTelnetEngine}.</p>
+ * @author sjunejo
+ */
+
+public abstract class TelnetSession {
+    private static Logger logger = Logger.getLogger(TelnetSession.class.getName());
+    private final static String PROMPT = "> ";
+    protected final static String LINE_SEPARATOR = System.getProperty("line.separator");
+    // explicit, the Telnet layer relies on the data never containing the byte 255
+    protected final static Charset CHARSET = Charset.forName("UTF-8");
+    protected final static String BUSY = "The server is busy, try again later";
+    private String _myUniqueId = null;
+    private String _currentWorkingDirectory = null;
+    // false until a working directory has been resolved, user.dir may contain symbolic links
+    private boolean _workingDirectoryIsCanonical = false;
+    
+    private TelnetServer _telnetServer = null;
+    private Socket _client = null;
+    private volatile boolean _stop = false;
+    private final AtomicReference<InetAddress> _admittedAddress = new AtomicReference<InetAddress>();
+    // reused for every command, a session runs one command at a time
+    private final CommandLine _commandLine = new CommandLine();
+    // paged listing waiting for 'ls -c'
+    private final AtomicReference<DirectoryListing> _listing = new AtomicReference<DirectoryListing>();
+    // terminal size reported by the client (NAWS), 0 until known
+    private volatile int _windowWidth = 0;
+    private volatile int _windowHeight = 0;
+    private final long _startNanos = System.nanoTime();
+    // last command received or completed, read by the SessionReaper
+    private volatile long _lastActivityNanos = _startNanos;
+    // true while a command runs, a drain waits for it before disconnecting
+    private volatile boolean _executing = false;
+    // set while get or put exchange frames, the thread reading the input hands it to the transfer
+    private volatile FileTransfer.Input _transferInput = null;
+    // set while the pending lines are queued or run on the command executor
+    private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+    // set while the session holds too many lines and its input is not read
+    private final AtomicBoolean _readPaused = new AtomicBoolean(false);
+    private volatile CommandExecutor _commandExecutor = null;
+    // priority of the next line, only used by the thread which has set _scheduled
+    private final CommandLine _priorityLine = new CommandLine();
+    private final Runnable _commandRunner = new Runnable() {
+    	public void run() {
+    		runPendingCommands();
+    	}
+    };
+    private final Runnable _longCommandRunner = new Runnable() {
+    	public void run() {
+    		runLongRunningCommand();
+    	}
+    };
+    private final TelnetCodec _telnetCodec = new TelnetCodec(new TelnetCodec.Listener() {
+    	public void send(byte[] bytes) {
+    		sendNegotiation(bytes);
+    	}
+
+    	public void windowSizeChanged(int width, int height) {
+    		_windowWidth = width;
+    		_windowHeight = height;
+    	}
+    });
+
+    protected TelnetSession() {
+        // used in unit tests
+    }
+    
+    protected TelnetSession(TelnetServer tc) {
+        // used in unit tests
+    	_telnetServer = tc;
+    }
+    
+    protected TelnetSession(TelnetServer tc, Socket client, String uniqueID) {
+    	_telnetServer = tc;
+        _client = client;
+        _myUniqueId = uniqueID; 
+    }
+    
+    /**
+     * Hand the pending lines to the command executor, called by the thread reading the input or
+     * after a long running command. At most one thread runs the commands of a session at a time so
+     * the replies are sent in the same order as the commands were received. The lines are answered
+     * that the server is busy if the executor queue is full.
+     */
+    protected void schedule() {
+    	if (!_scheduled.compareAndSet(false, true)) {
+    		return;
+    	}
+    	CommandExecutor executor = getCommandExecutor();
+    	if (executor == null) {
+    		// no server, e.g. in unit tests
+    		runPendingCommands();
+    		return;
+    	}
+    	String next = getLineDecoder().peek();
+    	CommandExecutor.Priority priority = next == null ? CommandExecutor.Priority.NORMAL
+    			: getCommandRegistry().priority(_priorityLine.parse(next));
+    	if (!executor.execute(_commandRunner, priority)) {
+    		rejectPendingCommands();
+    		_scheduled.set(false);
+    	}
+    }
+    
+    /**
+     * Run all the pending lines, called on a thread of the command executor. A long running command
+     * is handed to a thread of its own with the lines after it, the session stays scheduled.
+     */
+    private void runPendingCommands() {
+    	LineDecoder lines = getLineDecoder();
+    	CommandExecutor executor = getCommandExecutor();
+    	do {
+    		String cmd = null;
+    		while (!isDisconnected() && (cmd = lines.peek()) != null) {
+    			if (executor != null && getCommandRegistry().isLongRunning(_priorityLine.parse(cmd))) {
+    				if (executor.executeLongRunning(_longCommandRunner)) {
+    					return;
+    				}
+    				takeLine(lines);
+    				sendReply(BUSY, lines.hasLine());
+    				continue;
+    			}
+    			if (!runCommand(takeLine(lines), lines)) {
+    				return;
+    			}
+    		}
+    		_scheduled.set(false);
+    	} while (!isDisconnected() && lines.hasLine() && _scheduled.compareAndSet(false, true));
+    	commandsRun();
+    }
+    
+    /**
+     * Run the long running command at the head of the pending lines, called on a thread of its own.
+     * The lines received meanwhile are handed back to the command executor.
+     */
+    private void runLongRunningCommand() {
+    	LineDecoder lines = getLineDecoder();
+    	String cmd = isDisconnected() ? null : takeLine(lines);
+    	if (cmd != null && !runCommand(cmd, lines)) {
+    		return;
+    	}
+    	_scheduled.set(false);
+    	if (!isDisconnected() && lines.hasLine()) {
+    		schedule();
+    	}
+    	commandsRun();
+    }
+    
+    /**
+     * Take the next line, the input is read again once the session holds few enough lines
+     */
+    private String takeLine(LineDecoder lines) {
+    	String cmd = lines.poll();
+    	if (_readPaused.get() && !isInputFull() && _readPaused.compareAndSet(true, false)) {
+    		readingResumed();
+    	}
+    	return cmd;
+    }
+    
+    /**
+     * Run a command and send its reply
+     * @return false if the command has closed the connection
+     */
+    private boolean runCommand(String cmd, LineDecoder lines) {
+    	String reply = performTelnetCommand(cmd);
+    	touch();
+    	if (_stop) {
+    		// quit has closed the connection
+    		return false;
+    	}
+    	sendReply(reply, lines.hasLine());
+    	return true;
+    }
+    
+    /**
+     * Called once the pending lines have run and the session is no longer scheduled
+     */
+    protected void commandsRun() {
+    }
+    
+    /**
+     * Answer the pending lines that the server is busy, the executor queue is full
+     */
+    private void rejectPendingCommands() {
+    	LineDecoder lines = getLineDecoder();
+    	while (lines.poll() != null) {
+    		sendReply(BUSY, lines.hasLine());
+    	}
+    }
+    
+    /**
+     * Send the reply of a command followed by the prompt
+     * @param reply Reply of the command
+     * @param more true if more commands of the client are waiting, the replies may be sent together
+     */
+    protected abstract void sendReply(String reply, boolean more);
+    
+    /**
+     * Stop reading, called by the thread reading the input once the session holds too many lines
+     * @return true if reading stops, false if the lines have been taken meanwhile
+     */
+    protected boolean pauseReading() {
+    	_readPaused.set(true);
+    	if (isInputFull()) {
+    		return true;
+    	}
+    	_readPaused.set(false);
+    	return false;
+    }
+    
+    /**
+     * Read the input again, called by the thread reading the input once it stops waiting
+     */
+    protected void resumeReading() {
+    	_readPaused.set(false);
+    }
+    
+    /**
+     * @return true while the input is not read
+     */
+    protected boolean isReadPaused() {
+    	return _readPaused.get();
+    }
+    
+    /**
+     * The running commands have taken enough lines, the input is read again
+     */
+    protected abstract void readingResumed();
+    
+    /**
+     * @return true if the session holds as many lines as the command executor allows
+     */
+    protected boolean isInputFull() {
+    	LineDecoder lines = getLineDecoder();
+    	CommandExecutor executor = getCommandExecutor();
+    	return lines != null && executor != null && lines.pendingLines() >= executor.getMaxPendingCommands();
+    }
+    
+    /**
+     * Lines received and not run yet
+     * @return LineDecoder, null until the session has started
+     */
+    protected abstract LineDecoder getLineDecoder();
+    
+    /**
+     * Command executor of the server
+     * @return CommandExecutor, null without a server
+     */
+    protected CommandExecutor getCommandExecutor() {
+    	CommandExecutor executor = _commandExecutor;
+    	if (executor == null && _telnetServer != null) {
+    		executor = _telnetServer.getCommandExecutor();
+    		_commandExecutor = executor;
+    	}
+    	return executor;
+    }
+    
+    /** The method is used to kill the TelnetClient Thread
+     * <li> Basically the socket read methods are synchronized and blocking IO operations.
+     * <li> To overcome this inherent Blocking feature while the execution of thread , we need to explicitly 
+     * close the socket which are in use, to throw an SocketException to accomplish the Exit of Thread.run()  
+     */
+	public void destroyTelnetClientThread() throws SocketException  {
+		try {
+			_client.close();
+		} catch (IOException e) {
+			//Actually IOException , but we throw as SocketException
+			throw new SocketException();
+		}
+	}
+    
+	/**
+	 * This method will parse the user input and returns an String[] as command
+	 * @param cmd User input as single String
+	 * @return String[]
+	 */
+	protected String[] getCommands(String cmd) {
+        if (cmd != null) {
+            String[] cmds = new CommandLine().parse(cmd).toArray();
+            if (cmds.length > 0) {
+                return cmds;
+            }
+        }
+        return null;
+    }
+    
+	/**
+	 * This method will run the actual command and return the response
+	 * @param cmd Command to execute
+	 * @return Response as String
+	 */
+    public String performTelnetCommand(String cmd) {
+        if (cmd == null) {
+            return "";
+        }
+        CommandLine line = _commandLine.parse(cmd);
+        ServerMetrics metrics = getMetrics();
+        SessionEventLog events = getEventLog();
+        AuditLog audit = line.size() > 0 ? getAuditLog() : null;
+        _executing = true;
+        if (metrics == null && events == null && audit == null) {
+        	try {
+        		return getCommandRegistry().execute(this, line);
+        	} finally {
+        		_executing = false;
+        	}
+        }
+        // before the command, a 'cd' is audited with the directory it was run from
+        String workingDirectory = audit == null ? null : getCurrentWorkingDirectory();
+        long startMillis = audit == null ? 0 : System.currentTimeMillis();
+        long start = System.nanoTime();
+        String reply = null;
+        try {
+        	reply = getCommandRegistry().execute(this, line);
+        	return reply;
+        } finally {
+        	_executing = false;
+        	long nanos = System.nanoTime() - start;
+        	if (metrics != null) {
+        		metrics.commandExecuted(line, nanos);
+        	}
+        	if (events != null && line.size() > 0) {
+        		events.commandExecuted(_myUniqueId, cmd, nanos);
+        	}
+        	if (audit != null) {
+        		audit.record(_myUniqueId, workingDirectory, cmd, startMillis, nanos, reply == null ? 0 : reply.length());
+        	}
+        }
+    }
+    
+    /**
+     * @return true while the pending lines are queued or run on the command executor
+     */
+    protected boolean isScheduled() {
+        return _scheduled.get();
+    }
+    
+    /**
+     * @return true while a command of this session is running or waiting for a command thread
+     */
+    public boolean isExecuting() {
+        return _executing || _scheduled.get();
+    }
+    
+    /**
+     * Record activity on the session, the idle time starts again
+     */
+    protected void touch() {
+        _lastActivityNanos = System.nanoTime();
+    }
+    
+    /**
+     * @return System.nanoTime() of the last command received or completed
+     */
+    public long getLastActivityNanos() {
+        return _lastActivityNanos;
+    }
+    
+    /**
+     * Send a message from the server to the client, between two replies. Skipped if a reply is being
+     * written, the caller must not wait for a client which does not read.
+     * @param text Message to send on a line of its own
+     * @param prompt true to repeat the prompt after the message
+     */
+    public abstract void sendNotice(String text, boolean prompt);
+    
+    /**
+     * Server of the session
+     * @return TelnetServer, null in unit tests without a server
+     */
+    protected TelnetServer getTelnetServer() {
+        return _telnetServer;
+    }
+    
+    /**
+     * Metrics of the server, null in unit tests without a server
+     * @return ServerMetrics
+     */
+    protected ServerMetrics getMetrics() {
+        return _telnetServer == null ? null : _telnetServer.getMetrics();
+    }
+    
+    /**
+     * Session event log of the server
+     * @return SessionEventLog, null if disabled or without a server
+     */
+    protected SessionEventLog getEventLog() {
+        return _telnetServer == null ? null : _telnetServer.getEventLog();
+    }
+    
+    /**
+     * Audit log of the server
+     * @return AuditLog, null if disabled or without a server
+     */
+    protected AuditLog getAuditLog() {
+        return _telnetServer == null ? null : _telnetServer.getAuditLog();
+    }
+    
+    /**
+     * @return System.nanoTime() when the session was created
+     */
+    protected long getStartNanos() {
+        return _startNanos;
+    }
+    
+    /**
+     * The commands available to this session, the server may provide its own registry
+     * @return CommandRegistry
+     */
+    protected CommandRegistry getCommandRegistry() {
+        CommandRegistry registry = _telnetServer == null ? null : _telnetServer.getCommandRegistry();
+        return registry == null ? CommandRegistry.getDefault() : registry;
+    }
+    
+    /**
+     * Whether the replies to the commands the client has already sent are written in one batch
+     * @return true if pipelining is enabled
+     */
+    protected boolean isPipelining() {
+        return _telnetServer == null || _telnetServer.isPipelining();
+    }
+    
+    /**
+     * Close the connection on user request
+     * @return Response as String
+     */
+    protected String quit() {
+        try {
+            closeConnection();
+            _stop = true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "An error occurred while closing client connection", e);
+        }
+        return "Connection closed";
+    }
+    
+    /**
+     * Close the socket on quit, the replies of the commands pipelined before are sent first
+     * @throws IOException
+     */
+    protected abstract void closeConnection() throws IOException;
+    
+    /**
+     * List all files in current working directory
+     * @return List of files as String
+     */
+    protected String listAllFiles() {
+    	return listAllFiles(getCurrentWorkingDirectory());
+    }
+    
+    /**
+     * This method will return the list of all files in dir provided
+     * @return
+     */
+    protected String listAllFiles(String dirStr) {
+    	return listFiles(dirStr, 0, false);
+    }
+    
+    /**
+     * List the directory page by page, large listings are sent to the client while the directory is read
+     * @param dirStr Directory to list
+     * @param pageSize Max entries to list, 0 for all entries
+     * @param sorted true to list the entries ordered by name
+     * @return The rest of the listing as String
+     */
+    protected String listFiles(String dirStr, int pageSize, boolean sorted) {
+    	File f = null;
+    	if (getCurrentWorkingDirectory().equals(dirStr)) {
+    		f = new File(getCurrentWorkingDirectory());
+    	} else {
+    		f = new File(getCanonicalPath(dirStr));
+    	}
+    	if (!f.isDirectory()) {
+    		return dirStr + " - either it is not a directory or it does not exist";
+    	}
+    	ListingCache cache = _telnetServer == null ? null : _telnetServer.getListingCache();
+    	if (pageSize <= 0 && !sorted && cache != null) {
+    		String cached = cache.get(f.toPath());
+    		if (cached != null) {
+    			return cached;
+    		}
+    	}
+    	DirectoryListing listing = new DirectoryListing(f.toPath(), pageSize, sorted);
+    	DirectoryListing previous = _listing.getAndSet(listing);
+    	if (previous != null) {
+    		previous.close();
+    	}
+    	return nextPage(listing);
+    }
+    
+    /**
+     * List the next page of the last paged listing
+     * @return Next page as String
+     */
+    protected String continueListing() {
+    	DirectoryListing listing = _listing.get();
+    	if (listing == null) {
+    		return "No listing to continue";
+    	}
+    	return nextPage(listing);
+    }
+    
+    private String nextPage(DirectoryListing listing) {
+    	try {
+    		return listing.nextPage(this);
+    	} catch (IOException ioe) {
+    		logger.log(Level.FINE, "Failed to list directory", ioe);
+    		return "Failed to list directory - " + ioe.getMessage();
+    	} finally {
+    		if (!listing.hasMore()) {
+    			_listing.compareAndSet(listing, null);
+    		}
+    	}
+    }
+    
+    /**
+     * Check if output can be sent to the client before the reply of the current command is complete
+     * @return true if {@link #sendPartialReply(String)} writes to the client
+     */
+    protected abstract boolean isStreaming();
+    
+    /**
+     * Telnet protocol layer of the session
+     * @return TelnetCodec
+     */
+    protected TelnetCodec getTelnetCodec() {
+    	return _telnetCodec;
+    }
+    
+    /**
+     * Ask the client for the supported options, only if the server is configured to negotiate
+     */
+    protected void startNegotiation() {
+    	if (_telnetServer != null && _telnetServer.isNegotiateOptions()) {
+    		sendNegotiation(_telnetCodec.requestOptions());
+    	}
+    }
+    
+    /**
+     * Send Telnet commands to the client right away, called while the input is decoded
+     * @param bytes Telnet commands
+     */
+    protected abstract void sendNegotiation(byte[] bytes);
+    
+    /**
+     * Terminal width reported by the client through NAWS
+     * @return columns, 0 if unknown
+     */
+    public int getWindowWidth() {
+    	return _windowWidth;
+    }
+    
+    /**
+     * Terminal height reported by the client through NAWS
+     * @return rows, 0 if unknown
+     */
+    public int getWindowHeight() {
+    	return _windowHeight;
+    }
+    
+    /**
+     * Send a part of the reply of the current command to the client right away
+     * @param text Output to send
+     */
+    protected abstract void sendPartialReply(String text);
+    
+    /**
+     * Send a region of a file to the client right away, without copying it through the heap if the
+     * socket has a channel
+     * @param file File to send
+     * @param position First byte
+     * @param count Number of bytes
+     * @throws IOException If the file or the socket fails
+     */
+    protected abstract void sendFileContent(FileChannel file, long position, long count) throws IOException;
+    
+    /**
+     * Check if the client has sent more commands while the current command runs, a command following
+     * a file stops so the next commands can be executed
+     * @return true if a command is waiting
+     */
+    protected boolean hasPendingInput() {
+    	LineDecoder input = getLineDecoder();
+    	return input != null && input.hasLine();
+    }
+    
+    /**
+     * Switch the input to the frames of a transfer, the thread reading the input queues the bytes
+     * for the transfer until it is closed
+     * @return Input of the frames, not to be closed
+     * @throws IOException
+     */
+    protected ReadableByteChannel openTransferInput() throws IOException {
+    	FileTransfer.Input input = new FileTransfer.Input(FileTransfer.INPUT_CAPACITY);
+    	_transferInput = input;
+    	if (isDisconnected()) {
+    		// gone meanwhile, the thread reading the input may have missed it
+    		input.close();
+    	}
+    	return input;
+    }
+    
+    /**
+     * The transfer is over, the session reads commands again
+     */
+    protected void closeTransferInput() {
+    	FileTransfer.Input input = _transferInput;
+    	_transferInput = null;
+    	if (input != null) {
+    		input.close();
+    	}
+    }
+    
+    /**
+     * Hand the received bytes to the transfer running, if any
+     * @param in Bytes read from the client
+     * @return true if the bytes belong to a transfer
+     */
+    protected boolean offerTransferInput(ByteBuffer in) {
+    	FileTransfer.Input input = _transferInput;
+    	if (input == null) {
+    		return false;
+    	}
+    	input.offer(in);
+    	return true;
+    }
+    
+    /**
+     * The connection is gone, the transfer running reads the end of the stream
+     */
+    protected void endTransferInput() {
+    	FileTransfer.Input input = _transferInput;
+    	if (input != null) {
+    		input.close();
+    	}
+    }
+    
+    /**
+     * @return true while get or put exchange frames
+     */
+    protected boolean isTransferring() {
+    	return _transferInput != null;
+    }
+    
+    /**
+     * Close the connection after a transfer failed, the client may still send frames
+     */
+    protected void abortTransfer() {
+    	try {
+    		destroyTelnetClientThread();
+    	} catch (SocketException se) {
+    		logger.log(Level.FINE, "Failed to close client connection", se);
+    	}
+    }
+    
+    /**
+     * Send a frame of a transfer, the chunk of a DATA frame with sendfile if the socket has a channel
+     * @param header Header of the frame, with the payload of the frames other than DATA
+     * @param file DATA: file of the chunk, null otherwise
+     * @param position DATA: position of the chunk in the file
+     * @param chunk DATA: mapped chunk, null otherwise
+     * @throws IOException If the file or the socket fails
+     */
+    protected abstract void sendTransferFrame(ByteBuffer header, FileChannel file, long position, ByteBuffer chunk) throws IOException;
+    
+    /**
+     * @return true once the server drains, restarts or shuts down
+     */
+    protected boolean isServerStopping() {
+    	return _telnetServer != null && !_telnetServer.isAccepting();
+    }
+    
+    /**
+     * Check if the connection is known to be gone, a long running command stops early
+     * @return true once the session has quit, its socket is closed or output could not be sent
+     */
+    protected boolean isDisconnected() {
+    	return _stop || (_client != null && _client.isClosed());
+    }
+    
+    /**
+     * Walk the tree of a directory on the pool of the server for the 'tree', 'du' and 'find' commands
+     * @param kind Command
+     * @param dirStr Directory to walk, null for the current working directory
+     * @param depth tree and find: levels walked, du: levels whose size is shown, -1 for the default
+     * @param glob find: pattern of the names, null for the other commands
+     * @return The rest of the output
+     */
+    protected String walkTree(TreeWalk.Kind kind, String dirStr, int depth, String glob) {
+    	File f = new File(dirStr == null ? getCurrentWorkingDirectory() : getCanonicalPath(dirStr));
+    	if (!f.isDirectory()) {
+    		return dirStr + " - either it is not a directory or it does not exist";
+    	}
+    	PathMatcher matcher = null;
+    	if (glob != null) {
+    		try {
+    			matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    		} catch (IllegalArgumentException iae) {
+    			return "Invalid pattern '" + glob + "' - " + iae.getMessage();
+    		}
+    	}
+    	ForkJoinPool pool = _telnetServer == null ? null : _telnetServer.getWalkPool();
+    	if (pool == null) {
+    		pool = ForkJoinPool.commonPool();
+    	}
+    	long timeout = _telnetServer == null ? 0 : _telnetServer.getWalkTimeoutMillis();
+    	int maxDepth = _telnetServer == null ? 0 : _telnetServer.getWalkMaxDepth();
+    	if (maxDepth <= 0) {
+    		maxDepth = TelnetServer.DEFAULT_WALK_MAX_DEPTH;
+    	}
+    	int displayDepth = 1;
+    	if (kind == TreeWalk.Kind.DU) {
+    		displayDepth = depth >= 0 ? depth : displayDepth;
+    	} else if (depth >= 0) {
+    		maxDepth = Math.min(depth, maxDepth);
+    	}
+    	// a walk takes half of the pool at most, the other sessions walk with the rest
+    	TreeWalk walk = new TreeWalk(kind, f.toPath(), maxDepth, displayDepth, matcher, pool.getParallelism() / 2);
+    	try {
+    		return walk.run(this, pool, timeout > 0 ? timeout : TelnetServer.DEFAULT_WALK_TIMEOUT_MILLIS);
+    	} catch (RejectedExecutionException ree) {
+    		return "The server is shutting down";
+    	}
+    }
+    
+    /**
+     * Look up the file name index of the server for the 'locate' command
+     * @param pattern Part of the name, or the whole name with wildcards
+     * @param ignoreCase true to ignore the case
+     * @param limit Max paths listed
+     * @return Paths found, one per line
+     */
+    protected String locate(String pattern, boolean ignoreCase, int limit) {
+    	FileNameIndex index = _telnetServer == null ? null : _telnetServer.getFileNameIndex();
+    	if (index == null) {
+    		return "The file name index is disabled, start the server with -D" + Main.INDEX_ROOTS_PROPERTY + "=<DIRECTORIES>";
+    	}
+    	if (index.isBuilding()) {
+    		return "The file name index is being built, try again shortly";
+    	}
+    	List<String> paths = new ArrayList<String>();
+    	int count;
+    	try {
+    		count = index.locate(pattern, ignoreCase, limit, paths);
+    	} catch (PatternSyntaxException pse) {
+    		return "Invalid pattern '" + pattern + "' - " + pse.getDescription();
+    	}
+    	StringBuilder sb = new StringBuilder();
+    	for (String path : paths) {
+    		sb.append(path).append('\n');
+    	}
+    	if (count > paths.size()) {
+    		sb.append("-- ").append(count - paths.size()).append(" more, narrow the pattern or use -n --\n");
+    	}
+    	sb.append(count).append(" found\n");
+    	return sb.toString();
+    }
+    
+    /**
+     * Show the content of a file for the 'cat', 'head' and 'tail' commands
+     * @param kind Command
+     * @param fileStr File, relative to the current working directory
+     * @param lines head and tail: number of lines
+     * @param follow tail: keep sending what is appended until the next command
+     * @return The rest of the output
+     */
+    protected String showFile(FileContent.Kind kind, String fileStr, int lines, boolean follow) {
+    	File f = new File(getCanonicalPath(fileStr));
+    	if (f.isDirectory()) {
+    		return fileStr + " - is a directory";
+    	} else if (!f.isFile()) {
+    		return fileStr + " - either it is not a file or it does not exist";
+    	}
+    	try {
+    		return FileContent.show(this, kind, f.toPath(), lines, follow);
+    	} catch (IOException ioe) {
+    		return "Failed to read " + fileStr + " - " + ioe.getMessage();
+    	}
+    }
+    
+    /**
+     * Send a file to the client in the transfer mode for the 'get' command
+     * @param fileStr File, relative to the current working directory
+     * @param offset First byte, the length the client already has
+     * @return Last line of the transfer
+     */
+    protected String getFile(String fileStr, long offset) {
+    	File f = new File(getCanonicalPath(fileStr));
+    	if (f.isDirectory()) {
+    		return FileTransfer.ERR + " " + fileStr + " - is a directory";
+    	} else if (!f.isFile()) {
+    		return FileTransfer.ERR + " " + fileStr + " - either it is not a file or it does not exist";
+    	}
+    	return FileTransfer.get(this, f.toPath(), offset);
+    }
+    
+    /**
+     * Receive a file from the client in the transfer mode for the 'put' command
+     * @param fileStr File, relative to the current working directory
+     * @param size Size of the complete file
+     * @param offset First byte, the length already received
+     * @return Last line of the transfer
+     */
+    protected String putFile(String fileStr, long size, long offset) {
+    	File f = new File(getCanonicalPath(fileStr));
+    	if (f.isDirectory()) {
+    		return FileTransfer.ERR + " " + fileStr + " - is a directory";
+    	} else if (f.getParentFile() == null || !f.getParentFile().isDirectory()) {
+    		return FileTransfer.ERR + " " + fileStr + " - the directory does not exist";
+    	}
+    	boolean existed = f.exists();
+    	String reply = FileTransfer.put(this, f.toPath(), size, offset);
+    	if (!existed && f.exists()) {
+    		FileNameIndex index = _telnetServer == null ? null : _telnetServer.getFileNameIndex();
+    		if (index != null) {
+    			index.changed(f.toPath());
+    		}
+    		ListingCache cache = _telnetServer == null ? null : _telnetServer.getListingCache();
+    		if (cache != null) {
+    			cache.invalidate(f.getParentFile().toPath());
+    		}
+    	}
+    	return reply;
+    }
+    
+    /**
+     * Release the resources held by the session, called once the connection is gone
+     */
+    protected void sessionClosed() {
+    	DirectoryListing listing = _listing.getAndSet(null);
+    	if (listing != null) {
+    		listing.close();
+    	}
+    }
+    
+    /**
+     * This method will change the users current directory
+     * @param dirStr
+     * @return
+     */
+    protected String changeCurrentWorkingDir(String dirStr) {
+    	return setCurrentWorkingDirectory(dirStr);
+    }
+    
+    /**
+     * This method will set the current working directory for user sessions
+     * @param newWorkDir Required new working directory
+     * @return Updated current working directory
+     */
+    protected String setCurrentWorkingDirectory(String newWorkDir) {
+    	String canonicalPath = getCanonicalPath(newWorkDir);
+    	File file = new File(canonicalPath);
+    	if (!file.exists()) {
+    		return newWorkDir + " - does not exist";
+    	} else if (! file.isDirectory()) {
+    		return newWorkDir + " - is not a directory";
+    	}
+    	_currentWorkingDirectory = canonicalPath;
+    	_workingDirectoryIsCanonical = true;
+    	return "";
+    }
+    
+    /**
+     * Returns the greeting sent to a newly connected user, followed by the help menu and the prompt
+     * @return Welcome message as string
+     */
+    protected String getWelcomeMessage() {
+    	StringBuilder sb = new StringBuilder("Welcome to the Test Telnet Server, following commands are available...\n");
+    	sb.append(LINE_SEPARATOR);
+    	sb.append(getHelpOutput()).append(LINE_SEPARATOR);
+    	sb.append(getPrompt());
+    	return sb.toString();
+    }
+    
+    /**
+     * Returns the prompt for user
+     * @return Prompt as string to pass to connected client
+     */
+    protected String getPrompt() {
+    	return getCurrentWorkingDirectory() + PROMPT;
+    }
+    
+    /**
+     * Returns the users current working directory
+     * @return
+     */
+    protected String getCurrentWorkingDirectory() {
+    	if (_currentWorkingDirectory == null) {
+    		_currentWorkingDirectory = System.getProperty("user.dir");
+    	}
+    	return _currentWorkingDirectory;
+    }
+    
+    /**
+     * This method will return the help text
+     * @return Help menu as string
+     */
+    protected String getHelpOutput() {
+    	StringBuilder sb = new StringBuilder("?   - Display this help menu.\r\n");
+    	if (isWindows()) {
+    		sb.append("dir - List the current working directory.\r\n");
+    	} else {
+    		sb.append("ls  - List the current working directory.\r\n");
+    	}
+    	sb.append(isWindows() ? "dir" : "ls").append(" -n <COUNT> [-s] [<DIRECTORY_NAME>] - List page by page, -s sorted by name, -c for the next page.\r\n");
+    	sb.append("cd <DIRECTORY_NAME> - Change the current working directory to the provided arguments.\r\n");
+    	sb.append("pwd - Display the current working directory.\r\n");
+    	sb.append("mkdir <DIRECTORY_NAME> - Create a directory.\r\n");
+    	sb.append("tree [-d <DEPTH>] [<DIRECTORY_NAME>] - Display the directory tree.\r\n");
+    	sb.append("du [-d <DEPTH>] [<DIRECTORY_NAME>] - Display the size of the directories, -d levels shown.\r\n");
+    	sb.append("find <PATTERN> [-d <DEPTH>] [<DIRECTORY_NAME>] - Find the entries whose name matches the pattern, e.g. *.txt\r\n");
+    	sb.append("cat <FILE_NAME> - Display the content of a file.\r\n");
+    	sb.append("head [-n <LINES>] <FILE_NAME> - Display the first lines of a file.\r\n");
+    	sb.append("tail [-n <LINES>] [-f] <FILE_NAME> - Display the last lines of a file, -f the lines appended until the next command.\r\n");
+    	sb.append("locate [-i] [-n <COUNT>] <PATTERN> - Find the entries of the indexed directories by name, e.g. report or *.log\r\n");
+    	sb.append("get <FILE_NAME> [<OFFSET>] - Download a file in the binary transfer mode, see FileTransferClient.\r\n");
+    	sb.append("put <FILE_NAME> <SIZE> [<OFFSET>] - Upload a file in the binary transfer mode, see FileTransferClient.\r\n");
+    	sb.append("quit - To disconnect.\n\n");
+        return sb.toString();
+    }
+   
+    /**
+     * Check if we are running on Windows
+     * @return
+     */
+    private boolean isWindows() {
+    	return _telnetServer.getOS().startsWith("Windows");
+    }
+    
+    /**
+     * Method to run mkdir command    
+     * @param newDir
+     * @return
+     */
+    protected String createNewDir(String newDir) {
+    	File dir = new File(getCanonicalPath(newDir));
+    	// the highest directory mkdirs creates
+    	File created = dir;
+    	while (created.getParentFile() != null && !created.getParentFile().exists()) {
+    		created = created.getParentFile();
+    	}
+    	boolean opStatus = dir.mkdirs();
+    	if (!opStatus) {
+    		return "Failed to create directory '" + newDir + "'";
+    	}
+    	FileNameIndex index = _telnetServer == null ? null : _telnetServer.getFileNameIndex();
+    	if (index != null) {
+    		// locate finds it at once, the watch service event only confirms it
+    		index.changed(created.toPath());
+    	}
+    	CanonicalPathCache pathCache = _telnetServer == null ? null : _telnetServer.getCanonicalPathCache();
+    	if (pathCache != null) {
+    		pathCache.invalidate(dir.getPath());
+    	}
+    	// mkdirs may have created the parents as well, do not wait for the watch service
+    	ListingCache cache = _telnetServer == null ? null : _telnetServer.getListingCache();
+    	if (cache != null) {
+    		for (File parent = dir.getParentFile(); parent != null; parent = parent.getParentFile()) {
+    			cache.invalidate(parent.toPath());
+    		}
+    	}
+    	return "";
+    }
+    
+    /**
+     * Check if the user has asked to quit the session
+     * @return true once 'quit' has been performed
+     */
+    protected boolean isStopped() {
+    	return _stop;
+    }
+    
+    /**
+     * Remember the address for which the admission slot of this session has been reserved
+     * @param address Source address of the connection
+     */
+    protected void setAdmittedAddress(InetAddress address) {
+    	_admittedAddress.set(address);
+    }
+    
+    /**
+     * Returns the address for which the admission slot was reserved, only once
+     * @return Source address or null if no slot is held
+     */
+    protected InetAddress takeAdmittedAddress() {
+    	return _admittedAddress.getAndSet(null);
+    }
+    
+    /**
+     * The client socket of this session
+     * @return Socket
+     */
+    protected Socket getSocket() {
+    	return _client;
+    }
+    
+    /**
+     * Unique ID of this thread if required
+     * @return
+     */
+    public String getMyUniqueId() {
+    	return _myUniqueId;
+    }
+    
+    /**
+     * This method will parse the user input and return the new working directory
+     * @param dirStr New working directory
+     * @return parsed working directory
+     */
+    protected String getCanonicalPath(String dirStr) {
+    	// First check with root conditions for both platform
+    	boolean absolute = false;
+    	if (isWindows()) {
+    		// "\..." or "C:\..." / "C:/..."
+    		char drive = dirStr.length() > 2 ? Character.toUpperCase(dirStr.charAt(0)) : 0;
+    		absolute = dirStr.startsWith("\\") || (drive >= 'A' && drive <= 'Z' && dirStr.charAt(1) == ':'
+    				&& (dirStr.charAt(2) == '\\' || dirStr.charAt(2) == '/'));
+    	} else {
+    		absolute = dirStr.startsWith("/");
+    	}
+    	if (!absolute && _workingDirectoryIsCanonical) {
+    		// the working directory and its parent are canonical already, nothing to resolve
+    		if (dirStr.length() == 0 || dirStr.equals(".")) {
+    			return _currentWorkingDirectory;
+    		} else if (dirStr.equals("..")) {
+    			String parent = new File(_currentWorkingDirectory).getParent();
+    			return parent == null ? _currentWorkingDirectory : parent;
+    		}
+    	}
+    	CanonicalPathCache cache = _telnetServer == null ? null : _telnetServer.getCanonicalPathCache();
+    	try {
+    		if (cache != null) {
+    			return cache.resolve(absolute ? null : getCurrentWorkingDirectory(), dirStr);
+    		}
+    		if (absolute) {
+    			return new File(dirStr).getCanonicalPath();
+    		}
+    		// This means user has provided a relative path so start to parse from current working directory
+    		return new File(getCurrentWorkingDirectory(), dirStr).getCanonicalPath();
+    	} catch (IOException ioe) {
+    		return "";
+    	}
+    }
+}
@@ -0,0 +1,173 @@
+package com.telnet.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Hashed timing wheel (Varghese &amp; Lauck), one thread serves any number of timeouts. The wheel
+ * is an array of slots, each tick the thread moves to the next slot and only looks at the timeouts
+ * hashed to it, a timeout further away than one turn of the wheel waits for the remaining rounds.
+ * Scheduling and cancelling are O(1) and never touch the other timeouts, the cost of a tick does
+ * not depend on the number of sessions.
+ * </p>
+ * <p>
+ * The tasks run on the wheel thread and must not block, a timeout fires up to one tick late.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class TimingWheel {
+	private static Logger logger = Logger.getLogger(TimingWheel.class.getName());
+
+	/**
+	 * A scheduled task
+	 */
+	public static class Timeout {
+		private final Runnable _task;
+		private final long _deadline;
+		private long _rounds = 0;
+		private volatile boolean _cancelled = false;
+
+		private Timeout(Runnable task, long deadline) {
+			_task = task;
+			_deadline = deadline;
+		}
+
+		/**
+		 * The task will not run, it is dropped from the wheel when its slot comes up
+		 */
+		public void cancel() {
+			_cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return _cancelled;
+		}
+	}
+
+	private final long _tickNanos;
+	private final List<Timeout>[] _slots;
+	private final int _mask;
+	// scheduled by any thread, put into the wheel by the wheel thread
+	private final Queue<Timeout> _pending = new ConcurrentLinkedQueue<Timeout>();
+	private final Thread _thread;
+	private final long _startNanos = System.nanoTime();
+	private volatile boolean _stopped = false;
+	// only touched by the wheel thread
+	private long _tick = 0;
+
+	/**
+	 * @param name Name of the wheel thread
+	 * @param tickMillis Duration of a tick, the resolution of the timeouts
+	 * @param wheelSize Number of slots, rounded up to a power of two
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public TimingWheel(String name, long tickMillis, int wheelSize) {
+		if (tickMillis <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("Tick and wheel size must be positive");
+		}
+		_tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		_slots = new List[size];
+		for (int i = 0; i < size; i++) {
+			_slots[i] = new ArrayList<Timeout>();
+		}
+		_mask = size - 1;
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				turn();
+			}
+		}, name);
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Run the task once the delay has elapsed
+	 * @param task Task to run on the wheel thread
+	 * @param delayMillis Delay in milliseconds
+	 * @return Timeout to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout timeout = new Timeout(task, System.nanoTime() - _startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+		_pending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the wheel thread, the pending tasks do not run
+	 */
+	public void stop() {
+		_stopped = true;
+		_thread.interrupt();
+	}
+
+	private void turn() {
+		while (!_stopped) {
+			long deadline = (_tick + 1) * _tickNanos;
+			long sleep = deadline - (System.nanoTime() - _startNanos);
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException ie) {
+					continue;
+				}
+			}
+			addPending();
+			expire(_slots[(int) (_tick & _mask)], deadline);
+			_tick++;
+		}
+	}
+
+	private void addPending() {
+		Timeout timeout = null;
+		while ((timeout = _pending.poll()) != null) {
+			if (timeout._cancelled) {
+				continue;
+			}
+			// the current tick is about to be processed, a deadline already due goes in its slot
+			long ticks = Math.max(_tick, timeout._deadline / _tickNanos);
+			timeout._rounds = (ticks - _tick) / _slots.length;
+			_slots[(int) (ticks & _mask)].add(timeout);
+		}
+	}
+
+	private void expire(List<Timeout> slot, long deadline) {
+		Iterator<Timeout> it = slot.iterator();
+		List<Timeout> expired = null;
+		while (it.hasNext()) {
+			Timeout timeout = it.next();
+			if (timeout._cancelled) {
+				it.remove();
+			} else if (timeout._rounds > 0) {
+				timeout._rounds--;
+			} else if (timeout._deadline <= deadline) {
+				it.remove();
+				if (expired == null) {
+					expired = new ArrayList<Timeout>();
+				}
+				expired.add(timeout);
+			}
+		}
+		if (expired != null) {
+			// tasks may schedule again, the slot is not iterated anymore
+			for (Timeout timeout : expired) {
+				try {
+					timeout._task.run();
+				} catch (RuntimeException re) {
+					logger.log(Level.WARNING, "Timeout task failed", re);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package com.telnet.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Recursive walk of a directory tree for the 'tree', 'du' and 'find' commands. Each directory is a
+ * task of the server's {@link ForkJoinPool}, the subdirectories are forked and joined in name order
+ * so the output is the same as a sequential walk. A walk forks at most {@code maxForks} tasks at a
+ * time and walks the rest of the tree in the tasks it already has, so one large walk keeps a part
+ * of the pool only. Symbolic links are not followed.
+ * </p>
+ * <p>
+ * The session thread waits for the walk and sends the output as it comes: the matches of 'find'
+ * at once, the tree and the sizes of each top level directory once it is complete. The walk
+ * stops at the time limit and when the session is disconnected.
+ * </p>
+ * @author sjunejo
+ *
+ */
+public class TreeWalk {
+	private static Logger logger = Logger.getLogger(TreeWalk.class.getName());
+
+	private final static long POLL_MILLIS = 50;
+
+	public enum Kind {
+		/** indented listing of the entries */
+		TREE,
+		/** size of the directories */
+		DU,
+		/** paths of the entries whose name matches a glob */
+		FIND
+	}
+
+	/**
+	 * Output and totals of a directory and everything below it
+	 */
+	private static class Result {
+		private final StringBuilder _output = new StringBuilder();
+		private long _bytes = 0;
+		private long _files = 0;
+		private long _directories = 0;
+	}
+
+	/**
+	 * Walk of one directory
+	 */
+	private class DirectoryTask extends RecursiveTask<Result> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path _dir;
+		private final int _depth;
+		// tree: drawing of the ancestors
+		private final String _prefix;
+		private boolean _forked = false;
+
+		private DirectoryTask(Path dir, int depth, String prefix) {
+			_dir = dir;
+			_depth = depth;
+			_prefix = prefix;
+		}
+
+		protected Result compute() {
+			try {
+				return walk(this);
+			} finally {
+				if (_forked) {
+					_forks.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	private final Kind _kind;
+	private final Path _root;
+	private final int _maxDepth;
+	private final int _displayDepth;
+	private final PathMatcher _matcher;
+	private final int _maxForks;
+	private final AtomicInteger _forks = new AtomicInteger(0);
+	private volatile boolean _cancelled = false;
+	private volatile boolean _depthReached = false;
+	// ready to be sent by the session thread
+	private final Queue<String> _output = new ConcurrentLinkedQueue<String>();
+	private final AtomicLong _matches = new AtomicLong(0);
+
+	/**
+	 * @param kind Command
+	 * @param root Directory to walk
+	 * @param maxDepth Levels walked below the root
+	 * @param displayDepth du: levels whose size is shown, the walk goes down to maxDepth
+	 * @param matcher find: file name pattern, null for the other commands
+	 * @param maxForks Tasks a walk may have forked at a time
+	 */
+	public TreeWalk(Kind kind, Path root, int maxDepth, int displayDepth, PathMatcher matcher, int maxForks) {
+		_kind = kind;
+		_root = root;
+		_maxDepth = maxDepth;
+		_displayDepth = displayDepth;
+		_matcher = matcher;
+		_maxForks = Math.max(1, maxForks);
+	}
+
+	/**
+	 * Walk the tree on the pool, the output is sent to the session while the walk goes on
+	 * @param session Session receiving the output
+	 * @param pool Pool running the directory tasks
+	 * @param timeoutMillis Max duration of the walk
+	 * @return The rest of the output
+	 */
+	public String run(TelnetSession session, ForkJoinPool pool, long timeoutMillis) {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		ForkJoinTask<Result> root = pool.submit(new DirectoryTask(_root, 0, ""));
+		StringBuilder sb = new StringBuilder();
+		if (_kind == Kind.TREE) {
+			sb.append(_root).append('\n');
+		}
+		boolean timedOut = false;
+		Result result = null;
+		while (result == null) {
+			drain(session, sb);
+			if (session.isDisconnected()) {
+				_cancelled = true;
+				return "";
+			}
+			if (!timedOut && System.nanoTime() - deadline > 0) {
+				// the tasks return what they have so far
+				_cancelled = true;
+				timedOut = true;
+			}
+			try {
+				result = root.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException te) {
+				// keep sending the output
+			} catch (InterruptedException ie) {
+				_cancelled = true;
+				Thread.currentThread().interrupt();
+				return "Interrupted";
+			} catch (ExecutionException ee) {
+				logger.log(Level.WARNING, "Failed to walk " + _root, ee.getCause());
+				return "Failed to walk " + _root + " - " + ee.getCause();
+			}
+		}
+		drain(session, sb);
+		sb.append(result._output);
+		appendSummary(sb, result);
+		if (timedOut) {
+			sb.append("-- stopped after ").append(TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)).append(" seconds, the output is incomplete --\n");
+		} else if (_depthReached) {
+			sb.append("-- not walked below ").append(_maxDepth).append(" levels --\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Take the output ready, full chunks are sent to the session
+	 */
+	private void drain(TelnetSession session, StringBuilder sb) {
+		String text;
+		while ((text = _output.poll()) != null) {
+			sb.append(text);
+		}
+		if (sb.length() >= DirectoryListing.CHUNK_SIZE && session.isStreaming()) {
+			session.sendPartialReply(sb.toString());
+			sb.setLength(0);
+		}
+	}
+
+	private void appendSummary(StringBuilder sb, Result result) {
+		switch (_kind) {
+		case TREE:
+			sb.append(result._directories).append(" directories, ").append(result._files).append(" files\n");
+			break;
+		case DU:
+			appendSize(sb, result._bytes, _root);
+			break;
+		case FIND:
+			sb.append(_matches.get()).append(" found\n");
+			break;
+		}
+	}
+
+	private Result walk(DirectoryTask task) {
+		Result result = new Result();
+		if (_cancelled) {
+			return result;
+		}
+		List<Path> entries = new ArrayList<Path>();
+		try {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(task._dir);
+			try {
+				for (Path entry : stream) {
+					entries.add(entry);
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException ioe) {
+			// e.g. no permission, the rest of the tree is walked
+			logger.log(Level.FINE, "Failed to read " + task._dir, ioe);
+			return result;
+		} catch (DirectoryIteratorException die) {
+			logger.log(Level.FINE, "Failed to read " + task._dir, die.getCause());
+			return result;
+		}
+		if (_kind != Kind.FIND) {
+			Collections.sort(entries);
+		}
+		List<Object> children = new ArrayList<Object>(entries.size());
+		for (Path entry : entries) {
+			if (_cancelled) {
+				break;
+			}
+			BasicFileAttributes attributes = null;
+			try {
+				attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException ioe) {
+				// removed while walking
+				continue;
+			}
+			if (_matcher != null && _matcher.matches(entry.getFileName())) {
+				_matches.incrementAndGet();
+				_output.add(entry.toString() + "\n");
+			}
+			if (!attributes.isDirectory()) {
+				result._files++;
+				result._bytes += attributes.size();
+				children.add(entry);
+			} else if (task._depth + 1 > _maxDepth) {
+				_depthReached = true;
+				result._directories++;
+				children.add(entry);
+			} else {
+				result._directories++;
+				DirectoryTask subtask = new DirectoryTask(entry, task._depth + 1, task._prefix + (entry == entries.get(entries.size() - 1) ? "    " : "|   "));
+				if (_forks.incrementAndGet() <= _maxForks) {
+					subtask._forked = true;
+					subtask.fork();
+				} else {
+					_forks.decrementAndGet();
+				}
+				children.add(subtask);
+			}
+		}
+		// in name order, the forked tasks run meanwhile
+		for (int i = 0; i < children.size(); i++) {
+			Object child = children.get(i);
+			boolean last = i == children.size() - 1;
+			if (child instanceof DirectoryTask) {
+				DirectoryTask subtask = (DirectoryTask) child;
+				Result sub = subtask._forked ? subtask.join() : subtask.compute();
+				result._bytes += sub._bytes;
+				result._files += sub._files;
+				result._directories += sub._directories;
+				StringBuilder out = result._output;
+				if (_kind == Kind.TREE) {
+					appendTreeLine(out, task._prefix, subtask._dir, last);
+					out.append(sub._output);
+				} else if (_kind == Kind.DU) {
+					out.append(sub._output);
+					if (subtask._depth <= _displayDepth) {
+						appendSize(out, sub._bytes, subtask._dir);
+					}
+				}
+				if (task._depth == 0 && out.length() > 0) {
+					// a top level directory is complete, the session sends it
+					_output.add(out.toString());
+					out.setLength(0);
+				}
+			} else if (_kind == Kind.TREE) {
+				appendTreeLine(result._output, task._prefix, (Path) child, last);
+			}
+		}
+		return result;
+	}
+
+	private static void appendTreeLine(StringBuilder sb, String prefix, Path entry, boolean last) {
+		sb.append(prefix).append(last ? "`-- " : "|-- ").append(entry.getFileName()).append('\n');
+	}
+
+	private static void appendSize(StringBuilder sb, long bytes, Path dir) {
+		// kilobytes like 'du -k'
+		sb.append((bytes + 1023) / 1024).append("K\t").append(dir).append('\n');
+	}
+}
@@ -0,0 +1,52 @@
+package com.telnet.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>Access to the JDK 21 virtual thread executor. The server is built for older JDKs as well, so the
+ * executor is looked up by reflection and the {@link ServerMode#VIRTUAL} mode is only available when
+ * running on JDK 21 or higher.</p>
+ * @author sjunejo
+ *
+ */
+public final class VirtualThreads {
+
+	private final static Method NEW_EXECUTOR = lookup();
+
+	private VirtualThreads() {
+	}
+
+	private static Method lookup() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Check if the running JDK supports virtual threads
+	 * @return true on JDK 21 or higher
+	 */
+	public static boolean isSupported() {
+		return NEW_EXECUTOR != null;
+	}
+
+	/**
+	 * Create an executor starting a new virtual thread for each task
+	 * @return Executor
+	 * @throws UnsupportedOperationException If the running JDK does not support virtual threads
+	 */
+	public static ExecutorService newVirtualThreadPerTaskExecutor() {
+		if (NEW_EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads require JDK 21 or higher, running on " + System.getProperty("java.version"));
+		}
+		try {
+			return (ExecutorService) NEW_EXECUTOR.invoke(null);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Unable to create virtual thread executor", e);
+		}
+	}
+}
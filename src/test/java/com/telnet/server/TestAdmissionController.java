@@ -0,0 +1,185 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestAdmissionController {
+
+	/**
+	 * Records the outcome of the admission
+	 */
+	private static class Outcome implements AdmissionController.Listener {
+		private final CountDownLatch _done = new CountDownLatch(1);
+		private volatile boolean _admitted = false;
+		private volatile String _message = null;
+
+		public void admitted() {
+			_admitted = true;
+			_done.countDown();
+		}
+
+		public void rejected(String message) {
+			_message = message;
+			_done.countDown();
+		}
+
+		private boolean await(long millis) throws InterruptedException {
+			return _done.await(millis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Test
+	public void testAdmitUpToLimit() throws Exception {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConnections(2);
+		admission.setQueueSize(0);
+		InetAddress address = InetAddress.getByName("127.0.0.1");
+
+		Outcome first = new Outcome();
+		Outcome second = new Outcome();
+		Outcome third = new Outcome();
+		admission.admit(address, first);
+		admission.admit(address, second);
+		admission.admit(address, third);
+
+		assertTrue("First connection should be admitted", first._admitted);
+		assertTrue("Second connection should be admitted", second._admitted);
+		assertEquals("Third connection should be rejected", AdmissionController.TOO_MANY_USERS, third._message);
+		assertEquals("Slots in use", 2, admission.getConnectionsInUse());
+
+		admission.release(address);
+		assertEquals("Slots in use", 1, admission.getConnectionsInUse());
+	}
+
+	@Test
+	public void testWaitingConnectionIsAdmittedOnRelease() throws Exception {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConnections(1);
+		admission.setQueueSize(1);
+		admission.setQueueTimeoutMillis(5000);
+		InetAddress address = InetAddress.getByName("127.0.0.1");
+
+		Outcome first = new Outcome();
+		Outcome waiting = new Outcome();
+		Outcome overflow = new Outcome();
+		admission.admit(address, first);
+		admission.admit(address, waiting);
+		admission.admit(address, overflow);
+
+		assertEquals("Connection should wait", 1, admission.getQueueLength());
+		assertEquals("Queue is full", AdmissionController.TOO_MANY_USERS, overflow._message);
+
+		admission.release(address);
+		assertTrue("Waiting connection should be admitted", waiting.await(1000) && waiting._admitted);
+		assertEquals("Queue should be empty", 0, admission.getQueueLength());
+		assertEquals("Slots in use", 1, admission.getConnectionsInUse());
+		admission.shutdown();
+	}
+
+	@Test
+	public void testWaitingConnectionTimesOut() throws Exception {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConnections(0);
+		admission.setQueueTimeoutMillis(50);
+
+		Outcome waiting = new Outcome();
+		admission.admit(InetAddress.getByName("127.0.0.1"), waiting);
+		assertTrue("Timeout should expire", waiting.await(2000));
+		assertEquals("Connection should be rejected", AdmissionController.TOO_MANY_USERS, waiting._message);
+		assertEquals("Queue should be empty", 0, admission.getQueueLength());
+		admission.shutdown();
+	}
+
+	@Test
+	public void testRaisingLimitAdmitsWaitingConnection() throws Exception {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConnections(0);
+		admission.setQueueTimeoutMillis(5000);
+
+		Outcome waiting = new Outcome();
+		admission.admit(InetAddress.getByName("127.0.0.1"), waiting);
+		admission.setMaxConnections(1);
+		assertTrue("Waiting connection should be admitted", waiting._admitted);
+		admission.shutdown();
+	}
+
+	@Test
+	public void testPerAddressLimit() throws Exception {
+		AdmissionController admission = new AdmissionController();
+		admission.setMaxConnections(10);
+		admission.setMaxConnectionsPerAddress(1);
+
+		Outcome first = new Outcome();
+		Outcome second = new Outcome();
+		Outcome other = new Outcome();
+		admission.admit(InetAddress.getByName("127.0.0.1"), first);
+		admission.admit(InetAddress.getByName("127.0.0.1"), second);
+		admission.admit(InetAddress.getByName("127.0.0.2"), other);
+
+		assertTrue("First connection should be admitted", first._admitted);
+		assertEquals("Second connection should be rejected", AdmissionController.TOO_MANY_FROM_ADDRESS, second._message);
+		assertTrue("Other address should be admitted", other._admitted);
+
+		admission.release(InetAddress.getByName("127.0.0.1"));
+		Outcome third = new Outcome();
+		admission.admit(InetAddress.getByName("127.0.0.1"), third);
+		assertTrue("Address has a free slot again", third._admitted);
+	}
+
+	@Test
+	public void testLoadBasedLimit() throws Exception {
+		AdmissionController admission = new AdmissionController() {
+			protected int getHeapUsagePercent() {
+				return 95;
+			}
+		};
+		assertNull("Load limits are disabled by default", admission.checkLoad());
+
+		admission.setMaxHeapUsagePercent(90);
+		Outcome outcome = new Outcome();
+		admission.admit(InetAddress.getByName("127.0.0.1"), outcome);
+		assertEquals("Connection should be rejected", AdmissionController.SERVER_BUSY, outcome._message);
+		assertEquals("No slot should be reserved", 0, admission.getConnectionsInUse());
+	}
+
+	@Test
+	public void testServerQueuesConnectionUntilSlotIsFree() throws Exception {
+		TelnetServer server = new TelnetServer(12349);
+		server.setMaxConnections(1);
+		server.getAdmissionController().setQueueTimeoutMillis(5000);
+		server.start();
+
+		Socket first = new Socket("127.0.0.1", 12349);
+		PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+		BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+		assertTrue("Welcome message should be received", firstIn.readLine().startsWith("Welcome"));
+
+		Socket second = new Socket("127.0.0.1", 12349);
+		BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+		for (int i = 0; i < 100 && server.getAdmissionController().getQueueLength() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("Second connection should wait", 1, server.getAdmissionController().getQueueLength());
+
+		firstOut.println("quit");
+		assertTrue("Welcome message should be received once a slot is free", secondIn.readLine().startsWith("Welcome"));
+
+		first.close();
+		second.close();
+		for (int i = 0; i < 100 && server.getNumberOfConnections() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+	}
+}
@@ -0,0 +1,254 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestAuditLog {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private AuditLog log = null;
+
+	@After
+	public void tearDown() {
+		if (log != null) {
+			log.close();
+		}
+	}
+
+	@Test
+	public void testQueryBySessionAndTime() throws Exception {
+		File dir = folder.newFolder("audit");
+		log = new AuditLog(dir, AuditLog.DEFAULT_SEGMENT_SIZE, 0, 1000);
+		long now = System.currentTimeMillis();
+		log.record("s1", "/home", "ls", now, TimeUnit.MICROSECONDS.toNanos(15), 120);
+		log.record("s2", "/tmp", "pwd", now + 1000, 0, 5);
+		log.record("s1", "/home", "cd docs", now + 2000, 0, 0);
+		log.close();
+
+		List<AuditLogReader.Record> records = query(dir, null, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals("All", 3, records.size());
+		AuditLogReader.Record first = records.get(0);
+		assertEquals("s1", first.getSession());
+		assertEquals("/home", first.getWorkingDirectory());
+		assertEquals("ls", first.getCommand());
+		assertEquals(now, first.getTime());
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(15), first.getLatencyNanos());
+		assertEquals(120, first.getResultSize());
+		assertFalse(first.isTruncated());
+
+		records = query(dir, "s1", Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals("Session s1", "[ls, cd docs]", commands(records).toString());
+		records = query(dir, null, now + 1000, now + 2000);
+		assertEquals("Time range", "[pwd]", commands(records).toString());
+	}
+
+	@Test
+	public void testQueryFindsLongCommandsInLaterSegments() throws Exception {
+		File dir = folder.newFolder("audit");
+		// header and 3 records per segment
+		log = new AuditLog(dir, 4 * AuditLog.RECORD_SIZE, 0, 1000);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 3; i++) {
+			log.record("s1", "/", "cmd" + i, now, 0, 0);
+		}
+		// received a minute ago, written when done into a segment created now
+		log.record("s2", "/", "tail -f app.log", now - 60000, TimeUnit.SECONDS.toNanos(60), 0);
+		log.close();
+
+		assertEquals("Segments", 2, AuditLog.listSegments(dir).length);
+		assertEquals("Received before the range end", "[tail -f app.log]",
+				commands(query(dir, null, now - 120000, now - 30000)).toString());
+	}
+
+	@Test
+	public void testRotationAndRetention() throws Exception {
+		File dir = folder.newFolder("audit");
+		// header and 3 records per segment
+		log = new AuditLog(dir, 4 * AuditLog.RECORD_SIZE, 2, 1000);
+		for (int i = 0; i < 10; i++) {
+			log.record("s1", "/", "cmd" + i, i, 0, 0);
+		}
+		assertEquals("Recorded", 10, log.getRecorded());
+		assertEquals("Segments before the sync", 4, AuditLog.listSegments(dir).length);
+		log.close();
+		File[] segments = AuditLog.listSegments(dir);
+		assertEquals("Oldest segments deleted", 2, segments.length);
+		assertEquals("Newest kept", 4, AuditLog.segmentNumber(segments[1]));
+		assertEquals("Records of the kept segments", "[cmd6, cmd7, cmd8, cmd9]", commands(query(dir, null, Long.MIN_VALUE, Long.MAX_VALUE)).toString());
+
+		// a new log goes on with the next segment
+		log = new AuditLog(dir, 4 * AuditLog.RECORD_SIZE, 0, 1000);
+		log.record("s2", "/", "cmd10", 10, 0, 0);
+		log.close();
+		assertEquals("Next segment", 5, AuditLog.segmentNumber(AuditLog.listSegments(dir)[2]));
+		assertEquals("[cmd10]", commands(query(dir, "s2", Long.MIN_VALUE, Long.MAX_VALUE)).toString());
+	}
+
+	@Test
+	public void testQuerySkipsUnwrittenSlots() throws Exception {
+		File dir = folder.newFolder("audit");
+		// header and 3 records per segment
+		log = new AuditLog(dir, 4 * AuditLog.RECORD_SIZE, 0, 1000);
+		for (int i = 0; i < 5; i++) {
+			log.record("s1", "/", "cmd" + i, i, 0, 0);
+		}
+		log.close();
+		// slots claimed and never written before a crash, one in a retired and one in the current segment
+		File[] segments = AuditLog.listSegments(dir);
+		clearMarker(segments[0], 2);
+		clearMarker(segments[1], 1);
+
+		assertEquals("Records after the unwritten slots", "[cmd0, cmd2, cmd4]", commands(query(dir, null, Long.MIN_VALUE, Long.MAX_VALUE)).toString());
+	}
+
+	private static void clearMarker(File segment, int slot) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+		try {
+			raf.seek(slot * AuditLog.RECORD_SIZE + AuditLog.MARKER);
+			raf.writeInt(0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		File dir = folder.newFolder("audit");
+		log = new AuditLog(dir, AuditLog.DEFAULT_SEGMENT_SIZE, 0, 1000);
+		// odd, the last character does not fit
+		StringBuilder command = new StringBuilder("mkdir x");
+		for (int i = 0; i < 100; i++) {
+			// 2 bytes in UTF-8
+			command.append('é');
+		}
+		log.record("s1", "/", command.toString(), 0, 0, 0);
+		log.close();
+		AuditLogReader.Record record = query(dir, null, Long.MIN_VALUE, Long.MAX_VALUE).get(0);
+		assertTrue("Truncated", record.isTruncated());
+		assertTrue("Cut on a character " + record.getCommand(), command.toString().startsWith(record.getCommand()));
+		assertEquals("Fits the field", AuditLog.COMMAND_MAX - 1, record.getCommand().getBytes("UTF-8").length);
+	}
+
+	@Test
+	public void testConcurrentSessions() throws Exception {
+		File dir = folder.newFolder("audit");
+		log = new AuditLog(dir, 64 * AuditLog.RECORD_SIZE, 0, 1000);
+		final int commands = 500;
+		Thread[] sessions = new Thread[4];
+		for (int t = 0; t < sessions.length; t++) {
+			final String session = "s" + t;
+			sessions[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < commands; i++) {
+						log.record(session, "/", "ls " + i, i, 0, 0);
+					}
+				}
+			});
+			sessions[t].start();
+		}
+		for (Thread session : sessions) {
+			session.join(10000);
+		}
+		log.close();
+		assertEquals("Dropped", 0, log.getDropped());
+		for (int t = 0; t < sessions.length; t++) {
+			List<AuditLogReader.Record> records = query(dir, "s" + t, Long.MIN_VALUE, Long.MAX_VALUE);
+			assertEquals("Records of s" + t, commands, records.size());
+		}
+	}
+
+	@Test
+	public void testFollow() throws Exception {
+		File dir = folder.newFolder("audit");
+		log = new AuditLog(dir, 4 * AuditLog.RECORD_SIZE, 0, 1000);
+		final List<String> followed = Collections.synchronizedList(new ArrayList<String>());
+		final AuditLogReader reader = new AuditLogReader(dir);
+		Thread tail = new Thread(new Runnable() {
+			public void run() {
+				try {
+					reader.follow(new AuditLogReader.Listener() {
+						public void record(AuditLogReader.Record record) {
+							followed.add(record.getCommand());
+						}
+					});
+				} catch (Exception e) {
+					followed.add(e.toString());
+				}
+			}
+		});
+		tail.start();
+		try {
+			// let the reader open the current segment
+			Thread.sleep(300);
+			// across two rotations
+			for (int i = 0; i < 8; i++) {
+				log.record("s1", "/", "cmd" + i, i, 0, 0);
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (followed.size() < 8 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+		} finally {
+			tail.interrupt();
+			tail.join(2000);
+		}
+		assertEquals("[cmd0, cmd1, cmd2, cmd3, cmd4, cmd5, cmd6, cmd7]", followed.toString());
+	}
+
+	@Test
+	public void testCommandsAudited() throws Exception {
+		File dir = folder.newFolder("audit");
+		log = new AuditLog(dir, AuditLog.DEFAULT_SEGMENT_SIZE, 0, 1000);
+		TelnetServer server = mock(TelnetServer.class);
+		when(server.getAuditLog()).thenReturn(log);
+		TelnetClient client = new TelnetClient(server);
+		String workingDirectory = client.getCurrentWorkingDirectory();
+		String reply = client.performTelnetCommand("pwd");
+		client.performTelnetCommand("");
+		log.close();
+
+		List<AuditLogReader.Record> records = query(dir, null, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals("Empty line not audited", 1, records.size());
+		assertEquals("pwd", records.get(0).getCommand());
+		assertEquals(workingDirectory, records.get(0).getWorkingDirectory());
+		assertEquals(reply.length(), records.get(0).getResultSize());
+	}
+
+	private List<AuditLogReader.Record> query(File dir, String session, long from, long to) throws Exception {
+		final List<AuditLogReader.Record> records = new ArrayList<AuditLogReader.Record>();
+		AuditLogReader reader = new AuditLogReader(dir);
+		reader.setSession(session);
+		reader.setTimeRange(from, to);
+		reader.query(new AuditLogReader.Listener() {
+			public void record(AuditLogReader.Record record) {
+				records.add(record);
+			}
+		});
+		return records;
+	}
+
+	private List<String> commands(List<AuditLogReader.Record> records) {
+		List<String> commands = new ArrayList<String>();
+		for (AuditLogReader.Record record : records) {
+			commands.add(record.getCommand());
+		}
+		return commands;
+	}
+}
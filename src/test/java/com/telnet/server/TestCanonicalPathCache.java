@@ -0,0 +1,134 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCanonicalPathCache {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private String root;
+
+	@Before
+	public void setUp() throws Exception {
+		folder.newFolder("a");
+		new File(folder.getRoot(), "a/b").mkdir();
+		root = folder.getRoot().getCanonicalPath();
+	}
+
+	@Test
+	public void testHitAndMiss() throws Exception {
+		CanonicalPathCache cache = new CanonicalPathCache();
+		String expected = new File(root, "a/b").getCanonicalPath();
+		assertEquals("Resolved path", expected, cache.resolve(root, "a/./b/../b"));
+		assertEquals("Misses", 1, cache.getMisses());
+		assertEquals("Cached path", expected, cache.resolve(root, "a/./b/../b"));
+		assertEquals("Hits", 1, cache.getHits());
+
+		assertEquals("Absolute path", expected, cache.resolve(null, expected));
+		assertEquals("Absolute paths do not depend on the working directory", expected, cache.resolve(null, expected));
+		assertEquals("Hits", 2, cache.getHits());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		CanonicalPathCache cache = new CanonicalPathCache();
+		cache.resolve(root, "a");
+		cache.resolve(root, "a/b");
+		cache.resolve(root, "ab");
+		cache.invalidate(new File(root, "a").getPath());
+		assertEquals("Entries below 'a' should be dropped, 'ab' kept", 1, cache.size());
+
+		cache.invalidate(File.separator);
+		assertEquals("Everything is below the root", 0, cache.size());
+	}
+
+	@Test
+	public void testRetargetedLinkInvalidates() throws Exception {
+		Path link = new File(root, "l").toPath();
+		try {
+			Files.createSymbolicLink(link, new File(root, "a").toPath());
+		} catch (UnsupportedOperationException uoe) {
+			assumeTrue(false);
+		}
+		CanonicalPathCache cache = new CanonicalPathCache();
+		assertEquals("Link target", new File(root, "a").getPath(), cache.resolve(root, "l"));
+		assertEquals("Absolute link target", new File(root, "a/b").getPath(), cache.resolve(null, link + "/b"));
+
+		Files.delete(link);
+		Files.createSymbolicLink(link, new File(root, "a/b").toPath());
+		cache.invalidate(link.toString());
+		assertEquals("New link target", new File(root, "a/b").getPath(), cache.resolve(root, "l"));
+		assertEquals("Absolute input through the link", new File(root, "a/b/b").getPath(), cache.resolve(null, link + "/b"));
+	}
+
+	@Test
+	public void testExpiryAndEviction() throws Exception {
+		CanonicalPathCache cache = new CanonicalPathCache();
+		cache.setTtlMillis(0);
+		cache.resolve(root, "a");
+		cache.resolve(root, "a");
+		assertEquals("Expired entries are resolved again", 2, cache.getMisses());
+
+		cache.setTtlMillis(CanonicalPathCache.DEFAULT_TTL_MILLIS);
+		cache.setMaxSize(2);
+		cache.resolve(root, "a");
+		cache.resolve(root, "a/b");
+		cache.resolve(root, "x");
+		assertEquals("Size is bounded", 2, cache.size());
+		assertEquals("Evictions", 1, cache.getEvictions());
+	}
+
+	@Test
+	public void testFastPath() throws Exception {
+		TelnetServer server = new TelnetServer();
+		TelnetClient client = new TelnetClient(server);
+		client.setCurrentWorkingDirectory(new File(root, "a/b").getPath());
+		long misses = server.getCanonicalPathCache().getMisses();
+
+		assertEquals("Parent", new File(root, "a").getPath(), client.getCanonicalPath(".."));
+		assertEquals("Working directory", new File(root, "a/b").getPath(), client.getCanonicalPath("."));
+		assertEquals("No resolution needed", misses, server.getCanonicalPathCache().getMisses());
+		server.getListingCache().close();
+	}
+
+	@Test
+	public void testMkdirInvalidates() throws Exception {
+		TelnetServer server = new TelnetServer();
+		TelnetClient client = new TelnetClient(server);
+		client.setCurrentWorkingDirectory(root);
+		assertEquals("Missing directory", "c - does not exist", client.performTelnetCommand("cd c"));
+		assertEquals("mkdir should succeed", "", client.performTelnetCommand("mkdir c"));
+		assertEquals("Resolved again after mkdir", "", client.performTelnetCommand("cd c"));
+		assertEquals("Working directory", new File(root, "c").getPath(), client.getCurrentWorkingDirectory());
+		server.getListingCache().close();
+	}
+
+	@Test
+	public void testWatchEventsInvalidate() throws Exception {
+		final CanonicalPathCache paths = new CanonicalPathCache();
+		ListingCache listings = new ListingCache(paths);
+		Path dir = new File(root, "a").toPath();
+		listings.get(dir);
+		paths.resolve(root, "a/b");
+
+		new File(root, "a/b").delete();
+		for (int i = 0; i < 300 && paths.size() > 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals("Deleted directory should be dropped", 0, paths.size());
+		assertTrue("Listing should be dropped", listings.getInvalidations() > 0);
+		listings.close();
+	}
+}
@@ -0,0 +1,297 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCommandExecutor {
+
+	// busy blocking and NIO, backpressure blocking and NIO, then follows blocking and NIO
+	private static final int PORT = 12374;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPriorityOrder() throws Exception {
+		CommandExecutor executor = new CommandExecutor(1, 10, 1);
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			assertTrue(executor.execute(new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, CommandExecutor.Priority.NORMAL));
+			assertTrue("The only thread is busy", started.await(2, TimeUnit.SECONDS));
+			final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+			final CountDownLatch done = new CountDownLatch(4);
+			String[] names = { "low", "normal 1", "high", "normal 2" };
+			CommandExecutor.Priority[] priorities = { CommandExecutor.Priority.LOW, CommandExecutor.Priority.NORMAL,
+					CommandExecutor.Priority.HIGH, CommandExecutor.Priority.NORMAL };
+			for (int i = 0; i < names.length; i++) {
+				final String name = names[i];
+				assertTrue(executor.execute(new Runnable() {
+					public void run() {
+						order.add(name);
+						done.countDown();
+					}
+				}, priorities[i]));
+			}
+			assertEquals(4, executor.getQueuedTasks());
+			release.countDown();
+			assertTrue(done.await(2, TimeUnit.SECONDS));
+			assertEquals("[high, normal 1, normal 2, low]", order.toString());
+			assertEquals(0, executor.getQueuedTasks());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRejection() throws Exception {
+		CommandExecutor executor = new CommandExecutor(1, 2, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		try {
+			assertTrue(executor.execute(blocked, CommandExecutor.Priority.NORMAL));
+			assertTrue("The only thread is busy", started.await(2, TimeUnit.SECONDS));
+			assertTrue(executor.execute(blocked, CommandExecutor.Priority.NORMAL));
+			assertTrue(executor.execute(blocked, CommandExecutor.Priority.NORMAL));
+			assertFalse("Queue full", executor.execute(blocked, CommandExecutor.Priority.HIGH));
+			assertEquals(1, executor.getRejectedTasks());
+			assertEquals(2, executor.getQueuedTasks());
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+		assertFalse("Shut down", executor.execute(blocked, CommandExecutor.Priority.HIGH));
+		assertEquals("Not counted as rejected", 1, executor.getRejectedTasks());
+	}
+
+	@Test
+	public void testCommandPriorities() {
+		CommandRegistry registry = CommandRegistry.getDefault();
+		CommandLine line = new CommandLine();
+		assertEquals(CommandExecutor.Priority.HIGH, registry.priority(line.parse("PWD")));
+		assertEquals(CommandExecutor.Priority.HIGH, registry.priority(line.parse("quit")));
+		assertEquals(CommandExecutor.Priority.NORMAL, registry.priority(line.parse("ls -s /tmp")));
+		assertEquals(CommandExecutor.Priority.LOW, registry.priority(line.parse("du -d 2 /")));
+		assertEquals(CommandExecutor.Priority.LOW, registry.priority(line.parse("get file.dat 10")));
+		assertEquals("Unknown, answered right away", CommandExecutor.Priority.HIGH, registry.priority(line.parse("bogus")));
+		assertEquals(CommandExecutor.Priority.HIGH, registry.priority(line.parse("")));
+
+		assertTrue("Follow", registry.isLongRunning(line.parse("tail -n 5 -f app.log")));
+		assertFalse("Last lines only", registry.isLongRunning(line.parse("tail app.log")));
+		assertTrue("Transfer", registry.isLongRunning(line.parse("put file.dat 10")));
+		assertFalse(registry.isLongRunning(line.parse("du /")));
+		assertFalse(registry.isLongRunning(line.parse("")));
+	}
+
+	@Test
+	public void testServerBusy() throws Exception {
+		String cwd = System.getProperty("user.dir");
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch release = new CountDownLatch(1);
+			CommandRegistry registry = CommandRegistry.createDefault();
+			registry.register("block", true, new Command() {
+				public String execute(TelnetSession session, CommandLine line) {
+					started.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+					}
+					return "released";
+				}
+			});
+			int port = PORT + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			server.setCommandRegistry(registry);
+			// one command thread and one session waiting for it
+			server.setWorkerThreads(1);
+			server.setCommandQueueSize(1);
+			server.start();
+			Socket blocking = new Socket("127.0.0.1", port);
+			Socket queued = new Socket("127.0.0.1", port);
+			Socket rejected = new Socket("127.0.0.1", port);
+			try {
+				PrintWriter blockingOut = new PrintWriter(blocking.getOutputStream(), true);
+				BufferedReader blockingIn = new BufferedReader(new InputStreamReader(blocking.getInputStream()));
+				blockingOut.print("block\r\n");
+				blockingOut.flush();
+				assertTrue(mode + ": the only thread is busy", started.await(2, TimeUnit.SECONDS));
+
+				PrintWriter queuedOut = new PrintWriter(queued.getOutputStream(), true);
+				BufferedReader queuedIn = new BufferedReader(new InputStreamReader(queued.getInputStream()));
+				queuedOut.print("pwd\r\n");
+				queuedOut.flush();
+				long deadline = System.currentTimeMillis() + 2000;
+				while (server.getQueuedCommands() == 0 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+				assertEquals(mode + ": waiting for the thread", 1, server.getQueuedCommands());
+
+				PrintWriter rejectedOut = new PrintWriter(rejected.getOutputStream(), true);
+				BufferedReader rejectedIn = new BufferedReader(new InputStreamReader(rejected.getInputStream()));
+				rejectedOut.print("pwd\r\n");
+				rejectedOut.flush();
+				assertNotNull(mode + ": queue full", readLine(rejectedIn, TelnetClient.BUSY));
+				assertEquals(1, server.getRejectedCommands());
+
+				// the thread runs the blocked command to its end, then the queued session
+				release.countDown();
+				assertNotNull(mode + ": blocked command", readLine(blockingIn, "released"));
+				assertNotNull(mode + ": queued command", readLine(queuedIn, "> " + cwd));
+			} finally {
+				release.countDown();
+				blocking.close();
+				queued.close();
+				rejected.close();
+				server.shutDown();
+			}
+		}
+	}
+
+	@Test
+	public void testFollowsDoNotHoldCommandThreads() throws Exception {
+		File file = folder.newFile("app.log");
+		write(file, "started\n");
+		String cwd = System.getProperty("user.dir");
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = PORT + 4 + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			// as many follows as command threads
+			server.setWorkerThreads(2);
+			server.setLongRunningThreads(2);
+			server.start();
+			List<Socket> sockets = new ArrayList<Socket>();
+			try {
+				List<PrintWriter> followersOut = new ArrayList<PrintWriter>();
+				List<BufferedReader> followersIn = new ArrayList<BufferedReader>();
+				for (int i = 0; i < 2; i++) {
+					Socket socket = new Socket("127.0.0.1", port);
+					sockets.add(socket);
+					followersOut.add(new PrintWriter(socket.getOutputStream(), true));
+					followersIn.add(new BufferedReader(new InputStreamReader(socket.getInputStream())));
+					followersOut.get(i).print("tail -f " + file.getPath() + "\r\n");
+					followersOut.get(i).flush();
+					assertNotNull(mode + ": following", readLine(followersIn.get(i), "started"));
+				}
+
+				Socket other = new Socket("127.0.0.1", port);
+				sockets.add(other);
+				other.setSoTimeout(5000);
+				PrintWriter otherOut = new PrintWriter(other.getOutputStream(), true);
+				BufferedReader otherIn = new BufferedReader(new InputStreamReader(other.getInputStream()));
+				otherOut.print("pwd\r\n");
+				otherOut.flush();
+				assertNotNull(mode + ": answered while the files are followed", readLine(otherIn, "> " + cwd));
+				assertEquals(mode + ": follows on threads of their own", 2, server.getLongRunningCommands());
+
+				otherOut.print("tail -f " + file.getPath() + "\r\n");
+				otherOut.flush();
+				assertNotNull(mode + ": no thread left for a third follow", readLine(otherIn, TelnetClient.BUSY));
+
+				// the next command ends a follow, it runs on a command thread again
+				for (int i = 0; i < 2; i++) {
+					followersOut.get(i).print("pwd\r\n");
+					followersOut.get(i).flush();
+					assertNotNull(mode + ": next command", readLine(followersIn.get(i), "> " + cwd));
+				}
+			} finally {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+				server.shutDown();
+			}
+		}
+	}
+
+	@Test
+	public void testPendingCommandsLimit() throws Exception {
+		String cwd = System.getProperty("user.dir");
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = PORT + 2 + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			// the session stops reading at once and again after every command
+			server.setWorkerThreads(1);
+			server.setMaxPendingCommands(2);
+			server.start();
+			Socket socket = new Socket("127.0.0.1", port);
+			try {
+				StringBuilder commands = new StringBuilder();
+				for (int i = 0; i < 300; i++) {
+					commands.append("pwd\r\n");
+				}
+				commands.append("quit\r\n");
+				socket.getOutputStream().write(commands.toString().getBytes("UTF-8"));
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				int replies = 0;
+				String line = null;
+				while ((line = in.readLine()) != null) {
+					if (line.equals(cwd + "> " + cwd)) {
+						replies++;
+					}
+				}
+				assertEquals(mode + ": every command answered", 300, replies);
+			} finally {
+				socket.close();
+				server.shutDown();
+			}
+		}
+	}
+
+	private static String readLine(BufferedReader in, String text) throws IOException {
+		String line = null;
+		while ((line = in.readLine()) != null) {
+			if (line.contains(text)) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
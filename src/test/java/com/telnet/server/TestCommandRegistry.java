@@ -0,0 +1,110 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestCommandRegistry {
+
+	@Test
+	public void testParse() {
+		CommandLine line = new CommandLine().parse("  ls      test  something   else  ");
+		assertEquals("Number of words", 4, line.size());
+		assertEquals("Command", "ls", line.get(0));
+		assertEquals("Word No 3 Should be", "something", line.get(2));
+		assertEquals("Last word", "else", line.get(3));
+
+		assertEquals("Empty line", 0, line.parse("").size());
+		assertEquals("Blank line", 0, line.parse("    ").size());
+		assertEquals("Null line", 0, line.parse(null).size());
+	}
+
+	@Test
+	public void testParseManyWords() {
+		StringBuilder sb = new StringBuilder("mkdir");
+		for (int i = 0; i < 50; i++) {
+			sb.append(' ').append("d").append(i);
+		}
+		CommandLine line = new CommandLine().parse(sb);
+		assertEquals("Number of words", 51, line.size());
+		assertEquals("Last word", "d49", line.get(50));
+		assertEquals("Words", 51, line.toArray().length);
+	}
+
+	@Test
+	public void testMatches() {
+		CommandLine line = new CommandLine().parse("LS dir");
+		assertTrue("Case insensitive match", line.matches(0, "ls", true));
+		assertFalse("Case sensitive match", line.matches(0, "ls", false));
+		assertFalse("Different length", line.matches(1, "di", true));
+		assertTrue("Argument", line.matches(1, "dir", false));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testMissingWord() {
+		new CommandLine().parse("cd").get(1);
+	}
+
+	@Test
+	public void testLookup() {
+		CommandRegistry registry = CommandRegistry.getDefault();
+		CommandLine line = new CommandLine();
+		assertNotNull("ls", registry.lookup(line.parse("ls")));
+		assertSame("ls and dir", registry.lookup(line.parse("ls")), registry.lookup(line.parse("DIR")));
+		assertNotNull("Case insensitive command", registry.lookup(line.parse("Pwd")));
+		assertNotNull("quit", registry.lookup(line.parse("quit")));
+		assertNull("quit is case sensitive", registry.lookup(line.parse("QUIT")));
+		assertNull("Unknown command", registry.lookup(line.parse("somecrap")));
+		assertNull("Prefix of a command", registry.lookup(line.parse("mkdi")));
+	}
+
+	@Test
+	public void testLeadingSpacesAreIgnored() {
+		TelnetClient client = new TelnetClient();
+		assertEquals("pwd should retrun the current working directory", client.getCurrentWorkingDirectory(),
+				client.performTelnetCommand("   pwd  "));
+	}
+
+	@Test
+	public void testCustomCommands() {
+		CommandRegistry registry = CommandRegistry.createDefault();
+		for (int i = 0; i < 40; i++) {
+			final String reply = "echo" + i;
+			registry.register("echo" + i, true, new Command() {
+				public String execute(TelnetSession session, CommandLine line) {
+					return reply + " " + line.get(1);
+				}
+			});
+		}
+		registry.register("pwd", false, new Command() {
+			public String execute(TelnetSession session, CommandLine line) {
+				return "replaced";
+			}
+		});
+
+		CommandLine line = new CommandLine();
+		assertEquals("Custom command", "echo7 hello", registry.execute(null, line.parse("ECHO7 hello")));
+		assertEquals("Custom command", "echo39 world", registry.execute(null, line.parse("echo39 world")));
+		assertEquals("Replaced command", "replaced", registry.execute(null, line.parse("pwd")));
+		assertNotNull("Built in commands are kept", registry.lookup(line.parse("mkdir")));
+		assertNull("Default registry is not changed", CommandRegistry.getDefault().lookup(line.parse("echo7")));
+		String[] names = registry.getNames();
+		assertEquals("Replaced commands are listed once", CommandRegistry.getDefault().getNames().length + 40, names.length);
+		assertEquals("Registration order", "echo39", names[names.length - 1]);
+
+		TelnetServer server = new TelnetServer();
+		server.setCommandRegistry(registry);
+		assertEquals("Server registry is used by the sessions", "echo1 x",
+				new TelnetClient(server).performTelnetCommand("echo1 x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidName() {
+		new CommandRegistry().register("two words", true, null);
+	}
+}
@@ -0,0 +1,146 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestConnectionRegistry {
+
+	private TelnetClient mockClient(String id, String address) throws Exception {
+		TelnetClient client = mock(TelnetClient.class);
+		when(client.getMyUniqueId()).thenReturn(id);
+		if (address != null) {
+			Socket socket = mock(Socket.class);
+			when(socket.getInetAddress()).thenReturn(InetAddress.getByName(address));
+			when(client.getSocket()).thenReturn(socket);
+		}
+		return client;
+	}
+
+	@Test
+	public void testAddLookupRemove() throws Exception {
+		ConnectionRegistry registry = new ConnectionRegistry();
+		TelnetClient client = mockClient("SomeUUID", "127.0.0.1");
+
+		registry.add(client);
+		assertSame("Client should be found by id", client, registry.get("SomeUUID"));
+		assertEquals("Size", 1, registry.size());
+
+		assertSame("Removed entry", client, registry.remove(client).getClient());
+		assertNull("Client should be removed", registry.get("SomeUUID"));
+		assertEquals("Address index should be empty", 0, registry.getByAddress(InetAddress.getByName("127.0.0.1")).size());
+		assertEquals("Connect time index should be empty", 0, registry.snapshot().size());
+	}
+
+	@Test
+	public void testRemoveOnlyOwnEntry() throws Exception {
+		ConnectionRegistry registry = new ConnectionRegistry();
+		TelnetClient first = mockClient("SomeUUID", null);
+		TelnetClient second = mockClient("SomeUUID", null);
+
+		registry.add(first);
+		registry.add(second);
+		assertNull("Replaced client should not remove the new one", registry.remove(first));
+		assertSame("Latest client should be registered", second, registry.get("SomeUUID"));
+		assertEquals("Connect time index", 1, registry.snapshot().size());
+	}
+
+	@Test
+	public void testSecondaryIndexes() throws Exception {
+		ConnectionRegistry registry = new ConnectionRegistry();
+		registry.add(mockClient("1", "10.0.0.1"));
+		registry.add(mockClient("2", "10.0.0.2"));
+		registry.add(mockClient("3", "10.0.0.1"));
+
+		List<ConnectionRegistry.Entry> fromAddress = registry.getByAddress(InetAddress.getByName("10.0.0.1"));
+		assertEquals("Connections from address", 2, fromAddress.size());
+		assertEquals("Oldest first", "1", fromAddress.get(0).getClientId());
+
+		List<ConnectionRegistry.Entry> snapshot = registry.snapshot();
+		assertEquals("Snapshot ordered by connect time", "1", snapshot.get(0).getClientId());
+		assertEquals("Snapshot ordered by connect time", "3", snapshot.get(2).getClientId());
+
+		assertEquals("All connected before now", 3, registry.getConnectedBefore(System.currentTimeMillis() + 1).size());
+		assertEquals("None connected before the epoch", 0, registry.getConnectedBefore(0).size());
+	}
+
+	@Test
+	public void testConcurrentAddRemoveAndList() throws Exception {
+		final ConnectionRegistry registry = new ConnectionRegistry();
+		final TelnetServer server = new TelnetServer();
+		final List<TelnetClient> clients = new ArrayList<TelnetClient>();
+		for (int i = 0; i < 200; i++) {
+			clients.add(mockClient("client-" + i, "127.0.0." + (i % 4 + 1)));
+		}
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final int offset = t;
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						for (int round = 0; round < 20; round++) {
+							for (int i = offset; i < clients.size(); i += 4) {
+								registry.add(clients.get(i));
+								server.clientConnected(clients.get(i));
+							}
+							server.listAllConnections();
+							registry.snapshot();
+							for (int i = offset; i < clients.size(); i += 4) {
+								registry.remove(clients.get(i));
+								server.clientDisconnected(clients.get(i));
+							}
+						}
+					} catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull("No exception expected", failure.get());
+		assertEquals("Registry should be empty", 0, registry.size());
+		assertEquals("Server registry should be empty", 0, server.getActiveConnections().size());
+		assertEquals("Address index should be empty", 0, registry.getByAddress(InetAddress.getByName("127.0.0.1")).size());
+	}
+
+	@Test
+	public void testParallelDisconnectAll() throws Exception {
+		final TelnetServer server = new TelnetServer();
+		for (int i = 0; i < 20; i++) {
+			final TelnetClient client = mockClient("client-" + i, null);
+			doAnswer(new Answer<Object>() {
+				public Object answer(InvocationOnMock invocation) throws Throwable {
+					server.clientDisconnected(client);
+					return null;
+				}
+			}).when(client).destroyTelnetClientThread();
+			server.clientConnected(client);
+		}
+		assertEquals("Number of active connections", 20, server.getNumberOfConnections());
+
+		assertEquals("Success message should be receieved", "Success", server.disconnectAll());
+		assertEquals("Number of active connections", 0, server.getNumberOfConnections());
+		assertTrue("Listing should be empty", server.listAllConnections().contains("Active Connections = 0"));
+	}
+}
@@ -0,0 +1,122 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestDirectoryListing {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TelnetClient client;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			folder.newFile("file" + i);
+		}
+		folder.newFolder("subdir");
+		client = new TelnetClient(new TelnetServer());
+		client.setCurrentWorkingDirectory(folder.getRoot().getPath());
+	}
+
+	/**
+	 * Names of the entries in the reply, the continuation hint is skipped
+	 */
+	private List<String> names(String reply) {
+		List<String> names = new ArrayList<String>();
+		for (String line : reply.split("\n")) {
+			if (line.startsWith("<DIR>__ ") || line.startsWith("_______ ")) {
+				names.add(line.substring(8));
+			}
+		}
+		return names;
+	}
+
+	@Test
+	public void testPagedListing() {
+		Set<String> seen = new HashSet<String>();
+		String reply = client.performTelnetCommand("ls -n 4");
+		assertEquals("First page", 4, names(reply).size());
+		assertTrue("Continuation hint", reply.contains("ls -c"));
+		seen.addAll(names(reply));
+
+		seen.addAll(names(client.performTelnetCommand("ls -c")));
+		reply = client.performTelnetCommand("ls -c");
+		assertEquals("Last page", 3, names(reply).size());
+		assertTrue("No continuation hint on the last page", !reply.contains("ls -c"));
+		seen.addAll(names(reply));
+
+		assertEquals("Every entry listed once", 11, seen.size());
+		assertEquals("Listing is finished", "No listing to continue", client.performTelnetCommand("ls -c"));
+	}
+
+	@Test
+	public void testSortedListing() {
+		List<String> all = new ArrayList<String>();
+		String reply = client.performTelnetCommand("ls -s -n 5 .");
+		all.addAll(names(reply));
+		while (reply.contains("ls -c")) {
+			reply = client.performTelnetCommand("ls -c");
+			all.addAll(names(reply));
+		}
+		List<String> sorted = new ArrayList<String>(all);
+		Collections.sort(sorted);
+		assertEquals("Every entry listed once", 11, all.size());
+		assertEquals("Entries ordered by name", sorted, all);
+		assertTrue("Directory flag", client.performTelnetCommand("ls -s").contains("<DIR>__ subdir"));
+	}
+
+	@Test
+	public void testInvalidOptions() {
+		assertEquals("Invalid page size", "Invalid page size 'x'", client.performTelnetCommand("ls -n x"));
+		assertEquals("Invalid page size", "Invalid page size '0'", client.performTelnetCommand("ls -n 0"));
+		assertEquals("Missing page size", "Missing page size - ls -n <COUNT>", client.performTelnetCommand("ls -n"));
+		assertEquals("Missing directory", "missing - either it is not a directory or it does not exist",
+				client.performTelnetCommand("ls -n 2 missing"));
+	}
+
+	@Test
+	public void testLargeListingIsStreamed() throws Exception {
+		File big = folder.newFolder("big");
+		for (int i = 0; i < 2000; i++) {
+			new File(big, "entry-with-a-longer-name-" + i).createNewFile();
+		}
+		final List<String> chunks = new ArrayList<String>();
+		TelnetServer server = new TelnetServer();
+		// larger directories are not cached but streamed
+		server.getListingCache().setMaxEntriesPerDirectory(100);
+		TelnetClient streaming = new TelnetClient(server) {
+			protected boolean isStreaming() {
+				return true;
+			}
+
+			protected void sendPartialReply(String text) {
+				chunks.add(text);
+			}
+		};
+		streaming.setCurrentWorkingDirectory(big.getPath());
+
+		String rest = streaming.performTelnetCommand("ls");
+		assertTrue("Output should be sent in chunks", chunks.size() > 1);
+		StringBuilder all = new StringBuilder();
+		for (String chunk : chunks) {
+			assertTrue("Chunk size", chunk.length() <= DirectoryListing.CHUNK_SIZE + 100);
+			all.append(chunk);
+		}
+		all.append(rest);
+		assertEquals("Every entry listed", 2000, names(all.toString()).size());
+	}
+}
@@ -0,0 +1,275 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestFileContent {
+
+	// blocking, blocking with SO_REUSEPORT channels, NIO
+	private static final int PORT = 12363;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TelnetClient client = null;
+	private File dir = null;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = folder.newFolder("files").getCanonicalFile();
+		client = new TelnetClient(new TelnetServer());
+		client.setCurrentWorkingDirectory(dir.getPath());
+		write(new File(dir, "lines.txt"), "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n".getBytes("UTF-8"));
+		write(new File(dir, "open.txt"), "first\nsecond\nlast".getBytes("UTF-8"));
+	}
+
+	@Test
+	public void testCatHeadTail() {
+		assertEquals("first\nsecond\nlast", client.performTelnetCommand("cat open.txt"));
+		assertEquals("1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n", client.performTelnetCommand("head lines.txt"));
+		assertEquals("3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n", client.performTelnetCommand("tail lines.txt"));
+		assertEquals("1\n2\n", client.performTelnetCommand("head -n 2 lines.txt"));
+		assertEquals("12\n", client.performTelnetCommand("tail -n 1 lines.txt"));
+		assertEquals("Last line without newline", "last", client.performTelnetCommand("tail -n 1 open.txt"));
+		assertEquals("Shorter than asked", "first\nsecond\nlast", client.performTelnetCommand("tail -n 5 open.txt"));
+		assertEquals("", client.performTelnetCommand("head -n 0 lines.txt"));
+	}
+
+	@Test
+	public void testErrors() {
+		assertEquals("Missing file name - cat <FILE_NAME>", client.performTelnetCommand("cat"));
+		assertEquals("Missing file name - tail [-n <LINES>] [-f] <FILE_NAME>", client.performTelnetCommand("tail -f"));
+		assertEquals("Invalid number of lines 'x'", client.performTelnetCommand("head -n x lines.txt"));
+		assertEquals("nowhere.txt - either it is not a file or it does not exist", client.performTelnetCommand("cat nowhere.txt"));
+		assertEquals(". - is a directory", client.performTelnetCommand("cat ."));
+	}
+
+	@Test
+	public void testLinesAcrossWindows() throws Exception {
+		// 13 bytes a line, more than one mapped window
+		int lines = FileContent.WINDOW_SIZE / 13 + 1000;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < lines; i++) {
+			sb.append(String.format("line-%07d\n", i));
+		}
+		File file = new File(dir, "large.txt");
+		write(file, sb.toString().getBytes("UTF-8"));
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			assertEquals("Last lines of the second window", size - 13 * 2000L, FileContent.tailStart(channel, size, 2000));
+			assertEquals("Back into the first window", 13L * 1000, FileContent.tailStart(channel, size, lines - 1000));
+			assertEquals(13L * (lines - 10), FileContent.headEnd(channel, size, lines - 10));
+			assertEquals(size, FileContent.headEnd(channel, size, lines + 10));
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testIacDoubled() throws Exception {
+		File file = new File(dir, "binary.dat");
+		write(file, new byte[] { 1, (byte) 0xFF, 2, (byte) 0xFF });
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			FileContent.send(channel, 0, channel.size(), new FileContent.Sink() {
+				public void write(MappedByteBuffer window, int start, int end, long position) {
+					for (int i = start; i < end; i++) {
+						sent.write(window.get(i));
+					}
+				}
+
+				public void write(ByteBuffer content) {
+					fail("Copied although the IAC are few");
+				}
+			});
+		} finally {
+			channel.close();
+		}
+		assertArrayEquals(new byte[] { 1, (byte) 0xFF, (byte) 0xFF, 2, (byte) 0xFF, (byte) 0xFF }, sent.toByteArray());
+	}
+
+	@Test
+	public void testDenseIacCopied() throws Exception {
+		// a text chunk with a few IAC, then binary chunks full of them
+		byte[] content = new byte[4 * FileContent.IAC_CHUNK_SIZE];
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < content.length; i++) {
+			boolean iac = i < FileContent.IAC_CHUNK_SIZE ? i % 10000 == 5 : i % 7 == 0;
+			content[i] = iac ? (byte) 0xFF : (byte) ('a' + i % 26);
+			expected.write(content[i]);
+			if (iac) {
+				expected.write(0xFF);
+			}
+		}
+		File file = new File(dir, "dense.dat");
+		write(file, content);
+		final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+		final int[] writes = { 0, 0 };
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			FileContent.send(channel, 0, channel.size(), new FileContent.Sink() {
+				public void write(MappedByteBuffer window, int start, int end, long position) {
+					writes[0]++;
+					for (int i = start; i < end; i++) {
+						sent.write(window.get(i));
+					}
+				}
+
+				public void write(ByteBuffer content) {
+					writes[1]++;
+					sent.write(content.array(), content.position(), content.remaining());
+				}
+			});
+		} finally {
+			channel.close();
+		}
+		assertArrayEquals(expected.toByteArray(), sent.toByteArray());
+		assertEquals("Regions of the text chunk", 8, writes[0]);
+		assertEquals("Copied chunks", 3, writes[1]);
+	}
+
+	@Test
+	public void testCatOverTheSocket() throws Exception {
+		// larger than the high water mark of the NIO sessions, with a few IAC
+		byte[] content = new byte[600 * 1024];
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 1000 == 999 ? 0xFF : 'a' + i % 26);
+			expected.write(content[i]);
+			if (content[i] == (byte) 0xFF) {
+				expected.write(0xFF);
+			}
+		}
+		File file = new File(dir, "big.dat");
+		write(file, content);
+		String prompt = dir.getPath() + "> ";
+		expected.write((TelnetClient.LINE_SEPARATOR + prompt).getBytes("UTF-8"));
+
+		for (int i = 0; i < 3; i++) {
+			TelnetServer server = new TelnetServer(PORT + i, i == 2 ? ServerMode.NIO : ServerMode.BLOCKING);
+			if (i == 0) {
+				// accepted sockets without a channel, the content is copied to the stream
+				server.setReusePort(false);
+			} else if (i == 1) {
+				if (!ReusePort.isSupported()) {
+					continue;
+				}
+				// accepted sockets with a channel, the content is sent with sendfile
+				server.setAcceptors(2);
+				server.setReusePort(true);
+			}
+			server.start();
+			Socket socket = new Socket("127.0.0.1", PORT + i);
+			try {
+				InputStream in = socket.getInputStream();
+				OutputStream out = socket.getOutputStream();
+				readUntil(in, System.getProperty("user.dir") + "> ");
+				out.write(("cd " + dir.getPath() + "\r\n").getBytes("UTF-8"));
+				readUntil(in, prompt);
+				out.write("cat big.dat\r\n".getBytes("UTF-8"));
+				assertArrayEquals("Mode " + i, expected.toByteArray(), readUntil(in, prompt));
+			} finally {
+				socket.close();
+				server.shutDown();
+			}
+		}
+	}
+
+	@Test
+	public void testTailFollow() throws Exception {
+		File file = new File(dir, "app.log");
+		write(file, "started\n".getBytes("UTF-8"));
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = PORT + 3 + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			server.start();
+			Socket socket = new Socket("127.0.0.1", port);
+			try {
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				out.print("tail -f " + file.getPath() + "\r\n");
+				out.flush();
+				assertNotNull(mode + ": last lines", readLine(in, "started"));
+				append(file, mode + " appended\n");
+				assertNotNull(mode + ": appended", readLine(in, mode + " appended"));
+				// the next command ends the follow and runs
+				out.print("pwd\r\n");
+				out.flush();
+				assertNotNull(mode + ": next command", readLine(in, "> " + System.getProperty("user.dir")));
+			} finally {
+				socket.close();
+				server.shutDown();
+			}
+		}
+	}
+
+	private static byte[] readUntil(InputStream in, String suffix) throws IOException {
+		byte[] end = suffix.getBytes("UTF-8");
+		// last bytes received
+		byte[] last = new byte[end.length];
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			received.write(b);
+			System.arraycopy(last, 1, last, 0, last.length - 1);
+			last[last.length - 1] = (byte) b;
+			if (received.size() >= end.length && Arrays.equals(last, end)) {
+				break;
+			}
+		}
+		return received.toByteArray();
+	}
+
+	private static String readLine(BufferedReader in, String text) throws IOException {
+		String line = null;
+		while ((line = in.readLine()) != null) {
+			if (line.contains(text)) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private static void write(File file, byte[] content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void append(File file, String text) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}
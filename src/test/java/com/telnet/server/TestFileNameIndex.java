@@ -0,0 +1,156 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestFileNameIndex {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TelnetServer server = null;
+	private FileNameIndex index = null;
+	private File root = null;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TelnetServer();
+		root = folder.newFolder("root").getCanonicalFile();
+		// root/docs/Report-2019.txt, root/docs/notes.md, root/src/report.log, root/src/main/Main.java
+		createFile(new File(root, "docs/Report-2019.txt"));
+		createFile(new File(root, "docs/notes.md"));
+		createFile(new File(root, "src/report.log"));
+		createFile(new File(root, "src/main/Main.java"));
+		index = new FileNameIndex(Collections.singletonList(root.toPath()));
+		index.start();
+		server.setFileNameIndex(index);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (index.isBuilding() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		// no listening socket to close
+		index.close();
+	}
+
+	@Test
+	public void testLocate() {
+		TelnetClient client = new TelnetClient(server);
+		assertEquals(new File(root, "src/report.log") + "\n1 found\n", client.performTelnetCommand("locate report"));
+		assertEquals("Ignoring the case", new File(root, "docs/Report-2019.txt") + "\n" + new File(root, "src/report.log") + "\n2 found\n",
+				client.performTelnetCommand("locate -i REPORT"));
+		assertEquals("Glob on the whole name", new File(root, "docs/Report-2019.txt") + "\n1 found\n", client.performTelnetCommand("locate *.txt"));
+		assertEquals("Short pattern", new File(root, "docs/notes.md") + "\n1 found\n", client.performTelnetCommand("locate .m"));
+		assertEquals("Directories", new File(root, "src/main") + "\n1 found\n", client.performTelnetCommand("locate mai?"));
+		assertEquals("0 found\n", client.performTelnetCommand("locate nothing-like-it"));
+		assertEquals("Missing pattern - locate [-i] [-n <COUNT>] <PATTERN>", client.performTelnetCommand("locate -i"));
+		assertEquals("Invalid count 'x'", client.performTelnetCommand("locate -n x report"));
+	}
+
+	@Test
+	public void testLimit() {
+		String reply = new TelnetClient(server).performTelnetCommand("locate -n 1 -i report");
+		assertEquals(new File(root, "docs/Report-2019.txt") + "\n-- 1 more, narrow the pattern or use -n --\n2 found\n", reply);
+	}
+
+	@Test
+	public void testMkdirIndexedAtOnce() {
+		TelnetClient client = new TelnetClient(server);
+		client.setCurrentWorkingDirectory(root.getPath());
+		assertEquals("", client.performTelnetCommand("mkdir archive/2020/march"));
+		assertEquals("Parents created as well", new File(root, "archive/2020") + "\n1 found\n", client.performTelnetCommand("locate 2020"));
+		assertEquals(new File(root, "archive/2020/march") + "\n1 found\n", client.performTelnetCommand("locate march"));
+	}
+
+	@Test
+	public void testWatchedChanges() throws Exception {
+		TelnetClient client = new TelnetClient(server);
+		createFile(new File(root, "docs/added-later.txt"));
+		assertEquals(new File(root, "docs/added-later.txt") + "\n1 found\n", waitFor(client, "locate added-later", "1 found\n"));
+
+		new File(root, "src/main/Main.java").delete();
+		new File(root, "src/main").delete();
+		assertEquals("Deleted", "0 found\n", waitFor(client, "locate Main", "0 found\n"));
+		assertEquals(new File(root, "src/report.log") + "\n1 found\n", client.performTelnetCommand("locate report"));
+	}
+
+	@Test
+	public void testDirectoryMovedAway() throws Exception {
+		int before = index.getEntries();
+		File dir = new File(root, "build");
+		for (int i = 0; i < 20; i++) {
+			createFile(new File(dir, "classes/Class" + i + ".class"));
+		}
+		index.changed(dir.toPath());
+		assertEquals("Directory, subdirectory and files added", before + 22, index.getEntries());
+
+		assertTrue(dir.renameTo(folder.newFolder("elsewhere").toPath().resolve("build").toFile()));
+		index.changed(dir.toPath());
+		assertEquals("Everything below the directory counted as deleted", before, index.getEntries());
+		List<String> paths = new ArrayList<String>();
+		assertEquals(0, index.locate("Class1", false, 10, paths));
+	}
+
+	@Test
+	public void testManyNames() throws Exception {
+		// past the initial capacity of the arrays and hash tables
+		for (int i = 0; i < 3000; i++) {
+			createFile(new File(root, "many/d" + (i % 30) + "/file-" + i + ".dat"));
+		}
+		index.rebuild();
+		long deadline = System.currentTimeMillis() + 10000;
+		List<String> paths = new ArrayList<String>();
+		while (System.currentTimeMillis() < deadline) {
+			paths.clear();
+			if (index.locate("file-", false, 5000, paths) == 3000) {
+				break;
+			}
+			Thread.sleep(10);
+		}
+		assertEquals("All indexed", 3000, paths.size());
+		paths.clear();
+		assertEquals(1, index.locate("file-1234.dat", false, 10, paths));
+		assertEquals(new File(root, "many/d4/file-1234.dat").getPath(), paths.get(0));
+		paths.clear();
+		assertEquals("Glob", 100, index.locate("file-1??4.dat", false, 10, paths));
+		assertEquals("Limited", 10, paths.size());
+		assertTrue("Entries " + index.getEntries(), index.getEntries() >= 3000 + 30);
+	}
+
+	@Test
+	public void testDisabled() {
+		TelnetServer plain = new TelnetServer();
+		assertEquals("The file name index is disabled, start the server with -Dtelnet.server.indexRoots=<DIRECTORIES>",
+				new TelnetClient(plain).performTelnetCommand("locate report"));
+	}
+
+	private static String waitFor(TelnetClient client, String command, String suffix) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		String reply = client.performTelnetCommand(command);
+		while (!reply.endsWith(suffix) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			reply = client.performTelnetCommand(command);
+		}
+		return reply;
+	}
+
+	private static void createFile(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		file.createNewFile();
+	}
+}
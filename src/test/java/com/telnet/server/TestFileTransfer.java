@@ -0,0 +1,192 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestFileTransfer {
+
+	// blocking, blocking with SO_REUSEPORT channels, NIO, then the resume and protocol tests
+	private static final int PORT = 12368;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File dir = null;
+	private byte[] content = null;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = folder.newFolder("files").getCanonicalFile();
+		// a few chunks and a partial one, with IAC bytes which must not be doubled
+		content = new byte[3 * FileTransfer.CHUNK_SIZE + 12345];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i % 1000 == 999 ? 0xFF : i * 31);
+		}
+		Files.write(new File(dir, "remote.dat").toPath(), content);
+	}
+
+	@Test
+	public void testCrc32c() throws Exception {
+		ByteBuffer check = ByteBuffer.wrap("123456789".getBytes("US-ASCII"));
+		assertEquals(0xE3069283, Crc32c.checksum(check));
+		assertEquals("Table", 0xE3069283, Crc32c.checksumWithTable(check));
+		assertEquals("Position unchanged", 0, check.position());
+		ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+		direct.put(content).flip();
+		assertEquals(Crc32c.checksumWithTable(ByteBuffer.wrap(content)), Crc32c.checksum(direct));
+	}
+
+	@Test
+	public void testErrors() {
+		TelnetClient client = new TelnetClient(new TelnetServer());
+		client.setCurrentWorkingDirectory(dir.getPath());
+		assertEquals("-ERR Transfers need a connected session", client.performTelnetCommand("get remote.dat"));
+		assertEquals("-ERR Transfers need a connected session", client.performTelnetCommand("put new.dat 10"));
+		assertEquals("-ERR Missing file name - get <FILE_NAME> [<OFFSET>]", client.performTelnetCommand("get"));
+		assertEquals("-ERR Missing file name or size - put <FILE_NAME> <SIZE> [<OFFSET>]", client.performTelnetCommand("put new.dat"));
+		assertEquals("-ERR Invalid offset 'x'", client.performTelnetCommand("get remote.dat x"));
+		assertEquals("-ERR Invalid size '-1'", client.performTelnetCommand("put new.dat -1"));
+		assertEquals("-ERR nowhere.dat - either it is not a file or it does not exist", client.performTelnetCommand("get nowhere.dat"));
+		assertEquals("-ERR . - is a directory", client.performTelnetCommand("put . 10"));
+		assertEquals("-ERR missing/new.dat - the directory does not exist", client.performTelnetCommand("put missing/new.dat 10"));
+	}
+
+	@Test
+	public void testGetAndPut() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			TelnetServer server = new TelnetServer(PORT + i, i == 2 ? ServerMode.NIO : ServerMode.BLOCKING);
+			if (i == 0) {
+				// accepted sockets without a channel, the chunks are copied to the stream
+				server.setReusePort(false);
+			} else if (i == 1) {
+				if (!ReusePort.isSupported()) {
+					continue;
+				}
+				// accepted sockets with a channel, the chunks are sent with sendfile
+				server.setAcceptors(2);
+				server.setReusePort(true);
+			}
+			server.start();
+			FileTransferClient client = new FileTransferClient("127.0.0.1", PORT + i);
+			try {
+				File local = new File(dir, "local-" + i + ".dat");
+				assertEquals(content.length, client.get(new File(dir, "remote.dat").getPath(), local));
+				assertArrayEquals("Mode " + i + " get", content, Files.readAllBytes(local.toPath()));
+				File uploaded = new File(dir, "uploaded-" + i + ".dat");
+				assertEquals(content.length, client.put(local, uploaded.getPath(), 0));
+				assertArrayEquals("Mode " + i + " put", content, Files.readAllBytes(uploaded.toPath()));
+				// the session is back at the prompt, an empty file
+				File empty = new File(dir, "empty-" + i + ".dat");
+				Files.write(empty.toPath(), new byte[0]);
+				assertEquals(0, client.put(empty, new File(dir, "empty-copy-" + i + ".dat").getPath(), 0));
+				assertEquals(0, new File(dir, "empty-copy-" + i + ".dat").length());
+			} finally {
+				client.close();
+				server.shutDown();
+			}
+		}
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		TelnetServer server = new TelnetServer(PORT + 3, ServerMode.BLOCKING);
+		server.start();
+		FileTransferClient client = new FileTransferClient("127.0.0.1", PORT + 3);
+		try {
+			File local = new File(dir, "partial.dat");
+			Files.write(local.toPath(), Arrays.copyOf(content, 300000));
+			assertEquals("The rest only", content.length - 300000, client.get(new File(dir, "remote.dat").getPath(), local));
+			assertArrayEquals(content, Files.readAllBytes(local.toPath()));
+
+			File uploaded = new File(dir, "uploaded.dat");
+			Files.write(uploaded.toPath(), Arrays.copyOf(content, FileTransfer.CHUNK_SIZE + 7));
+			assertEquals(content.length - FileTransfer.CHUNK_SIZE - 7, client.put(local, uploaded.getPath(), FileTransfer.CHUNK_SIZE + 7));
+			assertArrayEquals(content, Files.readAllBytes(uploaded.toPath()));
+
+			try {
+				client.put(local, uploaded.getPath(), content.length + 1);
+				fail("Offset beyond the file");
+			} catch (IOException ioe) {
+				assertTrue(ioe.getMessage(), ioe.getMessage().startsWith("-ERR Offset " + (content.length + 1) + " beyond"));
+			}
+		} finally {
+			client.close();
+			server.shutDown();
+		}
+	}
+
+	@Test
+	public void testCrcMismatch() throws Exception {
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = PORT + 4 + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			server.start();
+			Socket socket = new Socket("127.0.0.1", port);
+			try {
+				InputStream in = socket.getInputStream();
+				OutputStream out = socket.getOutputStream();
+				out.write(("put " + new File(dir, "damaged.dat").getPath() + " 20\r\n").getBytes("UTF-8"));
+				readUntil(in, "+TRANSFER PUT 20 0 " + FileTransfer.CHUNK_SIZE + " " + FileTransfer.WINDOW + "\n");
+				ByteBuffer chunk = ByteBuffer.wrap("first ten!".getBytes("UTF-8"));
+				out.write(FileTransfer.header(FileTransfer.DATA, 10, 0, Crc32c.checksum(chunk)).array());
+				out.write(chunk.array());
+				DataInputStream frames = new DataInputStream(in);
+				assertEquals(FileTransfer.ACK, frames.readByte());
+				assertEquals(0, frames.readInt());
+				assertEquals(10, frames.readLong());
+				frames.readInt();
+				out.write(FileTransfer.header(FileTransfer.DATA, 10, 10, 12345).array());
+				out.write("second ten".getBytes("UTF-8"));
+				assertEquals(mode + ": ERROR frame", FileTransfer.ERROR, frames.readByte());
+				frames.skipBytes(frames.readInt() + 12);
+				out.write(FileTransfer.header(FileTransfer.END, 0, 20, 0).array());
+				String reply = new String(readUntil(in, "> "), "UTF-8");
+				assertTrue(mode + ": " + reply, reply.startsWith("-ERR CRC32C mismatch of the chunk at offset 10, 10 bytes kept, resume with offset 10"));
+				assertArrayEquals("first ten!".getBytes("UTF-8"), Files.readAllBytes(new File(dir, "damaged.dat").toPath()));
+				// back to the commands
+				out.write("pwd\r\n".getBytes("UTF-8"));
+				assertEquals(System.getProperty("user.dir") + "\n" + System.getProperty("user.dir") + "> ",
+						new String(readUntil(in, System.getProperty("user.dir") + "> "), "UTF-8"));
+			} finally {
+				socket.close();
+				server.shutDown();
+				new File(dir, "damaged.dat").delete();
+			}
+		}
+	}
+
+	private static byte[] readUntil(InputStream in, String suffix) throws IOException {
+		byte[] end = suffix.getBytes("UTF-8");
+		// last bytes received
+		byte[] last = new byte[end.length];
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			received.write(b);
+			System.arraycopy(last, 1, last, 0, last.length - 1);
+			last[last.length - 1] = (byte) b;
+			if (received.size() >= end.length && Arrays.equals(last, end)) {
+				break;
+			}
+		}
+		return received.toByteArray();
+	}
+}
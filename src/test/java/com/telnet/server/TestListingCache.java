@@ -0,0 +1,97 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestListingCache {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ListingCache cache;
+	private Path dir;
+
+	@Before
+	public void setUp() throws Exception {
+		cache = new ListingCache();
+		folder.newFile("file1");
+		folder.newFolder("subdir");
+		dir = folder.getRoot().getCanonicalFile().toPath();
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	public void testHitAndMiss() {
+		String listing = cache.get(dir);
+		assertTrue("Listing should contain the file", listing.contains("_______ file1"));
+		assertTrue("Listing should contain the directory", listing.contains("<DIR>__ subdir"));
+		assertEquals("Misses", 1, cache.getMisses());
+
+		assertSame("Cached listing", listing, cache.get(dir));
+		assertEquals("Hits", 1, cache.getHits());
+		assertEquals("Cached directories", 1, cache.getCachedDirectories());
+	}
+
+	@Test
+	public void testWatchInvalidation() throws Exception {
+		String listing = cache.get(dir);
+		new File(folder.getRoot(), "file2").createNewFile();
+		for (int i = 0; i < 300 && cache.getInvalidations() == 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals("Watch service should invalidate the listing", 1, cache.getInvalidations());
+		String updated = cache.get(dir);
+		assertTrue("Listing should be reloaded", updated != listing && updated.contains("file2"));
+	}
+
+	@Test
+	public void testMkdirInvalidatesParent() throws Exception {
+		TelnetServer server = new TelnetServer();
+		TelnetClient client = new TelnetClient(server);
+		client.setCurrentWorkingDirectory(dir.toString());
+		assertTrue("Listing", !client.performTelnetCommand("ls").contains("newdir"));
+
+		assertEquals("mkdir should succeed", "", client.performTelnetCommand("mkdir newdir"));
+		assertTrue("Listing should be updated right away", client.performTelnetCommand("ls").contains("<DIR>__ newdir"));
+		server.getListingCache().close();
+	}
+
+	@Test
+	public void testLargeDirectoryIsNotCached() {
+		cache.setMaxEntriesPerDirectory(1);
+		assertNull("Directory is too large", cache.get(dir));
+		assertNull("Directory is too large", cache.get(dir));
+		assertEquals("Hits", 0, cache.getHits());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		Path other = folder.newFolder("other").getCanonicalFile().toPath();
+		new File(other.toFile(), "a").createNewFile();
+		// each listing weighs its entries + 1
+		cache.setMaxEntries(4);
+		cache.get(dir);
+		cache.get(other);
+		assertEquals("Eldest directory should be evicted", 1, cache.getEvictions());
+		assertEquals("Cached directories", 1, cache.getCachedDirectories());
+
+		cache.setMaxEntries(0);
+		assertNull("Cache disabled", cache.get(dir));
+		assertEquals("Cached directories", 0, cache.getCachedDirectories());
+	}
+}
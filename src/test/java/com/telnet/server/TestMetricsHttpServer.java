@@ -0,0 +1,71 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMetricsHttpServer {
+
+	private TelnetServer server;
+	private MetricsHttpServer http;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TelnetServer();
+		http = new MetricsHttpServer(server, 0);
+		http.start();
+	}
+
+	@After
+	public void tearDown() {
+		http.stop();
+		server.getListingCache().close();
+	}
+
+	@Test
+	public void testScrape() throws Exception {
+		server.getMetrics().commandExecuted(new CommandLine().parse("ls"), 400000);
+		server.getMetrics().connectionAccepted();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + http.getPort() + "/metrics").openConnection();
+		assertEquals("Status", 200, connection.getResponseCode());
+		assertEquals("Content type", MetricsHttpServer.CONTENT_TYPE, connection.getContentType());
+		String body = read(connection.getInputStream());
+
+		assertTrue("Counter", body.contains("# TYPE telnet_connections_accepted counter\n"));
+		assertTrue("Counter sample", body.contains("\ntelnet_connections_accepted_total 1\n"));
+		assertTrue("Gauge", body.contains("\ntelnet_sessions_active 0\n"));
+		assertTrue("Bucket below", body.contains("telnet_command_duration_seconds_bucket{command=\"ls\",le=\"0.00025\"} 0\n"));
+		assertTrue("Bucket above", body.contains("telnet_command_duration_seconds_bucket{command=\"ls\",le=\"0.0005\"} 1\n"));
+		assertTrue("Count", body.contains("telnet_command_duration_seconds_count{command=\"ls\"} 1\n"));
+		assertTrue("Sum", body.contains("telnet_command_duration_seconds_sum{command=\"ls\"} 0.0004\n"));
+		assertTrue("Session histogram", body.contains("telnet_session_duration_seconds_bucket{le=\"+Inf\"} 0\n"));
+		assertTrue("JVM", body.contains("jvm_memory_used_bytes{area=\"heap\"}"));
+		assertTrue("Terminated", body.endsWith("# EOF\n"));
+	}
+
+	@Test
+	public void testUnknownPath() throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + http.getPort() + "/other").openConnection();
+		assertEquals("Status", 404, connection.getResponseCode());
+	}
+
+	private String read(InputStream in) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count = 0;
+		while ((count = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, count);
+		}
+		in.close();
+		return new String(bytes.toByteArray(), "UTF-8");
+	}
+}
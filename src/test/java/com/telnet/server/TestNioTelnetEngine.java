@@ -0,0 +1,141 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.junit.Test;
+
+public class TestNioTelnetEngine {
+
+	private static final int PORT = 12346;
+	// one port per mode, a port closed by the blocking server is released asynchronously
+	private static final int PIPELINING_PORT = 12350;
+
+	@Test
+	public void testCommandOverNio() throws Exception {
+		TelnetServer server = new TelnetServer(PORT, ServerMode.NIO);
+		server.setWorkerThreads(2);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+		String cwd = System.getProperty("user.dir");
+		out.println("pwd");
+		String line = readUntil(in, cwd + "> ");
+		assertNotNull("Prompt should be received", line);
+		assertEquals("pwd should return the current working directory", cwd + "> " + cwd, line);
+		assertEquals("Number of connections", 1, server.getNumberOfConnections());
+
+		out.println("quit");
+		assertEquals("Connection should be closed by the server", -1, socket.getInputStream().read());
+		waitForConnections(server, 0);
+		assertEquals("Number of connections", 0, server.getNumberOfConnections());
+
+		socket.close();
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+	}
+
+	@Test
+	public void testCommandsAreRepliedInOrder() throws Exception {
+		TelnetServer server = new TelnetServer(PORT, ServerMode.NIO);
+		server.setWorkerThreads(4);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+		// All commands in one write
+		out.print("cd /\r\npwd\r\ncd " + System.getProperty("user.dir") + "\r\npwd\r\n");
+		out.flush();
+		assertNotNull("Root should be printed first", readUntil(in, "/> /"));
+		assertNotNull("Working directory should be printed next", readUntil(in, System.getProperty("user.dir") + "> " + System.getProperty("user.dir")));
+
+		socket.close();
+		waitForConnections(server, 0);
+		assertEquals("Disconnected client should be released", 0, server.getNumberOfConnections());
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+	}
+
+	@Test
+	public void testPipelinedScriptStopsAtQuit() throws Exception {
+		String root = new File("/").getCanonicalPath();
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			TelnetServer server = new TelnetServer(PIPELINING_PORT + mode.ordinal(), mode);
+			server.start();
+
+			Socket socket = new Socket("127.0.0.1", PIPELINING_PORT + mode.ordinal());
+			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+			// whole script in one write, nothing after quit may run
+			out.print("cd /\r\npwd\r\nquit\r\ncd " + System.getProperty("user.dir") + "\r\npwd\r\n");
+			out.flush();
+			assertNotNull(mode + ": pipelined pwd should be replied", readUntil(in, root + "> " + root));
+			assertEquals(mode + ": only the prompt follows", root + "> ", in.readLine());
+			assertEquals(mode + ": connection should be closed at quit", null, in.readLine());
+
+			socket.close();
+			waitForConnections(server, 0);
+			assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+		}
+	}
+
+	@Test
+	public void testServerAcceptFailedBecauseMaxConnReached() throws Exception {
+		TelnetServer server = new TelnetServer(PORT, ServerMode.NIO);
+		server.setMaxConnections(0);
+		server.getAdmissionController().setQueueSize(0);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		assertEquals("Max connection reached message should be recieved", "Too many users", in.readLine());
+		socket.close();
+
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+	}
+
+	@Test
+	public void testDecodeLines() throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		NioTelnetClient client = new NioTelnetClient(mock(TelnetServer.class), null, channel, "SomeUUID");
+
+		assertFalse("Partial line", client.decode(ByteBuffer.wrap("pw".getBytes())));
+		assertTrue("Line ends with CR", client.decode(ByteBuffer.wrap("d\r".getBytes())));
+		// LF of the CRLF split across reads must not produce an empty line
+		assertFalse("Only LF of CRLF", client.decode(ByteBuffer.wrap("\n".getBytes())));
+		assertTrue("Line ends with LF", client.decode(ByteBuffer.wrap("ls\n\n".getBytes())));
+		channel.close();
+	}
+
+	private String readUntil(BufferedReader in, String prefix) throws IOException {
+		String line = null;
+		while ((line = in.readLine()) != null) {
+			if (line.startsWith(prefix)) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private void waitForConnections(TelnetServer server, int expected) throws InterruptedException {
+		for (int i = 0; i < 100 && server.getNumberOfConnections() != expected; i++) {
+			Thread.sleep(20);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class TestServerMetrics {
+
+	private static final int PORT = 12352;
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals("Empty", 0, histogram.getPercentile(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals("Count", 1000, histogram.getCount());
+		assertEquals("Max", 1000000, histogram.getMax());
+		assertEquals("Mean", 500500, histogram.getMean());
+		long p50 = histogram.getPercentile(50);
+		assertTrue("p50 within 12.5% " + p50, p50 >= 500000 && p50 <= 562500);
+		long p99 = histogram.getPercentile(99);
+		assertTrue("p99 within 12.5% " + p99, p99 >= 990000 && p99 <= 1000000);
+		assertEquals("p100 is the max", 1000000, histogram.getPercentile(100));
+
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals("Negative values count as 0", 0, histogram.getPercentile(0));
+		assertEquals("Largest value", Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testCommandVerbs() {
+		ServerMetrics metrics = new ServerMetrics();
+		CommandLine line = new CommandLine();
+		metrics.commandExecuted(line.parse("LS -n 5"), 1000);
+		metrics.commandExecuted(line.parse("cd /"), 2000);
+		metrics.commandExecuted(line.parse("rm -rf /"), 3000);
+		metrics.commandExecuted(line.parse("   "), 4000);
+		metrics.commandExecuted(line.parse("tail -n 5 log.txt"), 5000);
+		metrics.commandExecuted(line.parse("locate *.txt"), 6000);
+
+		assertEquals("ls is case insensitive", 1, metrics.getCommandLatencies("ls").getCount());
+		assertEquals("cd", 1, metrics.getCommandLatencies("cd").getCount());
+		assertEquals("tail", 1, metrics.getCommandLatencies("tail").getCount());
+		assertEquals("locate", 1, metrics.getCommandLatencies("locate").getCount());
+		assertEquals("Unknown words are counted together", 1, metrics.getCommandLatencies(ServerMetrics.OTHER).getCount());
+		assertNull("Not tracked", metrics.getCommandLatencies("rm"));
+		assertEquals("Empty lines are not commands", 5, metrics.getCommandCount());
+		assertTrue("Table", metrics.formatCommandLatencies().contains("mkdir"));
+	}
+
+	@Test
+	public void testDefaultVerbsFollowTheRegistry() {
+		ServerMetrics metrics = new ServerMetrics();
+		for (String verb : CommandRegistry.getDefault().getNames()) {
+			assertNotNull("Tracked " + verb, metrics.getCommandLatencies(verb));
+		}
+		for (String verb : new String[] { "tree", "du", "find", "locate", "cat", "head", "tail", "get", "put" }) {
+			assertNotNull("Tracked " + verb, metrics.getCommandLatencies(verb));
+		}
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		TelnetServer server = new TelnetServer(PORT);
+		server.start();
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.telnet.server:type=TelnetServer,port=" + PORT);
+		assertTrue("Registered on start", mbeans.isRegistered(name));
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		String cwd = System.getProperty("user.dir");
+		out.print("pwd\r\n");
+		out.flush();
+		String line = null;
+		while ((line = in.readLine()) != null && !line.equals(cwd + "> " + cwd)) {
+		}
+		assertEquals("Active sessions", 1, mbeans.getAttribute(name, "ActiveSessions"));
+		assertEquals("Commands", 1L, mbeans.getAttribute(name, "CommandCount"));
+		assertEquals("Accepted", 1L, mbeans.getAttribute(name, "AcceptedConnections"));
+		assertEquals("Bytes received", 5L, mbeans.getAttribute(name, "BytesReceived"));
+		assertTrue("Bytes sent", (Long) mbeans.getAttribute(name, "BytesSent") > cwd.length());
+		assertTrue("Latencies", ((String) mbeans.getAttribute(name, "CommandLatencies")).contains("pwd"));
+
+		out.print("quit\r\n");
+		out.flush();
+		assertEquals("Connection should be closed", -1, socket.getInputStream().read());
+		for (int i = 0; i < 100 && server.getMetrics().getSessionDurations().getCount() == 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals("Session duration", 1, server.getMetrics().getSessionDurations().getCount());
+		socket.close();
+
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+		assertFalse("Unregistered on shut down", mbeans.isRegistered(name));
+	}
+}
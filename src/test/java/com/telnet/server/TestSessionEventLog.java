@@ -0,0 +1,112 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestSessionEventLog {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testEvents() throws Exception {
+		File file = folder.newFile("events.log");
+		SessionEventLog log = new SessionEventLog(file.toPath(), 16, SessionEventLog.Policy.DROP);
+		log.connected("s1", InetAddress.getByName("127.0.0.1"));
+		log.commandExecuted("s1", "mkdir \"a\\b\"", TimeUnit.MICROSECONDS.toNanos(42));
+		log.error("s1", new IOException("Connection reset"));
+		log.disconnected("s1", TimeUnit.SECONDS.toNanos(2));
+		log.close();
+
+		List<String> lines = read(file);
+		assertEquals("Lines " + lines, 4, lines.size());
+		assertTrue(lines.get(0), lines.get(0).matches("\\{\"time\":\"[0-9T:.\\-]+Z\",\"event\":\"connect\",\"session\":\"s1\",\"address\":\"127.0.0.1\"\\}"));
+		assertTrue(lines.get(1), lines.get(1).endsWith("\"event\":\"command\",\"session\":\"s1\",\"command\":\"mkdir \\\"a\\\\b\\\"\",\"micros\":42}"));
+		assertTrue(lines.get(2), lines.get(2).endsWith("\"error\":\"java.io.IOException: Connection reset\"}"));
+		assertTrue(lines.get(3), lines.get(3).endsWith("\"event\":\"disconnect\",\"session\":\"s1\",\"micros\":2000000}"));
+		assertEquals("Written", 4, log.getWritten());
+		assertEquals("Dropped", 0, log.getDropped());
+	}
+
+	@Test
+	public void testControlCharactersAndLongCommand() throws Exception {
+		File file = folder.newFile("events.log");
+		SessionEventLog log = new SessionEventLog(file.toPath(), 16, SessionEventLog.Policy.DROP);
+		StringBuilder longLine = new StringBuilder("cd ");
+		for (int i = 0; i < 1000; i++) {
+			longLine.append('x');
+		}
+		log.commandExecuted("s1", "ls\t-n\u0001", 0);
+		log.commandExecuted("s1", longLine.toString(), 0);
+		log.close();
+
+		List<String> lines = read(file);
+		assertTrue(lines.get(0), lines.get(0).contains("\"command\":\"ls\\u0009-n\\u0001\""));
+		assertTrue("Cut " + lines.get(1).length(), lines.get(1).length() < 400);
+		assertTrue(lines.get(1), lines.get(1).contains("xxx...\""));
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		File file = folder.newFile("events.log");
+		SessionEventLog log = new SessionEventLog(file.toPath(), 2, SessionEventLog.Policy.DROP);
+		int events = 20000;
+		for (int i = 0; i < events; i++) {
+			log.commandExecuted("s1", "pwd", i);
+		}
+		log.close();
+		assertEquals("Every event written or counted", events, log.getWritten() + log.getDropped());
+		assertEquals("Lines", log.getWritten(), read(file).size());
+	}
+
+	@Test
+	public void testBlockWhenFull() throws Exception {
+		File file = folder.newFile("events.log");
+		final SessionEventLog log = new SessionEventLog(file.toPath(), 4, SessionEventLog.Policy.BLOCK);
+		final int events = 1000;
+		Thread[] sessions = new Thread[4];
+		for (int t = 0; t < sessions.length; t++) {
+			final String session = "s" + t;
+			sessions[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < events; i++) {
+						log.commandExecuted(session, "ls", i);
+					}
+				}
+			});
+			sessions[t].start();
+		}
+		for (Thread session : sessions) {
+			session.join(10000);
+		}
+		log.close();
+		assertEquals("Dropped", 0, log.getDropped());
+		assertEquals("Lines", events * sessions.length, read(file).size());
+	}
+
+	@Test
+	public void testClosed() throws Exception {
+		File file = folder.newFile("events.log");
+		SessionEventLog log = new SessionEventLog(file.toPath(), 16, SessionEventLog.Policy.BLOCK);
+		log.close();
+		log.connected("s1", null);
+		assertEquals("Dropped after close", 1, log.getDropped());
+		assertEquals("Lines", 0, read(file).size());
+	}
+
+	private List<String> read(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+	}
+}
@@ -0,0 +1,175 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Compares the platform thread and the virtual thread modes: the rate at which sessions are accepted
+ * and served their first prompt, then the cost of the idle sessions, the threads and the resident
+ * memory they add and the heap retained after a settled GC. The admission limits are raised to the
+ * number of sessions and the connections are opened by a few client threads, so the listen backlog
+ * never overflows and the rate is the one of the server. Skipped unless run with
+ * -Dtelnet.loadtest=true, the number of sessions is set with -Dtelnet.loadtest.sessions (default
+ * 1000), e.g.
+ * <pre>mvn test -Dtest=TestSessionModeLoad -Dtelnet.loadtest=true -Dtelnet.loadtest.sessions=5000</pre>
+ */
+public class TestSessionModeLoad {
+
+	private static final int PORT = 12348;
+	// connections being opened at a time, below the default listen backlog of 50
+	private static final int CONNECTING_THREADS = 16;
+
+	@Test
+	public void testPlatformThreadSessions() throws Exception {
+		assumeTrue(Boolean.getBoolean("telnet.loadtest"));
+		runLoad(ServerMode.BLOCKING);
+	}
+
+	@Test
+	public void testVirtualThreadSessions() throws Exception {
+		assumeTrue(Boolean.getBoolean("telnet.loadtest"));
+		assumeTrue(VirtualThreads.isSupported());
+		runLoad(ServerMode.VIRTUAL);
+	}
+
+	private void runLoad(ServerMode mode) throws Exception {
+		int sessions = Integer.getInteger("telnet.loadtest.sessions", 1000);
+		TelnetServer server = new TelnetServer(PORT, mode);
+		AdmissionController admission = server.getAdmissionController();
+		admission.setMaxConnections(sessions);
+		admission.setMaxConnectionsPerAddress(0);
+		admission.setQueueSize(sessions);
+		admission.setMaxHeapUsagePercent(0);
+		admission.setMaxCpuLoadPercent(0);
+
+		long heapBefore = usedHeap();
+		long rssBefore = residentSetSize();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		server.start();
+
+		List<Socket> clients = new ArrayList<Socket>(sessions);
+		ExecutorService connecting = Executors.newFixedThreadPool(CONNECTING_THREADS);
+		try {
+			List<Future<Socket>> connected = new ArrayList<Future<Socket>>(sessions);
+			long start = System.nanoTime();
+			for (int i = 0; i < sessions; i++) {
+				connected.add(connecting.submit(new Callable<Socket>() {
+					public Socket call() throws IOException {
+						Socket client = new Socket("127.0.0.1", PORT);
+						// a session is served once its prompt has been received
+						readPrompt(client.getInputStream());
+						return client;
+					}
+				}));
+			}
+			for (Future<Socket> client : connected) {
+				clients.add(client.get());
+			}
+			long elapsed = System.nanoTime() - start;
+			// the client threads are not counted with the sessions
+			connecting.shutdown();
+			connecting.awaitTermination(10, TimeUnit.SECONDS);
+
+			long heap = usedHeap() - heapBefore;
+			long rss = residentSetSize() - rssBefore;
+			int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+			assertEquals("All sessions should be connected", sessions, server.getNumberOfConnections());
+
+			System.out.println(String.format("%-8s sessions=%d accepts/s=%.0f platformThreads=%d rss/session=%s heap/session=%dB",
+					mode, sessions, sessions / (elapsed / 1e9), threads, (rssBefore < 0 ? "n/a" : (rss / sessions) + "B"),
+					heap / sessions));
+		} finally {
+			connecting.shutdownNow();
+			for (Socket client : clients) {
+				client.close();
+			}
+			// let the sessions notice the disconnect before the server is stopped
+			for (int i = 0; i < 500 && server.getNumberOfConnections() > 0; i++) {
+				Thread.sleep(20);
+			}
+			server.shutDown();
+		}
+	}
+
+	private void readPrompt(InputStream in) throws IOException {
+		int previous = -1;
+		int b = -1;
+		while ((b = in.read()) != -1) {
+			if (previous == '>' && b == ' ') {
+				return;
+			}
+			previous = b;
+		}
+	}
+
+	/**
+	 * Heap in use once a full GC has settled, a single System.gc() is only a hint and the used heap
+	 * read right after it can still hold garbage
+	 * @return Used heap in bytes
+	 */
+	private long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			memory.gc();
+			Thread.sleep(50);
+			long current = memory.getHeapMemoryUsage().getUsed();
+			// settled when another collection no longer frees a noticeable amount
+			if (used - current < 64 * 1024) {
+				return Math.min(used, current);
+			}
+			used = current;
+		}
+		return used;
+	}
+
+	/**
+	 * Resident set size of the process on Linux, thread stacks are not part of the java heap
+	 * @return RSS in bytes or -1 if unknown
+	 */
+	private long residentSetSize() {
+		File status = new File("/proc/self/status");
+		if (!status.exists()) {
+			return -1;
+		}
+		BufferedReader r = null;
+		try {
+			r = new BufferedReader(new FileReader(status));
+			String line = null;
+			while ((line = r.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException e) {
+			// ignore
+		} finally {
+			try {
+				if (r != null) {
+					r.close();
+				}
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		return -1;
+	}
+}
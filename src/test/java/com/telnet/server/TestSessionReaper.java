@@ -0,0 +1,91 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+import org.junit.Test;
+
+public class TestSessionReaper {
+
+	// one port per mode, a port closed by the blocking server is released asynchronously
+	private static final int PORT = 12353;
+
+	@Test
+	public void testIdleSessionIsWarnedThenClosed() throws Exception {
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			TelnetServer server = new TelnetServer(PORT + mode.ordinal(), mode);
+			server.setIdleTimeoutMillis(600);
+			server.setTimeoutWarningMillis(300);
+			server.start();
+
+			Socket socket = new Socket("127.0.0.1", PORT + mode.ordinal());
+			socket.setSoTimeout(5000);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			String line = null;
+			while ((line = in.readLine()) != null && !line.startsWith("*** Idle")) {
+			}
+			assertTrue(mode + ": warning " + line, line != null && line.contains("will be closed"));
+			while ((line = in.readLine()) != null) {
+			}
+			socket.close();
+			for (int i = 0; i < 100 && server.getNumberOfConnections() > 0; i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(mode + ": connections", 0, server.getNumberOfConnections());
+			assertEquals(mode + ": reaped", 1, server.getReapedSessions());
+			assertEquals("Goodbye", server.shutDown());
+		}
+	}
+
+	@Test
+	public void testCommandKeepsSessionOpen() throws Exception {
+		TelnetServer server = new TelnetServer(PORT + 2);
+		server.setIdleTimeoutMillis(400);
+		server.setTimeoutWarningMillis(0);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT + 2);
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		String cwd = System.getProperty("user.dir");
+		for (int i = 0; i < 4; i++) {
+			Thread.sleep(200);
+			out.print("pwd\r\n");
+			out.flush();
+			String line = null;
+			while ((line = in.readLine()) != null && !line.equals(cwd + "> " + cwd)) {
+			}
+			assertEquals("Session still open after " + (i + 1) * 200 + "ms", cwd + "> " + cwd, line);
+		}
+		assertEquals("Not reaped", 0, server.getReapedSessions());
+		socket.close();
+		assertEquals("Goodbye", server.shutDown());
+	}
+
+	@Test
+	public void testMaxSessionTime() throws Exception {
+		TelnetServer server = new TelnetServer(PORT + 3);
+		server.setIdleTimeoutMillis(0);
+		server.setMaxSessionMillis(500);
+		server.setTimeoutWarningMillis(200);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT + 3);
+		socket.setSoTimeout(5000);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		String line = null;
+		while ((line = in.readLine()) != null && !line.startsWith("*** The session will be closed")) {
+		}
+		assertTrue("Warning", line != null);
+		while ((line = in.readLine()) != null && !line.startsWith("*** Sessions last at most")) {
+		}
+		assertTrue("Final notice", line != null);
+		socket.close();
+		assertEquals("Goodbye", server.shutDown());
+	}
+}
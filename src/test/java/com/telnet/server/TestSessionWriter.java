@@ -0,0 +1,81 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class TestSessionWriter {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testReadLine() throws Exception {
+		LineDecoder lines = new LineDecoder(UTF8);
+		ByteArrayInputStream in = new ByteArrayInputStream("pwd\r\nls\rcd ..".getBytes(UTF8));
+		assertEquals("First line", "pwd", lines.readLine(in));
+		assertTrue("Second line was read along with the first one", lines.hasLine());
+		assertEquals("Line ends with CR", "ls", lines.readLine(in));
+		assertFalse("Nothing complete waiting", lines.hasLine());
+		assertEquals("Unterminated last line", "cd ..", lines.readLine(in));
+		assertNull("End of stream", lines.readLine(in));
+	}
+
+	@Test
+	public void testSingleWrite() throws Exception {
+		final int[] writes = new int[1];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SessionWriter writer = new SessionWriter(new CountingStream(bytes, writes), UTF8);
+		writer.write("reply");
+		writer.write("\r\n");
+		writer.write("prompt> ");
+		assertEquals("Nothing written before flush", 0, bytes.size());
+		writer.flush();
+		assertEquals("Output", "reply\r\nprompt> ", new String(bytes.toByteArray(), UTF8));
+		assertEquals("Reply and prompt in one write", 1, writes[0]);
+	}
+
+	@Test
+	public void testGrowAndFlushAtThreshold() throws Exception {
+		final int[] writes = new int[1];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		SessionWriter writer = new SessionWriter(new CountingStream(bytes, writes), UTF8);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < SessionWriter.FLUSH_THRESHOLD + 100; i++) {
+			text.append(i % 2 == 0 ? 'a' : 'é');
+		}
+		writer.write(text);
+		assertTrue("Full buffer is written out", writes[0] > 0);
+		writer.flush();
+		assertEquals("Output", text.toString(), new String(bytes.toByteArray(), UTF8));
+	}
+
+	private static class CountingStream extends OutputStream {
+		private final ByteArrayOutputStream _out;
+		private final int[] _writes;
+
+		private CountingStream(ByteArrayOutputStream out, int[] writes) {
+			_out = out;
+			_writes = writes;
+		}
+
+		@Override
+		public void write(int b) {
+			_writes[0]++;
+			_out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			_writes[0]++;
+			_out.write(b, off, len);
+		}
+	}
+}
@@ -248,7 +248,7 @@ public class TestTelnetClient {
 		when(mockTS.clientDisconnected(new TelnetClient())).thenReturn(0);
 		
 		TelnetClient client = new TelnetClient(mockTS, emptySocket, "SomeUUID");
-		client.start();
+		new Thread(client).start();
 		
 		String reply = client.performTelnetCommand("quit");
 		assertEquals("Connection closed mesage should be recieved", "Connection closed", reply);
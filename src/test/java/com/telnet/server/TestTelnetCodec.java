@@ -0,0 +1,104 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTelnetCodec {
+
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+	private final static int IAC = TelnetCodec.IAC;
+
+	private ByteArrayOutputStream sent;
+	private int[] windowSize;
+	private TelnetCodec codec;
+	private LineDecoder lines;
+
+	@Before
+	public void setUp() {
+		sent = new ByteArrayOutputStream();
+		windowSize = new int[2];
+		codec = new TelnetCodec(new TelnetCodec.Listener() {
+			public void send(byte[] bytes) {
+				sent.write(bytes, 0, bytes.length);
+			}
+
+			public void windowSizeChanged(int width, int height) {
+				windowSize[0] = width;
+				windowSize[1] = height;
+			}
+		});
+		lines = new LineDecoder(UTF8, codec);
+	}
+
+	@Test
+	public void testCommandsAreRemovedFromLines() {
+		lines.decode(bytes('p', IAC, TelnetCodec.NOP, 'w', IAC, TelnetCodec.DO, TelnetCodec.SGA, 'd', '\r', '\n'));
+		assertEquals("Clean line", "pwd", lines.poll());
+		lines.decode(bytes('a', IAC, IAC, '\n'));
+		assertEquals("IAC IAC is a data byte", "a\uFFFD", lines.poll());
+	}
+
+	@Test
+	public void testNegotiation() {
+		lines.decode(bytes(IAC, TelnetCodec.DO, TelnetCodec.SGA, IAC, TelnetCodec.DO, TelnetCodec.ECHO,
+				IAC, TelnetCodec.WILL, TelnetCodec.NAWS, IAC, TelnetCodec.WILL, 24));
+		assertArrayEquals("Replies", bytes(IAC, TelnetCodec.WILL, TelnetCodec.SGA, IAC, TelnetCodec.WONT, TelnetCodec.ECHO,
+				IAC, TelnetCodec.DO, TelnetCodec.NAWS, IAC, TelnetCodec.DONT, 24).array(), sent.toByteArray());
+		assertTrue("SGA enabled", codec.isLocalEnabled(TelnetCodec.SGA));
+		assertFalse("ECHO refused", codec.isLocalEnabled(TelnetCodec.ECHO));
+
+		sent.reset();
+		lines.decode(bytes(IAC, TelnetCodec.DO, TelnetCodec.SGA, IAC, TelnetCodec.WONT, 24));
+		assertEquals("Enabled option and disabled option are not answered again", 0, sent.size());
+		lines.decode(bytes(IAC, TelnetCodec.DONT, TelnetCodec.SGA));
+		assertArrayEquals("Disabled", bytes(IAC, TelnetCodec.WONT, TelnetCodec.SGA).array(), sent.toByteArray());
+	}
+
+	@Test
+	public void testServerRequestsAreNotAnswered() {
+		codec.requestOptions();
+		lines.decode(bytes(IAC, TelnetCodec.DO, TelnetCodec.SGA, IAC, TelnetCodec.WILL, TelnetCodec.NAWS));
+		assertEquals("Acknowledgements need no reply", 0, sent.size());
+		assertTrue("NAWS enabled", codec.isRemoteEnabled(TelnetCodec.NAWS));
+	}
+
+	@Test
+	public void testWindowSizeSplitAcrossReads() {
+		lines.decode(bytes('l', IAC, TelnetCodec.SB, TelnetCodec.NAWS, 0, 80));
+		lines.decode(bytes(0, 24, IAC));
+		lines.decode(bytes(TelnetCodec.SE, 's', '\n'));
+		assertEquals("Width", 80, windowSize[0]);
+		assertEquals("Height", 24, windowSize[1]);
+		assertEquals("Line around the subnegotiation", "ls", lines.poll());
+	}
+
+	@Test
+	public void testEraseAndCrNul() {
+		ByteBuffer in = ByteBuffer.allocate(64);
+		in.put("cd \u00e9".getBytes(UTF8));
+		in.put(bytes(IAC, TelnetCodec.EC, 'x', '\r', 0));
+		in.put(bytes('p', 'w', IAC, TelnetCodec.EL, 'l', 's', '\r', 0));
+		in.flip();
+		lines.decode(in);
+		assertEquals("Erase character removes the whole UTF-8 sequence", "cd x", lines.poll());
+		assertEquals("Erase line, CR NUL ends a line", "ls", lines.poll());
+		assertFalse("No empty line for the NUL", lines.hasLine());
+	}
+
+	private ByteBuffer bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+}
@@ -1,8 +1,11 @@
 package com.telnet.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -12,17 +15,31 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.ConnectException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 public class TestTelnetServer {
+
+	// one port per mode, a port closed by the blocking server is released asynchronously
+	private static final int RESTART_PORT = 12357;
+	private static final int DRAIN_PORT = 12360;
+	private static final int ACCEPTORS_PORT = 12361;
+	private static final int REUSE_PORT_PORT = 12365;
 	
 	@Test
 	public void testListConnections() {
@@ -74,11 +91,9 @@ public class TestTelnetServer {
 	
 	@Test
 	public void testServerAcceptFailedBecauseMaxConnReached() throws IOException {
-		TelnetServer server = new TelnetServer(12345){
-			public int getNumberOfConnections() {
-				return 100;
-			}
-		};
+		TelnetServer server = new TelnetServer(12345);
+		server.setMaxConnections(0);
+		server.getAdmissionController().setQueueSize(0);
         server.start();
         
         String reply = "";
@@ -272,4 +287,155 @@ public class TestTelnetServer {
 		assertNotNull("OS should have some value", reply);
 	}
 	
+	@Test
+	public void testRestartHandsOverListeningSocket() throws Exception {
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = RESTART_PORT + mode.ordinal();
+			TelnetServer server = new TelnetServer(port, mode);
+			server.setDrainTimeoutMillis(5000);
+			server.start();
+			Socket first = new Socket("127.0.0.1", port);
+			BufferedReader firstIn = new BufferedReader(new InputStreamReader(first.getInputStream()));
+			PrintWriter firstOut = new PrintWriter(first.getOutputStream(), true);
+			assertEquals(mode + ": old server", "pwd", pwd(firstIn, firstOut));
+
+			assertEquals(mode + ": restart", "Restarted, draining 1 sessions", server.restart());
+			TelnetServer successor = server.getSuccessor();
+			assertNotNull(mode + ": successor", successor);
+			// shut down by the successor, the walk pool too although no walk has run yet
+			assertSame(mode + ": command executor", server.getCommandExecutor(), successor.getCommandExecutor());
+			assertSame(mode + ": walk pool", server.getWalkPool(), successor.getWalkPool());
+			String line = null;
+			while ((line = firstIn.readLine()) != null && !line.startsWith("*** The server is restarting")) {
+			}
+			assertNotNull(mode + ": notice", line);
+
+			// accepted by the new server on the same socket, the old session still works
+			Socket second = new Socket("127.0.0.1", port);
+			BufferedReader secondIn = new BufferedReader(new InputStreamReader(second.getInputStream()));
+			PrintWriter secondOut = new PrintWriter(second.getOutputStream(), true);
+			assertEquals(mode + ": new server", "pwd", pwd(secondIn, secondOut));
+			assertEquals(mode + ": new session", 1, successor.getNumberOfConnections());
+			assertEquals(mode + ": old session", "pwd", pwd(firstIn, firstOut));
+
+			firstOut.print("quit\r\n");
+			firstOut.flush();
+			assertEquals(mode + ": old session closed", -1, first.getInputStream().read());
+			for (int i = 0; i < 100 && server.getNumberOfConnections() > 0; i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(mode + ": drained", 0, server.getNumberOfConnections());
+			assertEquals(mode + ": metrics shared", 2, successor.getAcceptedConnections());
+
+			secondOut.print("quit\r\n");
+			secondOut.flush();
+			assertEquals(mode + ": new session closed", -1, second.getInputStream().read());
+			first.close();
+			second.close();
+			assertFalse(mode + ": running", successor.isShutDown());
+			assertEquals(mode + ": shutdown", "Goodbye", successor.shutDown());
+			assertTrue(mode + ": shut down", successor.isShutDown());
+		}
+	}
+
+	@Test
+	public void testDrainRefusesNewConnections() throws Exception {
+		final TelnetServer server = new TelnetServer(DRAIN_PORT);
+		server.setDrainTimeoutMillis(5000);
+		server.start();
+		Socket socket = new Socket("127.0.0.1", DRAIN_PORT);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertEquals("Session", "pwd", pwd(in, out));
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<String> drained = executor.submit(new Callable<String>() {
+			public String call() {
+				return server.drain();
+			}
+		});
+		String line = null;
+		while ((line = in.readLine()) != null && !line.startsWith("*** The server is shutting down")) {
+		}
+		assertNotNull("Notice", line);
+		try {
+			new Socket("127.0.0.1", DRAIN_PORT).close();
+			assertTrue("New connections should be refused", false);
+		} catch (ConnectException ce) {
+			// expected
+		}
+		assertFalse("Waits for the session", drained.isDone());
+		assertEquals("Session still works", "pwd", pwd(in, out));
+
+		out.print("quit\r\n");
+		out.flush();
+		assertEquals("Drain completes once the session is gone", "Goodbye", drained.get(2, TimeUnit.SECONDS));
+		socket.close();
+		executor.shutdown();
+	}
+
+	@Test
+	public void testSeveralAcceptors() throws Exception {
+		for (ServerMode mode : new ServerMode[] { ServerMode.BLOCKING, ServerMode.NIO }) {
+			int port = ACCEPTORS_PORT + mode.ordinal();
+			final TelnetServer server = new TelnetServer(port, mode);
+			server.setAcceptors(4);
+			server.setMaxConnections(6);
+			server.getAdmissionController().setQueueSize(0);
+			server.start();
+			assertEquals(mode + ": listening sockets", ReusePort.isSupported() ? 4 : 1, server.getListeningSockets());
+
+			// the connection budget is shared by all acceptors
+			List<Socket> sockets = new ArrayList<Socket>();
+			int sessions = 0;
+			for (int i = 0; i < 8; i++) {
+				Socket socket = new Socket("127.0.0.1", port);
+				sockets.add(socket);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				if (!"Too many users".equals(in.readLine())) {
+					sessions++;
+				}
+			}
+			assertEquals(mode + ": sessions", 6, sessions);
+			assertEquals(mode + ": registry", 6, server.getActiveConnections().size());
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+			assertEquals(mode + ": shutdown", "Goodbye", server.shutDown());
+		}
+	}
+
+	@Test
+	public void testNewServerListensBeforeTheOldOneDrains() throws Exception {
+		assumeTrue(ReusePort.isSupported());
+		TelnetServer old = new TelnetServer(REUSE_PORT_PORT);
+		old.start();
+		// as a new process would, with a single acceptor
+		TelnetServer replacement = new TelnetServer(REUSE_PORT_PORT);
+		replacement.start();
+		assertEquals("New server listening", 1, replacement.getListeningSockets());
+
+		assertEquals("Old server drained", "Goodbye", old.drain());
+		Socket socket = new Socket("127.0.0.1", REUSE_PORT_PORT);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		assertEquals("Served by the new server", "pwd", pwd(in, out));
+		assertEquals(1, replacement.getNumberOfConnections());
+		socket.close();
+		assertEquals("Goodbye", replacement.shutDown());
+	}
+
+	/**
+	 * Run pwd and wait for its reply
+	 * @return "pwd" if the working directory has been received
+	 */
+	private String pwd(BufferedReader in, PrintWriter out) throws IOException {
+		String cwd = System.getProperty("user.dir");
+		out.print("pwd\r\n");
+		out.flush();
+		String line = null;
+		while ((line = in.readLine()) != null && !line.equals(cwd + "> " + cwd)) {
+		}
+		return line == null ? null : "pwd";
+	}
 }
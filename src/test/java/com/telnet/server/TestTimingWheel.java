@@ -0,0 +1,90 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TestTimingWheel {
+
+	private TimingWheel wheel = new TimingWheel("test-wheel", 10, 8);
+
+	@After
+	public void tearDown() {
+		wheel.stop();
+	}
+
+	@Test
+	public void testOrder() throws Exception {
+		final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+		int[] delays = { 120, 0, 50 };
+		for (final int delay : delays) {
+			wheel.schedule(new Runnable() {
+				public void run() {
+					fired.add(delay);
+					done.countDown();
+				}
+			}, delay);
+		}
+		assertTrue("All timeouts fired", done.await(2, TimeUnit.SECONDS));
+		assertEquals("Fired by deadline", "[0, 50, 120]", fired.toString());
+	}
+
+	@Test
+	public void testNotBeforeDeadline() throws Exception {
+		final long start = System.nanoTime();
+		final long[] elapsed = new long[1];
+		final CountDownLatch done = new CountDownLatch(1);
+		// more than two turns of the wheel (8 x 10ms)
+		wheel.schedule(new Runnable() {
+			public void run() {
+				elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				done.countDown();
+			}
+		}, 200);
+		assertTrue("Fired", done.await(2, TimeUnit.SECONDS));
+		assertTrue("Not early " + elapsed[0], elapsed[0] >= 200);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		final CountDownLatch after = new CountDownLatch(1);
+		TimingWheel.Timeout timeout = wheel.schedule(new Runnable() {
+			public void run() {
+				cancelled.countDown();
+			}
+		}, 30);
+		wheel.schedule(new Runnable() {
+			public void run() {
+				after.countDown();
+			}
+		}, 60);
+		timeout.cancel();
+		assertTrue("Cancelled", timeout.isCancelled());
+		assertTrue("Later timeout fired", after.await(2, TimeUnit.SECONDS));
+		assertEquals("Cancelled timeout did not fire", 1, cancelled.getCount());
+	}
+
+	@Test
+	public void testRescheduleFromTask() throws Exception {
+		final CountDownLatch done = new CountDownLatch(3);
+		wheel.schedule(new Runnable() {
+			public void run() {
+				done.countDown();
+				if (done.getCount() > 0) {
+					wheel.schedule(this, 0);
+				}
+			}
+		}, 0);
+		assertTrue("Task rescheduled itself", done.await(2, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,149 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestTreeWalk {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TelnetServer server = null;
+	private File root = null;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new TelnetServer();
+		root = folder.newFolder("root");
+		// root/a/x.txt (1000), root/a/b/y.log (3000), root/c/z.txt (2048), root/top.txt (10)
+		createFile(new File(root, "a/x.txt"), 1000);
+		createFile(new File(root, "a/b/y.log"), 3000);
+		createFile(new File(root, "c/z.txt"), 2048);
+		createFile(new File(root, "top.txt"), 10);
+	}
+
+	@After
+	public void tearDown() {
+		// no listening socket to close
+		server.getWalkPool().shutdownNow();
+	}
+
+	@Test
+	public void testTree() {
+		String reply = new TelnetClient(server).performTelnetCommand("tree " + root.getPath());
+		assertEquals(root.getPath() + "\n"
+				+ "|-- a\n"
+				+ "|   |-- b\n"
+				+ "|   |   `-- y.log\n"
+				+ "|   `-- x.txt\n"
+				+ "|-- c\n"
+				+ "|   `-- z.txt\n"
+				+ "`-- top.txt\n"
+				+ "3 directories, 4 files\n", reply);
+
+		reply = new TelnetClient(server).performTelnetCommand("tree -d 1 " + root.getPath());
+		assertTrue(reply, reply.contains("|   `-- x.txt\n"));
+		assertTrue(reply, !reply.contains("y.log"));
+		assertTrue(reply, reply.endsWith("-- not walked below 1 levels --\n"));
+	}
+
+	@Test
+	public void testDu() {
+		String reply = new TelnetClient(server).performTelnetCommand("du " + root.getPath());
+		assertEquals("4K\t" + new File(root, "a") + "\n"
+				+ "2K\t" + new File(root, "c") + "\n"
+				+ "6K\t" + root + "\n", reply);
+
+		reply = new TelnetClient(server).performTelnetCommand("du -d 2 " + root.getPath());
+		assertTrue(reply, reply.startsWith("3K\t" + new File(root, "a/b") + "\n"));
+		reply = new TelnetClient(server).performTelnetCommand("du -d 0 " + root.getPath());
+		assertEquals("Total only", "6K\t" + root + "\n", reply);
+	}
+
+	@Test
+	public void testFind() {
+		TelnetClient client = new TelnetClient(server);
+		client.setCurrentWorkingDirectory(root.getPath());
+		String reply = client.performTelnetCommand("find *.txt");
+		assertTrue(reply, reply.contains(new File(root, "a/x.txt").getPath() + "\n"));
+		assertTrue(reply, reply.contains(new File(root, "c/z.txt").getPath() + "\n"));
+		assertTrue(reply, reply.contains(new File(root, "top.txt").getPath() + "\n"));
+		assertTrue(reply, reply.endsWith("3 found\n"));
+
+		reply = client.performTelnetCommand("find *.txt -d 0");
+		assertEquals("Depth limit", new File(root, "top.txt").getPath() + "\n1 found\n-- not walked below 0 levels --\n", reply);
+		assertEquals("Missing pattern - find <PATTERN> [-d <DEPTH>] [<DIRECTORY_NAME>]", client.performTelnetCommand("find"));
+		assertEquals("Invalid depth 'x'", client.performTelnetCommand("find *.txt -d x"));
+		assertEquals("nowhere - either it is not a directory or it does not exist", client.performTelnetCommand("find * nowhere"));
+	}
+
+	@Test
+	public void testParallelWalkKeepsOrder() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			for (int j = 0; j < 10; j++) {
+				createFile(new File(root, "d" + i + "/e" + j + "/f.txt"), i * j);
+			}
+		}
+		TelnetServer sequential = new TelnetServer();
+		sequential.setWalkParallelism(1);
+		server.setWalkParallelism(4);
+		try {
+			String expected = new TelnetClient(sequential).performTelnetCommand("tree " + root.getPath());
+			assertEquals(expected, new TelnetClient(server).performTelnetCommand("tree " + root.getPath()));
+			assertTrue(expected, expected.endsWith("223 directories, 204 files\n"));
+		} finally {
+			sequential.getWalkPool().shutdownNow();
+		}
+	}
+
+	@Test
+	public void testStreamed() throws Exception {
+		for (int i = 0; i < 400; i++) {
+			createFile(new File(root, "d" + (i % 4) + "/a-long-enough-file-name-" + i + ".txt"), 1);
+		}
+		String expected = new TelnetClient(server).performTelnetCommand("tree " + root.getPath());
+		final StringBuilder sent = new StringBuilder();
+		TelnetClient client = new TelnetClient(server) {
+			protected boolean isStreaming() {
+				return true;
+			}
+
+			protected void sendPartialReply(String text) {
+				sent.append(text);
+			}
+		};
+		String reply = client.performTelnetCommand("tree " + root.getPath());
+		assertTrue("Sent while walking", sent.length() >= DirectoryListing.CHUNK_SIZE);
+		assertEquals(expected, sent + reply);
+	}
+
+	@Test
+	public void testDisconnected() {
+		TelnetClient client = new TelnetClient(server) {
+			protected boolean isDisconnected() {
+				return true;
+			}
+		};
+		assertEquals("Walk abandoned", "", client.performTelnetCommand("du " + root.getPath()));
+	}
+
+	private static void createFile(File file, int size) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[size]);
+		} finally {
+			out.close();
+		}
+	}
+}
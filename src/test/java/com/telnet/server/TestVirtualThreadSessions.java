@@ -0,0 +1,61 @@
+package com.telnet.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+import org.junit.Test;
+
+public class TestVirtualThreadSessions {
+
+	private static final int PORT = 12347;
+
+	@Test
+	public void testCommandOnVirtualThread() throws Exception {
+		assumeTrue(VirtualThreads.isSupported());
+
+		TelnetServer server = new TelnetServer(PORT, ServerMode.VIRTUAL);
+		server.start();
+
+		Socket socket = new Socket("127.0.0.1", PORT);
+		PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+		String cwd = System.getProperty("user.dir");
+		out.println("pwd");
+		String line = null;
+		while ((line = in.readLine()) != null && !line.startsWith(cwd + "> ")) {
+			// skip welcome message
+		}
+		assertEquals("pwd should return the current working directory", cwd + "> " + cwd, line);
+		assertEquals("Number of connections", 1, server.getNumberOfConnections());
+
+		socket.close();
+		assertEquals("Server shutdown message should be recieved", "Goodbye", server.shutDown());
+	}
+
+	@Test
+	public void testUnsupportedJdk() {
+		assumeTrue(!VirtualThreads.isSupported());
+
+		boolean exceptionThrown = false;
+		try {
+			VirtualThreads.newVirtualThreadPerTaskExecutor();
+		} catch (UnsupportedOperationException e) {
+			exceptionThrown = true;
+		}
+		assertTrue("Exception should be receieved", exceptionThrown);
+	}
+
+	@Test
+	public void testParseMode() {
+		assertEquals("Mode should be parsed", ServerMode.VIRTUAL, ServerMode.parse("Virtual", ServerMode.BLOCKING));
+		assertEquals("Default mode should be returned", ServerMode.BLOCKING, ServerMode.parse("threads", ServerMode.BLOCKING));
+		assertEquals("Default mode should be returned", ServerMode.NIO, ServerMode.parse(null, ServerMode.NIO));
+	}
+}